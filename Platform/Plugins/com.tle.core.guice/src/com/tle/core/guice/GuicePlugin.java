@@ -41,6 +41,8 @@ import com.tle.core.plugins.AbstractPluginService;
 import com.tle.core.plugins.PluginBeanLocator;
 import com.tle.core.plugins.PrivatePluginBeanLocator;
 import com.tle.core.plugins.PrivatePluginService;
+import com.tle.core.plugins.StartupProfiler;
+import com.tle.core.plugins.StartupProfiler.Phase;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -242,6 +244,8 @@ public class GuicePlugin extends Plugin implements RegistryChangeListener {
       @Override
       protected Injector doWork() throws Exception {
         long start = System.currentTimeMillis();
+        StartupProfiler profiler = StartupProfiler.instance();
+        privatePluginService.ensureActivated(extension.getDeclaringPluginDescriptor());
         Iterable<URL> localClassPath = privatePluginService.getLocalClassPath(pluginId);
         final ClassLoader classLoader = privatePluginService.getClassLoader(pluginId);
         Collection<Parameter> params = extension.getParameters("class");
@@ -251,11 +255,15 @@ public class GuicePlugin extends Plugin implements RegistryChangeListener {
           modules.add(module);
         }
 
+        long scanStart = profiler.start();
         modules.add(
             new ScannerModule(
                 privatePluginService, classLoader, localClassPath, getBeanCheckers()));
+        profiler.record(pluginId, Phase.SCAN, "Scan " + pluginId, scanStart);
         modules.add(new Jsr250Module());
+        long injectorStart = profiler.start();
         injector = Guice.createInjector(new ExternalProviders(getDependents(), modules));
+        profiler.record(pluginId, Phase.INJECTOR, "Injector " + pluginId, injectorStart);
         long end = System.currentTimeMillis();
         LOGGER.info("Guice module for " + pluginId + " took:" + (end - start));
         return injector;
@@ -28,15 +28,19 @@ import com.google.inject.name.Names;
 import com.google.inject.util.Types;
 import com.tle.core.plugins.PluginService;
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -58,6 +62,12 @@ import org.objectweb.asm.Opcodes;
 
 @SuppressWarnings("nls")
 public class ScannerModule extends AbstractModule {
+  /**
+   * The classes to bind, one per line, relative to each code library. Written into the plugin jars
+   * by the build so that the classes don't need to be parsed at startup.
+   */
+  public static final String BINDING_INDEX = "META-INF/equella/bindings.idx";
+
   private static final String BIND_ANNOTATION = fullName(Bind.class);
   private static final String BINDINGS_ANNOTATION = fullName(Bindings.class);
   private static final String BINDFACTORY_ANNOTATION = fullName(BindFactory.class);
@@ -88,6 +98,9 @@ public class ScannerModule extends AbstractModule {
 
     try {
       for (URL url : localClassPath) {
+        if (readIndex(url)) {
+          continue;
+        }
         if (url.getProtocol().equals("file")) {
           File file = new File(url.toURI());
           visitFile(file);
@@ -103,6 +116,32 @@ public class ScannerModule extends AbstractModule {
     }
   }
 
+  /** @return false if the library has no index, and needs to be scanned */
+  private boolean readIndex(URL url) throws IOException {
+    URLConnection connection = new URL(url, BINDING_INDEX).openConnection();
+    // Don't hold on to the plugin jar
+    connection.setUseCaches(false);
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!line.isEmpty()) {
+          bindingClasses.add(line);
+        }
+      }
+      return true;
+    } catch (FileNotFoundException e) {
+      return false;
+    }
+  }
+
+  /** @return the classes to bind, from the index or found by scanning */
+  List<String> getBindingClasses() {
+    return bindingClasses;
+  }
+
   private void visitJar(URL url) throws IOException, URISyntaxException {
     String pathName = url.getPath();
     int pathInd = pathName.lastIndexOf('!');
@@ -0,0 +1,152 @@
+package com.tle.core.guice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** The binding index written by the build and the scan ScannerModule falls back to agree */
+@SuppressWarnings("nls")
+public class ScannerModuleTest {
+  private static final List<Class<?>> FIXTURES =
+      Arrays.<Class<?>>asList(
+          BoundService.class, MultiBoundService.class, ServiceFactory.class, Unbound.class);
+
+  private File root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("scanner").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> walk = Files.walk(root.toPath())) {
+      walk.sorted(Collections.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testIndexMatchesScan() throws IOException {
+    // Written by the build from the test classes, see build.sbt
+    List<String> index = new ArrayList<String>();
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                ScannerModuleTest.class.getResourceAsStream("/bindings-test.idx"),
+                StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        index.add(line);
+      }
+    }
+    URL testClasses = ScannerModuleTest.class.getProtectionDomain().getCodeSource().getLocation();
+
+    List<String> scanned = bindingClasses(testClasses);
+    assertTrue(scanned.containsAll(expected()));
+    assertEquals(scanned, index);
+  }
+
+  @Test
+  public void testDirectoryWithoutIndexScanned() throws IOException {
+    File classes = new File(root, "classes");
+    for (Class<?> fixture : FIXTURES) {
+      File file = new File(classes, classFile(fixture));
+      file.getParentFile().mkdirs();
+      Files.write(file.toPath(), classBytes(fixture));
+    }
+    assertEquals(expected(), bindingClasses(classes.toURI().toURL()));
+  }
+
+  @Test
+  public void testJarWithoutIndexScanned() throws IOException {
+    assertEquals(expected(), bindingClasses(pluginJar(null)));
+  }
+
+  @Test
+  public void testJarIndexUsedInsteadOfScan() throws IOException {
+    // Listing only one class shows the others weren't found by scanning
+    String index = BoundService.class.getName() + "\n\n";
+    assertEquals(
+        Collections.singletonList(BoundService.class.getName()), bindingClasses(pluginJar(index)));
+  }
+
+  /** A jar laid out the way writeJars packages a plugin's code */
+  private URL pluginJar(String index) throws IOException {
+    File jar = new File(root, "plugin.jar");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (Class<?> fixture : FIXTURES) {
+        out.putNextEntry(new ZipEntry("classes/" + classFile(fixture)));
+        out.write(classBytes(fixture));
+      }
+      if (index != null) {
+        out.putNextEntry(new ZipEntry("classes/" + ScannerModule.BINDING_INDEX));
+        out.write(index.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return new URL("jar:" + jar.toURI() + "!/classes/");
+  }
+
+  private static List<String> bindingClasses(URL library) {
+    List<String> classes =
+        new ArrayList<String>(
+            new ScannerModule(
+                    null, null, Collections.singletonList(library), Collections.emptyList())
+                .getBindingClasses());
+    Collections.sort(classes);
+    return classes;
+  }
+
+  private static List<String> expected() {
+    List<String> expected =
+        Arrays.asList(
+            BoundService.class.getName(),
+            MultiBoundService.class.getName(),
+            ServiceFactory.class.getName());
+    Collections.sort(expected);
+    return expected;
+  }
+
+  private static String classFile(Class<?> clazz) {
+    return clazz.getName().replace('.', '/') + ".class";
+  }
+
+  private static byte[] classBytes(Class<?> clazz) throws IOException {
+    try (InputStream in = clazz.getResourceAsStream('/' + classFile(clazz))) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  @Bind
+  static class BoundService {}
+
+  @Bindings({@Bind, @Bind(Object.class)})
+  static class MultiBoundService {}
+
+  @BindFactory
+  interface ServiceFactory {
+    BoundService create();
+  }
+
+  static class Unbound {}
+}
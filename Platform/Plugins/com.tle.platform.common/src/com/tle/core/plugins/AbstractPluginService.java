@@ -181,12 +181,26 @@ public abstract class AbstractPluginService extends PluginClassResolver implemen
     return getClassLoader(desc);
   }
 
+  /**
+   * Plugins are activated from the bean locator pool at startup. JPF only locks the activation
+   * itself, not the checks of its plugin state before it, so this takes the same lock around the
+   * lot.
+   */
   @Override
   public void ensureActivated(PluginDescriptor plugin) {
-    try {
-      pluginManager.activatePlugin(plugin.getId());
-    } catch (PluginLifecycleException e) {
-      throw new RuntimeException(e);
+    synchronized (pluginManager) {
+      try {
+        String pluginId = plugin.getId();
+        if (pluginManager.isPluginActivated(plugin)) {
+          return;
+        }
+        StartupProfiler profiler = StartupProfiler.instance();
+        long start = profiler.start();
+        pluginManager.activatePlugin(pluginId);
+        profiler.record(pluginId, StartupProfiler.Phase.ACTIVATE, "Activate " + pluginId, start);
+      } catch (PluginLifecycleException e) {
+        throw new RuntimeException(e);
+      }
     }
   }
 
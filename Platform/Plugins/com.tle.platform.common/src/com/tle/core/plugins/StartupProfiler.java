@@ -0,0 +1,214 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.plugins;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Records how long each plugin spends in each phase of server startup, so the slowest plugins can
+ * be listed in the log and a whole startup can be exported as a trace and compared between
+ * releases. Spans may be recorded from any thread.
+ *
+ * <p>Phases can nest, e.g. activating a plugin will activate its prerequisites and building an
+ * injector will activate the plugin first, so a plugin's total is only a rough guide to what it
+ * costs on its own.
+ */
+@SuppressWarnings("nls")
+public final class StartupProfiler {
+  public enum Phase {
+    /** Activating the JPF plugin, including any prerequisites that weren't active */
+    ACTIVATE,
+    /** Scanning the plugin's classes for bound beans */
+    SCAN,
+    /** Creating the plugin's Guice injector */
+    INJECTOR,
+    /** Running the plugin's startup beans */
+    INITIALISER
+  }
+
+  private static final StartupProfiler INSTANCE = new StartupProfiler(System::nanoTime);
+
+  /** Nanoseconds, as from {@link System#nanoTime()} */
+  private final LongSupplier clock;
+
+  private final long origin;
+  private final Queue<Span> spans = new ConcurrentLinkedQueue<Span>();
+
+  StartupProfiler(LongSupplier clock) {
+    this.clock = clock;
+    this.origin = clock.getAsLong();
+  }
+
+  public static StartupProfiler instance() {
+    return INSTANCE;
+  }
+
+  /** @return the start time to pass to {@link #record} once the work is done */
+  public long start() {
+    return clock.getAsLong();
+  }
+
+  public void record(String pluginId, Phase phase, String name, long start) {
+    long end = clock.getAsLong();
+    String thread = Thread.currentThread().getName();
+    spans.add(new Span(pluginId, phase, name, thread, start - origin, end - start));
+  }
+
+  /**
+   * A table of the plugins that took the longest to start, with the time spent in each phase.
+   *
+   * @param limit the maximum number of plugins to list
+   */
+  public String report(int limit) {
+    final Map<String, Map<Phase, Long>> totals = new HashMap<String, Map<Phase, Long>>();
+    long last = 0;
+    for (Span span : spans) {
+      Map<Phase, Long> phases = totals.get(span.pluginId);
+      if (phases == null) {
+        phases = new EnumMap<Phase, Long>(Phase.class);
+        totals.put(span.pluginId, phases);
+      }
+      Long total = phases.get(span.phase);
+      phases.put(span.phase, (total == null ? 0 : total) + span.duration);
+      last = Math.max(last, span.start + span.duration);
+    }
+
+    List<String> pluginIds = new ArrayList<String>(totals.keySet());
+    Collections.sort(
+        pluginIds,
+        new Comparator<String>() {
+          @Override
+          public int compare(String p1, String p2) {
+            return Long.compare(sum(totals.get(p2)), sum(totals.get(p1)));
+          }
+        });
+
+    StringBuilder report = new StringBuilder();
+    report.append(
+        String.format(
+            "Startup of %d plugins took %dms, slowest first (ms):%n",
+            pluginIds.size(), millis(last)));
+    report.append(String.format("%-60s", "plugin"));
+    for (Phase phase : Phase.values()) {
+      report.append(String.format("%12s", phase.name().toLowerCase()));
+    }
+    report.append(String.format("%12s%n", "total"));
+    for (String pluginId : pluginIds.subList(0, Math.min(limit, pluginIds.size()))) {
+      Map<Phase, Long> phases = totals.get(pluginId);
+      report.append(String.format("%-60s", pluginId));
+      for (Phase phase : Phase.values()) {
+        Long total = phases.get(phase);
+        report.append(String.format("%12s", total == null ? "-" : millis(total)));
+      }
+      report.append(String.format("%12d%n", millis(sum(phases))));
+    }
+    return report.toString();
+  }
+
+  /**
+   * Writes every span in the Trace Event Format, which can be loaded into chrome://tracing or
+   * Perfetto to see which plugins were started on which threads and when.
+   */
+  public void writeTrace(Writer out) throws IOException {
+    Map<String, Integer> threadIds = new HashMap<String, Integer>();
+    out.write("{\"traceEvents\":[");
+    boolean first = true;
+    for (Span span : spans) {
+      Integer tid = threadIds.get(span.thread);
+      if (tid == null) {
+        tid = threadIds.size() + 1;
+        threadIds.put(span.thread, tid);
+        first = writeEvent(out, first, "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+        out.write(tid + ",\"args\":{\"name\":" + quote(span.thread) + "}}");
+      }
+      first = writeEvent(out, first, "{\"name\":" + quote(span.name));
+      out.write(",\"cat\":" + quote(span.phase.name().toLowerCase()));
+      out.write(",\"ph\":\"X\",\"pid\":1,\"tid\":" + tid);
+      out.write(",\"ts\":" + TimeUnit.NANOSECONDS.toMicros(span.start));
+      out.write(",\"dur\":" + TimeUnit.NANOSECONDS.toMicros(span.duration));
+      out.write(",\"args\":{\"plugin\":" + quote(span.pluginId) + "}}");
+    }
+    out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+    out.flush();
+  }
+
+  private static boolean writeEvent(Writer out, boolean first, String start) throws IOException {
+    out.write(first ? "\n" : ",\n");
+    out.write(start);
+    return false;
+  }
+
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < ' ') {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  private static long sum(Map<Phase, Long> phases) {
+    long total = 0;
+    for (Long duration : phases.values()) {
+      total += duration;
+    }
+    return total;
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static class Span {
+    final String pluginId;
+    final Phase phase;
+    final String name;
+    final String thread;
+    /** Nanoseconds since the profiler was created */
+    final long start;
+
+    final long duration;
+
+    Span(String pluginId, Phase phase, String name, String thread, long start, long duration) {
+      this.pluginId = pluginId;
+      this.phase = phase;
+      this.name = name;
+      this.thread = thread;
+      this.start = start;
+      this.duration = duration;
+    }
+  }
+}
@@ -112,15 +112,17 @@ public enum ArchiveType {
     @Override
     public ArchiveExtractor createExtractor(InputStream in, Charset charset) throws IOException {
       // Ignore charset - for ZIP only.
-      return createTarXZipExtractor(new GZIPInputStream(in));
+      return createTarXZipExtractor(new GZIPInputStream(in, GZIP_BUFFER_SIZE));
     }
 
     @Override
     public ArchiveCreator createArchiver(OutputStream archive) throws IOException {
-      return createTarXZipArchiver(new GZIPOutputStream(archive));
+      return createTarXZipArchiver(new GZIPOutputStream(archive, GZIP_BUFFER_SIZE));
     }
   };
 
+  private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
   private final String[] fileExtensions;
 
   ArchiveType(String... fileExtensions) {
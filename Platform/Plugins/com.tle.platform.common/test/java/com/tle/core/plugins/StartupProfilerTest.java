@@ -0,0 +1,76 @@
+package com.tle.core.plugins;
+
+import com.tle.core.plugins.StartupProfiler.Phase;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+@SuppressWarnings("nls")
+public class StartupProfilerTest extends TestCase {
+  private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+  private final StartupProfiler profiler = new StartupProfiler(clock::get);
+
+  public void testReportSlowestFirst() {
+    span("com.tle.fast", Phase.ACTIVATE, 5);
+    span("com.tle.slow", Phase.SCAN, 20);
+    span("com.tle.slow", Phase.INJECTOR, 30);
+    span("com.tle.medium", Phase.INITIALISER, 10);
+    span("com.tle.medium", Phase.INITIALISER, 15);
+
+    String[] lines = profiler.report(2).split("\\R");
+
+    assertEquals("Startup of 3 plugins took 80ms, slowest first (ms):", lines[0]);
+    assertEquals(
+        String.format(
+            "%-60s%12s%12s%12s%12s%12s",
+            "plugin",
+            "activate",
+            "scan",
+            "injector",
+            "initialiser",
+            "total"),
+        lines[1]);
+    assertEquals(
+        String.format("%-60s%12s%12s%12s%12s%12s", "com.tle.slow", "-", 20, 30, "-", 50),
+        lines[2]);
+    assertEquals(
+        String.format("%-60s%12s%12s%12s%12s%12s", "com.tle.medium", "-", "-", "-", 25, 25),
+        lines[3]);
+    // Only the slowest two are listed
+    assertEquals(4, lines.length);
+  }
+
+  public void testTrace() throws IOException {
+    span("com.tle.core.guice", Phase.ACTIVATE, 2);
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(3));
+    span("com.tle.\"quoted\"", Phase.INJECTOR, 4);
+
+    StringWriter out = new StringWriter();
+    profiler.writeTrace(out);
+
+    String thread = Thread.currentThread().getName();
+    assertEquals(
+        "{\"traceEvents\":[\n"
+            + "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,"
+            + "\"args\":{\"name\":\""
+            + thread
+            + "\"}},\n"
+            + "{\"name\":\"Test com.tle.core.guice\",\"cat\":\"activate\",\"ph\":\"X\","
+            + "\"pid\":1,\"tid\":1,\"ts\":0,\"dur\":2000,"
+            + "\"args\":{\"plugin\":\"com.tle.core.guice\"}},\n"
+            + "{\"name\":\"Test com.tle.\\\"quoted\\\"\",\"cat\":\"injector\",\"ph\":\"X\","
+            + "\"pid\":1,\"tid\":1,\"ts\":5000,\"dur\":4000,"
+            + "\"args\":{\"plugin\":\"com.tle.\\\"quoted\\\"\"}}\n"
+            + "],\"displayTimeUnit\":\"ms\"}\n",
+        out.toString());
+  }
+
+  /** Records a span that starts now and takes {@code millis} */
+  private void span(String pluginId, Phase phase, long millis) {
+    long start = profiler.start();
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    profiler.record(pluginId, phase, "Test " + pluginId, start);
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.beans;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.annotations.AccessType;
+
+/**
+ * The number of items currently waiting at a workflow task, i.e. the number of {@link TaskHistory}
+ * rows for the task without an exit date. Kept up to date as items enter and leave tasks so that
+ * the task trend portlets don't need to count the whole task history.
+ */
+@Entity
+@AccessType("field")
+public class TaskWaitingCount {
+  /** The ID of the WorkflowItem */
+  @Id private long taskId;
+
+  private long waiting;
+
+  public TaskWaitingCount() {}
+
+  public TaskWaitingCount(long taskId, long waiting) {
+    this.taskId = taskId;
+    this.waiting = waiting;
+  }
+
+  public long getTaskId() {
+    return taskId;
+  }
+
+  public void setTaskId(long taskId) {
+    this.taskId = taskId;
+  }
+
+  public long getWaiting() {
+    return waiting;
+  }
+
+  public void setWaiting(long waiting) {
+    this.waiting = waiting;
+  }
+}
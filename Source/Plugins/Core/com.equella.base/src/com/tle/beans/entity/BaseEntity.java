@@ -46,6 +46,8 @@ import javax.persistence.OneToOne;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
 import org.hibernate.annotations.Index;
@@ -53,6 +55,7 @@ import org.hibernate.annotations.Type;
 
 /** @author jmaginnis */
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @AccessType("field")
 @Inheritance(strategy = InheritanceType.JOINED)
 @Table(uniqueConstraints = {@UniqueConstraint(columnNames = {"institution_id", "uuid"})})
@@ -90,6 +93,7 @@ public class BaseEntity implements Serializable, FieldEquality<BaseEntity> {
   private LanguageBundle name;
 
   @JoinColumn
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.LAZY)
   @Fetch(value = FetchMode.SUBSELECT)
   @JoinTable(name = "BaseEntity_attributes")
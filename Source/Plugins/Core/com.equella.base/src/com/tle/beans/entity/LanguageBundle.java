@@ -42,12 +42,15 @@ import javax.persistence.SqlResultSetMapping;
 import javax.persistence.Transient;
 import org.hibernate.Hibernate;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
 import org.hibernate.annotations.NamedNativeQueries;
 import org.hibernate.annotations.NamedNativeQuery;
 
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @AccessType("property")
 @SqlResultSetMapping(
     name = "resultMap",
@@ -127,6 +130,7 @@ public class LanguageBundle implements Serializable, IdCloneable {
     this.id = id;
   }
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @OneToMany(cascade = CascadeType.ALL, mappedBy = "bundle")
   @Fetch(value = FetchMode.SELECT)
   @MapKey(name = "locale")
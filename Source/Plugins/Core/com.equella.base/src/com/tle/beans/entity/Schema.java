@@ -32,6 +32,8 @@ import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.Transient;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
@@ -43,9 +45,11 @@ public class Schema extends BaseEntity {
   @Transient private transient PropBagEx definition;
   @Transient private transient SchemaNode rootSchemaNode;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.LAZY)
   private List<SchemaTransform> expTransforms = new ArrayList<SchemaTransform>();
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.LAZY)
   private List<SchemaTransform> impTransforms = new ArrayList<SchemaTransform>();
 
@@ -54,6 +58,7 @@ public class Schema extends BaseEntity {
 
   @Lob private String serialisedDefinition;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.LAZY)
   @JoinColumn
   private List<Citation> citations = new ArrayList<Citation>();
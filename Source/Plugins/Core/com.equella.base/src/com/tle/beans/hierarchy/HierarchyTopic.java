@@ -49,6 +49,8 @@ import javax.persistence.ManyToOne;
 import javax.persistence.OneToOne;
 import javax.validation.constraints.Min;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Cascade;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
@@ -57,6 +59,7 @@ import org.hibernate.annotations.IndexColumn;
 
 /** @author Nicholas Read */
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @AccessType("field")
 public class HierarchyTopic
     implements TreeNodeInterface<HierarchyTopic>, FieldEquality<HierarchyTopic> {
@@ -79,6 +82,7 @@ public class HierarchyTopic
   @Index(name = "parentTopic")
   private HierarchyTopic parent;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ManyToMany(fetch = FetchType.LAZY)
   @IndexColumn(name = "list_position")
   private List<HierarchyTopic> allParents = new ArrayList<HierarchyTopic>();
@@ -105,18 +109,22 @@ public class HierarchyTopic
 
   private boolean inheritFreetext;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.LAZY)
   @Cascade(org.hibernate.annotations.CascadeType.ALL)
   private List<ItemDefinitionScript> addIdefs;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.LAZY)
   @Cascade(org.hibernate.annotations.CascadeType.ALL)
   private List<SchemaScript> addSchemas;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.LAZY)
   @Cascade(org.hibernate.annotations.CascadeType.ALL)
   private List<ItemDefinitionScript> inhIdefs;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.LAZY)
   @Cascade(org.hibernate.annotations.CascadeType.ALL)
   private List<SchemaScript> inhSchemas;
@@ -150,6 +158,7 @@ public class HierarchyTopic
   private Boolean hideSubtopicsWithNoResults = Boolean.TRUE;
 
   @JoinColumn
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.EAGER)
   @Fetch(value = FetchMode.SUBSELECT)
   @JoinTable(name = "HierarchyTopic_attributes")
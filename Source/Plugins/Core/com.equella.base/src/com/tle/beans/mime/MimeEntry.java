@@ -37,6 +37,8 @@ import javax.persistence.MapKeyColumn;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Index;
 import org.hibernate.annotations.MapKeyType;
 import org.hibernate.annotations.NamedQueries;
@@ -44,6 +46,7 @@ import org.hibernate.annotations.NamedQuery;
 import org.hibernate.annotations.Type;
 
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @AccessType("field")
 @Table(uniqueConstraints = @UniqueConstraint(columnNames = {"type", "institution_id"}))
 @NamedQueries({
@@ -70,6 +73,7 @@ public class MimeEntry {
   @Index(name = "mimeInstitutionIndex")
   private Institution institution;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "element", length = 20)
   private Collection<String> extensions = new ArrayList<String>();
@@ -80,6 +84,7 @@ public class MimeEntry {
   @Column(length = 512)
   private String description;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "element", nullable = false)
   @Lob
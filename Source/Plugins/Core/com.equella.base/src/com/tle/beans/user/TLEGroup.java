@@ -41,12 +41,15 @@ import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
 import org.hibernate.annotations.Index;
 import org.hibernate.annotations.IndexColumn;
 
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @AccessType("field")
 @Table(uniqueConstraints = {@UniqueConstraint(columnNames = {"uuid", "institution_id"})})
 public class TLEGroup implements TreeNodeInterface<TLEGroup>, FieldEquality<TLEGroup> {
@@ -69,6 +72,7 @@ public class TLEGroup implements TreeNodeInterface<TLEGroup>, FieldEquality<TLEG
   @Index(name = "parentGroup")
   private TLEGroup parent;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ManyToMany
   @IndexColumn(name = "list_position")
   private List<TLEGroup> allParents = new ArrayList<TLEGroup>();
@@ -78,6 +82,7 @@ public class TLEGroup implements TreeNodeInterface<TLEGroup>, FieldEquality<TLEG
   @ManyToOne(fetch = FetchType.LAZY)
   private Institution institution;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection(fetch = FetchType.LAZY)
   @Fetch(value = FetchMode.SUBSELECT)
   @Column(name = "element")
@@ -26,6 +26,8 @@ import com.tle.common.workflow.node.WorkflowTreeNode;
 import java.util.*;
 import javax.persistence.*;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 @Entity
 @AccessType("field")
@@ -34,6 +36,7 @@ public class Workflow extends BaseEntity {
 
   private boolean movelive;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @OneToMany(cascade = CascadeType.ALL, orphanRemoval = true)
   @JoinColumn(name = "workflow_id", nullable = false)
   private Set<WorkflowNode> nodes;
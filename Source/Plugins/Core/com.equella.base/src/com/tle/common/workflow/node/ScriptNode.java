@@ -33,6 +33,8 @@ import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.OneToOne;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Index;
 
 @Entity(name = "WorkflowScript")
@@ -50,6 +52,7 @@ public class ScriptNode extends WorkflowTreeNode {
   private boolean proceedNext;
   @Lob private String script;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "`user`", length = 255)
   @CollectionTable(
@@ -57,6 +60,7 @@ public class ScriptNode extends WorkflowTreeNode {
       joinColumns = @JoinColumn(name = "workflow_node_id"))
   private Set<String> usersNotifyOnCompletion;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "`group`", length = 255)
   @CollectionTable(
@@ -64,6 +68,7 @@ public class ScriptNode extends WorkflowTreeNode {
       joinColumns = @JoinColumn(name = "workflow_node_id"))
   private Set<String> groupsNotifyOnCompletion;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "`user`", length = 255)
   @CollectionTable(
@@ -71,6 +76,7 @@ public class ScriptNode extends WorkflowTreeNode {
       joinColumns = @JoinColumn(name = "workflow_node_id"))
   private Set<String> usersNotifyOnError;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "`group`", length = 255)
   @CollectionTable(
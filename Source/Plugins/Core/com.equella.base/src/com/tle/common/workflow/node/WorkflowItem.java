@@ -31,6 +31,8 @@ import javax.persistence.FetchType;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Index;
 
 @Entity
@@ -67,6 +69,7 @@ public class WorkflowItem extends WorkflowNode {
 
   private static final long serialVersionUID = 1;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "`user`", length = 255)
   @CollectionTable(
@@ -74,6 +77,7 @@ public class WorkflowItem extends WorkflowNode {
       joinColumns = @JoinColumn(name = "workflow_node_id"))
   private Set<String> users;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "`group`", length = 255)
   @CollectionTable(
@@ -81,6 +85,7 @@ public class WorkflowItem extends WorkflowNode {
       joinColumns = @JoinColumn(name = "workflow_node_id"))
   private Set<String> groups;
 
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "role", length = 255)
   @CollectionTable(
@@ -103,6 +108,7 @@ public class WorkflowItem extends WorkflowNode {
   private int actionDays;
 
   // Auto-assign based on steps
+  @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
   @ElementCollection
   @Column(name = "`task`", length = 40)
   @CollectionTable(
@@ -19,10 +19,18 @@
 package com.tle.core.application;
 
 import com.google.common.collect.Sets;
+import com.tle.common.Check;
 import com.tle.core.application.impl.PluginServiceImpl;
 import com.tle.core.plugins.AbstractPluginService.TLEPluginLocation;
 import com.tle.core.plugins.PluginTracker;
+import com.tle.core.plugins.StartupProfiler;
+import com.tle.core.plugins.StartupProfiler.Phase;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -36,6 +44,13 @@ import org.java.plugin.registry.ManifestInfo;
 public final class ApplicationStarter {
   private static final Log LOGGER = LogFactory.getLog(ApplicationStarter.class);
 
+  /** Set to true to build every plugin's beans at startup, several plugins at a time */
+  private static final String PARALLEL_STARTUP = "plugins.parallelStartup";
+  /** A file to write a trace of the plugin startup timings to */
+  private static final String STARTUP_TRACE = "plugins.startupTrace";
+
+  private static final int REPORTED_PLUGINS = 25;
+
   private static PluginTracker<StartupBean> startupTracker;
 
   private ApplicationStarter() {
@@ -68,9 +83,31 @@ public final class ApplicationStarter {
                 new PluginTracker.ExtensionParamComparator("order", true))
             .setBeanKey("bean");
 
+    if (Boolean.getBoolean(PARALLEL_STARTUP)) {
+      long start = System.currentTimeMillis();
+      pluginService.startAllBeanLocators();
+      LOGGER.info("Plugin beans took " + (System.currentTimeMillis() - start) + "ms");
+    }
+
     for (String type : types) {
       startRoles(type);
     }
+    reportStartup();
+  }
+
+  private static void reportStartup() {
+    StartupProfiler profiler = StartupProfiler.instance();
+    LOGGER.info(profiler.report(REPORTED_PLUGINS));
+
+    String trace = System.getProperty(STARTUP_TRACE);
+    if (!Check.isEmpty(trace)) {
+      try (Writer out = Files.newBufferedWriter(Paths.get(trace), StandardCharsets.UTF_8)) {
+        profiler.writeTrace(out);
+        LOGGER.info("Wrote startup trace to " + trace);
+      } catch (IOException e) {
+        LOGGER.warn("Couldn't write startup trace to " + trace, e);
+      }
+    }
   }
 
   private static final void startRoles(String type) {
@@ -84,7 +121,14 @@ public final class ApplicationStarter {
         long start = System.currentTimeMillis();
         LOGGER.info("Starting bean " + extension);
         StartupBean startupBean = startupTracker.getBeanByExtension(extension);
+        StartupProfiler profiler = StartupProfiler.instance();
+        long startupStart = profiler.start();
         startupBean.startup();
+        profiler.record(
+            extension.getDeclaringPluginDescriptor().getId(),
+            Phase.INITIALISER,
+            extension.getUniqueId(),
+            startupStart);
         long end = System.currentTimeMillis();
         LOGGER.info("Startup bean " + extension + " took " + (end - start) + "ms.");
       }
@@ -48,6 +48,9 @@ import sun.reflect.Reflection;
 public class PluginServiceImpl extends AbstractPluginService implements PrivatePluginService {
   private static final Log LOGGER = LogFactory.getLog(PluginServiceImpl.class);
 
+  /** Registers a bean locator for each plugin with a Guice module once it has started */
+  private static final String GUICE_PLUGIN_ID = "com.tle.core.guice"; // $NON-NLS-1$
+
   private final Map<String, PrivatePluginBeanLocator> lookups =
       new HashMap<String, PrivatePluginBeanLocator>();
 
@@ -157,6 +160,16 @@ public class PluginServiceImpl extends AbstractPluginService implements PrivateP
     ensureBeanLocators(locators);
   }
 
+  /**
+   * Builds the bean locators of every plugin up front, rather than as each one is first asked for.
+   * A plugin's locator is built on the locator pool as soon as the locators of the plugins it
+   * depends on are ready, so independent branches of the plugin graph are started side by side.
+   */
+  public void startAllBeanLocators() {
+    ensureActivated(pluginManager.getRegistry().getPluginDescriptor(GUICE_PLUGIN_ID));
+    ensureBeanLocators(new ArrayList<PrivatePluginBeanLocator>(lookups.values()));
+  }
+
   @SuppressWarnings("nls")
   @Override
   public void ensureBeanLocators(Collection<? extends PrivatePluginBeanLocator> beanLocators) {
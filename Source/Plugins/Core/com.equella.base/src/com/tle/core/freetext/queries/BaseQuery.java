@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 /** @author jmaginnis */
 public abstract class BaseQuery implements Serializable {
@@ -114,4 +115,21 @@ public abstract class BaseQuery implements Serializable {
   public FreeTextQuery getFreeTextQuery() {
     return null;
   }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(andFilters, not, and);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    } else if (obj == null || obj.getClass() != getClass()) {
+      return false;
+    } else {
+      BaseQuery rhs = (BaseQuery) obj;
+      return not == rhs.not && and == rhs.and && Objects.equals(andFilters, rhs.andFilters);
+    }
+  }
 }
@@ -26,6 +26,7 @@ import com.tle.common.i18n.CurrentLocale;
 import com.tle.common.util.TleDate;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Objects;
 
 /** @author jmaginnis */
 @NonNullByDefault
@@ -86,4 +87,21 @@ public class DateRangeQuery extends BaseQuery {
   public FreeTextQuery getFreeTextQuery() {
     return new FreeTextDateQuery(field, start, end, true, true);
   }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), field, start, end, displayName);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (!super.equals(obj)) {
+      return false;
+    }
+    DateRangeQuery rhs = (DateRangeQuery) obj;
+    return Objects.equals(field, rhs.field)
+        && Objects.equals(start, rhs.start)
+        && Objects.equals(end, rhs.end)
+        && Objects.equals(displayName, rhs.displayName);
+  }
 }
@@ -24,6 +24,7 @@ import com.tle.common.Utils;
 import com.tle.common.i18n.CurrentLocale;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Objects;
 
 /** @author jmaginnis */
 public class NodeInQuery extends NodeIsBlankQuery {
@@ -144,4 +145,18 @@ public class NodeInQuery extends NodeIsBlankQuery {
     }
     return or;
   }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), values, displayName);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!super.equals(obj)) {
+      return false;
+    }
+    NodeInQuery rhs = (NodeInQuery) obj;
+    return Objects.equals(values, rhs.values) && Objects.equals(displayName, rhs.displayName);
+  }
 }
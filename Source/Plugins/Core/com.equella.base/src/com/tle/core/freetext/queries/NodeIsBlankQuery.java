@@ -20,6 +20,7 @@ package com.tle.core.freetext.queries;
 
 import com.dytech.edge.queries.FreeTextQuery;
 import java.util.Collection;
+import java.util.Objects;
 
 /** @author jmaginnis */
 public class NodeIsBlankQuery extends BaseQuery {
@@ -54,4 +55,18 @@ public class NodeIsBlankQuery extends BaseQuery {
   public void setTokenise(boolean tokenise) {
     this.tokenise = tokenise;
   }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), not, fields, tokenise);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!super.equals(obj)) {
+      return false;
+    }
+    NodeIsBlankQuery rhs = (NodeIsBlankQuery) obj;
+    return not == rhs.not && tokenise == rhs.tokenise && Objects.equals(fields, rhs.fields);
+  }
 }
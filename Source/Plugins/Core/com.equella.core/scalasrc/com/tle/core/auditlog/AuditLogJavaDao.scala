@@ -18,7 +18,8 @@
 
 package com.tle.core.auditlog
 
-import java.time.Instant
+import java.sql.Timestamp
+import java.time.{LocalDate, ZoneId}
 import java.util
 import java.util.Date
 
@@ -29,18 +30,21 @@ import com.tle.common.filesystem.handle.SubTemporaryFile
 import com.tle.core.auditlog.convert.AuditLogEntryXml
 import com.tle.core.db.tables.{AuditLogEntry, AuditLogMeta}
 import com.tle.core.db.types.UserId
+import com.tle.core.db.migration.AuditLogPartitioning
 import com.tle.core.db.{DBSchema, RunWithDB}
 import com.tle.core.institution.convert.{DefaultMessageCallback, XmlHelper}
 import fs2.Stream
 import io.doolse.simpledba.WriteOp
 import io.doolse.simpledba.jdbc._
 import io.doolse.simpledba.syntax._
-import javax.servlet.http.HttpServletRequest
+import org.slf4j.LoggerFactory
 
 import scala.collection.JavaConverters._
 
 object AuditLogJavaDao {
 
+  val logger = LoggerFactory.getLogger(getClass)
+
   val queries = DBSchema.queries.auditLogQueries
 
   def executeAll(db: Stream[JDBCIO, WriteOp]): Unit =
@@ -52,85 +56,93 @@ object AuditLogJavaDao {
   def removeEntriesBeforeDate(date: Date): Unit =
     executeAll(queries.deleteBefore(date.toInstant))
 
-  def countForInstitution(institution: Institution): Long = RunWithDB.executeWithHibernate {
-    Kleisli.liftF(queries.countForInst(institution).compile.last.map(_.getOrElse(0)))
+  /**
+    * If the audit log is partitioned, drops the partitions which only hold entries from before the
+    * date and creates partitions for the coming months. Partitions are shared by every institution
+    * in the schema. Runs in its own transaction as some databases commit DDL immediately.
+    *
+    * @return the number of partitions dropped
+    */
+  def dropPartitionsBefore(date: Date): Int = {
+    val partitioning = DBSchema.schemaMigration.auditLogPartitioning
+    val log          = (sql: String) => logger.info(sql)
+    RunWithDB.execute(Kleisli.liftF(AuditLogPartitioning.withConnection { con =>
+      if (partitioning.isPartitioned(con)) {
+        partitioning.ensurePartitions(con, LocalDate.now(), log)
+        partitioning
+          .dropPartitionsBefore(con, date.toInstant.atZone(ZoneId.systemDefault()).toLocalDate, log)
+      } else 0
+    }))
   }
 
-  def log(userId: String,
-          sessionId: String,
-          category: String,
-          `type`: String,
-          d1: String,
-          d2: String,
-          d3: String,
-          d4: String,
-          institution: Institution): Unit =
-    logWithRequest(userId, sessionId, category, `type`, d1, d2, d3, d4, institution, null)
-
-  def logWithRequest(userId: String,
-                     sessionId: String,
-                     category: String,
-                     `type`: String,
-                     d1: String,
-                     d2: String,
-                     d3: String,
-                     d4: String,
-                     institution: Institution,
-                     request: HttpServletRequest): Unit = {
-    RunWithDB.executeWithHibernate(Kleisli { _ =>
-      queries
-        .insertNew(
-          id =>
-            AuditLogEntry(id,
-                          d1,
-                          d2,
-                          d3,
-                          Option(d4),
-                          category,
-                          `type`,
-                          sessionId,
-                          AuditLogMeta(referrer(request)),
-                          Instant.now(),
-                          UserId(userId),
-                          institution))
-        .compile
-        .drain
-    })
+  /**
+    * Whether entries from before the date have to be deleted row by row: always if the audit log
+    * table of the current schema isn't partitioned, otherwise only while they're in the partition
+    * the table became, which can't be dropped yet. Other old entries go when their month's
+    * partition is dropped.
+    */
+  def mustDeleteEntriesBefore(date: Date): Boolean = {
+    val partitioning = DBSchema.schemaMigration.auditLogPartitioning
+    val day          = date.toInstant.atZone(ZoneId.systemDefault()).toLocalDate
+    RunWithDB.executeWithHibernate(Kleisli.liftF(AuditLogPartitioning.withConnection { con =>
+      !partitioning.isPartitioned(con) || partitioning.mustDeleteLegacyEntries(con, day)
+    }))
   }
 
-  def referrer(req: HttpServletRequest): Option[String] =
-    Option(req).flatMap(r => Option(r.getHeader("Referer")))
-
-  def logHttp(category: String,
-              `type`: String,
-              d1: String,
-              d2: String,
-              d3: String,
-              d4: String,
-              request: HttpServletRequest): Unit = {
-    RunWithDB.executeWithHibernate(Kleisli { uc =>
-      queries
-        .insertNew(
-          id =>
-            AuditLogEntry(
-              id,
-              d1,
-              d2,
-              d3,
-              Option(d4),
-              category,
-              `type`,
-              uc.user.getSessionID,
-              AuditLogMeta(referrer(request)),
-              Instant.now(),
-              UserId(uc.user.getUserBean.getUniqueID),
-              uc.inst
-          ))
-        .compile
-        .drain
-    })
+  def countForInstitution(institution: Institution): Long = RunWithDB.executeWithHibernate {
+    Kleisli.liftF(queries.countForInst(institution).compile.last.map(_.getOrElse(0)))
   }
 
+  def logEntry(entry: PendingAuditLogEntry): Unit =
+    RunWithDB.executeWithHibernate(Kleisli.liftF(insert(entry).compile.drain))
+
+  /**
+    * Inserts the entries in order as a single JDBC batch in one transaction. Used by the async
+    * writer, so it runs outside of Hibernate.
+    */
+  def logAll(entries: java.util.Collection[PendingAuditLogEntry]): Unit =
+    RunWithDB.execute(Kleisli.liftF(AuditLogPartitioning.withConnection { con =>
+      val stmt = con.prepareStatement(DBSchema.schema.insertAuditLogBatchSQL)
+      try {
+        entries.asScala.foreach { entry =>
+          stmt.setString(1, entry.getData1)
+          stmt.setString(2, entry.getData2)
+          stmt.setString(3, entry.getData3)
+          stmt.setString(4, entry.getData4)
+          stmt.setString(5, entry.getCategory)
+          stmt.setString(6, entry.getType)
+          stmt.setString(7, entry.getSessionId)
+          stmt.setString(8, AuditLogMeta.iso.to(AuditLogMeta(Option(entry.getReferrer))).orNull)
+          stmt.setTimestamp(9, Timestamp.from(entry.getTimestamp))
+          stmt.setString(10, entry.getUserId)
+          stmt.setLong(11, entry.getInstitution.getDatabaseId)
+          stmt.addBatch()
+        }
+        stmt.executeBatch()
+      } finally {
+        stmt.close()
+      }
+    }))
+
+  private def insert(entry: PendingAuditLogEntry): Stream[JDBCIO, AuditLogEntry] =
+    queries
+      .insertNew(
+        id =>
+          AuditLogEntry(
+            id,
+            entry.getData1,
+            entry.getData2,
+            entry.getData3,
+            Option(entry.getData4),
+            entry.getCategory,
+            entry.getType,
+            entry.getSessionId,
+            AuditLogMeta(Option(entry.getReferrer)),
+            entry.getTimestamp,
+            UserId(entry.getUserId),
+            entry.getInstitution
+        ))
+
   def writeExport(folder: SubTemporaryFile,
                   perFile: Int,
                   inst: Institution,
@@ -18,19 +18,36 @@
 
 package com.tle.core.cache
 
-import java.sql.Connection
-import java.util.concurrent.{ConcurrentHashMap, ConcurrentMap}
+import java.util.concurrent.atomic.{AtomicBoolean, LongAdder}
+import java.util.concurrent.{
+  Callable,
+  ConcurrentHashMap,
+  ConcurrentMap,
+  Executor,
+  Executors,
+  TimeUnit
+}
 
 import cats.data.{Kleisli, StateT}
-import cats.effect.{Async, IO}
+import cats.effect.IO
+import com.google.common.cache.CacheBuilder
+import com.tle.common.NamedThreadFactory
 import com.tle.core.db._
 import com.tle.core.events.ApplicationEvent
 import com.tle.core.events.ApplicationEvent.PostTo
 import com.tle.core.events.listeners.ApplicationListener
+import com.tle.core.institution.events.InstitutionEvent
+import com.tle.core.institution.events.InstitutionEvent.InstitutionEventType
+import com.tle.core.institution.events.listeners.InstitutionListener
 import com.tle.legacy.LegacyGuice
 import cats.syntax.applicative._
+import org.slf4j.LoggerFactory
 
-import scala.collection.mutable
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Promise}
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
 
 trait Cacheable[K, V] {
   def cacheId: String
@@ -44,6 +61,40 @@ case class InstCacheable[V](cacheId: String, query: Unit => DB[V]) extends Cache
   def key(userContext: UserContext, v: Unit): String = userContext.inst.getUniqueId.toString
 }
 
+/**
+  * How long values are kept for.
+  *
+  * @param maximumSize the number of keys kept, least recently used keys are evicted first
+  * @param expireAfterWrite drop values this long after they were loaded
+  * @param expireAfterAccess drop values that haven't been read for this long
+  * @param refreshAfterWrite reload values in the background when they are read this long after
+  *                          they were loaded, serving the old value until the new one is ready
+  * @param failureTtl how long a failed load is handed to callers before it is tried again
+  */
+case class CacheSettings(maximumSize: Long = 1000,
+                         expireAfterWrite: Option[FiniteDuration] = None,
+                         expireAfterAccess: Option[FiniteDuration] = None,
+                         refreshAfterWrite: Option[FiniteDuration] = None,
+                         failureTtl: FiniteDuration = 5.seconds)
+
+/**
+  * @param hits reads of a value that was loaded, or was being loaded, by an earlier read
+  * @param misses reads which had to load the value
+  */
+case class DBCacheStats(hits: Long,
+                        misses: Long,
+                        loadSuccesses: Long,
+                        loadFailures: Long,
+                        totalLoadTime: FiniteDuration,
+                        refreshes: Long,
+                        evictions: Long,
+                        size: Long) {
+  def averageLoadTime: FiniteDuration = {
+    val loads = loadSuccesses + loadFailures
+    if (loads == 0) Duration.Zero else totalLoadTime / loads
+  }
+}
+
 case class CacheInvalidationEvent(cacheId: String, key: String)
     extends ApplicationEvent[CacheInvalidation](PostTo.POST_TO_OTHER_CLUSTER_NODES) {
   override def getListener: Class[CacheInvalidation] = classOf[CacheInvalidation]
@@ -64,51 +115,195 @@ trait Cache[K, V] {
   }
 }
 
-object DBCacheBuilder extends CacheInvalidation {
+/**
+  * A cache of the results of DB queries. The first read of a key runs the query in its own
+  * transaction; concurrent reads of the same key wait for that load rather than running the query
+  * again, and reads of other keys are never held up by it.
+  *
+  * @param runQuery runs the query for a key in its own transaction
+  * @param runAsUser runs a background refresh as the user whose read triggered it
+  * @param refresher runs background refreshes
+  */
+private class DBCache[K, V](cacheable: Cacheable[K, V], settings: CacheSettings)(
+    runQuery: (UserContext, K) => V = (uc: UserContext, k: K) =>
+      RunWithDB.executeTransaction(uc.ds, cacheable.query(k).run(uc)),
+    runAsUser: (UserContext, () => Unit) => Unit = (uc: UserContext, f: () => Unit) =>
+      LegacyGuice.runAsInstitution.execute(uc.user, new Callable[Unit] {
+        override def call(): Unit = f()
+      }),
+    refresher: Executor = (r: Runnable) => DBCacheBuilder.refresher.execute(r))
+    extends Cache[K, V] {
 
-  val globalCaches: mutable.Map[String, ConcurrentMap[String, AnyRef]] = mutable.Map()
+  private class Entry(val institutionId: Long) {
+    val value                 = Promise[V]()
+    val refreshing            = new AtomicBoolean()
+    @volatile var completedAt = 0L
 
-  def buildCache[K, V](cacheable: Cacheable[K, V],
-                       backingMap: ConcurrentMap[String, AnyRef] =
-                         new ConcurrentHashMap[String, AnyRef]()): Cache[K, V] = {
-    globalCaches.put(cacheable.cacheId, backingMap)
-    new Cache[K, V] {
-      def invalidate: K => DB[IO[Unit]] =
-        (k: K) =>
-          Kleisli { uc: UserContext =>
-            StateT.liftF {
-              IO.pure {
-                IO {
-                  val key = cacheable.key(uc, k)
-                  backingMap.remove(key)
-                  LegacyGuice.eventService.publishApplicationEvent(
-                    CacheInvalidationEvent(cacheable.cacheId, key))
-                }
-              }
-            }
-        }
+    def complete(result: Try[V]): Unit = {
+      completedAt = System.currentTimeMillis()
+      value.complete(result)
+    }
+
+    def failedBefore(time: Long): Boolean =
+      value.future.value.exists(_.isFailure) && completedAt < time
+
+    def succeededBefore(time: Long): Boolean =
+      value.future.value.exists(_.isSuccess) && completedAt < time
+  }
+
+  private val guavaCache = {
+    val builder = CacheBuilder.newBuilder().maximumSize(settings.maximumSize).recordStats()
+    settings.expireAfterWrite.foreach(d =>
+      builder.expireAfterWrite(d.toMillis, TimeUnit.MILLISECONDS))
+    settings.expireAfterAccess.foreach(d =>
+      builder.expireAfterAccess(d.toMillis, TimeUnit.MILLISECONDS))
+    builder.build[String, Entry]()
+  }
+  private val entries: ConcurrentMap[String, Entry] = guavaCache.asMap()
 
-      def get: K => DB[V] =
-        (k: K) =>
-          Kleisli { uc: UserContext =>
-            StateT.inspectF { s: Connection =>
+  private val hits          = new LongAdder
+  private val misses        = new LongAdder
+  private val loadSuccesses = new LongAdder
+  private val loadFailures  = new LongAdder
+  private val loadNanos     = new LongAdder
+  private val refreshes     = new LongAdder
+
+  def invalidate: K => DB[IO[Unit]] =
+    (k: K) =>
+      Kleisli { uc: UserContext =>
+        StateT.liftF {
+          IO.pure {
+            IO {
               val key = cacheable.key(uc, k)
-              backingMap
-                .computeIfAbsent(
-                  key,
-                  _ =>
-                    Async
-                      .memoize(
-                        RunWithDB.executeTransaction(uc.ds,
-                                                     cacheable.query(k).run(uc).map(IO.pure)))
-                      .unsafeRunSync())
-                .asInstanceOf[IO[V]]
+              entries.remove(key)
+              LegacyGuice.eventService.publishApplicationEvent(
+                CacheInvalidationEvent(cacheable.cacheId, key))
             }
+          }
         }
     }
+
+  def get: K => DB[V] =
+    (k: K) => Kleisli { uc: UserContext =>
+      StateT.liftF(lookup(uc, k))
+    }
+
+  def remove(key: String): Unit = entries.remove(key)
+
+  def removeInstitutions(institutionIds: Set[Long]): Unit = {
+    val iter = entries.values().iterator()
+    while (iter.hasNext) {
+      if (institutionIds.contains(iter.next().institutionId)) iter.remove()
+    }
+  }
+
+  def stats: DBCacheStats =
+    DBCacheStats(
+      hits = hits.sum(),
+      misses = misses.sum(),
+      loadSuccesses = loadSuccesses.sum(),
+      loadFailures = loadFailures.sum(),
+      totalLoadTime = loadNanos.sum().nanos,
+      refreshes = refreshes.sum(),
+      evictions = guavaCache.stats().evictionCount(),
+      size = guavaCache.size()
+    )
+
+  private[cache] def lookup(uc: UserContext, k: K): IO[V] = IO.suspend {
+    val key   = cacheable.key(uc, k)
+    val now   = System.currentTimeMillis()
+    val fresh = new Entry(uc.inst.getUniqueId)
+    entries.putIfAbsent(key, fresh) match {
+      case null =>
+        misses.increment()
+        load(uc, k, fresh)
+        await(fresh)
+      case existing if existing.failedBefore(now - settings.failureTtl.toMillis) =>
+        entries.remove(key, existing)
+        lookup(uc, k)
+      case existing =>
+        hits.increment()
+        refreshIfStale(uc, k, key, existing, now)
+        await(existing)
+    }
+  }
+
+  private def await(entry: Entry): IO[V] = IO(Await.result(entry.value.future, Duration.Inf))
+
+  /** Runs the query on the calling thread, outside of any lock on the map. */
+  private def load(uc: UserContext, k: K, entry: Entry): Unit = {
+    val start = System.nanoTime()
+    val result =
+      try {
+        Success(runQuery(uc, k))
+      } catch {
+        case t: Throwable => Failure(t)
+      }
+    loadNanos.add(System.nanoTime() - start)
+    result match {
+      case Success(_) => loadSuccesses.increment()
+      case Failure(t) =>
+        loadFailures.increment()
+        DBCacheBuilder.logger.warn(s"Failed loading ${cacheable.cacheId} cache", t)
+    }
+    entry.complete(result)
+  }
+
+  private def refreshIfStale(uc: UserContext, k: K, key: String, stale: Entry, now: Long): Unit =
+    settings.refreshAfterWrite.foreach { after =>
+      if (stale.succeededBefore(now - after.toMillis) &&
+          stale.refreshing.compareAndSet(false, true)) {
+        refresher.execute(new Runnable {
+          override def run(): Unit = {
+            val fresh = new Entry(stale.institutionId)
+            try {
+              runAsUser(uc, () => load(uc, k, fresh))
+              refreshes.increment()
+            } catch {
+              case NonFatal(t) =>
+                DBCacheBuilder.logger.warn(s"Failed refreshing ${cacheable.cacheId} cache", t)
+            } finally {
+              // If the load failed, keep serving the old value and try again on a later read
+              if (fresh.value.future.value.exists(_.isSuccess)) entries.replace(key, stale, fresh)
+              else stale.refreshing.set(false)
+            }
+          }
+        })
+      }
+    }
+}
+
+object DBCacheBuilder extends CacheInvalidation with InstitutionListener {
+
+  private[cache] val logger = LoggerFactory.getLogger(getClass)
+
+  private[cache] lazy val refresher =
+    Executors.newFixedThreadPool(2, new NamedThreadFactory("DBCacheBuilder.refresh"))
+
+  private val globalCaches: ConcurrentMap[String, DBCache[_, _]] =
+    new ConcurrentHashMap[String, DBCache[_, _]]()
+
+  def buildCache[K, V](cacheable: Cacheable[K, V],
+                       settings: CacheSettings = CacheSettings()): Cache[K, V] = {
+    register(cacheable.cacheId, new DBCache(cacheable, settings)())
   }
 
+  private[cache] def register[K, V](cacheId: String, cache: DBCache[K, V]): DBCache[K, V] = {
+    globalCaches.put(cacheId, cache)
+    cache
+  }
+
+  def stats: Map[String, DBCacheStats] =
+    globalCaches.asScala.map { case (cacheId, cache) => cacheId -> cache.stats }.toMap
+
   override def invalidateKey(cacheId: String, key: String): Unit = {
-    globalCaches.get(cacheId).foreach(_.remove(key))
+    Option(globalCaches.get(cacheId)).foreach(_.remove(key))
+  }
+
+  override def institutionEvent(event: InstitutionEvent): Unit = event.getEventType match {
+    case InstitutionEventType.UNAVAILABLE | InstitutionEventType.DELETED =>
+      val institutionIds = event.getChanges.values().asScala.map(_.getUniqueId).toSet
+      globalCaches.values().asScala.foreach(_.removeInstitutions(institutionIds))
+    case _ =>
   }
 }
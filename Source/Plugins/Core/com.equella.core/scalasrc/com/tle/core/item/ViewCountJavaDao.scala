@@ -26,7 +26,11 @@ import com.tle.beans.Institution
 import com.tle.beans.entity.itemdef.ItemDefinition
 import com.tle.beans.item.ItemKey
 import com.tle.core.db.tables.{AttachmentViewCount, ItemViewCount}
+import com.tle.core.db.types.InstId
 import com.tle.core.db.{DBSchema, RunWithDB, UserContext}
+import com.tle.legacy.LegacyGuice
+import fs2.Stream
+import io.doolse.simpledba.WriteOp
 import io.doolse.simpledba.jdbc._
 import io.doolse.simpledba.syntax._
 import scala.collection.JavaConverters._
@@ -35,24 +39,15 @@ object ViewCountJavaDao {
 
   val queries = DBSchema.queries.viewCountQueries
 
-  def incrementSummaryViews(itemKey: ItemKey): Unit = RunWithDB.executeWithHibernate {
-    Kleisli { uc =>
-      queries
-        .itemCount((uc.inst, itemKey.getUuid, itemKey.getVersion))
-        .last
-        .flatMap {
-          case Some(c) =>
-            queries.writeItemCounts.update(c,
-                                           c.copy(count = c.count + 1, last_viewed = Instant.now()))
-          case _ =>
-            val newCount =
-              ItemViewCount(uc.inst, itemKey.getUuid, itemKey.getVersion, 1, Instant.now())
-            queries.writeItemCounts.insert(newCount)
+  def incrementSummaryViews(itemKey: ItemKey): Unit = {
+    val buffer = LegacyGuice.viewCountBuffer
+    if (buffer.isEnabled) buffer.addSummaryView(itemKey)
+    else
+      RunWithDB.executeWithHibernate {
+        Kleisli { uc: UserContext =>
+          addItemViews(uc.inst, itemKey, 1, Instant.now()).flush.compile.drain
         }
-        .flush
-        .compile
-        .drain
-    }
+      }
   }
 
   def setSummaryViews(itemKey: ItemKey, views: Int, lastViewed: Instant): Unit =
@@ -75,25 +70,33 @@ object ViewCountJavaDao {
       }
     }
 
-  def incrementAttachmentViews(itemKey: ItemKey, attachment: String): Unit =
-    RunWithDB.executeWithHibernate {
-      Kleisli { uc =>
-        queries
-          .attachmentCount((uc.inst, itemKey.getUuid, itemKey.getVersion, attachment))
-          .last
-          .flatMap {
-            case Some(c) =>
-              queries.writeAttachmentCounts.update(c,
-                                                   c.copy(count = c.count + 1,
-                                                          last_viewed = Instant.now()))
-            case _ =>
-              val newCount = AttachmentViewCount(uc.inst,
-                                                 itemKey.getUuid,
-                                                 itemKey.getVersion,
-                                                 attachment,
-                                                 1,
-                                                 Instant.now())
-              queries.writeAttachmentCounts.insert(newCount)
+  def incrementAttachmentViews(itemKey: ItemKey, attachment: String): Unit = {
+    val buffer = LegacyGuice.viewCountBuffer
+    if (buffer.isEnabled) buffer.addAttachmentView(itemKey, attachment)
+    else
+      RunWithDB.executeWithHibernate {
+        Kleisli { uc: UserContext =>
+          addAttachmentViews(uc.inst, itemKey, attachment, 1, Instant.now()).flush.compile.drain
+        }
+      }
+  }
+
+  /**
+    * Writes the views collected by [[ViewCountBuffer]] for the current institution in a single
+    * transaction.
+    */
+  def addViews(pending: java.util.Collection[ViewCountBuffer.PendingViews]): Unit =
+    RunWithDB.execute {
+      Kleisli { uc: UserContext =>
+        Stream
+          .emits(pending.asScala.toSeq)
+          .covary[JDBCIO]
+          .flatMap { p =>
+            Option(p.getAttachment) match {
+              case Some(attachment) =>
+                addAttachmentViews(uc.inst, p.getItemKey, attachment, p.getCount, p.getLastViewed)
+              case None => addItemViews(uc.inst, p.getItemKey, p.getCount, p.getLastViewed)
+            }
           }
           .flush
           .compile
@@ -101,6 +104,48 @@ object ViewCountJavaDao {
       }
     }
 
+  private def addItemViews(inst: InstId,
+                           itemKey: ItemKey,
+                           views: Int,
+                           lastViewed: Instant): Stream[JDBCIO, WriteOp] =
+    queries
+      .itemCount((inst, itemKey.getUuid, itemKey.getVersion))
+      .last
+      .flatMap {
+        case Some(c) =>
+          queries.writeItemCounts.update(
+            c,
+            c.copy(count = c.count + views, last_viewed = latest(c.last_viewed, lastViewed)))
+        case _ =>
+          val newCount = ItemViewCount(inst, itemKey.getUuid, itemKey.getVersion, views, lastViewed)
+          queries.writeItemCounts.insert(newCount)
+      }
+
+  private def addAttachmentViews(inst: InstId,
+                                 itemKey: ItemKey,
+                                 attachment: String,
+                                 views: Int,
+                                 lastViewed: Instant): Stream[JDBCIO, WriteOp] =
+    queries
+      .attachmentCount((inst, itemKey.getUuid, itemKey.getVersion, attachment))
+      .last
+      .flatMap {
+        case Some(c) =>
+          queries.writeAttachmentCounts.update(
+            c,
+            c.copy(count = c.count + views, last_viewed = latest(c.last_viewed, lastViewed)))
+        case _ =>
+          val newCount = AttachmentViewCount(inst,
+                                             itemKey.getUuid,
+                                             itemKey.getVersion,
+                                             attachment,
+                                             views,
+                                             lastViewed)
+          queries.writeAttachmentCounts.insert(newCount)
+      }
+
+  private def latest(a: Instant, b: Instant): Instant = if (a.isAfter(b)) a else b
+
   def setAttachmentViews(itemKey: ItemKey,
                          attachment: String,
                          views: Int,
@@ -135,7 +180,7 @@ object ViewCountJavaDao {
   def getSummaryViewCount(itemKey: ItemKey): Int = RunWithDB.executeWithHibernate {
     Kleisli { uc: UserContext =>
       queries.itemCount((uc.inst, itemKey.getUuid, itemKey.getVersion)).map(_.count).compile.last
-    }.map(_.getOrElse(0))
+    }.map(_.getOrElse(0) + LegacyGuice.viewCountBuffer.getPendingSummaryViews(itemKey))
   }
 
   def getAttachmentViewCount(itemKey: ItemKey, attachment: String): Int =
@@ -146,7 +191,8 @@ object ViewCountJavaDao {
           .map(_.count)
           .compile
           .last
-      }.map(_.getOrElse(0))
+      }.map(
+        _.getOrElse(0) + LegacyGuice.viewCountBuffer.getPendingAttachmentViews(itemKey, attachment))
     }
 
   def getAllAttachmentViewCount(inst: Institution,
@@ -172,9 +218,12 @@ object ViewCountJavaDao {
     }.map(_.getOrElse(0))
   }
 
-  def deleteForItem(item: ItemKey): Unit = RunWithDB.executeWithHibernate {
-    Kleisli { uc: UserContext =>
-      queries.deleteForItemId(uc.inst, item.getUuid, item.getVersion).flush.compile.drain
+  def deleteForItem(item: ItemKey): Unit = {
+    LegacyGuice.viewCountBuffer.discard(item)
+    RunWithDB.executeWithHibernate {
+      Kleisli { uc: UserContext =>
+        queries.deleteForItemId(uc.inst, item.getUuid, item.getVersion).flush.compile.drain
+      }
     }
   }
 }
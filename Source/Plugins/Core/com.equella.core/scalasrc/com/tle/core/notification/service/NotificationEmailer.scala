@@ -19,7 +19,7 @@
 package com.tle.core.notification.service
 
 import java.util.concurrent.Callable
-import java.util.{Collections, Date, UUID}
+import java.util.{Collections, UUID}
 
 import com.tle.common.institution.CurrentInstitution
 import com.tle.common.usermanagement.user.CurrentUser
@@ -48,40 +48,54 @@ object NotificationEmailer {
   val LOGGER = LoggerFactory.getLogger(classOf[NotificationEmailer])
 }
 
-class NotificationEmailer(batched: Boolean,
-                          processDate: Date,
+class NotificationEmailer(user: String,
+                          reasonCounts: java.util.Map[String, Integer],
                           attemptId: String,
                           dao: NotificationDao,
-                          emailService: EmailService)
+                          emailService: EmailService,
+                          statusUpdates: NotificationStatusUpdates)
     extends Callable[java.lang.Iterable[Callable[EmailResult[EmailKey]]]] {
 
+  private val reasonMap   = reasonCounts.asScala.mapValues(_.intValue()).toMap
+  private val ext2Reasons = reasonMap.keys.groupBy(extensionForType)
+
+  private var newestNotes = Map.empty[NotificationExtension, Iterable[Notification]]
+
+  /**
+    * Loads the newest of the user's pending notifications for each extension. This doesn't need to
+    * run as the user, so the items for a whole batch of users can be looked up together before any
+    * of the emails are created.
+    */
+  def loadNotifications(): java.util.Collection[Notification] = {
+    newestNotes = ext2Reasons.collect {
+      case (Some(ext), reasons) =>
+        ext -> dao
+          .getNewestNotificationsForUser(MAX_EMAIL_NOTIFICATIONS,
+                                         user,
+                                         reasons.asJavaCollection,
+                                         attemptId)
+          .asScala
+          .toList
+    }
+    newestNotes.values.flatten.asJavaCollection
+  }
+
   override def call: java.lang.Iterable[Callable[EmailResult[EmailKey]]] = {
     val userBean = CurrentUser.getDetails
     val inst     = CurrentInstitution.get()
-    val user     = userBean.getUniqueID
-    dao.updateLastAttempt(user, batched, processDate, attemptId)
-    val reasonMap = dao.getReasonCounts(user, attemptId).asScala.mapValues(_.intValue()).toMap
     val canSend = emailService.hasMailSettings && Option(userBean.getEmailAddress)
       .exists(_.nonEmpty)
-    val ext2Reasons = reasonMap.keys.groupBy(extensionForType)
     val emailCallers = ext2Reasons.flatMap {
       case (extO, reasons) =>
         (extO, canSend) match {
           case (Some(ext), true) =>
-            val newestNotes = dao
-              .getNewestNotificationsForUser(MAX_EMAIL_NOTIFICATIONS,
-                                             user,
-                                             reasons.asJavaCollection,
-                                             attemptId)
-              .asScala
-            ext.emails(userBean, newestNotes, reasonMap).map { ne =>
+            ext.emails(userBean, newestNotes.getOrElse(ext, Nil), reasonMap).map { ne =>
               val id = UUID.randomUUID()
               def successCB(): Unit = {
                 val (p, d) = ne.pertainsTo.partition(n => ext.isIndexed(n.getReason))
                 def ids(n: Iterable[Notification]) =
                   n.map(_.getId.asInstanceOf[java.lang.Long]).asJavaCollection
-                dao.deleteUnindexedById(user, ids(d), attemptId)
-                dao.markProcessedById(user, ids(p), attemptId)
+                statusUpdates.add(inst, ids(p), ids(d))
                 if (LOGGER.isDebugEnabled) {
                   LOGGER.debug(s"Successful sent email $id")
                 }
@@ -20,15 +20,13 @@ package com.tle.core.oauthclient
 
 import java.nio.ByteBuffer
 import java.time.Instant
-import java.util.concurrent._
 
 import cats.effect.IO
 import cats.syntax.applicative._
 import cats.syntax.apply._
-import com.google.common.cache.CacheBuilder
 import com.softwaremill.sttp._
 import com.softwaremill.sttp.circe._
-import com.tle.core.cache.{Cacheable, DBCacheBuilder}
+import com.tle.core.cache.{CacheSettings, Cacheable, DBCacheBuilder}
 import com.tle.core.db._
 import com.tle.core.db.tables.CachedValue
 import com.tle.web.oauth.OAuthWebConstants
@@ -38,6 +36,8 @@ import io.circe.{Decoder, Encoder}
 import io.doolse.simpledba.circe._
 import com.tle.core.httpclient._
 
+import scala.concurrent.duration._
+
 object OAuthTokenType extends Enumeration {
   val Bearer, EquellaApi = Value
 
@@ -154,12 +154,7 @@ object OAuthClientService {
 
   private val clientTokenCache = DBCacheBuilder.buildCache(
     OAuthTokenCache,
-    CacheBuilder
-      .newBuilder()
-      .maximumSize(1000)
-      .expireAfterAccess(10, TimeUnit.MINUTES)
-      .build[String, AnyRef]()
-      .asMap())
+    CacheSettings(maximumSize = 1000, expireAfterAccess = Some(10.minutes)))
 
   private def tokenStillValid(token: OAuthTokenState): Boolean =
     token.expires.isEmpty || token.expires.exists(_.isAfter(Instant.now))
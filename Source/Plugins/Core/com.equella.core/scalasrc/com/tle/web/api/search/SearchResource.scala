@@ -18,19 +18,31 @@
 
 package com.tle.web.api.search
 
+import java.io.OutputStream
+
+import com.dytech.edge.exceptions.BadRequestException
+import com.fasterxml.jackson.module.scala.DefaultScalaModule
 import com.tle.beans.item.ItemIdKey
 import com.tle.common.search.DefaultSearch
+import com.tle.core.db.RunWithDB
 import com.tle.core.item.serializer.ItemSerializerItemBean
 import com.tle.core.services.item.{FreetextResult, FreetextSearchResults}
 import com.tle.legacy.LegacyGuice
 import com.tle.web.api.item.equella.interfaces.beans.EquellaItemBean
 import com.tle.web.api.search.SearchHelper._
-import com.tle.web.api.search.model.{SearchParam, SearchResult, SearchResultItem}
-import io.swagger.annotations.{Api, ApiOperation}
-import javax.ws.rs.core.Response
-import javax.ws.rs.{BeanParam, GET, Path, Produces}
+import com.tle.web.api.search.SearchResource._
+import com.tle.web.api.search.model.{
+  SearchParam,
+  SearchResult,
+  SearchResultItem,
+  SearchStreamItem
+}
+import io.swagger.annotations.{Api, ApiOperation, ApiParam}
+import javax.ws.rs.core.{Response, StreamingOutput}
+import javax.ws.rs.{BeanParam, GET, Path, Produces, QueryParam}
 import org.jboss.resteasy.annotations.cache.NoCache
 
+import scala.annotation.tailrec
 import scala.collection.JavaConverters._
 
 @NoCache
@@ -66,6 +78,86 @@ class SearchResource {
     )
     Response.ok.entity(result).build()
   }
+
+  @GET
+  @Path("stream")
+  @Produces(Array("application/x-ndjson"))
+  @ApiOperation(
+    value = "Stream all search results",
+    notes =
+      "This endpoint writes every item matching the search criteria as newline delimited JSON. " +
+        "Items are in no particular order, and the start, length and order are ignored. " +
+        "If the stream is interrupted, pass the cursor of the last item received to resume it.",
+    response = classOf[SearchStreamItem],
+  )
+  def streamItems(@BeanParam params: SearchParam,
+                  @ApiParam("The cursor of the last item received from a previous stream")
+                  @QueryParam("cursor") cursor: String): Response = {
+    val search = createSearch(params)
+    val start  = Option(cursor).filter(_.nonEmpty).map(parseCursor)
+    val mapper = LegacyGuice.objectMapperService.createObjectMapper("rest")
+    mapper.registerModule(DefaultScalaModule)
+
+    val output = new StreamingOutput {
+      override def write(out: OutputStream): Unit =
+        streamAfter[FreetextResult](
+          start,
+          StreamBatchSize,
+          afterKey =>
+            LegacyGuice.freeTextService
+              .searchAfter[FreetextResult](search,
+                                           afterKey.map(Long.box).orNull,
+                                           StreamBatchSize,
+                                           params.searchAttachments)
+              .getSearchResults,
+          _.getItemIdKey.getKey,
+          batch => {
+            val results    = batch.asScala.toList
+            val serializer = createSerializer(results.map(_.getItemIdKey))
+            results.foreach { result =>
+              val item = convertToItem(SearchItem(result, serializer))
+              out.write(mapper.writeValueAsBytes(SearchStreamItem(cursorFor(result), item)))
+              out.write('\n')
+            }
+            out.flush()
+            // The request's session would otherwise hold on to every item written so far
+            Option(RunWithDB.getSessionHolder()).foreach(_.getSession.clear())
+          }
+        )
+    }
+    Response.ok(output).build()
+  }
+}
+
+object SearchResource {
+  val StreamBatchSize = 100
+
+  def cursorFor(result: FreetextResult): String = result.getItemIdKey.getKey.toString
+
+  def parseCursor(cursor: String): Long =
+    try cursor.toLong
+    catch {
+      case _: NumberFormatException => throw new BadRequestException(s"Invalid cursor: $cursor")
+    }
+
+  /**
+    * Fetches batches of results, each one after the key of the last result of the batch before,
+    * and writes every batch that isn't empty. Stops after the first batch that isn't full.
+    */
+  @tailrec
+  def streamAfter[T](afterKey: Option[Long],
+                     batchSize: Int,
+                     fetch: Option[Long] => java.util.List[T],
+                     key: T => Long,
+                     write: java.util.List[T] => Unit): Unit = {
+    val batch = fetch(afterKey)
+    if (!batch.isEmpty) {
+      write(batch)
+      if (batch.size == batchSize) {
+        streamAfter(Some(key(batch.get(batch.size - 1))), batchSize, fetch, key, write)
+      }
+    }
+  }
 }
 
 /**
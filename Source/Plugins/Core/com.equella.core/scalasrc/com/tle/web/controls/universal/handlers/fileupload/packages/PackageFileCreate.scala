@@ -78,11 +78,17 @@ object IMSPackageExtension extends PackageAttachmentExtension {
   def handlesPackage(upload: SuccessfulUpload, d: Seq[PackageType]): Boolean =
     d.contains(IMSPackage)
 
+  /**
+    * @param archiveBacked the package's archive will be kept alongside it by [[commitFiles]], so
+    *                      large packages can be served from the archive rather than extracted
+    */
   def unzipPackage(info: SectionInfo,
                    upload: SuccessfulUpload,
-                   ctx: ControlContext): (PackageInfo, String) = {
+                   ctx: ControlContext,
+                   archiveBacked: Boolean = false): (PackageInfo, String) = {
     val pkgUnzip = upload.temporaryPath("pkg")
-    ctx.repo.unzipFile(upload.uploadPath, pkgUnzip, true)
+    if (archiveBacked) ctx.repo.unzipPackage(upload.uploadPath, pkgUnzip)
+    else ctx.repo.unzipFile(upload.uploadPath, pkgUnzip, true)
     (ctx.repo.readPackageInfo(info, pkgUnzip), pkgUnzip)
   }
 
@@ -120,7 +126,7 @@ object IMSPackageExtension extends PackageAttachmentExtension {
   )
 
   def create(info: SectionInfo, ctx: ControlContext, upload: SuccessfulUpload): AttachmentCreate = {
-    val (pkgInfo, pkgUnzip) = unzipPackage(info, upload, ctx)
+    val (pkgInfo, pkgUnzip) = unzipPackage(info, upload, ctx, archiveBacked = true)
     AttachmentCreate(
       { stg =>
         val imsa = new ImsAttachment
@@ -147,7 +153,7 @@ object ScormPackageExtension extends PackageAttachmentExtension {
     d.contains(SCORMPackage)
 
   def create(info: SectionInfo, ctx: ControlContext, upload: SuccessfulUpload): AttachmentCreate = {
-    val (pkgInfo, pkgUnzip) = unzipPackage(info, upload, ctx)
+    val (pkgInfo, pkgUnzip) = unzipPackage(info, upload, ctx, archiveBacked = true)
     AttachmentCreate(
       { stg =>
         val attachment = new CustomAttachment
@@ -22,6 +22,7 @@ import com.tle.beans.item.{Item, ItemId, ItemTaskId}
 import com.tle.common.workflow.node.WorkflowNode
 import com.tle.core.i18n.BundleCache
 import com.tle.core.item.service.ItemService
+import com.tle.core.notification.PrefetchedItems
 import com.tle.core.notification.beans.Notification
 import com.tle.core.services.user.LazyUserLookup
 import com.tle.web.sections.SectionsController
@@ -29,6 +30,7 @@ import com.tle.web.sections.render.Label
 import com.tle.web.sections.result.util.{BundleLabel, ItemNameLabel, UserLabel}
 import com.tle.web.viewurl.ViewItemUrlFactory
 import com.tle.web.workflow.tasks.RootTaskListSection
+import java.util.Collections
 import javax.inject.Inject
 
 import scala.collection.JavaConverters._
@@ -100,10 +102,16 @@ trait NotificationLookup {
   protected def createData[A](notifications: Iterable[Notification],
                               f: (Notification, Option[Item]) => Option[A]): Iterable[A] = {
     def itemOnly(n: Notification): ItemId = new ItemId(n.getItemidOnly)
-    val itemIds                           = notifications.toBuffer[Notification].map(itemOnly)
-    val itemMap                           = itemService.queryItemsByItemIds(itemIds.asJava)
+    // The notification emailer looks up the items for a whole batch of users up front
+    val prefetched = PrefetchedItems.get
+    val itemIds =
+      notifications.toBuffer[Notification].map(itemOnly).filterNot(prefetched.containsKey)
+    val itemMap =
+      if (itemIds.isEmpty) Collections.emptyMap[ItemId, Item]
+      else itemService.queryItemsByItemIds(itemIds.asJava)
     notifications.flatMap { n =>
-      f(n, Option(itemMap.get(itemOnly(n))))
+      val itemId = itemOnly(n)
+      f(n, Option(prefetched.get(itemId)).orElse(Option(itemMap.get(itemId))))
     }
   }
 }
@@ -284,7 +284,6 @@ public class ActivateRequestDaoImpl extends GenericDaoImpl<ActivateRequest, Long
                                 + getPersistentClass().getName()
                                 + " where item.institution = :institution");
                     query.setEntity("institution", CurrentInstitution.get());
-                    query.setCacheable(true);
                     query.setReadOnly(true);
                     return query.list();
                   }
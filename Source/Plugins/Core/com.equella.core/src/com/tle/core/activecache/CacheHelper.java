@@ -32,6 +32,7 @@ import com.tle.common.search.whereparser.WhereParser;
 import com.tle.common.searching.SearchResults;
 import com.tle.common.util.Dates;
 import com.tle.common.util.LocalDate;
+import com.tle.common.util.UtcDate;
 import com.tle.core.freetext.queries.FreeTextBooleanQuery;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -75,27 +76,97 @@ public class CacheHelper {
   }
 
   public List<String> getCacheList(Calendar current, String lastUpdate) throws Exception {
+    return getCacheList(current, lastUpdate, null);
+  }
+
+  /**
+   * @param feeds where to find the change feed shared by clients with the same queries, or null to
+   *     always query for the changes since the last update
+   */
+  List<String> getCacheList(Calendar current, String lastUpdate, ChangeFeeds feeds)
+      throws Exception {
     // Don't need these till now
     added = new HashSet<ItemKey>();
     removed = new HashSet<ItemKey>();
 
     Date currentDate = current.getTime();
-    List<String> items = new ArrayList<String>();
-    items.add(new LocalDate(currentDate, CurrentTimeZone.get()).format(Dates.ISO_WITH_TIMEZONE));
-
     List<CacheQuery> previous = getPreviousQueries();
-    if (!inSync(previous)) {
+    boolean inSync = inSync(previous);
+    if (!inSync) {
       getCacheListSync(lastUpdate, previous);
     } else {
-      getCacheListUpdate(lastUpdate);
+      ChangeFeed.Delta delta = null;
+      Date since = parseDate(lastUpdate);
+      if (feeds != null && since != null) {
+        delta =
+            feeds
+                .getFeed(getQueriesKey())
+                .changesSince(
+                    since,
+                    currentDate,
+                    new ChangeFeed.WindowQuery() {
+                      @Override
+                      public ChangeFeed.Changes changes(Date after, Date upTo) {
+                        return queryChanges(after, upTo);
+                      }
+                    });
+      }
+      if (delta != null) {
+        added = delta.getAdded();
+        removed = delta.getRemoved();
+        currentDate = delta.getCursor();
+      } else {
+        getCacheListUpdate(dateModified(">", lastUpdate));
+      }
+    }
+    // The saved queries only change when the configuration does
+    if (!inSync || previous.isEmpty()) {
+      saveQueries(current);
     }
-    saveQueries(current);
+
+    List<String> items = new ArrayList<String>();
+    items.add(formatDate(currentDate));
     addItemsToList(items, added, "+");
     addItemsToList(items, removed, "-");
 
     return items;
   }
 
+  /** The items changed in the window, in the same way as an in sync update. */
+  ChangeFeed.Changes queryChanges(Date after, Date upTo) {
+    added = new HashSet<ItemKey>();
+    removed = new HashSet<ItemKey>();
+    getCacheListUpdate(
+        dateModified(">", formatDate(after)) + " AND " + dateModified("<=", formatDate(upTo)));
+    return new ChangeFeed.Changes(added, removed);
+  }
+
+  /** Identifies the queries, so that clients with the same queries can share a change feed. */
+  String getQueriesKey() {
+    StringBuilder key = new StringBuilder();
+    for (CacheQuery query : queries) {
+      key.append(query.isInclude() ? 'i' : 'e')
+          .append(Check.nullToEmpty(query.getUuid()))
+          .append(':')
+          .append(Check.nullToEmpty(query.getQuery()))
+          .append('\n');
+    }
+    return key.toString();
+  }
+
+  private static String formatDate(Date date) {
+    return new LocalDate(date, CurrentTimeZone.get()).format(Dates.ISO_WITH_TIMEZONE);
+  }
+
+  private static Date parseDate(String date) {
+    try {
+      return new UtcDate(date, Dates.ISO_WITH_TIMEZONE).toDate();
+    } catch (Exception e) {
+      // Not a date we handed out, just run the queries
+      return null;
+    }
+  }
+
   private boolean inSync(Collection<CacheQuery> previous) {
     // NOT in Sync, but probably first time
     boolean inSync = previous.size() == 0;
@@ -136,11 +207,11 @@ public class CacheHelper {
     return "/xml/item/@itemstatus = '" + status + "'";
   }
 
-  private void getCacheListUpdate(String lastUpdate) throws Exception {
+  private void getCacheListUpdate(String modifiedQuery) {
     // queryNewItemds SHOULD Be the following:
     // liveapprovaldate > lastUpdate or (datecreated > lastUpdate && live &&
     // moderating)
-    String queryBase = dateModified(">", lastUpdate) + " AND "; // $NON-NLS-2$
+    String queryBase = modifiedQuery + " AND "; // $NON-NLS-2$
 
     final String queryNewItems = queryBase + LIVECHECK;
 
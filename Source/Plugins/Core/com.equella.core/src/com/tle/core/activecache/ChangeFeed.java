@@ -0,0 +1,174 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.activecache;
+
+import com.tle.beans.item.ItemKey;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compacted log of the items added to and removed from an active cache configuration. Each sync
+ * only queries for the changes since the last time the log was brought up to date, and clients with
+ * the same configuration share the log, so a sync is mostly a read of the changes after the
+ * client's cursor.
+ *
+ * <p>The log keeps one entry per item, recording whether it was last added or removed and the end
+ * of the window the change was found in. A client's cursor can be served as long as it is no older
+ * than the start of the log; entries older than {@code retentionMillis} are dropped, moving the
+ * start of the log forward.
+ */
+class ChangeFeed {
+  private final long minWindowMillis;
+  private final long retentionMillis;
+
+  private final Map<ItemKey, Entry> entries = new HashMap<ItemKey, Entry>();
+  /** Changes up to and including this time may have been dropped from the log */
+  private long start = -1;
+  /** Changes up to and including this time are in the log */
+  private long end = -1;
+
+  ChangeFeed(long minWindowMillis, long retentionMillis) {
+    this.minWindowMillis = minWindowMillis;
+    this.retentionMillis = retentionMillis;
+  }
+
+  /**
+   * Gets the changes after the cursor, bringing the log up to date first if it hasn't been in the
+   * last {@code minWindowMillis}.
+   *
+   * @return the changes, or null if the cursor is too old to be served from the log
+   */
+  synchronized Delta changesSince(Date cursor, Date now, WindowQuery query) {
+    long since = cursor.getTime();
+    long current = now.getTime();
+    if (since < current - retentionMillis) {
+      return null;
+    }
+
+    if (end < 0) {
+      record(query.changes(cursor, now), current, true);
+      start = since;
+      end = current;
+    } else if (since < start) {
+      // An older client than any before, find what it has missed before the start of the log
+      record(query.changes(cursor, new Date(start)), start, false);
+      start = since;
+    }
+    if (current - end >= minWindowMillis) {
+      record(query.changes(new Date(end), now), current, true);
+      end = current;
+    }
+    prune(current - retentionMillis);
+
+    Delta delta = new Delta(new Date(end));
+    for (Map.Entry<ItemKey, Entry> e : entries.entrySet()) {
+      Entry entry = e.getValue();
+      // The window the change was found in may have started before the cursor. Sending the item's
+      // current state again doesn't hurt.
+      if (entry.window > since) {
+        (entry.added ? delta.getAdded() : delta.getRemoved()).add(e.getKey());
+      }
+    }
+    return delta;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private void record(Changes changes, long window, boolean newest) {
+    for (ItemKey key : changes.getAdded()) {
+      record(key, true, window, newest);
+    }
+    for (ItemKey key : changes.getRemoved()) {
+      record(key, false, window, newest);
+    }
+  }
+
+  private void record(ItemKey key, boolean added, long window, boolean newest) {
+    // Changes found before the start of the log are older than anything already logged
+    if (newest || !entries.containsKey(key)) {
+      entries.put(key, new Entry(added, window));
+    }
+  }
+
+  private void prune(long before) {
+    if (start >= before) {
+      return;
+    }
+    Iterator<Entry> iter = entries.values().iterator();
+    while (iter.hasNext()) {
+      if (iter.next().window <= before) {
+        iter.remove();
+      }
+    }
+    start = before;
+  }
+
+  /** Finds what was added and removed between two times. */
+  interface WindowQuery {
+    Changes changes(Date after, Date upTo);
+  }
+
+  static class Changes {
+    private final Set<ItemKey> added;
+    private final Set<ItemKey> removed;
+
+    Changes(Set<ItemKey> added, Set<ItemKey> removed) {
+      this.added = added;
+      this.removed = removed;
+    }
+
+    Set<ItemKey> getAdded() {
+      return added;
+    }
+
+    Set<ItemKey> getRemoved() {
+      return removed;
+    }
+  }
+
+  static class Delta extends Changes {
+    private final Date cursor;
+
+    Delta(Date cursor) {
+      super(new HashSet<ItemKey>(), new HashSet<ItemKey>());
+      this.cursor = cursor;
+    }
+
+    /** What the client should send as its cursor next time */
+    Date getCursor() {
+      return cursor;
+    }
+  }
+
+  private static class Entry {
+    final boolean added;
+    final long window;
+
+    Entry(boolean added, long window) {
+      this.added = added;
+      this.window = window;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.activecache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.UserState;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The change feeds of an institution. Clients share a feed when they have the same queries and
+ * would see the same search results, i.e. the same ACL expressions (and the same user, when owner
+ * expressions are involved). Feeds that nobody has synced with for the retention period are
+ * dropped.
+ */
+@SuppressWarnings("nls")
+class ChangeFeeds {
+  private final long minWindowMillis;
+  private final long retentionMillis;
+  private final Cache<String, ChangeFeed> feeds;
+
+  ChangeFeeds(long minWindowMillis, long retentionMillis) {
+    this.minWindowMillis = minWindowMillis;
+    this.retentionMillis = retentionMillis;
+    this.feeds =
+        CacheBuilder.newBuilder().expireAfterAccess(retentionMillis, TimeUnit.MILLISECONDS).build();
+  }
+
+  ChangeFeed getFeed(String queriesKey) {
+    try {
+      return feeds.get(
+          queriesKey + securityKey(CurrentUser.getUserState()),
+          new Callable<ChangeFeed>() {
+            @Override
+            public ChangeFeed call() {
+              return new ChangeFeed(minWindowMillis, retentionMillis);
+            }
+          });
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  long size() {
+    return feeds.size();
+  }
+
+  private static String securityKey(UserState state) {
+    if (state.isSystem()) {
+      return "system";
+    }
+    StringBuilder key = new StringBuilder();
+    append(key, "c", state.getCommonAclExpressions());
+    if (!isEmpty(state.getOwnerAclExpressions()) || !isEmpty(state.getNotOwnerAclExpressions())) {
+      key.append("u:").append(state.getUserBean().getUniqueID());
+      append(key, "o", state.getOwnerAclExpressions());
+      append(key, "n", state.getNotOwnerAclExpressions());
+    }
+    return key.toString();
+  }
+
+  private static void append(StringBuilder key, String type, Collection<Long> expressions) {
+    key.append(type).append(':');
+    if (expressions != null) {
+      for (Long expression : new TreeSet<Long>(expressions)) {
+        key.append(expression).append(',');
+      }
+    }
+  }
+
+  private static boolean isEmpty(Collection<Long> expressions) {
+    return expressions == null || expressions.isEmpty();
+  }
+}
@@ -19,6 +19,8 @@
 package com.tle.core.activecache;
 
 import com.dytech.devlib.PropBagEx;
+import com.google.common.cache.CacheLoader;
+import com.tle.beans.Institution;
 import com.tle.beans.entity.itemdef.ItemDefinition;
 import com.tle.beans.item.ItemIdKey;
 import com.tle.common.Check;
@@ -35,6 +37,8 @@ import com.tle.core.collection.service.ItemDefinitionService;
 import com.tle.core.freetext.queries.FreeTextBooleanQuery;
 import com.tle.core.freetext.service.FreeTextService;
 import com.tle.core.guice.Bind;
+import com.tle.core.institution.InstitutionCache;
+import com.tle.core.institution.InstitutionService;
 import com.tle.core.services.user.UserPreferenceService;
 import com.tle.core.settings.service.ConfigurationService;
 import java.util.Calendar;
@@ -42,7 +46,9 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
 
@@ -59,37 +65,59 @@ public class RemoteCachingServiceImpl
   @Inject private FreeTextService freeTextService;
   @Inject private UserPreferenceService userPreferenceService;
 
+  /** Syncs less than this far apart are served from the change feed without querying */
+  @com.google.inject.Inject(optional = true)
+  @Named("activecache.changeFeed.minWindowSeconds")
+  private int minWindowSeconds = 60;
+
+  /** How far back the change feeds go. Zero turns them off. */
+  @com.google.inject.Inject(optional = true)
+  @Named("activecache.changeFeed.retentionHours")
+  private int retentionHours = 168;
+
+  private InstitutionCache<ChangeFeeds> feeds;
+
   public RemoteCachingServiceImpl() {
     super();
   }
 
+  @Inject
+  public void setInstitutionService(InstitutionService service) {
+    feeds =
+        service.newInstitutionAwareCache(
+            new CacheLoader<Institution, ChangeFeeds>() {
+              @Override
+              public ChangeFeeds load(Institution key) {
+                return new ChangeFeeds(
+                    TimeUnit.SECONDS.toMillis(minWindowSeconds),
+                    TimeUnit.HOURS.toMillis(retentionHours));
+              }
+            });
+  }
+
   /** Returns list of item defs required to be updated. */
   @Override
   public List<String> getCacheList(String lastUpdate) throws Exception {
-    synchronized (cacheLock) {
-      Calendar current = Calendar.getInstance();
-      CacheSettings cs = getCachingSettings();
+    Calendar current = Calendar.getInstance();
+    CacheSettings cs = getCachingSettings();
 
-      String userid = CurrentUser.getUserID();
+    String userid = CurrentUser.getUserID();
 
-      CacheHelper helper = new CacheHelper(new CacheBean(), cs, userid);
-      if (!cs.isEnabled()) {
-        throw new Exception("Remote caching is currently disabled");
-      }
-
-      if (!helper.userExists()) {
-        LOGGER.warn(userid + " attempted to schedule cache time, but does not have the authority");
-        throw new Exception("You do not have permission to remotely cache");
-      }
+    CacheHelper helper = new CacheHelper(new CacheBean(), cs, userid);
+    if (!cs.isEnabled()) {
+      throw new Exception("Remote caching is currently disabled");
+    }
 
-      LOGGER.info("Accepting " + userid + " for caching.  Last update was on " + lastUpdate);
+    if (!helper.userExists()) {
+      LOGGER.warn(userid + " attempted to schedule cache time, but does not have the authority");
+      throw new Exception("You do not have permission to remotely cache");
+    }
 
-      setCachingSettings(cs);
+    LOGGER.info("Accepting " + userid + " for caching.  Last update was on " + lastUpdate);
 
-      // see Jira SCR TLE-1064 :
-      // http://apps.dytech.com.au/jira/browse/TLE-1064
-      return helper.getCacheList(current, lastUpdate);
-    }
+    // see Jira SCR TLE-1064 :
+    // http://apps.dytech.com.au/jira/browse/TLE-1064
+    return helper.getCacheList(current, lastUpdate, retentionHours > 0 ? feeds.getCache() : null);
   }
 
   private CacheSettings getCachingSettings() {
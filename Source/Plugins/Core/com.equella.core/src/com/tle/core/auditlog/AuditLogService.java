@@ -49,6 +49,13 @@ public interface AuditLogService {
 
   void removeOldLogs(int daysOld);
 
+  /**
+   * Drops the audit log partitions of the current schema which only hold entries older than
+   * daysOld, and makes sure there are partitions for the coming months. Partitions are shared by
+   * every institution in the schema, so this must not be run per institution.
+   */
+  void removeOldPartitions(int daysOld);
+
   void logSearch(String type, String freeText, String within, long resultCount);
 
   void logFederatedSearch(String freeText, String searchId);
@@ -0,0 +1,105 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.auditlog;
+
+import com.tle.beans.Institution;
+import java.time.Instant;
+
+/** An audit log row captured on the calling thread, ready to be inserted now or later. */
+public class PendingAuditLogEntry {
+  private final String userId;
+  private final String sessionId;
+  private final String category;
+  private final String type;
+  private final String data1;
+  private final String data2;
+  private final String data3;
+  private final String data4;
+  private final String referrer;
+  private final Institution institution;
+  private final Instant timestamp;
+
+  public PendingAuditLogEntry(
+      String userId,
+      String sessionId,
+      String category,
+      String type,
+      String data1,
+      String data2,
+      String data3,
+      String data4,
+      String referrer,
+      Institution institution) {
+    this.userId = userId;
+    this.sessionId = sessionId;
+    this.category = category;
+    this.type = type;
+    this.data1 = data1;
+    this.data2 = data2;
+    this.data3 = data3;
+    this.data4 = data4;
+    this.referrer = referrer;
+    this.institution = institution;
+    this.timestamp = Instant.now();
+  }
+
+  public String getUserId() {
+    return userId;
+  }
+
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  public String getCategory() {
+    return category;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public String getData1() {
+    return data1;
+  }
+
+  public String getData2() {
+    return data2;
+  }
+
+  public String getData3() {
+    return data3;
+  }
+
+  public String getData4() {
+    return data4;
+  }
+
+  public String getReferrer() {
+    return referrer;
+  }
+
+  public Institution getInstitution() {
+    return institution;
+  }
+
+  public Instant getTimestamp() {
+    return timestamp;
+  }
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.auditlog.impl;
+
+import com.google.inject.Inject;
+import com.tle.beans.Institution;
+import com.tle.common.NamedThreadFactory;
+import com.tle.core.auditlog.AuditLogJavaDao;
+import com.tle.core.auditlog.PendingAuditLogEntry;
+import com.tle.core.guice.Bind;
+import com.tle.core.institution.RunAsInstitution;
+import com.tle.core.institution.events.InstitutionEvent;
+import com.tle.core.institution.events.listeners.InstitutionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Optional write-behind for audit log entries. Entries are put on a bounded queue by the request
+ * thread and a single writer thread inserts them in batches, one transaction per institution per
+ * batch. Having a single writer means entries are inserted in the order they were logged, so the
+ * order within a session is kept.
+ *
+ * <p>By default a full queue makes the caller wait, so that a database that can't keep up slows
+ * logging down rather than losing entries or moving the inserts back onto every request thread.
+ * With {@link OverflowPolicy#CALLER_WRITES} an entry that doesn't fit is inserted straight away, so
+ * it can land before entries that were logged earlier but are still on the queue.
+ *
+ * <p>The entries queued for an institution are written out when it becomes unavailable. Entries
+ * still on the queue when the server stops are lost, at most {@code queueSize} of them.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class AsyncAuditLogWriter implements InstitutionListener {
+  private static final Log LOGGER = LogFactory.getLog(AsyncAuditLogWriter.class);
+  private static final long REPORT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+  private static final long FLUSH_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+  public enum OverflowPolicy {
+    /** Wait for space on the queue */
+    BLOCK,
+    /**
+     * Insert the entry on the calling thread, as if async logging were off. The entry is inserted
+     * ahead of any still on the queue.
+     */
+    CALLER_WRITES,
+    /** Throw the entry away and count it */
+    DISCARD
+  }
+
+  @Inject(optional = true)
+  @Named("auditLog.async.enabled")
+  private boolean enabled;
+
+  @Inject(optional = true)
+  @Named("auditLog.async.queueSize")
+  private int queueSize = 10000;
+
+  @Inject(optional = true)
+  @Named("auditLog.async.batchSize")
+  private int batchSize = 500;
+
+  @Inject(optional = true)
+  @Named("auditLog.async.overflowPolicy")
+  private String overflowPolicy = OverflowPolicy.BLOCK.name();
+
+  @Inject private RunAsInstitution runAs;
+
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+  private final AtomicLong callerWrites = new AtomicLong();
+  private final AtomicLong queued = new AtomicLong();
+  // Guards processed, the number of entries finished with, whether they could be written or not
+  private final Object progress = new Object();
+  private long processed;
+  // Offers share the read lock, stop takes the write lock so that nothing can be queued once the
+  // queue has been drained for the last time
+  private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+  private volatile long lastReport;
+  private BlockingQueue<PendingAuditLogEntry> queue;
+  private OverflowPolicy policy;
+  private Thread writer;
+  private volatile boolean stopping;
+
+  public AsyncAuditLogWriter() {
+    // For Guice
+  }
+
+  AsyncAuditLogWriter(int queueSize, int batchSize, OverflowPolicy policy) {
+    this.enabled = true;
+    this.queueSize = queueSize;
+    this.batchSize = batchSize;
+    this.overflowPolicy = policy.name();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return false if the caller should insert the entry itself, because the queue is full and the
+   *     overflow policy says so or because the writer has been stopped
+   */
+  public boolean offer(PendingAuditLogEntry entry) {
+    final BlockingQueue<PendingAuditLogEntry> q = getQueue();
+    stopLock.readLock().lock();
+    try {
+      if (stopping) {
+        return false;
+      }
+      if (q.offer(entry)) {
+        queued.incrementAndGet();
+        return true;
+      }
+      switch (policy) {
+        case BLOCK:
+          try {
+            q.put(entry);
+            queued.incrementAndGet();
+            return true;
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+          }
+        case DISCARD:
+          if (discarded.getAndIncrement() % 1000 == 0) {
+            LOGGER.warn(
+                "Audit log queue is full, " + discarded.get() + " entries discarded so far");
+          }
+          return true;
+        default:
+          callerWrites.incrementAndGet();
+          return false;
+      }
+    } finally {
+      stopLock.readLock().unlock();
+    }
+  }
+
+  public int getQueueDepth() {
+    return queue == null ? 0 : queue.size();
+  }
+
+  public long getWrittenCount() {
+    return written.get();
+  }
+
+  public long getDiscardedCount() {
+    return discarded.get();
+  }
+
+  public long getCallerWritesCount() {
+    return callerWrites.get();
+  }
+
+  /** Writes out the queued entries of institutions that are going away */
+  @Override
+  public void institutionEvent(InstitutionEvent event) {
+    if (event.getEventType() == InstitutionEvent.InstitutionEventType.UNAVAILABLE) {
+      flush();
+    }
+  }
+
+  /**
+   * Waits for the writer to finish with everything queued so far, for up to 30 seconds. Entries
+   * queued while waiting aren't waited for.
+   */
+  public void flush() {
+    final long target = queued.get();
+    final long until = System.currentTimeMillis() + FLUSH_TIMEOUT;
+    synchronized (progress) {
+      while (processed < target && !stopping) {
+        final long wait = until - System.currentTimeMillis();
+        if (wait <= 0) {
+          LOGGER.warn("Timed out waiting for " + (target - processed) + " audit log entries");
+          return;
+        }
+        try {
+          progress.wait(wait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the writer thread once it has finished its current batch, then writes everything left on
+   * the queue on the calling thread, so that entries are still written in order. Entries offered
+   * afterwards are left for the caller to insert.
+   */
+  public void stop() {
+    final Thread w;
+    synchronized (this) {
+      w = writer;
+    }
+    if (w == null) {
+      return;
+    }
+    // Not interrupted, so that a batch being inserted isn't cut short
+    stopLock.writeLock().lock();
+    try {
+      stopping = true;
+    } finally {
+      stopLock.writeLock().unlock();
+    }
+    try {
+      w.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (w.isAlive()) {
+      LOGGER.warn("Audit log writer didn't stop, " + queue.size() + " entries not written");
+      return;
+    }
+    final List<PendingAuditLogEntry> batch = new ArrayList<>();
+    while (queue.drainTo(batch, batchSize) > 0) {
+      write(batch);
+      finished(batch.size());
+      batch.clear();
+    }
+  }
+
+  private synchronized BlockingQueue<PendingAuditLogEntry> getQueue() {
+    if (queue == null) {
+      policy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+      queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+      writer = new NamedThreadFactory("AsyncAuditLogWriter").newThread(this::writeForever);
+      writer.setDaemon(true);
+      writer.start();
+    }
+    return queue;
+  }
+
+  private void writeForever() {
+    final List<PendingAuditLogEntry> batch = new ArrayList<>();
+    while (!stopping) {
+      try {
+        final PendingAuditLogEntry first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        write(batch);
+        report();
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        LOGGER.error("Error writing audit log entries", e);
+      } finally {
+        finished(batch.size());
+        batch.clear();
+      }
+    }
+  }
+
+  private void write(List<PendingAuditLogEntry> batch) {
+    final Map<Long, List<PendingAuditLogEntry>> byInstitution = new LinkedHashMap<>();
+    for (PendingAuditLogEntry entry : batch) {
+      byInstitution
+          .computeIfAbsent(entry.getInstitution().getDatabaseId(), id -> new ArrayList<>())
+          .add(entry);
+    }
+    for (List<PendingAuditLogEntry> entries : byInstitution.values()) {
+      final Institution institution = entries.get(0).getInstitution();
+      try {
+        writeEntries(institution, entries);
+        written.addAndGet(entries.size());
+      } catch (Exception e) {
+        // Try them individually so one bad entry doesn't lose the rest
+        LOGGER.warn("Error writing batch of audit log entries, retrying one at a time", e);
+        for (PendingAuditLogEntry entry : entries) {
+          try {
+            writeEntries(institution, Collections.singletonList(entry));
+            written.incrementAndGet();
+          } catch (Exception ex) {
+            LOGGER.error(
+                "Error writing audit log entry "
+                    + entry.getCategory()
+                    + "/"
+                    + entry.getType()
+                    + " for user "
+                    + entry.getUserId(),
+                ex);
+          }
+        }
+      }
+    }
+  }
+
+  private void finished(int count) {
+    synchronized (progress) {
+      processed += count;
+      progress.notifyAll();
+    }
+  }
+
+  /** Inserts the entries in a single transaction for the institution */
+  protected void writeEntries(Institution institution, List<PendingAuditLogEntry> entries) {
+    runAs.executeAsSystem(institution, () -> AuditLogJavaDao.logAll(entries));
+  }
+
+  private void report() {
+    final long now = System.currentTimeMillis();
+    if (now - lastReport >= REPORT_INTERVAL) {
+      lastReport = now;
+      final int depth = queue.size();
+      final String message =
+          "Audit log queue depth "
+              + depth
+              + "/"
+              + (depth + queue.remainingCapacity())
+              + ", written "
+              + written.get()
+              + ", discarded "
+              + discarded.get()
+              + ", written by caller "
+              + callerWrites.get();
+      if (queue.remainingCapacity() < depth) {
+        LOGGER.warn(message);
+      } else {
+        LOGGER.debug(message);
+      }
+    }
+  }
+}
@@ -30,6 +30,7 @@ import com.tle.common.usermanagement.user.valuebean.UserBean;
 import com.tle.core.auditlog.AuditLogExtension;
 import com.tle.core.auditlog.AuditLogJavaDao;
 import com.tle.core.auditlog.AuditLogService;
+import com.tle.core.auditlog.PendingAuditLogEntry;
 import com.tle.core.guice.Bind;
 import com.tle.core.plugins.PluginService;
 import com.tle.core.plugins.PluginTracker;
@@ -67,83 +68,89 @@ public class AuditLogServiceImpl implements AuditLogService {
 
   private PluginTracker<AuditLogExtension> extensionTracker;
 
+  @Inject private AsyncAuditLogWriter asyncWriter;
+
   @Override
   @Transactional
   public void removeOldLogs(int daysOld) {
+    Date date = removalDate(daysOld);
+    // Partitioned tables are mostly trimmed a month at a time by removeOldPartitions
+    if (AuditLogJavaDao.mustDeleteEntriesBefore(date)) {
+      AuditLogJavaDao.removeEntriesBeforeDate(date);
+    }
+    for (AuditLogExtension extension : getExtensions()) {
+      extension.getDao().removeEntriesBeforeDate(date);
+    }
+  }
+
+  @Override
+  public void removeOldPartitions(int daysOld) {
+    AuditLogJavaDao.dropPartitionsBefore(removalDate(daysOld));
+  }
+
+  private static Date removalDate(int daysOld) {
     Calendar c = Calendar.getInstance();
     c.set(Calendar.HOUR_OF_DAY, 23);
     c.set(Calendar.MINUTE, 59);
     c.add(Calendar.DAY_OF_YEAR, -daysOld);
-
-    Date date = c.getTime();
-    AuditLogJavaDao.removeEntriesBeforeDate(date);
-    for (AuditLogExtension extension : getExtensions()) {
-      extension.getDao().removeEntriesBeforeDate(date);
-    }
+    return c.getTime();
   }
 
   private void logUserEvent(String type, UserState us, HttpServletRequest request) {
     UserBean ub = us.getUserBean();
-    AuditLogJavaDao.logWithRequest(
-        ub.getUniqueID(),
-        us.getSessionID(),
-        USER_CATEGORY,
-        type,
-        us.getIpAddress(),
-        ub.getUniqueID(),
-        ub.getUsername(),
-        us.getTokenSecretId(),
-        us.getInstitution(),
-        request);
+    write(
+        new PendingAuditLogEntry(
+            ub.getUniqueID(),
+            us.getSessionID(),
+            USER_CATEGORY,
+            type,
+            us.getIpAddress(),
+            ub.getUniqueID(),
+            ub.getUsername(),
+            us.getTokenSecretId(),
+            referrer(request),
+            us.getInstitution()));
   }
 
   @Override
-  @Transactional
   public void logUserLoggedIn(UserState us, HttpServletRequest request) {
     logUserEvent("LOGIN", us, request);
   }
 
   @Override
-  @Transactional
   public void logUserFailedAuthentication(String username, WebAuthenticationDetails wad) {
     logGeneric(USER_CATEGORY, "AUTH ERROR", wad.getIpAddress(), username, "BAD CREDENTIALS", null);
   }
 
   @Override
-  @Transactional
   public void logUserLoggedOut(UserState us, HttpServletRequest request) {
     logUserEvent("LOGOUT", us, request);
   }
 
   @Override
-  @Transactional
   public void logEntityCreated(long entityId) {
     logEntityGeneric(CREATED_TYPE, entityId);
   }
 
   @Override
-  @Transactional
   public void logEntityModified(long entityId) {
     logEntityGeneric(MODIFIED_TYPE, entityId);
   }
 
   @Override
-  @Transactional
   public void logEntityDeleted(long entityId) {
     logEntityGeneric(DELETED_TYPE, entityId);
   }
 
   @Override
-  @Transactional
   public void logObjectDeleted(long objectId, String friendlyName) {
     logGeneric(
         friendlyName, DELETED_TYPE, CurrentUser.getUserID(), Long.toString(objectId), null, null);
   }
 
   @Override
-  @Transactional
   public void logSummaryViewed(String category, ItemKey item, HttpServletRequest request) {
-    AuditLogJavaDao.logHttp(
+    logHttp(
         category,
         SUMMARY_VIEWED_TYPE,
         item.getUuid(),
@@ -154,20 +161,18 @@ public class AuditLogServiceImpl implements AuditLogService {
   }
 
   @Override
-  @Transactional
   public void logItemSummaryViewed(Item item, HttpServletRequest request) {
     logSummaryViewed(ITEM_CATEGORY, item.getItemId(), request);
   }
 
   @Override
-  @Transactional
   public void logContentViewed(
       String category,
       ItemKey itemId,
       String contentType,
       String path,
       HttpServletRequest request) {
-    AuditLogJavaDao.logHttp(
+    logHttp(
         category,
         CONTENT_VIEWED_TYPE,
         itemId.getUuid(),
@@ -178,7 +183,6 @@ public class AuditLogServiceImpl implements AuditLogService {
   }
 
   @Override
-  @Transactional
   public void logItemContentViewed(
       ItemKey itemId,
       String contentType,
@@ -189,7 +193,6 @@ public class AuditLogServiceImpl implements AuditLogService {
   }
 
   @Override
-  @Transactional
   public void logItemPurged(Item item) {
     logGeneric(
         ITEM_CATEGORY,
@@ -220,19 +223,16 @@ public class AuditLogServiceImpl implements AuditLogService {
   }
 
   @Override
-  @Transactional
   public void logSearch(String type, String freeText, String within, long resultCount) {
     logGeneric(SEARCH_CATEGORY, type, freeText, within, Long.toString(resultCount), null);
   }
 
   @Override
-  @Transactional
   public void logFederatedSearch(String freeText, String searchId) {
     logGeneric(SEARCH_CATEGORY, SEARCH_FEDERATED_TYPE, freeText, searchId, null, null);
   }
 
   @Override
-  @Transactional
   public void logGeneric(String category, String type, String d1, String d2, String d3, String d4) {
     log(
         CurrentUser.getUserID(),
@@ -256,7 +256,51 @@ public class AuditLogServiceImpl implements AuditLogService {
       String d3,
       String d4,
       Institution institution) {
-    AuditLogJavaDao.log(userId, sessionId, category, type, d1, d2, d3, d4, institution);
+    write(
+        new PendingAuditLogEntry(
+            userId, sessionId, category, type, d1, d2, d3, d4, null, institution));
+  }
+
+  private static String referrer(HttpServletRequest request) {
+    return request != null ? request.getHeader("Referer") : null;
+  }
+
+  private void logHttp(
+      String category,
+      String type,
+      String d1,
+      String d2,
+      String d3,
+      String d4,
+      HttpServletRequest request) {
+    UserState us = CurrentUser.getUserState();
+    write(
+        new PendingAuditLogEntry(
+            us.getUserBean().getUniqueID(),
+            us.getSessionID(),
+            category,
+            type,
+            d1,
+            d2,
+            d3,
+            d4,
+            referrer(request),
+            CurrentInstitution.get()));
+  }
+
+  /**
+   * Queued entries are inserted by the async writer in its own transactions, so only an entry
+   * written straight away needs one here.
+   */
+  private void write(PendingAuditLogEntry entry) {
+    if (!asyncWriter.isEnabled() || !asyncWriter.offer(entry)) {
+      writeNow(entry);
+    }
+  }
+
+  @Transactional
+  protected void writeNow(PendingAuditLogEntry entry) {
+    AuditLogJavaDao.logEntry(entry);
   }
 
   @Override
@@ -25,6 +25,7 @@ import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.settings.standard.MailSettings;
 import com.tle.core.email.EmailResult;
 import com.tle.core.email.EmailService;
+import com.tle.core.email.impl.MailTransportPool.MailServer;
 import com.tle.core.encryption.EncryptionService;
 import com.tle.core.guice.Bind;
 import com.tle.core.settings.service.ConfigurationService;
@@ -32,7 +33,6 @@ import com.tle.core.system.SystemConfigService;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,25 +42,14 @@ import javax.inject.Singleton;
 import javax.mail.Message;
 import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
-import javax.mail.PasswordAuthentication;
-import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
 
 @Singleton
 @Bind(EmailService.class)
 @SuppressWarnings("nls")
 public class EmailServiceImpl implements EmailService {
-  private static final String SMTP_AUTH_PROP = "mail.smtp.auth";
-  private static final String SUBMITTER_PROP = "mail.smtp.submitter";
   private static final String XMAILER = "EQUELLA";
-  private static final String HOST_PROP = "mail.host";
-  private static final String FROM_PROP = "mail.from";
-  private static final String PROTO_PROP = "mail.transport.protocol";
-  private static final String TLS_PROP = "mail.smtp.starttls.enable";
-  private static final String SMTP = "smtp";
   private static final String HTML_MIME_TYPE = "text/html; charset=UTF-8";
   private static final String TEXT_MIME_TYPE = "text/plain; charset=UTF-8";
 
@@ -72,6 +61,8 @@ public class EmailServiceImpl implements EmailService {
 
   @Inject private SystemConfigService systemConfigService;
 
+  @Inject private MailTransportPool transportPool;
+
   @Override
   public boolean isValidAddress(String emailAddress) {
     try {
@@ -110,36 +101,8 @@ public class EmailServiceImpl implements EmailService {
     InternetAddress senderAddr;
     try {
       senderAddr = new InternetAddress(senderEmail, settings.getSenderName(), Constants.UTF8);
-      final Properties props = System.getProperties();
-      String server = settings.getServer();
-      if (Check.isEmpty(server)) {
-        throw new RuntimeException(
-            "Incorrect mail settings - No server set on institution: "
-                + CurrentInstitution.get().getName());
-      }
-      int ind = server.indexOf(':');
-      if (ind != -1) {
-        props.put("mail.smtp.port", server.substring(ind + 1));
-        server = server.substring(0, ind);
-      }
-      props.put(HOST_PROP, server);
-      props.put(FROM_PROP, senderEmail);
-      props.put(PROTO_PROP, SMTP);
-      props.put(TLS_PROP, "true");
-
-      Session mailSession = null;
-      Authenticator auth = getAuthenticator(settings);
-      if (auth != null) {
-        props.put(SMTP_AUTH_PROP, "true");
-        props.put(SUBMITTER_PROP, auth.getPasswordAuthentication().getUserName());
-        mailSession = Session.getInstance(props, auth);
-      } else {
-        props.remove(SMTP_AUTH_PROP);
-        props.remove(SUBMITTER_PROP);
-        mailSession = Session.getDefaultInstance(props, null);
-      }
-
-      Message mimeMessage = new MimeMessage(mailSession);
+      MailServer server = getMailServer(settings);
+      Message mimeMessage = transportPool.createMessage(server);
       mimeMessage.setFrom(senderAddr);
 
       for (String email : emailAddresses) {
@@ -155,7 +118,7 @@ public class EmailServiceImpl implements EmailService {
       }
       mimeMessage.setHeader("Content-Type", type);
       mimeMessage.setContent(message, type);
-      return new EmailCallable<T>(mimeMessage, key);
+      return new EmailCallable<T>(transportPool, server, mimeMessage, key);
     } catch (UnsupportedEncodingException e) {
       throw new RuntimeException(e);
     } catch (MessagingException e) {
@@ -169,6 +132,27 @@ public class EmailServiceImpl implements EmailService {
     return createEmailer(subject, emailAddresses, message, key, getMailSettings());
   }
 
+  private MailServer getMailServer(MailSettings settings) {
+    String server = settings.getServer();
+    if (Check.isEmpty(server)) {
+      throw new RuntimeException(
+          "Incorrect mail settings - No server set on institution: "
+              + CurrentInstitution.get().getName());
+    }
+    String port = null;
+    int ind = server.indexOf(':');
+    if (ind != -1) {
+      port = server.substring(ind + 1);
+      server = server.substring(0, ind);
+    }
+    String username = settings.getUsername();
+    String password = settings.getPassword();
+    if (!Check.isEmpty(username) && !Check.isEmpty(password)) {
+      return new MailServer(server, port, username, encryptionService.decrypt(password));
+    }
+    return new MailServer(server, port, null, null);
+  }
+
   private MailSettings getMailSettings() {
     return configService.getProperties(new MailSettings());
   }
@@ -193,17 +177,6 @@ public class EmailServiceImpl implements EmailService {
     return mailSettings;
   }
 
-  private Authenticator getAuthenticator(final MailSettings settings) {
-    String username = settings.getUsername();
-    String password = settings.getPassword();
-    if (!Check.isEmpty(username) && !Check.isEmpty(password)) {
-      String dpwd = encryptionService.decrypt(password);
-      return new Authenticator(username, dpwd);
-    }
-
-    return null;
-  }
-
   @Override
   public Future<EmailResult<String>> sendEmail(
       String subject, List<String> emailAddresses, String message) {
@@ -225,10 +198,15 @@ public class EmailServiceImpl implements EmailService {
   }
 
   public static class EmailCallable<T> implements Callable<EmailResult<T>> {
+    private final MailTransportPool transportPool;
+    private final MailServer server;
     private final Message message;
     private final T key;
 
-    public EmailCallable(Message message, T key) {
+    public EmailCallable(
+        MailTransportPool transportPool, MailServer server, Message message, T key) {
+      this.transportPool = transportPool;
+      this.server = server;
       this.message = message;
       this.key = key;
     }
@@ -236,7 +214,7 @@ public class EmailServiceImpl implements EmailService {
     @Override
     public EmailResult<T> call() throws Exception {
       try {
-        Transport.send(message);
+        transportPool.send(server, message);
       } catch (Exception t) {
         return new EmailResult<T>(t, key);
       }
@@ -244,19 +222,6 @@ public class EmailServiceImpl implements EmailService {
     }
   }
 
-  private static class Authenticator extends javax.mail.Authenticator {
-    private final PasswordAuthentication authentication;
-
-    public Authenticator(String username, String password) {
-      authentication = new PasswordAuthentication(username, password);
-    }
-
-    @Override
-    public PasswordAuthentication getPasswordAuthentication() {
-      return authentication;
-    }
-  }
-
   @Override
   public boolean hasMailSettings() {
     MailSettings ms = getMailSettings();
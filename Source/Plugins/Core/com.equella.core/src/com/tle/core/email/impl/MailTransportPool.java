@@ -0,0 +1,407 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.email.impl;
+
+import com.google.common.base.Objects;
+import com.google.inject.Inject;
+import com.tle.common.NamedThreadFactory;
+import com.tle.core.guice.Bind;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.PasswordAuthentication;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps connected (and authenticated) SMTP transports open between messages, so that sending a lot
+ * of mail doesn't mean a new connection and TLS handshake for every message. Each mail server gets
+ * up to {@code maxConnections} connections. A connection is closed after {@code
+ * maxMessagesPerConnection} messages, or once it has been idle for {@code idleSeconds}.
+ *
+ * <p>Connections are pooled by host, port, user and password, so settings that differ only in
+ * their sender share connections. A pool that has had no connections for {@code idleSeconds} is
+ * dropped, which is how the pool for old settings goes away once nothing uses them.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class MailTransportPool {
+  private static final Log LOGGER = LogFactory.getLog(MailTransportPool.class);
+
+  private static final String SMTP = "smtp";
+
+  @Inject(optional = true)
+  @Named("email.smtp.maxConnections")
+  private int maxConnections = 4;
+
+  @Inject(optional = true)
+  @Named("email.smtp.maxMessagesPerConnection")
+  private int maxMessagesPerConnection = 100;
+
+  @Inject(optional = true)
+  @Named("email.smtp.idleSeconds")
+  private int idleSeconds = 30;
+
+  private final ConcurrentMap<MailServer, ServerPool> pools =
+      new ConcurrentHashMap<MailServer, ServerPool>();
+
+  private ScheduledExecutorService reaper;
+
+  /** A new message for the server, to be sent with {@link #send(MailServer, Message)} */
+  public MimeMessage createMessage(MailServer server) {
+    return new PooledMessage(getPool(server).session);
+  }
+
+  /**
+   * Sends the message on a pooled connection to the server, blocking while all of the server's
+   * connections are in use. If a reused connection turns out to have been dropped by the server
+   * before it was sent the message, the message is sent again on a new connection. Messages not
+   * created by {@link #createMessage(MailServer)} are never sent again, as there is no telling how
+   * far they got.
+   */
+  public void send(MailServer server, Message message) throws MessagingException {
+    ServerPool pool = getPool(server);
+    try {
+      pool.permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MessagingException("Interrupted waiting for a mail connection", e);
+    }
+    try {
+      PooledTransport transport = pool.borrow();
+      try {
+        transport.send(message);
+      } catch (MessagingException me) {
+        if (me instanceof SendFailedException && transport.transport.isConnected()) {
+          // The server rejected the message, the connection is still good
+          pool.release(transport);
+          throw me;
+        }
+        transport.close();
+        if (transport.sent > 0 && !isContentSent(message)) {
+          // Most likely the server timed out the connection while it sat in the pool
+          LOGGER.debug("Pooled mail connection failed, retrying on a new connection", me);
+          transport = pool.connect();
+          try {
+            transport.send(message);
+          } catch (MessagingException retryFailure) {
+            transport.close();
+            throw retryFailure;
+          }
+        } else {
+          throw me;
+        }
+      }
+      pool.release(transport);
+    } finally {
+      pool.permits.release();
+    }
+  }
+
+  /** Closes every idle connection, for all servers. */
+  public void closeAll() {
+    closeIdle(0);
+  }
+
+  void setMaxMessagesPerConnection(int maxMessagesPerConnection) {
+    this.maxMessagesPerConnection = maxMessagesPerConnection;
+  }
+
+  int getPoolCount() {
+    return pools.size();
+  }
+
+  /**
+   * If the message got as far as the server accepting its content it may have been delivered, even
+   * though the connection then failed.
+   */
+  private static boolean isContentSent(Message message) {
+    return !(message instanceof PooledMessage) || ((PooledMessage) message).contentSent;
+  }
+
+  private ServerPool getPool(MailServer server) {
+    ServerPool pool = pools.get(server);
+    if (pool == null) {
+      pool = addPool(server);
+    }
+    pool.lastUsed = System.currentTimeMillis();
+    return pool;
+  }
+
+  private synchronized ServerPool addPool(MailServer server) {
+    ServerPool pool = pools.get(server);
+    if (pool == null) {
+      pool = new ServerPool(server);
+      pools.put(server, pool);
+      startReaper();
+    }
+    return pool;
+  }
+
+  /**
+   * Closes connections idle for longer than idleMillis, and drops the pools left without any
+   * connections that nobody has used in that time.
+   */
+  private void closeIdle(long idleMillis) {
+    for (ServerPool pool : pools.values()) {
+      pool.closeIdle(idleMillis);
+      if (pool.isUnused(idleMillis) && pools.remove(pool.server, pool)) {
+        // Anything borrowed from it in the meantime is closed when released
+        pool.retire();
+      }
+    }
+  }
+
+  private void startReaper() {
+    if (reaper == null) {
+      reaper =
+          Executors.newSingleThreadScheduledExecutor(
+              new NamedThreadFactory("MailTransportPool.reaper"));
+      reaper.scheduleWithFixedDelay(
+          new Runnable() {
+            @Override
+            public void run() {
+              closeIdle(TimeUnit.SECONDS.toMillis(idleSeconds));
+            }
+          },
+          idleSeconds,
+          idleSeconds,
+          TimeUnit.SECONDS);
+    }
+  }
+
+  private class ServerPool {
+    final MailServer server;
+    final Session session;
+    final Semaphore permits = new Semaphore(maxConnections, true);
+    final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<PooledTransport>();
+    volatile boolean retired;
+    volatile long lastUsed = System.currentTimeMillis();
+
+    ServerPool(MailServer server) {
+      this.server = server;
+      this.session = server.createSession();
+    }
+
+    PooledTransport borrow() throws MessagingException {
+      PooledTransport transport;
+      while ((transport = idle.pollFirst()) != null) {
+        if (transport.transport.isConnected()) {
+          return transport;
+        }
+        transport.close();
+      }
+      return connect();
+    }
+
+    PooledTransport connect() throws MessagingException {
+      Transport transport = session.getTransport(SMTP);
+      transport.connect();
+      return new PooledTransport(this, transport);
+    }
+
+    void release(PooledTransport transport) {
+      if (retired || transport.sent >= maxMessagesPerConnection) {
+        transport.close();
+      } else {
+        transport.lastUsed = System.currentTimeMillis();
+        idle.offerFirst(transport);
+        // In case the pool was dropped in the meantime
+        if (retired) {
+          closeIdle(0);
+        }
+      }
+    }
+
+    boolean isUnused(long idleMillis) {
+      return lastUsed <= System.currentTimeMillis() - idleMillis
+          && idle.isEmpty()
+          && permits.availablePermits() == maxConnections;
+    }
+
+    /** No longer pooled, so closes its connections as they become idle */
+    void retire() {
+      retired = true;
+      closeIdle(0);
+    }
+
+    void closeIdle(long idleMillis) {
+      long before = System.currentTimeMillis() - idleMillis;
+      Iterator<PooledTransport> iter = idle.descendingIterator();
+      while (iter.hasNext()) {
+        PooledTransport transport = iter.next();
+        if (transport.lastUsed <= before && idle.remove(transport)) {
+          transport.close();
+        }
+      }
+    }
+  }
+
+  private static class PooledTransport {
+    final ServerPool pool;
+    final Transport transport;
+    final long opened = System.currentTimeMillis();
+    long lastUsed = opened;
+    long sendNanos;
+    int sent;
+
+    PooledTransport(ServerPool pool, Transport transport) {
+      this.pool = pool;
+      this.transport = transport;
+    }
+
+    void send(Message message) throws MessagingException {
+      long start = System.nanoTime();
+      if (message instanceof PooledMessage) {
+        ((PooledMessage) message).contentSent = false;
+      }
+      try {
+        message.saveChanges();
+        transport.sendMessage(message, message.getAllRecipients());
+      } finally {
+        sendNanos += System.nanoTime() - start;
+      }
+      sent++;
+    }
+
+    void close() {
+      try {
+        transport.close();
+      } catch (MessagingException e) {
+        // Closing a connection the server already dropped
+      }
+      if (LOGGER.isDebugEnabled() && sent > 0) {
+        long sendMillis = TimeUnit.NANOSECONDS.toMillis(sendNanos);
+        LOGGER.debug(
+            "Closed mail connection to "
+                + pool.server
+                + " after "
+                + sent
+                + " messages, open "
+                + (System.currentTimeMillis() - opened)
+                + "ms, sending "
+                + sendMillis
+                + "ms ("
+                + (sent * 1000L / Math.max(1, sendMillis))
+                + " messages/s)");
+      }
+    }
+  }
+
+  /**
+   * Knows whether its content has been written to a connection. The transport only does that once
+   * the server has accepted the envelope and the DATA command.
+   */
+  private static class PooledMessage extends MimeMessage {
+    volatile boolean contentSent;
+
+    PooledMessage(Session session) {
+      super(session);
+    }
+
+    @Override
+    public void writeTo(OutputStream os, String[] ignoreList)
+        throws IOException, MessagingException {
+      contentSent = true;
+      super.writeTo(os, ignoreList);
+    }
+  }
+
+  /** Everything needed to connect to a mail server */
+  public static class MailServer {
+    private final String host;
+    private final String port;
+    private final String username;
+    private final String password;
+
+    public MailServer(String host, String port, String username, String password) {
+      this.host = host;
+      this.port = port;
+      this.username = username;
+      this.password = password;
+    }
+
+    Session createSession() {
+      Properties props = new Properties();
+      props.putAll(System.getProperties());
+      props.put("mail.host", host);
+      if (port != null) {
+        props.put("mail.smtp.port", port);
+      }
+      props.put("mail.transport.protocol", SMTP);
+      props.put("mail.smtp.starttls.enable", "true");
+      if (username == null) {
+        props.remove("mail.smtp.auth");
+        props.remove("mail.smtp.submitter");
+        return Session.getInstance(props);
+      }
+      props.put("mail.smtp.auth", "true");
+      props.put("mail.smtp.submitter", username);
+      final PasswordAuthentication authentication = new PasswordAuthentication(username, password);
+      return Session.getInstance(
+          props,
+          new javax.mail.Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+              return authentication;
+            }
+          });
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof MailServer)) {
+        return false;
+      }
+      MailServer other = (MailServer) obj;
+      return Objects.equal(host, other.host)
+          && Objects.equal(port, other.port)
+          && Objects.equal(username, other.username)
+          && Objects.equal(password, other.password);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(host, port, username, password);
+    }
+
+    @Override
+    public String toString() {
+      return (username != null ? username + '@' : "") + host + (port != null ? ":" + port : "");
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.filesystem.event;
+
+import com.tle.common.filesystem.handle.FileHandle;
+import com.tle.core.events.ApplicationEvent;
+import com.tle.core.filesystem.event.listener.FilesCommittedListener;
+
+/** Fired once staged files have replaced the files of a permanent handle, e.g. an item's. */
+public class FilesCommittedEvent extends ApplicationEvent<FilesCommittedListener> {
+  private static final long serialVersionUID = 1L;
+  private final FileHandle destination;
+
+  public FilesCommittedEvent(FileHandle destination) {
+    super(PostTo.POST_TO_ALL_CLUSTER_NODES);
+    this.destination = destination;
+  }
+
+  public FileHandle getDestination() {
+    return destination;
+  }
+
+  @Override
+  public Class<FilesCommittedListener> getListener() {
+    return FilesCommittedListener.class;
+  }
+
+  @Override
+  public void postEvent(FilesCommittedListener listener) {
+    listener.filesCommitted(this);
+  }
+}
@@ -36,6 +36,9 @@ public class FilesystemModule extends OptionalConfigModule {
     bindBoolean("files.useXSendfile");
     bindBoolean("filestore.advanced");
     bindProp("filestore.zipExtractCharset", StandardCharsets.UTF_8.name());
+    bindInt("filestore.packageArchiveMinFiles", -1);
+    bindInt("filestore.archiveIndexCacheEntries", 200000);
+    bindInt("filestore.archiveThreads");
 
     final Map<String, Filestore> filestores = new HashMap<>();
     final String filestoresProp = getProperty("filestore.additional.ids");
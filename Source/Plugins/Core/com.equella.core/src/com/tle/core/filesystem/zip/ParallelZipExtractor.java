@@ -0,0 +1,161 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.filesystem.zip;
+
+import com.tle.annotation.Nullable;
+import com.tle.common.filesystem.FileSystemHelper;
+import com.tle.core.util.archive.ArchiveProgress;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Extracts a zip file on several threads at once. Each entry is read straight from the archive
+ * through its {@link ZipIndex}, so entries don't wait on each other, and stored entries are
+ * transferred from file to file without passing through the JVM heap. Progress is reported on the
+ * calling thread as entries finish.
+ */
+@SuppressWarnings("nls")
+public class ParallelZipExtractor {
+  private static final Log LOGGER = LogFactory.getLog(ParallelZipExtractor.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Executor executor;
+  private final int parallelism;
+
+  /** @param parallelism the most entries to be extracting at once */
+  public ParallelZipExtractor(Executor executor, int parallelism) {
+    this.executor = executor;
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * @param progress if given, entries that can't be extracted are logged and counted as warnings,
+   *     otherwise the first failure is thrown
+   */
+  public void extract(ZipIndex index, File destination, @Nullable ArchiveProgress progress)
+      throws IOException {
+    if (!destination.mkdirs() && !destination.isDirectory()) {
+      throw new IOException("Could not create directory " + destination.getAbsolutePath());
+    }
+    for (String dir : index.getDirectoryEntries()) {
+      getTarget(destination, dir).mkdirs();
+      if (progress != null) {
+        progress.nextEntry(dir);
+      }
+    }
+
+    final CompletionService<Result> completion = new ExecutorCompletionService<Result>(executor);
+    final Set<Future<Result>> running = new HashSet<Future<Result>>();
+    final Iterator<ZipIndex.Entry> entries = index.getEntries().iterator();
+    try {
+      while (true) {
+        while (running.size() < parallelism * 2 && entries.hasNext()) {
+          running.add(completion.submit(new ExtractEntry(index, entries.next(), destination)));
+        }
+        if (running.isEmpty()) {
+          return;
+        }
+
+        final Future<Result> done = completion.take();
+        running.remove(done);
+        final Result result = done.get();
+        if (result.failure != null) {
+          LOGGER.warn("Could not extract " + result.name, result.failure);
+          if (progress == null) {
+            throw result.failure;
+          }
+          progress.incrementWarningCount();
+          progress.setCallbackMessageValue(result.name);
+        }
+        if (progress != null) {
+          progress.nextEntry(result.name);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted extracting " + index.getFile());
+    } catch (ExecutionException e) {
+      throw new IOException("Error extracting " + index.getFile(), e.getCause());
+    } finally {
+      for (Future<Result> future : running) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  private static File getTarget(File destination, String name) {
+    return new File(destination.getPath() + '/' + FileSystemHelper.encode(name));
+  }
+
+  private static class ExtractEntry implements Callable<Result> {
+    private static final ThreadLocal<byte[]> BUFFERS =
+        ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final ZipIndex index;
+    private final ZipIndex.Entry entry;
+    private final File destination;
+
+    ExtractEntry(ZipIndex index, ZipIndex.Entry entry, File destination) {
+      this.index = index;
+      this.entry = entry;
+      this.destination = destination;
+    }
+
+    @Override
+    public Result call() {
+      final File target = getTarget(destination, entry.getName());
+      target.getParentFile().mkdirs();
+      try (FileChannel out =
+          FileChannel.open(
+              target.toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE)) {
+        index.transferTo(entry, out, BUFFERS.get());
+        return new Result(entry.getName(), null);
+      } catch (IOException e) {
+        return new Result(entry.getName(), e);
+      }
+    }
+  }
+
+  private static class Result {
+    final String name;
+    final IOException failure;
+
+    Result(String name, IOException failure) {
+      this.name = name;
+      this.failure = failure;
+    }
+  }
+}
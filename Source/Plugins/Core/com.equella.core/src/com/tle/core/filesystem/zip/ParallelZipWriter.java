@@ -0,0 +1,441 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.filesystem.zip;
+
+import com.google.common.io.CountingOutputStream;
+import com.tle.annotation.Nullable;
+import com.tle.core.util.archive.ArchiveProgress;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip file, compressing entries on several threads. Files of up to {@link
+ * #IN_MEMORY_LIMIT} bytes are deflated, and their CRCs computed, by the executor ahead of the
+ * writer, which then only has to copy out the compressed bytes under complete headers. Anything
+ * that doesn't get smaller is stored instead. Larger files are deflated by the writer as they're
+ * written, followed by a data descriptor.
+ *
+ * <p>Entries are written in the order they're added, reporting progress on the calling thread.
+ * Closing the writer writes the central directory (using ZIP64 where needed) and closes the
+ * output.
+ */
+@SuppressWarnings("nls")
+public class ParallelZipWriter implements Closeable {
+  static final int IN_MEMORY_LIMIT = 4 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int LOCAL_HEADER_SIG = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+  private static final int DESCRIPTOR_SIG = 0x08074b50;
+  private static final int END_SIG = 0x06054b50;
+  private static final int ZIP64_END_SIG = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+  private static final int ZIP64_EXTRA = 0x0001;
+
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+  private static final int DESCRIPTOR_FLAG = 1 << 3;
+  private static final int UTF8_FLAG = 1 << 11;
+  private static final int VERSION = 20;
+  private static final int VERSION_ZIP64 = 45;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+  private final CountingOutputStream out;
+  private final Executor executor;
+  private final int parallelism;
+  @Nullable private final ArchiveProgress progress;
+
+  private final Deque<Pending> pending = new ArrayDeque<Pending>();
+  private final List<Record> written = new ArrayList<Record>();
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private boolean failed;
+  private boolean closed;
+
+  /**
+   * @param parallelism the most entries to be compressing ahead of the writer
+   * @param progress told about each entry once it's been written
+   */
+  public ParallelZipWriter(
+      OutputStream out, Executor executor, int parallelism, @Nullable ArchiveProgress progress) {
+    this.out = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+    this.executor = executor;
+    this.parallelism = Math.max(1, parallelism);
+    this.progress = progress;
+  }
+
+  /**
+   * Adds a file to the zip, writing out any earlier entries needed to keep no more than {@code
+   * parallelism} entries waiting.
+   */
+  public void addFile(String name, File file) throws IOException {
+    addFile(name, file.toPath());
+  }
+
+  /**
+   * Adds a file, which may be in another file system such as a zip, to the zip. The file must stay
+   * readable until the writer is closed.
+   */
+  public void addFile(String name, final Path file) throws IOException {
+    FutureTask<Compressed> compress = null;
+    if (Files.size(file) <= IN_MEMORY_LIMIT) {
+      compress = new FutureTask<Compressed>(() -> compress(file));
+      executor.execute(compress);
+    }
+    pending.add(new Pending(name, file, compress));
+
+    while (pending.size() > parallelism) {
+      writeNext();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (!failed) {
+        while (!pending.isEmpty()) {
+          writeNext();
+        }
+        writeCentralDirectory();
+        out.flush();
+      }
+    } finally {
+      for (Pending entry : pending) {
+        if (entry.compress != null) {
+          entry.compress.cancel(false);
+        }
+      }
+      out.close();
+    }
+  }
+
+  private void writeNext() throws IOException {
+    final Pending next = pending.poll();
+    boolean done = false;
+    try {
+      final Record record;
+      if (next.compress != null) {
+        record = writeCompressed(next, getCompressed(next.compress));
+      } else {
+        record = writeStreamed(next);
+      }
+      written.add(record);
+      done = true;
+    } finally {
+      failed = !done;
+    }
+
+    if (progress != null) {
+      progress.nextEntry(next.name);
+    }
+  }
+
+  private static Compressed getCompressed(FutureTask<Compressed> compress) throws IOException {
+    try {
+      return compress.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a zip entry to be compressed");
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Error compressing zip entry", cause);
+    }
+  }
+
+  /** Runs on the executor */
+  private static Compressed compress(Path file) throws IOException {
+    final byte[] data = Files.readAllBytes(file);
+    final CRC32 crc = new CRC32();
+    crc.update(data, 0, data.length);
+
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      final ByteArrayOutputStream deflated = new ByteArrayOutputStream(data.length / 2 + 64);
+      final byte[] chunk = new byte[Math.min(BUFFER_SIZE, data.length + 64)];
+      while (!deflater.finished() && deflated.size() < data.length) {
+        deflated.write(chunk, 0, deflater.deflate(chunk));
+      }
+      if (deflater.finished() && deflated.size() < data.length) {
+        return new Compressed(DEFLATED, crc.getValue(), data.length, deflated.toByteArray());
+      }
+      return new Compressed(STORED, crc.getValue(), data.length, data);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private Record writeCompressed(Pending entry, Compressed compressed) throws IOException {
+    final Record record =
+        new Record(
+            entry.name,
+            compressed.method,
+            UTF8_FLAG,
+            dosTime(Files.getLastModifiedTime(entry.file).toMillis()),
+            out.getCount());
+    record.crc = compressed.crc;
+    record.compressedSize = compressed.data.length;
+    record.size = compressed.size;
+    writeLocalHeader(record);
+    out.write(compressed.data);
+    return record;
+  }
+
+  private Record writeStreamed(Pending entry) throws IOException {
+    final Record record =
+        new Record(
+            entry.name,
+            DEFLATED,
+            UTF8_FLAG | DESCRIPTOR_FLAG,
+            dosTime(Files.getLastModifiedTime(entry.file).toMillis()),
+            out.getCount());
+    // The CRC and sizes are left as zero, to be given by the data descriptor
+    writeLocalHeader(record);
+
+    final long start = out.getCount();
+    final CRC32 crc = new CRC32();
+    long size = 0;
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try (InputStream in = Files.newInputStream(entry.file)) {
+      // Not closed, which would close the zip
+      final DeflaterOutputStream deflating = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+        crc.update(buffer, 0, read);
+        deflating.write(buffer, 0, read);
+        size += read;
+      }
+      deflating.finish();
+    } finally {
+      deflater.end();
+    }
+    record.crc = crc.getValue();
+    record.compressedSize = out.getCount() - start;
+    record.size = size;
+
+    // As with ZipOutputStream, the sizes are only 64 bit if they need to be
+    final boolean zip64 = record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC;
+    final ByteBuffer descriptor = buffer(zip64 ? 24 : 16);
+    descriptor.putInt(DESCRIPTOR_SIG);
+    descriptor.putInt((int) record.crc);
+    if (zip64) {
+      descriptor.putLong(record.compressedSize);
+      descriptor.putLong(record.size);
+    } else {
+      descriptor.putInt((int) record.compressedSize);
+      descriptor.putInt((int) record.size);
+    }
+    write(descriptor);
+    return record;
+  }
+
+  private void writeLocalHeader(Record record) throws IOException {
+    final ByteBuffer header = buffer(30 + record.name.length);
+    header.putInt(LOCAL_HEADER_SIG);
+    header.putShort((short) VERSION);
+    header.putShort((short) record.flags);
+    header.putShort((short) record.method);
+    header.putInt((int) record.dosTime);
+    header.putInt((int) record.crc);
+    header.putInt((int) record.compressedSize);
+    header.putInt((int) record.size);
+    header.putShort((short) record.name.length);
+    header.putShort((short) 0);
+    header.put(record.name);
+    write(header);
+  }
+
+  private void writeCentralDirectory() throws IOException {
+    final long start = out.getCount();
+    for (Record record : written) {
+      final boolean bigSize = record.size >= ZIP64_MAGIC;
+      final boolean bigCompressed = record.compressedSize >= ZIP64_MAGIC;
+      final boolean bigOffset = record.offset >= ZIP64_MAGIC;
+      final int zip64Fields = (bigSize ? 1 : 0) + (bigCompressed ? 1 : 0) + (bigOffset ? 1 : 0);
+      final int extraLength = zip64Fields > 0 ? 4 + 8 * zip64Fields : 0;
+      final int version = zip64Fields > 0 ? VERSION_ZIP64 : VERSION;
+
+      final ByteBuffer header = buffer(46 + record.name.length + extraLength);
+      header.putInt(CENTRAL_HEADER_SIG);
+      header.putShort((short) version);
+      header.putShort((short) version);
+      header.putShort((short) record.flags);
+      header.putShort((short) record.method);
+      header.putInt((int) record.dosTime);
+      header.putInt((int) record.crc);
+      header.putInt((int) (bigCompressed ? ZIP64_MAGIC : record.compressedSize));
+      header.putInt((int) (bigSize ? ZIP64_MAGIC : record.size));
+      header.putShort((short) record.name.length);
+      header.putShort((short) extraLength);
+      // Comment length, disk number, internal and external attributes
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putInt(0);
+      header.putInt((int) (bigOffset ? ZIP64_MAGIC : record.offset));
+      header.put(record.name);
+      if (zip64Fields > 0) {
+        header.putShort((short) ZIP64_EXTRA);
+        header.putShort((short) (8 * zip64Fields));
+        if (bigSize) {
+          header.putLong(record.size);
+        }
+        if (bigCompressed) {
+          header.putLong(record.compressedSize);
+        }
+        if (bigOffset) {
+          header.putLong(record.offset);
+        }
+      }
+      write(header);
+    }
+
+    final long end = out.getCount();
+    final long size = end - start;
+    final long count = written.size();
+    final boolean zip64 = count >= 0xFFFF || size >= ZIP64_MAGIC || start >= ZIP64_MAGIC;
+    if (zip64) {
+      final ByteBuffer end64 = buffer(56 + 20);
+      end64.putInt(ZIP64_END_SIG);
+      end64.putLong(44);
+      end64.putShort((short) VERSION_ZIP64);
+      end64.putShort((short) VERSION_ZIP64);
+      end64.putInt(0);
+      end64.putInt(0);
+      end64.putLong(count);
+      end64.putLong(count);
+      end64.putLong(size);
+      end64.putLong(start);
+      end64.putInt(ZIP64_LOCATOR_SIG);
+      end64.putInt(0);
+      end64.putLong(end);
+      end64.putInt(1);
+      write(end64);
+    }
+
+    final ByteBuffer endRecord = buffer(22);
+    endRecord.putInt(END_SIG);
+    endRecord.putShort((short) 0);
+    endRecord.putShort((short) 0);
+    endRecord.putShort((short) (zip64 ? 0xFFFF : count));
+    endRecord.putShort((short) (zip64 ? 0xFFFF : count));
+    endRecord.putInt((int) (zip64 ? ZIP64_MAGIC : size));
+    endRecord.putInt((int) (zip64 ? ZIP64_MAGIC : start));
+    endRecord.putShort((short) 0);
+    write(endRecord);
+  }
+
+  private static ByteBuffer buffer(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void write(ByteBuffer data) throws IOException {
+    out.write(data.array(), 0, data.position());
+  }
+
+  /** The MS-DOS date and time, in local time, as used by zip headers */
+  private static long dosTime(long millis) {
+    final Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(millis);
+    final int year = cal.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return ((long) (year - 1980) << 25)
+        | ((cal.get(Calendar.MONTH) + 1) << 21)
+        | (cal.get(Calendar.DAY_OF_MONTH) << 16)
+        | (cal.get(Calendar.HOUR_OF_DAY) << 11)
+        | (cal.get(Calendar.MINUTE) << 5)
+        | (cal.get(Calendar.SECOND) >> 1);
+  }
+
+  private static class Pending {
+    final String name;
+    final Path file;
+    @Nullable final FutureTask<Compressed> compress;
+
+    Pending(String name, Path file, @Nullable FutureTask<Compressed> compress) {
+      this.name = name;
+      this.file = file;
+      this.compress = compress;
+    }
+  }
+
+  private static class Compressed {
+    final int method;
+    final long crc;
+    final long size;
+    final byte[] data;
+
+    Compressed(int method, long crc, long size, byte[] data) {
+      this.method = method;
+      this.crc = crc;
+      this.size = size;
+      this.data = data;
+    }
+  }
+
+  /** What the central directory needs to know about a written entry */
+  private static class Record {
+    final byte[] name;
+    final int method;
+    final int flags;
+    final long dosTime;
+    final long offset;
+    long crc;
+    long compressedSize;
+    long size;
+
+    Record(String name, int method, int flags, long dosTime, long offset) {
+      this.name = name.getBytes(StandardCharsets.UTF_8);
+      this.method = method;
+      this.flags = flags;
+      this.dosTime = dosTime;
+      this.offset = offset;
+    }
+  }
+}
@@ -0,0 +1,479 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.filesystem.zip;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The central directory of a zip file, read once so that entries can be served straight from the
+ * archive without extracting it. Each {@link #openStream} opens the archive afresh, so an index can
+ * be shared between threads. Stored entries are read in place and can be skipped through cheaply;
+ * deflated entries are inflated as they are read.
+ */
+@SuppressWarnings("nls")
+public final class ZipIndex {
+  private static final int LOCAL_HEADER_SIG = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+  private static final int END_SIG = 0x06054b50;
+  private static final int ZIP64_END_SIG = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIZE = 22;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_END_SIZE = 56;
+  private static final int MAX_COMMENT = 0xFFFF;
+  private static final int ZIP64_EXTRA = 0x0001;
+  private static final int UTF8_FLAG = 1 << 11;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+  private final File file;
+  private final long lastModified;
+  private final long length;
+  private final Map<String, Entry> entries;
+  private final Set<String> directories;
+  private final List<String> directoryEntries;
+
+  // Built on the first listing
+  private volatile Map<String, SortedMap<String, Entry>> folders;
+
+  private ZipIndex(
+      File file,
+      long lastModified,
+      long length,
+      Map<String, Entry> entries,
+      Set<String> directories,
+      List<String> directoryEntries) {
+    this.file = file;
+    this.lastModified = lastModified;
+    this.length = length;
+    this.entries = entries;
+    this.directories = directories;
+    this.directoryEntries = directoryEntries;
+  }
+
+  /**
+   * Reads the central directory of a zip file.
+   *
+   * @param charset for entry names that aren't flagged as UTF-8
+   */
+  public static ZipIndex read(File file, Charset charset) throws IOException {
+    final long lastModified = file.lastModified();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      final FileChannel channel = raf.getChannel();
+      final long length = channel.size();
+
+      final long endOffset = findEnd(channel, length);
+      final ByteBuffer end = readFully(channel, endOffset, END_SIZE);
+      long count = end.getShort(10) & 0xFFFF;
+      long size = end.getInt(12) & ZIP64_MAGIC;
+      long offset = end.getInt(16) & ZIP64_MAGIC;
+
+      if (endOffset >= ZIP64_LOCATOR_SIZE) {
+        final ByteBuffer locator =
+            readFully(channel, endOffset - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+        if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+          final ByteBuffer end64 = readFully(channel, locator.getLong(8), ZIP64_END_SIZE);
+          if (end64.getInt(0) != ZIP64_END_SIG) {
+            throw new ZipException("Invalid ZIP64 end of central directory in " + file);
+          }
+          count = end64.getLong(32);
+          size = end64.getLong(40);
+          offset = end64.getLong(48);
+        }
+      }
+      if (offset + size > endOffset || size > Integer.MAX_VALUE) {
+        throw new ZipException("Invalid central directory in " + file);
+      }
+
+      final ByteBuffer central = readFully(channel, offset, (int) size);
+      final Map<String, Entry> entries = new HashMap<String, Entry>((int) (count * 4 / 3) + 1);
+      final Set<String> directories = new HashSet<String>();
+      final List<String> directoryEntries = new ArrayList<String>();
+      int pos = 0;
+      for (long i = 0; i < count; i++) {
+        if (pos + CENTRAL_HEADER_SIZE > size || central.getInt(pos) != CENTRAL_HEADER_SIG) {
+          throw new ZipException("Invalid central directory entry in " + file);
+        }
+        final int flags = central.getShort(pos + 8) & 0xFFFF;
+        final int method = central.getShort(pos + 10) & 0xFFFF;
+        final long crc = central.getInt(pos + 16) & ZIP64_MAGIC;
+        long compressedSize = central.getInt(pos + 20) & ZIP64_MAGIC;
+        long uncompressedSize = central.getInt(pos + 24) & ZIP64_MAGIC;
+        final int nameLength = central.getShort(pos + 28) & 0xFFFF;
+        final int extraLength = central.getShort(pos + 30) & 0xFFFF;
+        final int commentLength = central.getShort(pos + 32) & 0xFFFF;
+        long localOffset = central.getInt(pos + 42) & ZIP64_MAGIC;
+
+        final int namePos = pos + CENTRAL_HEADER_SIZE;
+        final byte[] nameBytes = new byte[nameLength];
+        central.position(namePos);
+        central.get(nameBytes);
+        final Charset nameCharset = (flags & UTF8_FLAG) != 0 ? StandardCharsets.UTF_8 : charset;
+        // Some poorly created zip files use backslashes as the directory separator
+        final String name = new String(nameBytes, nameCharset).replace('\\', '/');
+
+        // Sizes and offsets too big for the header are in the ZIP64 extra field, in this order
+        int extraPos = namePos + nameLength;
+        final int extraEnd = extraPos + extraLength;
+        while (extraPos + 4 <= extraEnd) {
+          final int id = central.getShort(extraPos) & 0xFFFF;
+          final int dataSize = central.getShort(extraPos + 2) & 0xFFFF;
+          if (id == ZIP64_EXTRA) {
+            int field = extraPos + 4;
+            if (uncompressedSize == ZIP64_MAGIC) {
+              uncompressedSize = central.getLong(field);
+              field += 8;
+            }
+            if (compressedSize == ZIP64_MAGIC) {
+              compressedSize = central.getLong(field);
+              field += 8;
+            }
+            if (localOffset == ZIP64_MAGIC) {
+              localOffset = central.getLong(field);
+            }
+          }
+          extraPos += 4 + dataSize;
+        }
+        pos = extraEnd + commentLength;
+
+        if (name.endsWith("/")) {
+          directoryEntries.add(name);
+          addDirectories(directories, name.substring(0, name.length() - 1));
+        } else {
+          addDirectories(directories, parent(name));
+          entries.put(
+              name, new Entry(name, method, crc, compressedSize, uncompressedSize, localOffset));
+        }
+      }
+      return new ZipIndex(file, lastModified, length, entries, directories, directoryEntries);
+    }
+  }
+
+  private static long findEnd(FileChannel channel, long length) throws IOException {
+    if (length < END_SIZE) {
+      throw new ZipException("Not a zip file");
+    }
+    // The end record is followed by a comment of up to 64K
+    final int tailSize = (int) Math.min(length, END_SIZE + MAX_COMMENT);
+    final long tailOffset = length - tailSize;
+    final ByteBuffer tail = readFully(channel, tailOffset, tailSize);
+    for (int pos = tailSize - END_SIZE; pos >= 0; pos--) {
+      if (tail.getInt(pos) == END_SIG
+          && pos + END_SIZE + (tail.getShort(pos + 20) & 0xFFFF) == tailSize) {
+        return tailOffset + pos;
+      }
+    }
+    throw new ZipException("Could not find the end of the central directory");
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long offset, int size)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of zip file");
+      }
+    }
+    buffer.flip();
+    return buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static String parent(String name) {
+    final int slash = name.lastIndexOf('/');
+    return slash < 0 ? "" : name.substring(0, slash);
+  }
+
+  private static void addDirectories(Set<String> directories, String dir) {
+    while (!dir.isEmpty() && directories.add(dir)) {
+      dir = parent(dir);
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /** Whether the archive has changed on disk since it was indexed */
+  public boolean isStale() {
+    return file.lastModified() != lastModified || file.length() != length;
+  }
+
+  /** @return the file entry with the given path, or null if there isn't one */
+  public Entry getEntry(String path) {
+    return entries.get(path);
+  }
+
+  /** Whether any entry is under the given folder path */
+  public boolean isDirectory(String path) {
+    return directories.contains(path);
+  }
+
+  /** The file entries, i.e. not including directory entries */
+  public Collection<Entry> getEntries() {
+    return Collections.unmodifiableCollection(entries.values());
+  }
+
+  /** The names of the entries for directories, which end with a slash */
+  public List<String> getDirectoryEntries() {
+    return Collections.unmodifiableList(directoryEntries);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Lists a folder of the archive, "" being the top.
+   *
+   * @return the names of the files and folders directly in the folder, mapped to their entries
+   *     (null for folders), or null if there's no such folder
+   */
+  public SortedMap<String, Entry> list(String folder) {
+    Map<String, SortedMap<String, Entry>> listings = folders;
+    if (listings == null) {
+      listings = new HashMap<String, SortedMap<String, Entry>>();
+      listings.put("", new TreeMap<String, Entry>());
+      for (String dir : directories) {
+        listings.put(dir, new TreeMap<String, Entry>());
+      }
+      for (String dir : directories) {
+        listings.get(parent(dir)).put(dir.substring(dir.lastIndexOf('/') + 1), null);
+      }
+      for (Entry entry : entries.values()) {
+        final String name = entry.getName();
+        listings.get(parent(name)).put(name.substring(name.lastIndexOf('/') + 1), entry);
+      }
+      for (Map.Entry<String, SortedMap<String, Entry>> listing : listings.entrySet()) {
+        listing.setValue(Collections.unmodifiableSortedMap(listing.getValue()));
+      }
+      folders = listings;
+    }
+    return listings.get(folder);
+  }
+
+  /** Opens the uncompressed content of an entry. The caller must close the stream. */
+  public InputStream openStream(Entry entry) throws IOException {
+    if (entry.method != Entry.STORED && entry.method != Entry.DEFLATED) {
+      throw new ZipException(
+          "Unsupported compression method " + entry.method + " for " + entry.name);
+    }
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final long dataOffset = getDataOffset(raf.getChannel(), entry);
+      final InputStream data = new RegionInputStream(raf, dataOffset, entry.compressedSize);
+      return entry.method == Entry.STORED ? data : new EntryInflaterInputStream(data);
+    } catch (IOException | RuntimeException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Writes the uncompressed content of an entry to a channel. Stored entries are transferred
+   * straight from the archive file, others are inflated through {@code buffer}.
+   */
+  public void transferTo(Entry entry, WritableByteChannel target, byte[] buffer)
+      throws IOException {
+    if (entry.method != Entry.STORED) {
+      try (InputStream in = openStream(entry)) {
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+          final ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+          while (data.hasRemaining()) {
+            target.write(data);
+          }
+        }
+      }
+      return;
+    }
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      final FileChannel channel = raf.getChannel();
+      long position = getDataOffset(channel, entry);
+      long remaining = entry.compressedSize;
+      while (remaining > 0) {
+        final long sent = channel.transferTo(position, remaining, target);
+        if (sent <= 0) {
+          throw new EOFException("Unexpected end of zip file reading " + entry.name);
+        }
+        position += sent;
+        remaining -= sent;
+      }
+    }
+  }
+
+  private long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+    final ByteBuffer header = readFully(channel, entry.localOffset, LOCAL_HEADER_SIZE);
+    if (header.getInt(0) != LOCAL_HEADER_SIG) {
+      throw new ZipException("Invalid local header for " + entry.name);
+    }
+    return entry.localOffset
+        + LOCAL_HEADER_SIZE
+        + (header.getShort(26) & 0xFFFF)
+        + (header.getShort(28) & 0xFFFF);
+  }
+
+  public static final class Entry {
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localOffset;
+
+    Entry(String name, int method, long crc, long compressedSize, long size, long localOffset) {
+      this.name = name;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localOffset = localOffset;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    /** The uncompressed size */
+    public long getSize() {
+      return size;
+    }
+
+    /** Whether the entry is stored without compression, and so can be skipped through cheaply */
+    public boolean isStored() {
+      return method == STORED;
+    }
+  }
+
+  /** Reads a region of a file, seeking rather than reading when skipping. */
+  private static class RegionInputStream extends InputStream {
+    private final RandomAccessFile raf;
+    private final long end;
+    private long position;
+
+    RegionInputStream(RandomAccessFile raf, long offset, long length) {
+      this.raf = raf;
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= end) {
+        return -1;
+      }
+      raf.seek(position);
+      final int read = raf.read(b, off, (int) Math.min(len, end - position));
+      if (read > 0) {
+        position += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      final long skipped = Math.max(0, Math.min(n, end - position));
+      position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+      raf.close();
+    }
+  }
+
+  private static class EntryInflaterInputStream extends InflaterInputStream {
+    private boolean eof;
+
+    EntryInflaterInputStream(InputStream in) {
+      super(in, new Inflater(true), 8192);
+    }
+
+    @Override
+    protected void fill() throws IOException {
+      if (eof) {
+        throw new EOFException("Unexpected end of zip entry");
+      }
+      len = in.read(buf, 0, buf.length);
+      if (len == -1) {
+        // Raw inflation may need an extra byte past the end of the data
+        buf[0] = 0;
+        len = 1;
+        eof = true;
+      }
+      inf.setInput(buf, 0, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        inf.end();
+      }
+    }
+  }
+}
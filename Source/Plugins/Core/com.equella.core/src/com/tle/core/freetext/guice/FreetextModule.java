@@ -52,6 +52,7 @@ public class FreetextModule extends PropertiesModule {
     @Override
     protected void configure() {
       bindProp("freetext.analyzer.language", "en");
+      bindInt("searchSet.expansionCache.maxKilobytes", 4096);
     }
   }
 }
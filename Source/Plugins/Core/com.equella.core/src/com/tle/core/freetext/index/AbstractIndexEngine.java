@@ -191,6 +191,20 @@ public abstract class AbstractIndexEngine {
     }
   }
 
+  /**
+   * The version of the index that searches currently see. It changes whenever documents are added
+   * or removed, so it can be used to tell when anything derived from search results is stale.
+   */
+  public long getSearcherVersion() {
+    return search(
+        new Searcher<Long>() {
+          @Override
+          public Long search(IndexSearcher searcher) {
+            return searcher.getIndexReader().getVersion();
+          }
+        });
+  }
+
   public void setStopWordsFile(File stopWordsFile) {
     this.stopWordsFile = stopWordsFile;
   }
@@ -116,6 +116,7 @@ import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeFilter;
 import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TotalHitCountCollector;
@@ -283,8 +284,7 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
               deleteablesFilter.setOnlyCollectResults(true);
               filters.add(deleteablesFilter);
             }
-            Filter filter =
-                new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.AND);
+            Filter filter = chainFilters(filters);
 
             Sort sorter = getSorter(searchreq);
 
@@ -370,6 +370,51 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
         });
   }
 
+  /**
+   * Returns the next results in item ID order, rather than the order of the search request, after
+   * the given ID. Unlike paging with a start offset, each call only has to collect {@code count}
+   * hits no matter how far through the results it is, and the ID remains a valid place to resume
+   * from when items are indexed in between calls.
+   *
+   * @param afterId The {@link FreeTextQuery#FIELD_ID} of the last result already returned, or null
+   *     to start from the beginning.
+   * @param count 1 or greater.
+   */
+  public SearchResults<T> searchAfter(
+      final Search searchreq,
+      @Nullable final String afterId,
+      final int count,
+      final boolean searchAttachment) {
+    return search(
+        new Searcher<SearchResults<T>>() {
+          @Override
+          public SearchResults<T> search(IndexSearcher searcher) throws IOException {
+            Query query = getQuery(searchreq, searcher.getIndexReader(), searchAttachment);
+            TopDocs hits = searchAfterId(searcher, query, getFilters(searchreq), afterId, count);
+            return getResultsFromTopDocs(searcher, hits, 0, null, searchreq);
+          }
+        });
+  }
+
+  /**
+   * The first {@code count} hits passing all of {@code filters} whose {@link FreeTextQuery#FIELD_ID}
+   * sorts after {@code afterId}. The filter and the sort both compare IDs as strings, so every hit
+   * is returned exactly once however the IDs compare as numbers.
+   */
+  static TopDocs searchAfterId(
+      IndexSearcher searcher,
+      Query query,
+      Collection<Filter> filters,
+      @Nullable String afterId,
+      int count)
+      throws IOException {
+    if (afterId != null) {
+      filters.add(new TermRangeFilter(FreeTextQuery.FIELD_ID, afterId, null, false, false));
+    }
+    Sort sorter = new Sort(new SortField(FreeTextQuery.FIELD_ID, SortField.STRING));
+    return searcher.search(query, chainFilters(filters), count, sorter);
+  }
+
   private Query addUniqueIdClauseToQuery(
       Query query, SearchResults<T> itemResults, IndexReader reader) {
     List<T> results = itemResults.getResults();
@@ -427,8 +472,7 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
               deleteablesFilter.setOnlyCollectResults(true);
               filters.add(deleteablesFilter);
             }
-            Filter filter =
-                new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.AND);
+            Filter filter = chainFilters(filters);
 
             IndexReader indexReader = searcher.getIndexReader();
             Query query = getQuery(searchreq, indexReader, searchAttachments);
@@ -600,29 +644,35 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
             final OpenBitSet filteredBits =
                 searchRequestToBitSet(searchreq, searcher, reader, false);
 
-            final Multimap<String, Pair<String, Integer>> rv = ArrayListMultimap.create();
-            for (String field : fields) {
-              for (Term term : new XPathFieldIterator(reader, field, "")) {
-                int count = 0;
-
-                TermDocs docs = reader.termDocs(term);
-                while (docs.next()) {
-                  if (filteredBits.get(docs.doc())) {
-                    count++;
-                  }
-                }
-                docs.close();
-
-                if (count > 0) {
-                  rv.put(field, new Pair<String, Integer>(term.text(), count));
-                }
-              }
-            }
-            return rv;
+            return countFacets(reader, filteredBits, fields);
           }
         });
   }
 
+  /** Counts the documents in {@code filteredBits} having each term of each field */
+  static Multimap<String, Pair<String, Integer>> countFacets(
+      IndexReader reader, OpenBitSet filteredBits, Collection<String> fields) throws IOException {
+    final Multimap<String, Pair<String, Integer>> rv = ArrayListMultimap.create();
+    for (String field : fields) {
+      for (Term term : new XPathFieldIterator(reader, field, "")) {
+        int count = 0;
+
+        TermDocs docs = reader.termDocs(term);
+        while (docs.next()) {
+          if (filteredBits.get(docs.doc())) {
+            count++;
+          }
+        }
+        docs.close();
+
+        if (count > 0) {
+          rv.put(field, new Pair<String, Integer>(term.text(), count));
+        }
+      }
+    }
+    return rv;
+  }
+
   public MatrixResults matrixSearch(
       @Nullable final Search searchreq,
       final List<String> fields,
@@ -733,9 +783,7 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
             Collection<Filter> filters = getFilters(request);
             Query query = getQuery(request, reader, isSearchAttachment);
             filters.add(new QueryWrapperFilter(query));
-            ChainedFilter chain =
-                new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.AND);
-            DocIdSetIterator iterator = chain.getDocIdSet(reader).iterator();
+            DocIdSetIterator iterator = chainFilters(filters).getDocIdSet(reader).iterator();
 
             // Get docs that contain terms that begin with the prefix
             List<Term> termList = Lists.newArrayList();
@@ -972,7 +1020,11 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
   }
 
   protected Filter getFilter(Search request) {
-    Collection<Filter> filters = getFilters(request);
+    return chainFilters(getFilters(request));
+  }
+
+  /** A filter only letting through the documents that pass all of {@code filters} */
+  static Filter chainFilters(Collection<Filter> filters) {
     return new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.AND);
   }
 
@@ -981,6 +1033,29 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
    * required.
    */
   protected Collection<Filter> getFilters(Search request) {
+    String privPrefix = request.getPrivilegePrefix();
+    String privilege = request.getPrivilege();
+    if (privPrefix == null && privilege != null) {
+      privPrefix = getPrefixForPrivilege(privilege);
+    }
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug(
+          "Must "
+              + request.getMust()
+              + ": Must Not: "
+              + request.getMustNot()
+              + " Privilege:"
+              + privilege);
+    }
+    return getFilters(request, privPrefix);
+  }
+
+  /**
+   * The filters for a search request, with the privilege already turned into its ACL prefix.
+   *
+   * @param privPrefix the ACL prefix to filter by, or null to not filter by privilege
+   */
+  static Collection<Filter> getFilters(Search request, @Nullable String privPrefix) {
     List<Filter> filters = Lists.newArrayList();
 
     Date[] dateRange = request.getDateRange();
@@ -1009,20 +1084,12 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
       }
     }
 
-    String privPrefix = request.getPrivilegePrefix();
-    String privilege = request.getPrivilege();
-    if (privPrefix == null && privilege != null) {
-      privPrefix = getPrefixForPrivilege(privilege);
-    }
     if (privPrefix != null) {
       filters.add(new SecurityFilter(privPrefix));
     }
 
     List<List<Field>> must = request.getMust();
     List<List<Field>> mustNot = request.getMustNot();
-    if (LOGGER.isDebugEnabled()) {
-      LOGGER.debug("Must " + must + ": Must Not: " + mustNot + " Privilege:" + privilege);
-    }
     if (must != null && !must.isEmpty()) {
       filters.add(new MustFilter(must));
     }
@@ -1037,7 +1104,7 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
     return filters;
   }
 
-  protected DateFilter createDateFilter(
+  protected static DateFilter createDateFilter(
       String fieldName, Date[] range, Dates indexDateFormat, boolean useServerTimeZone) {
     if (range.length != 2 || (range[0] != null && range[1] != null && range[0].after(range[1]))) {
       throw new InvalidDateRangeException();
@@ -1445,7 +1512,7 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
     }
   }
 
-  private static class BitSetCollector extends Collector {
+  static class BitSetCollector extends Collector {
     private int docBase;
     private final OpenBitSet bitSet = new OpenBitSet();
 
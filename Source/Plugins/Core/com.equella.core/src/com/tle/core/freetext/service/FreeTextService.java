@@ -55,6 +55,18 @@ public interface FreeTextService {
   <T extends FreetextResult> FreetextSearchResults<T> search(
       Search searchReq, int start, int count, boolean searchAttachments);
 
+  /**
+   * Returns search results in item ID order for walking through every result of a search. Pass the
+   * key of the last result returned as {@code afterKey} to get the next results.
+   *
+   * @param searchReq A search request. Its sort order is ignored.
+   * @param afterKey The item key of the last result already returned, or null to start.
+   * @param count The maximum number of results requested.
+   * @param searchAttachments Whether to search attachments.
+   */
+  <T extends FreetextResult> FreetextSearchResults<T> searchAfter(
+      Search searchReq, Long afterKey, int count, boolean searchAttachments);
+
   SearchResults<ItemIdKey> searchIds(Search searchreq, int nStart, int nCount);
 
   LongSet searchIdsBitSet(Search searchreq);
@@ -270,6 +270,14 @@ public class FreeTextServiceImpl
     return new StdFreetextResults<T>(itemService, results, searchReq);
   }
 
+  @Override
+  public <T extends FreetextResult> FreetextSearchResults<T> searchAfter(
+      Search searchReq, Long afterKey, int count, boolean searchAttachments) {
+    String afterId = afterKey != null ? Long.toString(afterKey) : null;
+    SearchResults<T> results = indexer.searchAfter(searchReq, afterId, count, searchAttachments);
+    return new StdFreetextResults<T>(itemService, results, searchReq);
+  }
+
   @Override
   public SearchResults<ItemIdKey> searchIds(Search searchreq, int nStart, int nCount) {
     SearchResults<FreetextResult> results = indexer.search(searchreq, nStart, nCount);
@@ -23,18 +23,27 @@ import com.tle.beans.entity.itemdef.ItemDefinition;
 import com.tle.common.filesystem.handle.StagingFile;
 import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.i18n.CurrentLocale;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.UserState;
+import com.tle.core.harvester.HarvestPipeline.BatchProcessor;
+import com.tle.core.harvester.HarvestPipeline.CheckpointListener;
+import com.tle.core.harvester.HarvestPipeline.PageSource;
 import com.tle.core.harvester.old.ContentRepository;
 import com.tle.core.harvester.old.LearningObject;
 import com.tle.core.harvester.old.TLEItem;
 import com.tle.core.harvester.search.HarvesterSearch;
+import com.tle.core.institution.RunAsInstitution;
 import com.tle.core.plugins.AbstractPluginService;
 import com.tle.core.services.FileSystemService;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
+import javax.inject.Named;
 import org.apache.log4j.Logger;
 
 @SuppressWarnings("nls")
@@ -43,8 +52,26 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
   protected static final String KEY_PFX =
       AbstractPluginService.getMyPluginId(AbstractHarvesterProtocol.class) + ".";
 
+  // Profile attributes recording how far an interrupted harvest got
+  public static final String CHECKPOINT_TOKEN = "harvestCheckpoint";
+  public static final String CHECKPOINT_FROM = "harvestCheckpointFrom";
+  public static final String CHECKPOINT_STARTED = "harvestCheckpointStarted";
+
   @Inject private LearningEdge learningEdge;
   @Inject private FileSystemService fileSystemService;
+  @Inject private RunAsInstitution runAs;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("harvester.workers")
+  private int workers = 4;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("harvester.prefetchPages")
+  private int prefetchPages = 3;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("harvester.batchSize")
+  private int batchSize = 20;
 
   private HarvesterProfile profile;
 
@@ -65,39 +92,107 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
   }
 
   private int runProfile(boolean testOnly) throws Exception {
+    if (testOnly) {
+      return getUpdatedLearningObjects(profile.getLastRun()).size();
+    }
+
     Date lastRun = profile.getLastRun();
     Date started = new Date();
-
-    Collection<LearningObject> results = getUpdatedLearningObjects(lastRun);
-
-    int i = 0;
-    int size = results.size();
-
-    if (testOnly) {
-      return size;
+    String resumeFrom = profile.getAttribute(CHECKPOINT_TOKEN);
+    if (resumeFrom != null && !resumeFrom.isEmpty()) {
+      // Carry on with the interrupted harvest, finishing it as if it had never stopped
+      lastRun = new Date(Long.parseLong(profile.getAttribute(CHECKPOINT_FROM)));
+      started = new Date(Long.parseLong(profile.getAttribute(CHECKPOINT_STARTED)));
+      LOGGER.info("Resuming harvest for " + profile.getAttribute("server") + " from checkpoint");
+    } else {
+      resumeFrom = null;
     }
 
     LOGGER.info(
         CurrentLocale.get("com.tle.core.harvester.log.run", profile.getAttribute("server")));
-    LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.results", size, lastRun.toString()));
 
-    for (LearningObject lobject : results) {
-      boolean boo = false;
-      processLearningObject(lobject);
-      if (boo) {
-        break;
-      }
+    final Date from = lastRun;
+    final Date harvestStarted = started;
+    final UserState userState = CurrentUser.getUserState();
+    final AtomicInteger done = new AtomicInteger();
+    int total =
+        new HarvestPipeline(workers, prefetchPages, batchSize)
+            .run(
+                getUpdatedPages(lastRun, resumeFrom),
+                new BatchProcessor() {
+                  @Override
+                  public void process(final List<LearningObject> batch) {
+                    runAs.execute(
+                        userState,
+                        new Callable<Void>() {
+                          @Override
+                          public Void call() {
+                            processBatch(batch, done);
+                            return null;
+                          }
+                        });
+                  }
+                },
+                new CheckpointListener() {
+                  @Override
+                  public void reached(String checkpoint) {
+                    learningEdge.updateProfileCheckpoint(profile, checkpoint, from, harvestStarted);
+                  }
+                });
+
+    LOGGER.info(
+        CurrentLocale.get(
+            "com.tle.core.harvester.log.total", total, profile.getAttribute("server")));
 
+    learningEdge.updateProfileCheckpoint(profile, null, null, null);
+    updateProfileRunDate(started);
+    return total;
+  }
+
+  /**
+   * Harvests a batch of objects in a single transaction. If anything in the batch fails, the
+   * objects are harvested again one at a time so that one bad object doesn't lose the rest.
+   */
+  private void processBatch(final List<LearningObject> batch, final AtomicInteger done) {
+    try {
+      learningEdge.inTransaction(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              for (LearningObject lobject : batch) {
+                harvest(lobject);
+              }
+              return null;
+            }
+          });
+    } catch (Exception ex) {
+      if (batch.size() == 1) {
+        logUploadError(batch.get(0), ex);
+      } else {
+        LOGGER.warn("Harvesting a batch failed, harvesting each object separately", ex);
+        for (LearningObject lobject : batch) {
+          processLearningObject(lobject);
+        }
+      }
+    }
+    for (int i = 0; i < batch.size(); i++) {
       LOGGER.info(
           CurrentLocale.get(
-              "com.tle.core.harvester.log.process", ++i, profile.getAttribute("server")));
+              "com.tle.core.harvester.log.process",
+              done.incrementAndGet(),
+              profile.getAttribute("server")));
     }
+  }
 
-    LOGGER.info(
-        CurrentLocale.get("com.tle.core.harvester.log.total", i, profile.getAttribute("server")));
-
-    updateProfileRunDate(started);
-    return size;
+  /**
+   * The objects updated since the given date, a page at a time. Protocols that can't fetch in pages
+   * return everything from {@link #getUpdatedLearningObjects(Date)} as a single page, and can't
+   * resume an interrupted harvest.
+   *
+   * @param resumeFrom the last checkpoint of an interrupted harvest, or null
+   */
+  protected PageSource getUpdatedPages(Date since, String resumeFrom) throws Exception {
+    return HarvestPipeline.Page.single(getUpdatedLearningObjects(since));
   }
 
   @Override
@@ -110,83 +205,90 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
    */
   @Override
   public void processLearningObject(LearningObject lobject) {
-    String identifier = lobject.getIdentifier();
     try {
-      // This will be our new item
-      PropBagEx item;
-      TLEItem oldItem = null;
+      harvest(lobject);
+    } catch (Exception ex) {
+      logUploadError(lobject, ex);
+    }
+  }
 
-      if (lobject.isEquellaItem()) {
-        if (learningEdge.itemExists(identifier)) {
-          oldItem = learningEdge.getItem(identifier, itemDefByUuid);
-        }
-      } else {
-        // Search for any older versions of this item.
-        HarvesterSearch request = (HarvesterSearch) getTLESearchRequest(lobject);
-        request.setCollectionUuids(Collections.singleton(itemDefByUuid.getUuid()));
-        oldItem = learningEdge.getLatestItem(request);
+  private void harvest(LearningObject lobject) throws Exception {
+    String identifier = lobject.getIdentifier();
+    // This will be our new item
+    PropBagEx item;
+    TLEItem oldItem = null;
+
+    if (lobject.isEquellaItem()) {
+      if (learningEdge.itemExists(identifier)) {
+        oldItem = learningEdge.getItem(identifier, itemDefByUuid);
       }
+    } else {
+      // Search for any older versions of this item.
+      HarvesterSearch request = (HarvesterSearch) getTLESearchRequest(lobject);
+      request.setCollectionUuids(Collections.singleton(itemDefByUuid.getUuid()));
+      oldItem = learningEdge.getLatestItem(request);
+    }
 
-      if (oldItem != null) {
-        Date creationDate = lobject.getCreationDate();
-        Date creationDate2 = oldItem.getCreationDate();
-
-        Date modDate1 = lobject.getModifiedDate();
-        Date modDate2 = oldItem.getModifiedDate();
-
-        if (creationDate2.compareTo(creationDate) < 0
-            || ((modDate2 != null && modDate1 != null) && modDate2.compareTo(modDate1) < 0)) {
-          LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.previous", identifier));
-          // Does profile require a new version? Or update-in-place?
-          // Should a null value exist (it shouldn't, but ...) assume
-          // new Version logic
-          boolean newVersionOnHarvest =
-              (profile.getNewVersionOnHarvest() == null
-                  || profile.getNewVersionOnHarvest().booleanValue());
-          if (newVersionOnHarvest) {
-            // new incremented version of existing item
-            item = learningEdge.newVersion(oldItem);
-          } else {
-            // overwrite existing item with new one (no versioning -
-            // obliterates old item)
-            item = learningEdge.modifyInPlace(oldItem);
-          }
-        } else {
-          LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.exists", identifier));
-          return;
-        }
-      } else {
-        LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.noprevious", identifier));
+    if (oldItem != null) {
+      Date creationDate = lobject.getCreationDate();
+      Date creationDate2 = oldItem.getCreationDate();
 
-        if (lobject.isEquellaItem()) {
-          item = learningEdge.newItem(identifier, itemDefByUuid);
+      Date modDate1 = lobject.getModifiedDate();
+      Date modDate2 = oldItem.getModifiedDate();
+
+      if (creationDate2.compareTo(creationDate) < 0
+          || ((modDate2 != null && modDate1 != null) && modDate2.compareTo(modDate1) < 0)) {
+        LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.previous", identifier));
+        // Does profile require a new version? Or update-in-place?
+        // Should a null value exist (it shouldn't, but ...) assume
+        // new Version logic
+        boolean newVersionOnHarvest =
+            (profile.getNewVersionOnHarvest() == null
+                || profile.getNewVersionOnHarvest().booleanValue());
+        if (newVersionOnHarvest) {
+          // new incremented version of existing item
+          item = learningEdge.newVersion(oldItem);
         } else {
-          item = learningEdge.newItem(itemDefByUuid);
+          // overwrite existing item with new one (no versioning -
+          // obliterates old item)
+          item = learningEdge.modifyInPlace(oldItem);
         }
+      } else {
+        LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.exists", identifier));
+        return;
       }
+    } else {
+      LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.noprevious", identifier));
 
-      // Download the item attachment (if applicable)
-      if (lobject.hasAttachment()) {
-        String staging = item.getNode("item/staging");
-        downloadLO(lobject, staging);
+      if (lobject.isEquellaItem()) {
+        item = learningEdge.newItem(identifier, itemDefByUuid);
+      } else {
+        item = learningEdge.newItem(itemDefByUuid);
       }
+    }
 
-      // Do any post-processing to the XML
-      postProcessing(item, lobject);
+    // Download the item attachment (if applicable)
+    if (lobject.hasAttachment()) {
+      String staging = item.getNode("item/staging");
+      downloadLO(lobject, staging);
+    }
 
-      // Upload the XML
-      LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.uploading", lobject.getTitle()));
-      learningEdge.uploadItem(item, itemDefByUuid);
-      LOGGER.info(CurrentLocale.get(KEY_PFX + "log.complete"));
+    // Do any post-processing to the XML
+    postProcessing(item, lobject);
 
-    } catch (Exception ex) {
-      LOGGER.error(
-          CurrentLocale.get(
-              "com.tle.core.harvester.harvester.error.upload",
-              identifier,
-              profile.getAttribute("server")),
-          ex);
-    }
+    // Upload the XML
+    LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.uploading", lobject.getTitle()));
+    learningEdge.uploadItem(item, itemDefByUuid);
+    LOGGER.info(CurrentLocale.get(KEY_PFX + "log.complete"));
+  }
+
+  private void logUploadError(LearningObject lobject, Exception ex) {
+    LOGGER.error(
+        CurrentLocale.get(
+            "com.tle.core.harvester.harvester.error.upload",
+            lobject.getIdentifier(),
+            profile.getAttribute("server")),
+        ex);
   }
 
   protected OutputStream getOutputStream(StagingFile staging, String filename) throws IOException {
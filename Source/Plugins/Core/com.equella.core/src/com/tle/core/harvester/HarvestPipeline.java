@@ -0,0 +1,304 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.harvester;
+
+import com.tle.common.NamedThreadFactory;
+import com.tle.core.harvester.old.LearningObject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * Harvests pages of remote objects, fetching up to {@code prefetchPages} pages ahead on a
+ * background thread while {@code workers} threads process the objects of earlier pages in batches
+ * of {@code batchSize}. Once every object of a page (and of all the pages before it) has been
+ * processed, the page's checkpoint is handed to the {@link CheckpointListener}, so an interrupted
+ * harvest can carry on from the last checkpoint rather than starting again.
+ *
+ * <p>The bookkeeping all happens on the thread calling {@link #run}.
+ */
+@SuppressWarnings("nls")
+class HarvestPipeline {
+  private static final Logger LOGGER = Logger.getLogger(HarvestPipeline.class);
+
+  /** Batches queued for the workers, as a multiple of the number of workers. */
+  private static final int QUEUED_BATCHES = 2;
+
+  private final int workers;
+  private final int prefetchPages;
+  private final int batchSize;
+
+  HarvestPipeline(int workers, int prefetchPages, int batchSize) {
+    this.workers = Math.max(1, workers);
+    this.prefetchPages = Math.max(1, prefetchPages);
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  /**
+   * Processes every object from {@code source}, returning once the last batch has finished. If
+   * fetching a page fails, the pages already fetched are still processed before the failure is
+   * rethrown. If processing a batch fails, no more batches are started and no checkpoint past the
+   * batch's page is reached, and the failure is rethrown once the running batches have finished.
+   *
+   * @return the number of objects processed
+   */
+  int run(PageSource source, BatchProcessor processor, CheckpointListener checkpoints)
+      throws Exception {
+    final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+    final Semaphore fetchPermits = new Semaphore(prefetchPages);
+
+    ExecutorService fetcher =
+        Executors.newSingleThreadExecutor(new NamedThreadFactory("HarvestPipeline.fetcher"));
+    ExecutorService pool =
+        Executors.newFixedThreadPool(workers, new NamedThreadFactory("HarvestPipeline.worker"));
+    try {
+      fetcher.execute(new Fetcher(source, events, fetchPermits));
+
+      final Deque<PageProgress> pending = new ArrayDeque<PageProgress>();
+      final Deque<Batch> undispatched = new ArrayDeque<Batch>();
+      final int maxInFlight = workers * QUEUED_BATCHES;
+      boolean fetched = false;
+      Throwable failure = null;
+      int inFlight = 0;
+      int processed = 0;
+
+      while (true) {
+        while (inFlight < maxInFlight && !undispatched.isEmpty()) {
+          pool.execute(new Worker(undispatched.poll(), processor, events));
+          inFlight++;
+        }
+        if (fetched && inFlight == 0 && undispatched.isEmpty()) {
+          if (failure instanceof Exception) {
+            throw (Exception) failure;
+          } else if (failure != null) {
+            throw new RuntimeException(failure);
+          }
+          return processed;
+        }
+
+        Object event = events.take();
+        if (event instanceof Batch) {
+          Batch done = (Batch) event;
+          inFlight--;
+          processed += done.objects.size();
+          done.page.remaining--;
+          completePages(pending, checkpoints, fetchPermits);
+        } else if (event instanceof BatchFailure) {
+          inFlight--;
+          if (failure == null) {
+            failure = ((BatchFailure) event).cause;
+          }
+          // The failed batch's page is never done, so nothing after it could be checkpointed
+          undispatched.clear();
+          fetched = true;
+        } else if (failure != null) {
+          // Fetched after a batch failed, and never processed
+        } else if (event instanceof Page) {
+          Page page = (Page) event;
+          PageProgress progress = new PageProgress(page.getCheckpoint());
+          pending.add(progress);
+          List<LearningObject> objects = page.getObjects();
+          for (int i = 0; i < objects.size(); i += batchSize) {
+            List<LearningObject> slice =
+                objects.subList(i, Math.min(objects.size(), i + batchSize));
+            undispatched.add(new Batch(progress, new ArrayList<LearningObject>(slice)));
+            progress.remaining++;
+          }
+          // An empty page is done as soon as the pages before it are
+          completePages(pending, checkpoints, fetchPermits);
+        } else if (event instanceof FetchFailure) {
+          failure = ((FetchFailure) event).cause;
+          fetched = true;
+        } else {
+          fetched = true;
+        }
+      }
+    } finally {
+      fetcher.shutdownNow();
+      pool.shutdown();
+      if (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+        LOGGER.warn("Harvester workers still running after the harvest finished");
+      }
+    }
+  }
+
+  private static void completePages(
+      Deque<PageProgress> pending, CheckpointListener checkpoints, Semaphore fetchPermits) {
+    while (!pending.isEmpty() && pending.peek().remaining == 0) {
+      PageProgress page = pending.poll();
+      if (page.checkpoint != null) {
+        checkpoints.reached(page.checkpoint);
+      }
+      fetchPermits.release();
+    }
+  }
+
+  /** Supplies pages of objects to harvest. */
+  interface PageSource {
+    /** @return the next page, or null if there are no more */
+    Page next() throws Exception;
+  }
+
+  /** Processes a batch of objects. Failures of individual objects are up to the processor. */
+  interface BatchProcessor {
+    void process(List<LearningObject> batch);
+  }
+
+  interface CheckpointListener {
+    /** Called in page order, once all of the objects up to and including the page are done. */
+    void reached(String checkpoint);
+  }
+
+  static class Page {
+    private final List<LearningObject> objects;
+    private final String checkpoint;
+
+    /**
+     * @param checkpoint where to resume from once this page is done, or null if the harvest can't
+     *     be resumed from here
+     */
+    Page(Collection<LearningObject> objects, String checkpoint) {
+      this.objects = new ArrayList<LearningObject>(objects);
+      this.checkpoint = checkpoint;
+    }
+
+    List<LearningObject> getObjects() {
+      return objects;
+    }
+
+    String getCheckpoint() {
+      return checkpoint;
+    }
+
+    /** A page source that returns the given objects as a single page. */
+    static PageSource single(final Collection<LearningObject> objects) {
+      return new PageSource() {
+        private boolean done;
+
+        @Override
+        public Page next() {
+          if (done) {
+            return null;
+          }
+          done = true;
+          return new Page(objects, null);
+        }
+      };
+    }
+  }
+
+  private static class PageProgress {
+    final String checkpoint;
+    int remaining;
+
+    PageProgress(String checkpoint) {
+      this.checkpoint = checkpoint;
+    }
+  }
+
+  private static class Batch {
+    final PageProgress page;
+    final List<LearningObject> objects;
+
+    Batch(PageProgress page, List<LearningObject> objects) {
+      this.page = page;
+      this.objects = objects;
+    }
+  }
+
+  private static class FetchFailure {
+    final Throwable cause;
+
+    FetchFailure(Throwable cause) {
+      this.cause = cause;
+    }
+  }
+
+  private static class BatchFailure {
+    final Throwable cause;
+
+    BatchFailure(Throwable cause) {
+      this.cause = cause;
+    }
+  }
+
+  private static final Object FETCHED = new Object();
+
+  private static class Fetcher implements Runnable {
+    private final PageSource source;
+    private final BlockingQueue<Object> events;
+    private final Semaphore permits;
+
+    Fetcher(PageSource source, BlockingQueue<Object> events, Semaphore permits) {
+      this.source = source;
+      this.events = events;
+      this.permits = permits;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          permits.acquire();
+          Page page = source.next();
+          if (page == null) {
+            events.add(FETCHED);
+            return;
+          }
+          events.add(page);
+        }
+      } catch (InterruptedException e) {
+        // The harvest has finished or failed
+      } catch (Throwable t) {
+        events.add(new FetchFailure(t));
+      }
+    }
+  }
+
+  private static class Worker implements Runnable {
+    private final Batch batch;
+    private final BatchProcessor processor;
+    private final BlockingQueue<Object> events;
+
+    Worker(Batch batch, BatchProcessor processor, BlockingQueue<Object> events) {
+      this.batch = batch;
+      this.processor = processor;
+      this.events = events;
+    }
+
+    @Override
+    public void run() {
+      try {
+        processor.process(batch.objects);
+        events.add(batch);
+      } catch (Throwable t) {
+        events.add(new BatchFailure(t));
+      }
+    }
+  }
+}
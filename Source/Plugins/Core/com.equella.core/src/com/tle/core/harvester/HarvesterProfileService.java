@@ -28,4 +28,7 @@ public interface HarvesterProfileService
     extends AbstractEntityService<EntityEditingBean, HarvesterProfile>,
         RemoteHarvesterProfileService {
   void updateLastRun(HarvesterProfile profile, Date lastRun);
+
+  /** @param checkpoint null to clear the checkpoint */
+  void updateCheckpoint(HarvesterProfile profile, String checkpoint, Date from, Date started);
 }
@@ -24,6 +24,7 @@ import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.searching.Search;
 import com.tle.core.harvester.old.TLEItem;
 import java.util.Date;
+import java.util.concurrent.Callable;
 
 public interface LearningEdge {
   /**
@@ -76,6 +77,23 @@ public interface LearningEdge {
    */
   void updateProfileRunDate(HarvesterProfile profile, Date date);
 
+  /**
+   * Records how far a harvest has got, so that it can carry on from there if it is interrupted
+   *
+   * @param profile The profile being harvested
+   * @param checkpoint Where to resume the harvest from, or null to clear the checkpoint
+   * @param from The date the harvest is fetching changes since
+   * @param started When the harvest started
+   */
+  void updateProfileCheckpoint(
+      HarvesterProfile profile, String checkpoint, Date from, Date started);
+
+  /**
+   * Runs the work in a single transaction, so that a batch of harvested items is committed
+   * together
+   */
+  <T> T inTransaction(Callable<T> work) throws Exception;
+
   /**
    * Convert an ItemDefinition uuid to the object
    *
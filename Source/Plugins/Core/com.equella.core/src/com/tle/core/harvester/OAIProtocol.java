@@ -26,6 +26,7 @@ import com.tle.common.search.whereparser.WhereParser;
 import com.tle.common.searching.Search;
 import com.tle.core.freetext.queries.FreeTextBooleanQuery;
 import com.tle.core.guice.Bind;
+import com.tle.core.harvester.HarvestPipeline.PageSource;
 import com.tle.core.harvester.oai.OAIClient;
 import com.tle.core.harvester.oai.data.Header;
 import com.tle.core.harvester.oai.data.List;
@@ -89,6 +90,17 @@ public class OAIProtocol extends AbstractHarvesterProtocol {
     return super.setupAndRun(aProfile, testOnly);
   }
 
+  @Override
+  protected PageSource getUpdatedPages(Date since, String resumeFrom) {
+    return new OAIRecordPages(client, set, dateFormat.format(since), format, resumeFrom) {
+      @Override
+      protected LearningObject convert(Record record) {
+        LearningObject lobject = convertHeaderToLO(record.getHeader());
+        return lobject != null ? new HarvestedRecord(lobject, record.getMetadata()) : null;
+      }
+    };
+  }
+
   @Override
   public Collection<LearningObject> getUpdatedLearningObjects(Date since) throws Exception {
     Collection<LearningObject> updated = new ArrayList<LearningObject>();
@@ -194,8 +206,12 @@ public class OAIProtocol extends AbstractHarvesterProtocol {
   @Override
   public void postProcessing(PropBagEx xml, LearningObject lobject) {
     try {
-      Record record = client.getRecord(lobject.getIdentifier(), format);
-      Object o = record.getMetadata();
+      Object o;
+      if (lobject instanceof HarvestedRecord && ((HarvestedRecord) lobject).metadata != null) {
+        o = ((HarvestedRecord) lobject).metadata;
+      } else {
+        o = client.getRecord(lobject.getIdentifier(), format).getMetadata();
+      }
       processMetadataToLO(o, xml);
       xml.setNode("item/oai/@id", lobject.getIdentifier()); // $NON-NLS-1$
     } catch (CannotDisseminateFormatException e) {
@@ -213,4 +229,14 @@ public class OAIProtocol extends AbstractHarvesterProtocol {
   public void downloadLO(LearningObject lobject, String stagingID) throws Exception {
     // ignorez
   }
+
+  /** A record listed along with its metadata */
+  private static class HarvestedRecord extends LearningObject {
+    final Object metadata;
+
+    HarvestedRecord(LearningObject lobject, Object metadata) {
+      super(lobject.getIdentifier(), lobject.getTitle(), lobject.getCreationDate(), false);
+      this.metadata = metadata;
+    }
+  }
 }
@@ -0,0 +1,115 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.harvester;
+
+import com.tle.core.harvester.HarvestPipeline.Page;
+import com.tle.core.harvester.HarvestPipeline.PageSource;
+import com.tle.core.harvester.oai.OAIClient;
+import com.tle.core.harvester.oai.data.List;
+import com.tle.core.harvester.oai.data.Record;
+import com.tle.core.harvester.oai.data.ResumptionToken;
+import com.tle.core.harvester.oai.error.NoRecordsMatchException;
+import com.tle.core.harvester.old.LearningObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import org.apache.log4j.Logger;
+
+/**
+ * Lists the records of an OAI-PMH repository a page at a time, along with their metadata, so that
+ * the records don't each need to be fetched again while processing them. The resumption token for
+ * the next page is each page's checkpoint.
+ */
+@SuppressWarnings("nls")
+abstract class OAIRecordPages implements PageSource {
+  private static final Logger LOGGER = Logger.getLogger(OAIRecordPages.class);
+
+  private final OAIClient client;
+  private final String set;
+  private final String from;
+  private final String format;
+  private final String resumeFrom;
+
+  private ResumptionToken token;
+  private boolean finished;
+
+  /** @param resumeFrom the resumption token to carry on from, or null to start from the start */
+  OAIRecordPages(OAIClient client, String set, String from, String format, String resumeFrom) {
+    this.client = client;
+    this.set = set;
+    this.from = from;
+    this.format = format;
+    this.resumeFrom = resumeFrom;
+  }
+
+  /** @return the object to harvest for the record, or null to skip it */
+  protected abstract LearningObject convert(Record record);
+
+  @Override
+  public Page next() throws Exception {
+    if (finished) {
+      return null;
+    }
+
+    List list;
+    if (token != null) {
+      list = client.listRecords(token);
+    } else if (resumeFrom != null) {
+      ResumptionToken resume = new ResumptionToken();
+      resume.setToken(resumeFrom);
+      list = client.listRecords(resume);
+      if (list == null) {
+        // Most likely the token has expired
+        LOGGER.warn("Could not resume harvest from its checkpoint, starting again");
+        list = listRecords();
+      }
+    } else {
+      list = listRecords();
+    }
+
+    if (list == null) {
+      finished = true;
+      return null;
+    }
+
+    token = list.getResumptionToken();
+    String checkpoint = null;
+    if (token != null && token.getToken() != null && token.getToken().length() > 0) {
+      checkpoint = token.getToken();
+    } else {
+      finished = true;
+    }
+
+    Collection<LearningObject> records = new ArrayList<LearningObject>();
+    for (Object o : list) {
+      LearningObject lobject = convert((Record) o);
+      if (lobject != null) {
+        records.add(lobject);
+      }
+    }
+    return new Page(records, checkpoint);
+  }
+
+  private List listRecords() throws Exception {
+    try {
+      return client.listRecords(set, from, null, format);
+    } catch (NoRecordsMatchException e) {
+      return null;
+    }
+  }
+}
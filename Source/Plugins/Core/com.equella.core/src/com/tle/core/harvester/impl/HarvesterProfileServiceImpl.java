@@ -28,6 +28,7 @@ import com.tle.core.entity.EntityEditingBean;
 import com.tle.core.entity.EntityEditingSession;
 import com.tle.core.entity.service.impl.AbstractEntityServiceImpl;
 import com.tle.core.guice.Bind;
+import com.tle.core.harvester.AbstractHarvesterProtocol;
 import com.tle.core.harvester.HarvesterProfileDao;
 import com.tle.core.harvester.HarvesterProfileService;
 import com.tle.core.harvester.old.ContentRepository;
@@ -61,6 +62,9 @@ import org.springframework.transaction.annotation.Transactional;
 public class HarvesterProfileServiceImpl
     extends AbstractEntityServiceImpl<EntityEditingBean, HarvesterProfile, HarvesterProfileService>
     implements HarvesterProfileService {
+  /** The length of a profile attribute value */
+  private static final int MAX_CHECKPOINT_LENGTH = 1024;
+
   private final HarvesterProfileDao harvesterProfileDao;
   private static String KEY_PFX =
       AbstractPluginService.getMyPluginId(HarvesterProfileServiceImpl.class) + ".";
@@ -83,6 +87,28 @@ public class HarvesterProfileServiceImpl
     harvesterProfileDao.updateLastRun(profile, lastRun);
   }
 
+  @Override
+  @Transactional
+  public void updateCheckpoint(
+      HarvesterProfile profile, String checkpoint, Date from, Date started) {
+    if (checkpoint != null && checkpoint.length() > MAX_CHECKPOINT_LENGTH) {
+      // Keep the previous checkpoint instead, a resumed harvest just repeats a few more pages
+      return;
+    }
+    HarvesterProfile saved = harvesterProfileDao.findById(profile.getId());
+    if (checkpoint == null) {
+      saved.removeAttribute(AbstractHarvesterProtocol.CHECKPOINT_TOKEN);
+      saved.removeAttribute(AbstractHarvesterProtocol.CHECKPOINT_FROM);
+      saved.removeAttribute(AbstractHarvesterProtocol.CHECKPOINT_STARTED);
+    } else {
+      saved.setAttribute(AbstractHarvesterProtocol.CHECKPOINT_TOKEN, checkpoint);
+      saved.setAttribute(
+          AbstractHarvesterProtocol.CHECKPOINT_FROM, Long.toString(from.getTime()));
+      saved.setAttribute(
+          AbstractHarvesterProtocol.CHECKPOINT_STARTED, Long.toString(started.getTime()));
+    }
+  }
+
   @Override
   protected void doValidation(
       EntityEditingSession<EntityEditingBean, HarvesterProfile> session,
@@ -55,6 +55,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
@@ -314,6 +315,18 @@ public class LearningEdgeImpl implements LearningEdge {
     harvesterProfileService.updateLastRun(profile, date);
   }
 
+  @Override
+  public void updateProfileCheckpoint(
+      HarvesterProfile profile, String checkpoint, Date from, Date started) {
+    harvesterProfileService.updateCheckpoint(profile, checkpoint, from, started);
+  }
+
+  @Override
+  @Transactional
+  public <T> T inTransaction(Callable<T> work) throws Exception {
+    return work.call();
+  }
+
   @Override
   @Transactional
   public ItemDefinition getItemDefByUuid(String itemdef) {
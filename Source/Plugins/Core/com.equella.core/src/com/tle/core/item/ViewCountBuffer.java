@@ -0,0 +1,428 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item;
+
+import com.google.inject.Inject;
+import com.tle.beans.Institution;
+import com.tle.beans.item.ItemId;
+import com.tle.beans.item.ItemKey;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.core.guice.Bind;
+import com.tle.core.institution.RunAsInstitution;
+import com.tle.core.institution.events.InstitutionEvent;
+import com.tle.core.institution.events.listeners.InstitutionListener;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Collects item summary and attachment views in memory and periodically writes them to the view
+ * count tables in one transaction per institution, instead of a SELECT and UPDATE/INSERT per view.
+ *
+ * <p>Views that haven't been written yet are lost if the node stops: at most {@code
+ * viewCount.flushIntervalSeconds} worth, spread over roughly {@code viewCount.maxPendingCounters}
+ * items/attachments at most. An institution's views are written out when it becomes unavailable.
+ * Setting the flush interval to 0 writes every view straight to the database.
+ *
+ * <p>Views that can't be written are retried with the next few flushes and then dropped, so that
+ * something like a constraint violation can't keep them in memory for ever.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class ViewCountBuffer implements InstitutionListener {
+  private static final Log LOGGER = LogFactory.getLog(ViewCountBuffer.class);
+
+  /** Flushes a view is tried in before it is dropped */
+  static final int MAX_ATTEMPTS = 3;
+
+  @Inject(optional = true)
+  @Named("viewCount.flushIntervalSeconds")
+  private int flushIntervalSeconds = 10;
+
+  @Inject(optional = true)
+  @Named("viewCount.maxPendingCounters")
+  private int maxPendingCounters = 10000;
+
+  @Inject private RunAsInstitution runAs;
+
+  // Increments share the read lock, flushing takes the write lock just long enough to swap in a
+  // new map so that no increment can land in a map that has already been written out
+  private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+  private volatile ConcurrentMap<ViewKey, PendingViews> current = new ConcurrentHashMap<>();
+  private volatile Map<ViewKey, PendingViews> flushing = Collections.emptyMap();
+
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final AtomicBoolean flushQueued = new AtomicBoolean();
+  // A daemon, so that it never holds up the JVM exiting
+  private final ScheduledExecutorService flusher =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread thread = new Thread(r, "ViewCountBuffer");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  public boolean isEnabled() {
+    return flushIntervalSeconds > 0;
+  }
+
+  public void addSummaryView(ItemKey itemKey) {
+    addView(itemKey, null);
+  }
+
+  public void addAttachmentView(ItemKey itemKey, String attachment) {
+    addView(itemKey, attachment);
+  }
+
+  /** @return views of the item summary which have not been written to the database yet */
+  public int getPendingSummaryViews(ItemKey itemKey) {
+    return getPendingViews(itemKey, null);
+  }
+
+  /** @return views of the attachment which have not been written to the database yet */
+  public int getPendingAttachmentViews(ItemKey itemKey, String attachment) {
+    return getPendingViews(itemKey, attachment);
+  }
+
+  /** Throws away any pending views for the item, e.g. when the item is deleted. */
+  public void discard(ItemKey itemKey) {
+    final Institution institution = CurrentInstitution.get();
+    if (institution == null) {
+      return;
+    }
+    final long institutionId = institution.getDatabaseId();
+    discard(current, institutionId, itemKey);
+    // Views being flushed have already been handed to the writer, marking them stops them being
+    // written if they haven't been yet
+    discard(flushing, institutionId, itemKey);
+  }
+
+  private static void discard(
+      Map<ViewKey, PendingViews> views, long institutionId, ItemKey itemKey) {
+    for (Map.Entry<ViewKey, PendingViews> entry : views.entrySet()) {
+      ViewKey key = entry.getKey();
+      if (key.institutionId == institutionId
+          && (itemKey == null
+              || (key.uuid.equals(itemKey.getUuid()) && key.version == itemKey.getVersion()))) {
+        entry.getValue().discarded = true;
+        views.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Writes out the views of institutions that are going away, rather than leaving them to a flush
+   * that may never come. The views of deleted institutions are thrown away.
+   */
+  @Override
+  public void institutionEvent(InstitutionEvent event) {
+    switch (event.getEventType()) {
+      case UNAVAILABLE:
+        flushQuietly();
+        break;
+      case DELETED:
+        final Set<Long> institutionIds = new HashSet<>();
+        for (Institution institution : event.getChanges().values()) {
+          institutionIds.add(institution.getDatabaseId());
+        }
+        for (long institutionId : institutionIds) {
+          discard(current, institutionId, null);
+          discard(flushing, institutionId, null);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Writes out all pending views. If an institution's views can't be written together they are
+   * written one by one, and any that still fail are kept for the next flush. Views stop counting as
+   * pending as soon as they are written, rather than when the whole flush is done.
+   */
+  public synchronized void flush() {
+    final ConcurrentMap<ViewKey, PendingViews> toFlush;
+    swapLock.writeLock().lock();
+    try {
+      if (current.isEmpty()) {
+        return;
+      }
+      toFlush = current;
+      flushing = toFlush;
+      current = new ConcurrentHashMap<>();
+    } finally {
+      swapLock.writeLock().unlock();
+    }
+
+    try {
+      final Map<Long, List<PendingViews>> byInstitution = new HashMap<>();
+      for (PendingViews views : toFlush.values()) {
+        byInstitution
+            .computeIfAbsent(views.institution.getDatabaseId(), id -> new ArrayList<>())
+            .add(views);
+      }
+      for (List<PendingViews> views : byInstitution.values()) {
+        final Institution institution = views.get(0).institution;
+        try {
+          writeViews(institution, notDiscarded(views));
+        } catch (Exception e) {
+          LOGGER.warn(
+              "Error writing view counts for institution "
+                  + institution.getUniqueId()
+                  + ", writing them one at a time",
+              e);
+          writeSeparately(institution, views, toFlush);
+          continue;
+        }
+        for (PendingViews view : views) {
+          toFlush.remove(view.getKey());
+        }
+      }
+    } finally {
+      flushing = Collections.emptyMap();
+    }
+  }
+
+  private void addView(ItemKey itemKey, String attachment) {
+    final Institution institution = CurrentInstitution.get();
+    if (institution == null) {
+      LOGGER.debug("Not counting a view of " + itemKey + " outside of an institution");
+      return;
+    }
+    final ViewKey key =
+        new ViewKey(
+            institution.getDatabaseId(), itemKey.getUuid(), itemKey.getVersion(), attachment);
+    final long now = System.currentTimeMillis();
+    int pendingCount;
+    swapLock.readLock().lock();
+    try {
+      final PendingViews views =
+          current.computeIfAbsent(
+              key,
+              k -> {
+                ItemId itemId = new ItemId(itemKey.getUuid(), itemKey.getVersion());
+                return new PendingViews(institution, itemId, attachment);
+              });
+      views.count.increment();
+      views.lastViewed.accumulate(now);
+      pendingCount = current.size();
+    } finally {
+      swapLock.readLock().unlock();
+    }
+
+    if (started.compareAndSet(false, true)) {
+      flusher.scheduleWithFixedDelay(
+          this::flushQuietly, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+    if (pendingCount >= maxPendingCounters && flushQueued.compareAndSet(false, true)) {
+      flusher.execute(
+          () -> {
+            flushQueued.set(false);
+            flushQuietly();
+          });
+    }
+  }
+
+  private int getPendingViews(ItemKey itemKey, String attachment) {
+    final Institution institution = CurrentInstitution.get();
+    if (institution == null) {
+      return 0;
+    }
+    final ViewKey key =
+        new ViewKey(
+            institution.getDatabaseId(), itemKey.getUuid(), itemKey.getVersion(), attachment);
+    long total = 0;
+    PendingViews views = current.get(key);
+    if (views != null) {
+      total += views.count.sum();
+    }
+    views = flushing.get(key);
+    if (views != null) {
+      total += views.count.sum();
+    }
+    return (int) total;
+  }
+
+  /** Writes the views in a single transaction for the institution */
+  protected void writeViews(Institution institution, List<PendingViews> views) {
+    if (!views.isEmpty()) {
+      runAs.executeAsSystem(institution, () -> ViewCountJavaDao.addViews(views));
+    }
+  }
+
+  /** Keeps one bad item or attachment from failing the views of all the others */
+  private void writeSeparately(
+      Institution institution, List<PendingViews> views, Map<ViewKey, PendingViews> toFlush) {
+    for (PendingViews view : notDiscarded(views)) {
+      Exception error = null;
+      try {
+        writeViews(institution, Collections.singletonList(view));
+      } catch (Exception e) {
+        error = e;
+      }
+      // Either written or back in the current map, so not pending in this flush any more
+      toFlush.remove(view.getKey());
+      if (error != null) {
+        requeue(view, error);
+      }
+    }
+  }
+
+  private static List<PendingViews> notDiscarded(List<PendingViews> views) {
+    final List<PendingViews> write = new ArrayList<>(views.size());
+    for (PendingViews view : views) {
+      if (!view.discarded) {
+        write.add(view);
+      }
+    }
+    return write;
+  }
+
+  private void requeue(PendingViews views, Exception error) {
+    final int attempts = views.attempts + 1;
+    if (attempts >= MAX_ATTEMPTS || current.size() >= maxPendingCounters) {
+      LOGGER.error(
+          "Dropping "
+              + views.getCount()
+              + " views of "
+              + views.itemId
+              + (views.attachment != null ? " attachment " + views.attachment : "")
+              + " after "
+              + attempts
+              + " failed attempts to write them",
+          error);
+      return;
+    }
+
+    swapLock.readLock().lock();
+    try {
+      final PendingViews requeued =
+          current.computeIfAbsent(
+              views.getKey(),
+              k -> new PendingViews(views.institution, views.itemId, views.attachment));
+      requeued.count.add(views.count.sum());
+      requeued.lastViewed.accumulate(views.lastViewed.get());
+      requeued.attempts = Math.max(requeued.attempts, attempts);
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (Exception e) {
+      LOGGER.error("Error flushing view counts", e);
+    }
+  }
+
+  public static class PendingViews {
+    private final Institution institution;
+    private final ItemId itemId;
+    private final String attachment;
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator lastViewed = new LongAccumulator(Math::max, 0L);
+    // Only changed by the flushing thread
+    private int attempts;
+    private volatile boolean discarded;
+
+    protected PendingViews(Institution institution, ItemId itemId, String attachment) {
+      this.institution = institution;
+      this.itemId = itemId;
+      this.attachment = attachment;
+    }
+
+    public ItemKey getItemKey() {
+      return itemId;
+    }
+
+    /** @return the attachment UUID, or null for item summary views */
+    public String getAttachment() {
+      return attachment;
+    }
+
+    public int getCount() {
+      return (int) count.sum();
+    }
+
+    public Instant getLastViewed() {
+      return Instant.ofEpochMilli(lastViewed.get());
+    }
+
+    private ViewKey getKey() {
+      return new ViewKey(
+          institution.getDatabaseId(), itemId.getUuid(), itemId.getVersion(), attachment);
+    }
+  }
+
+  private static final class ViewKey {
+    private final long institutionId;
+    private final String uuid;
+    private final int version;
+    private final String attachment;
+
+    private ViewKey(long institutionId, String uuid, int version, String attachment) {
+      this.institutionId = institutionId;
+      this.uuid = uuid;
+      this.version = version;
+      this.attachment = attachment;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ViewKey)) {
+        return false;
+      }
+      ViewKey other = (ViewKey) obj;
+      return institutionId == other.institutionId
+          && version == other.version
+          && uuid.equals(other.uuid)
+          && Objects.equals(attachment, other.attachment);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(institutionId, uuid, version, attachment);
+    }
+  }
+}
@@ -19,6 +19,7 @@
 package com.tle.core.item.guice;
 
 import com.google.inject.AbstractModule;
+import com.tle.core.config.guice.OptionalConfigModule;
 import com.tle.core.guice.PluginTrackerModule;
 import com.tle.core.item.ItemIdExtension;
 import com.tle.core.item.helper.AbstractHelper;
@@ -31,6 +32,17 @@ public class ItemModule extends AbstractModule {
   @Override
   protected void configure() {
     install(new TrackerModule());
+    install(new ItemOptionalConfigModule());
+  }
+
+  public static class ItemOptionalConfigModule extends OptionalConfigModule {
+    @Override
+    protected void configure() {
+      bindInt("itemService.operateAll.threads");
+      bindInt("itemService.operateAll.batchSize");
+      bindInt("viewCount.flushIntervalSeconds");
+      bindInt("viewCount.maxPendingCounters");
+    }
   }
 
   public static class TrackerModule extends PluginTrackerModule {
@@ -73,6 +73,11 @@ public abstract class BaseFilter implements ItemOperationFilter {
     return false;
   }
 
+  @Override
+  public boolean isBulkSafe() {
+    return false;
+  }
+
   @Override
   public FilterResults getItemIds() {
     ItemIdKeyBatcher batcher =
@@ -30,6 +30,13 @@ public interface ItemOperationFilter {
 
   boolean isReadOnly();
 
+  /**
+   * If true, ItemService.operateAll may process the items of this filter several per transaction
+   * and on more than one thread. Only return true if getOperations() creates new operation instances
+   * each time it is called, as operations hold state for the item they are working on.
+   */
+  boolean isBulkSafe();
+
   FilterResults getItemIds();
 
   public class FilterResults {
@@ -36,6 +36,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.inject.Inject;
 import com.tle.annotation.NonNullByDefault;
 import com.tle.beans.entity.LanguageBundle;
 import com.tle.beans.entity.itemdef.DynamicMetadataRule;
@@ -46,6 +47,7 @@ import com.tle.beans.item.attachments.Attachment;
 import com.tle.beans.item.attachments.IAttachment;
 import com.tle.beans.workflow.SecurityStatus;
 import com.tle.common.Check;
+import com.tle.common.NamedThreadFactory;
 import com.tle.common.Pair;
 import com.tle.common.Triple;
 import com.tle.common.collection.AttachmentConfigConstants;
@@ -73,6 +75,7 @@ import com.tle.core.auditlog.AuditLogService;
 import com.tle.core.events.ApplicationEvent;
 import com.tle.core.events.services.EventService;
 import com.tle.core.guice.Bind;
+import com.tle.core.institution.RunAsInstitution;
 import com.tle.core.item.ItemIdExtension;
 import com.tle.core.item.ViewCountJavaDao;
 import com.tle.core.item.dao.ItemDao;
@@ -110,8 +113,11 @@ import com.tle.core.settings.service.ConfigurationService;
 import com.tle.exceptions.AccessDeniedException;
 import java.lang.annotation.Annotation;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.apache.log4j.MDC;
 import org.hibernate.Hibernate;
@@ -143,6 +149,14 @@ public class ItemServiceImpl
   private final Random mdcNums = new Random();
   private Logger logger;
 
+  @Inject(optional = true)
+  @Named("itemService.operateAll.threads")
+  private int operateAllThreads = 4;
+
+  @Inject(optional = true)
+  @Named("itemService.operateAll.batchSize")
+  private int operateAllBatchSize = 10;
+
   @Inject private ItemDao dao;
 
   @Inject private ItemLockingService lockingService;
@@ -154,6 +168,7 @@ public class ItemServiceImpl
   @Inject private UserService userService;
   @Inject private NotificationService notificationService;
   @Inject private ConfigurationService configurationService;
+  @Inject private RunAsInstitution runAs;
 
   // plugin extensions
   @Inject private PluginTracker<WorkflowOperation> operationTracker;
@@ -611,9 +626,13 @@ public class ItemServiceImpl
     }
 
     Iterator<? extends ItemKey> iter = itemIds.getResults();
-    while (iter.hasNext()) {
-      ItemKey itemKey = iter.next();
-      processItemId(filter, listener, params, containsDelete, itemKey);
+    if (isBulk(filter)) {
+      processInBatches(filter, listener, params, containsDelete, iter);
+    } else {
+      while (iter.hasNext()) {
+        ItemKey itemKey = iter.next();
+        processItemId(filter, listener, params, containsDelete, itemKey);
+      }
     }
 
     postProcessParameters(params);
@@ -662,6 +681,178 @@ public class ItemServiceImpl
     }
   }
 
+  /**
+   * Batching only applies when we own the transactions, otherwise everything must happen in the
+   * caller's transaction on the caller's thread.
+   */
+  private boolean isBulk(ItemOperationFilter filter) {
+    return filter.isBulkSafe()
+        && (operateAllBatchSize > 1 || operateAllThreads > 1)
+        && !TransactionSynchronizationManager.isActualTransactionActive();
+  }
+
+  /**
+   * Splits the item keys into batches which are handed to a pool for this call, shut down once the
+   * batches are done. The pool has no queue and runs batches on the calling thread when all workers
+   * are busy, which bounds the number of batches in flight and means that operateAll calls made
+   * from a worker can't deadlock.
+   */
+  private void processInBatches(
+      final ItemOperationFilter filter,
+      FilterResultListener listener,
+      final ItemOperationParams params,
+      final boolean containsDelete,
+      Iterator<? extends ItemKey> iter) {
+    final UserState userState = CurrentUser.getUserState();
+    List<Throwable> errors;
+    ThreadPoolExecutor pool = newOperateAllPool();
+    try {
+      errors =
+          OperateAllBatches.run(
+              pool,
+              operateAllBatchSize,
+              iter,
+              listener,
+              new OperateAllBatches.BatchProcessor() {
+                @Override
+                public void process(
+                    final List<ItemKey> batch, final FilterResultListener batchListener) {
+                  runAs.execute(
+                      userState,
+                      Executors.callable(
+                          new Runnable() {
+                            @Override
+                            public void run() {
+                              processBatch(filter, batchListener, params, containsDelete, batch);
+                            }
+                          }));
+                }
+              });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new WorkflowException(e);
+    } finally {
+      // Batches still running after an interrupt finish before the threads go
+      pool.shutdown();
+    }
+    // processBatch reports per item failures itself, so these are something unexpected such as
+    // the institution going away. The batch's items have been reported as failed.
+    for (Throwable error : errors) {
+      logger.error("Error processing batch for filter " + filter.getClass().getName(), error);
+    }
+  }
+
+  private void processBatch(
+      ItemOperationFilter filter,
+      FilterResultListener listener,
+      ItemOperationParams params,
+      boolean containsDelete,
+      List<ItemKey> batch) {
+    Map<ItemKey, Item> originals = Collections.emptyMap();
+    if (containsDelete) {
+      originals = reloadItems(batch);
+    }
+
+    ItemOperationParamsImpl batchParams = newBatchParams(params);
+    List<ItemPack<Item>> results;
+    try {
+      results = runOperationBatch(batch, batchParams, filter);
+    } catch (Exception e) {
+      logger.info(
+          "Batch of "
+              + batch.size()
+              + " items failed for filter "
+              + filter.getClass().getName()
+              + ", retrying one item at a time");
+      dao.clear();
+      ItemOperationParamsImpl retryParams = newBatchParams(params);
+      for (ItemKey itemKey : batch) {
+        processItemId(filter, listener, retryParams, containsDelete, itemKey);
+      }
+      mergeBatchParams(retryParams, params);
+      return;
+    } finally {
+      dao.clear();
+    }
+    mergeBatchParams(batchParams, params);
+
+    if (listener != null) {
+      Map<ItemKey, Item> reloaded = reloadItems(batch);
+      for (int i = 0; i < batch.size(); i++) {
+        ItemKey itemKey = batch.get(i);
+        ItemPack<Item> result = results.get(i);
+        if (result != null) {
+          result.setItem(reloaded.get(itemKey));
+        } else {
+          result = new ItemPack<Item>(originals.get(itemKey), null, null);
+        }
+        listener.succeeded(itemKey, result);
+      }
+      dao.clear();
+    }
+  }
+
+  private ItemOperationParamsImpl newBatchParams(ItemOperationParams params) {
+    ItemOperationParamsImpl batchParams = new ItemOperationParamsImpl();
+    batchParams.setDateNow(params.getDateNow());
+    return batchParams;
+  }
+
+  /** Hands over the state that postProcessParameters needs once all batches are done */
+  private void mergeBatchParams(ItemOperationParams batchParams, ItemOperationParams params) {
+    synchronized (params) {
+      params.getAfterCommitAllEvents().addAll(batchParams.getAfterCommitAllEvents());
+      List<ItemOperationFilter> extraFilters = batchParams.getExtraFilters();
+      if (extraFilters != null) {
+        for (ItemOperationFilter extraFilter : extraFilters) {
+          params.addFilter(extraFilter);
+        }
+      }
+      if (batchParams.isNotificationsAdded()) {
+        params.setNotificationsAdded(true);
+      }
+    }
+  }
+
+  private ThreadPoolExecutor newOperateAllPool() {
+    return new ThreadPoolExecutor(
+        0,
+        Math.max(1, operateAllThreads),
+        60L,
+        TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(),
+        new NamedThreadFactory("ItemServiceImpl.operateAllPool"),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * Runs the filter's operations on every item in the batch in a single transaction. Any failure
+   * rolls back the whole batch.
+   */
+  @Transactional
+  protected List<ItemPack<Item>> runOperationBatch(
+      List<ItemKey> batch, ItemOperationParams params, ItemOperationFilter filter) {
+    List<ItemPack<Item>> results = new ArrayList<ItemPack<Item>>(batch.size());
+    boolean notificationsAdded = false;
+    for (ItemKey itemKey : batch) {
+      logger.debug("Processing " + itemKey + " with filter " + filter.getClass().getName());
+      results.add(runOperation(itemKey, params, filter.getOperations()));
+      // reset() clears the flag for every item
+      notificationsAdded |= params.isNotificationsAdded();
+    }
+    params.setNotificationsAdded(notificationsAdded);
+    return results;
+  }
+
+  @Transactional
+  protected Map<ItemKey, Item> reloadItems(List<ItemKey> ids) {
+    Map<ItemKey, Item> items = new HashMap<ItemKey, Item>();
+    for (ItemKey id : ids) {
+      items.put(id, reloadItem(id));
+    }
+    return items;
+  }
+
   protected boolean containsDelete(WorkflowOperation[] ops) {
     for (WorkflowOperation op : ops) {
       if (op.isDeleteLike()) {
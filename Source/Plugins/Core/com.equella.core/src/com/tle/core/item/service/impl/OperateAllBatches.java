@@ -0,0 +1,132 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item.service.impl;
+
+import com.google.common.base.Throwables;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.beans.item.Item;
+import com.tle.beans.item.ItemKey;
+import com.tle.beans.item.ItemPack;
+import com.tle.core.item.operations.FilterResultListener;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Hands batches of item keys to a pool and waits for them all. Every item ends up reported to the
+ * listener exactly once: if a batch dies without reporting some of its items, e.g. because the
+ * institution went away, those items are reported as failed rather than silently dropped.
+ */
+@NonNullByDefault
+final class OperateAllBatches {
+  interface BatchProcessor {
+    void process(List<ItemKey> batch, @Nullable FilterResultListener listener);
+  }
+
+  private OperateAllBatches() {
+    throw new Error();
+  }
+
+  /** @return the errors of any batches that failed outright */
+  static List<Throwable> run(
+      ExecutorService pool,
+      int batchSize,
+      Iterator<? extends ItemKey> iter,
+      @Nullable FilterResultListener listener,
+      final BatchProcessor processor)
+      throws InterruptedException {
+    // Nobody to tell, so there's no need for processors to work out the results
+    final ReportingListener reporting = listener != null ? new ReportingListener(listener) : null;
+    final List<Future<?>> futures = new ArrayList<Future<?>>();
+    final List<List<ItemKey>> batches = new ArrayList<List<ItemKey>>();
+    final int size = Math.max(1, batchSize);
+
+    while (iter.hasNext()) {
+      final List<ItemKey> batch = new ArrayList<ItemKey>(size);
+      while (iter.hasNext() && batch.size() < size) {
+        batch.add(iter.next());
+      }
+      batches.add(batch);
+      futures.add(
+          pool.submit(
+              new Runnable() {
+                @Override
+                public void run() {
+                  processor.process(batch, reporting);
+                }
+              }));
+    }
+
+    List<Throwable> errors = new ArrayList<Throwable>();
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        futures.get(i).get();
+      } catch (ExecutionException e) {
+        Throwable cause = Throwables.getRootCause(e);
+        errors.add(cause);
+        if (reporting != null) {
+          reporting.failUnreported(batches.get(i), cause);
+        }
+      }
+    }
+    return errors;
+  }
+
+  /** Passes results on one at a time, remembering which items have been reported */
+  private static class ReportingListener implements FilterResultListener {
+    private final FilterResultListener listener;
+    private final Set<ItemKey> reported = new HashSet<ItemKey>();
+
+    ReportingListener(FilterResultListener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public synchronized void succeeded(ItemKey itemId, ItemPack<Item> pack) {
+      reported.add(itemId);
+      listener.succeeded(itemId, pack);
+    }
+
+    @Override
+    public synchronized void failed(
+        ItemKey itemId, @Nullable Item item, @Nullable ItemPack<Item> pack, Throwable e) {
+      reported.add(itemId);
+      listener.failed(itemId, item, pack, e);
+    }
+
+    @Override
+    public synchronized void total(int total) {
+      listener.total(total);
+    }
+
+    synchronized void failUnreported(List<ItemKey> batch, Throwable e) {
+      for (ItemKey itemId : batch) {
+        if (!reported.contains(itemId)) {
+          failed(itemId, null, null, e);
+        }
+      }
+    }
+  }
+}
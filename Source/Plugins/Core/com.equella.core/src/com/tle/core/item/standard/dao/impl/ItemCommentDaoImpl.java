@@ -183,7 +183,6 @@ public class ItemCommentDaoImpl extends GenericDaoImpl<Comment, Long> implements
 
                     SQLQuery q = session.createSQLQuery(sb.toString());
                     q.addEntity("c", Comment.class);
-                    q.setCacheable(true);
                     q.setReadOnly(true);
                     // We want to use the item DB ID directly because the Item
                     // object may not be a serialised, e.g. during a contribution
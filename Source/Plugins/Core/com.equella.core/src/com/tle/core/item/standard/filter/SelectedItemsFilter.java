@@ -52,4 +52,9 @@ public class SelectedItemsFilter implements ItemOperationFilter {
   public boolean isReadOnly() {
     return false;
   }
+
+  @Override
+  public boolean isBulkSafe() {
+    return false;
+  }
 }
@@ -0,0 +1,51 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tle.core.notification;
+
+import com.tle.beans.item.Item;
+import com.tle.beans.item.ItemId;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The items referred to by the notifications being emailed on the current thread. They are looked
+ * up together for a whole batch of users, so that building each user's email doesn't mean another
+ * item query.
+ */
+public final class PrefetchedItems {
+  private static final ThreadLocal<Map<ItemId, Item>> ITEMS = new ThreadLocal<Map<ItemId, Item>>();
+
+  public static void set(Map<ItemId, Item> items) {
+    ITEMS.set(items);
+  }
+
+  public static Map<ItemId, Item> get() {
+    Map<ItemId, Item> items = ITEMS.get();
+    return items != null ? items : Collections.<ItemId, Item>emptyMap();
+  }
+
+  public static void clear() {
+    ITEMS.remove();
+  }
+
+  private PrefetchedItems() {
+    throw new Error();
+  }
+}
@@ -49,7 +49,21 @@ public interface NotificationDao extends GenericInstitutionalDao<Notification, L
 
   boolean userIdChanged(ItemKey itemKey, String fromUserId, String toUserId);
 
-  NotifiedUser getUserToNotify(Date notAfter, String attemptId, boolean batched);
+  /**
+   * Locks up to {@code max} pending notifications with an ID greater than {@code afterId}, in ID
+   * order. Notifications locked by another transaction are skipped where the database supports it.
+   */
+  List<Notification> lockPendingNotifications(
+      Date notAfter, String attemptId, boolean batched, long afterId, int max);
+
+  /**
+   * As for {@link #updateLastAttempt(String, boolean, Date, String)} for several users at once, but
+   * only claims the notifications that are still pending as of {@code notAfter}. The notifications
+   * are locked first, skipping any that another transaction has locked, and only the ones locked
+   * here are claimed.
+   */
+  int claimUsers(
+      Collection<String> users, boolean batched, Date notAfter, Date date, String attemptId);
 
   int updateLastAttempt(String user, boolean batched, Date date, String attemptId);
 
@@ -58,6 +72,9 @@ public interface NotificationDao extends GenericInstitutionalDao<Notification, L
 
   Map<String, Integer> getReasonCounts(String user, String attemptId);
 
+  /** As for {@link #getReasonCounts(String, String)}, keyed by user. */
+  Map<String, Map<String, Integer>> getReasonCounts(Collection<String> users, String attemptId);
+
   int markProcessed(String user, Collection<String> reasons, String attemptId);
 
   int deleteUnindexed(String user, Collection<String> reasons, String attemptId);
@@ -65,4 +82,8 @@ public interface NotificationDao extends GenericInstitutionalDao<Notification, L
   int markProcessedById(String user, Collection<Long> notifications, String attemptId);
 
   int deleteUnindexedById(String user, Collection<Long> notifications, String attemptId);
+
+  int markProcessedById(Collection<Long> notifications, String attemptId);
+
+  int deleteUnindexedById(Collection<Long> notifications, String attemptId);
 }
@@ -18,6 +18,7 @@
 
 package com.tle.core.notification.dao;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.tle.beans.Institution;
 import com.tle.beans.item.ItemId;
@@ -35,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import javax.inject.Singleton;
 import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.springframework.orm.hibernate5.HibernateCallback;
@@ -55,6 +57,10 @@ public class NotificationDaoImpl extends GenericInstitionalDaoImpl<Notification,
   private static final String ITEMID = "itemid";
   private static final String REASON = "reason";
   private static final String ITEMKEY = "itemkey";
+  private static final String USERS = "users";
+
+  // Keeps "in" lists well clear of database limits
+  private static final int MAX_IN_SIZE = 500;
 
   public NotificationDaoImpl() {
     super(Notification.class);
@@ -232,34 +238,6 @@ public class NotificationDaoImpl extends GenericInstitionalDaoImpl<Notification,
                 });
   }
 
-  @Override
-  @Transactional(propagation = Propagation.MANDATORY)
-  public NotifiedUser getUserToNotify(
-      final Date notAfter, final String attemptId, final boolean batched) {
-    return (NotifiedUser)
-        getHibernateTemplate()
-            .execute(
-                new HibernateCallback() {
-                  @Override
-                  public Object doInHibernate(Session session) throws HibernateException {
-                    Query query =
-                        session.createQuery(
-                            "select n.userTo, i.uniqueId from Notification n join n.institution as i "
-                                + "where n.processed = false and n.batched = :batched and (n.attemptId is null or n.attemptId <> :attempt) and "
-                                + "(n.lastAttempt < :date or n.lastAttempt is null) group by i.uniqueId, n.userTo");
-                    query.setParameter("date", notAfter);
-                    query.setParameter("batched", batched);
-                    query.setParameter(ATTEMPT, attemptId);
-                    query.setMaxResults(1);
-                    Object[] vals = (Object[]) query.uniqueResult();
-                    if (vals == null) {
-                      return null;
-                    }
-                    return new NotifiedUser((String) vals[0], ((Number) vals[1]).longValue());
-                  }
-                });
-  }
-
   @SuppressWarnings("unchecked")
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
@@ -323,6 +301,131 @@ public class NotificationDaoImpl extends GenericInstitionalDaoImpl<Notification,
                 });
   }
 
+  @SuppressWarnings("unchecked")
+  @Override
+  @Transactional(propagation = Propagation.MANDATORY)
+  public List<Notification> lockPendingNotifications(
+      final Date notAfter,
+      final String attemptId,
+      final boolean batched,
+      final long afterId,
+      final int max) {
+    return (List<Notification>)
+        getHibernateTemplate()
+            .execute(
+                new HibernateCallback() {
+                  @Override
+                  public Object doInHibernate(Session session) throws HibernateException {
+                    Query query =
+                        session.createQuery(
+                            "from Notification n where n.id > :after and n.processed = false "
+                                + "and n.batched = :batched and (n.attemptId is null or n.attemptId <> :attempt) and "
+                                + "(n.lastAttempt < :date or n.lastAttempt is null) order by n.id");
+                    query.setParameter("after", afterId);
+                    query.setParameter("date", notAfter);
+                    query.setParameter("batched", batched);
+                    query.setParameter(ATTEMPT, attemptId);
+                    query.setMaxResults(max);
+                    // Rather than waiting for another node that is claiming the same rows
+                    query.setLockMode("n", LockMode.UPGRADE_SKIPLOCKED);
+                    return query.list();
+                  }
+                });
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.MANDATORY)
+  public int claimUsers(
+      final Collection<String> users,
+      final boolean batched,
+      final Date notAfter,
+      final Date date,
+      final String attemptId) {
+    return (Integer)
+        getHibernateTemplate()
+            .execute(
+                new HibernateCallback() {
+                  @Override
+                  @SuppressWarnings("unchecked")
+                  public Object doInHibernate(Session session) {
+                    // Lock the users' pending notifications first so that the update only touches
+                    // rows we hold, rather than waiting on the ones another node has locked
+                    Query lock =
+                        session.createQuery(
+                            "from Notification n where n.institution = :inst and n.userTo in (:users) "
+                                + "and n.processed = false and n.batched = :batched "
+                                + "and (n.attemptId is null or n.attemptId <> :attempt) "
+                                + "and (n.lastAttempt < :notafter or n.lastAttempt is null)");
+                    lock.setParameter(INST, CurrentInstitution.get());
+                    lock.setParameter("batched", batched);
+                    lock.setParameter(ATTEMPT, attemptId);
+                    lock.setParameter("notafter", notAfter);
+                    lock.setLockMode("n", LockMode.UPGRADE_SKIPLOCKED);
+
+                    List<Long> locked = Lists.newArrayList();
+                    for (List<String> chunk :
+                        Lists.partition(Lists.newArrayList(users), MAX_IN_SIZE)) {
+                      lock.setParameterList(USERS, chunk);
+                      for (Notification notification : (List<Notification>) lock.list()) {
+                        locked.add(notification.getId());
+                        // The update below leaves the loaded copy out of date
+                        session.evict(notification);
+                      }
+                    }
+
+                    Query query =
+                        session.createQuery(
+                            "update Notification set lastAttempt = :date, attemptId = :attempt "
+                                + "where id in (:ids)");
+                    query.setParameter("date", date);
+                    query.setParameter(ATTEMPT, attemptId);
+                    int updated = 0;
+                    for (List<Long> chunk : Lists.partition(locked, MAX_IN_SIZE)) {
+                      query.setParameterList("ids", chunk);
+                      updated += query.executeUpdate();
+                    }
+                    return updated;
+                  }
+                });
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  @Transactional(propagation = Propagation.MANDATORY)
+  public Map<String, Map<String, Integer>> getReasonCounts(
+      final Collection<String> users, final String attemptId) {
+    return (Map<String, Map<String, Integer>>)
+        getHibernateTemplate()
+            .execute(
+                new HibernateCallback() {
+                  @Override
+                  public Object doInHibernate(Session session) throws HibernateException {
+                    Query query =
+                        session.createQuery(
+                            "select count(reason), reason, userTo from Notification "
+                                + "where attemptId = :attempt and processed = false "
+                                + "and userTo in (:users) and institution = :inst group by userTo, reason");
+                    query.setParameter(ATTEMPT, attemptId);
+                    query.setParameter(INST, CurrentInstitution.get());
+                    Map<String, Map<String, Integer>> userMap = Maps.newHashMap();
+                    for (List<String> chunk :
+                        Lists.partition(Lists.newArrayList(users), MAX_IN_SIZE)) {
+                      query.setParameterList(USERS, chunk);
+                      for (Object[] count : (List<Object[]>) query.list()) {
+                        String user = (String) count[2];
+                        Map<String, Integer> reasonMap = userMap.get(user);
+                        if (reasonMap == null) {
+                          reasonMap = Maps.newHashMap();
+                          userMap.put(user, reasonMap);
+                        }
+                        reasonMap.put((String) count[1], ((Number) count[0]).intValue());
+                      }
+                    }
+                    return userMap;
+                  }
+                });
+  }
+
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
   public int updateLastAttempt(String user, boolean batched, Date date, String attemptId) {
@@ -442,4 +545,51 @@ public class NotificationDaoImpl extends GenericInstitionalDaoImpl<Notification,
                   }
                 });
   }
+
+  @Override
+  @Transactional(propagation = Propagation.MANDATORY)
+  public int markProcessedById(final Collection<Long> notifications, final String attemptId) {
+    return updateById(
+        "update Notification set processed = true "
+            + "where institution = :inst and processed = false "
+            + "and id in (:noteid) and attemptId = :attempt",
+        notifications,
+        attemptId);
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.MANDATORY)
+  public int deleteUnindexedById(final Collection<Long> notifications, final String attemptId) {
+    return updateById(
+        "delete from Notification "
+            + "where institution = :inst and processed = false "
+            + "and id in (:noteid) and attemptId = :attempt",
+        notifications,
+        attemptId);
+  }
+
+  private int updateById(
+      final String hql, final Collection<Long> notifications, final String attemptId) {
+    if (notifications.isEmpty()) {
+      return 0;
+    }
+    return (Integer)
+        getHibernateTemplate()
+            .execute(
+                new HibernateCallback() {
+                  @Override
+                  public Object doInHibernate(Session session) {
+                    Query query = session.createQuery(hql);
+                    query.setParameter(ATTEMPT, attemptId);
+                    query.setParameter(INST, CurrentInstitution.get());
+                    int updated = 0;
+                    for (List<Long> chunk :
+                        Lists.partition(Lists.newArrayList(notifications), MAX_IN_SIZE)) {
+                      query.setParameterList(NOTEID, chunk);
+                      updated += query.executeUpdate();
+                    }
+                    return updated;
+                  }
+                });
+  }
 }
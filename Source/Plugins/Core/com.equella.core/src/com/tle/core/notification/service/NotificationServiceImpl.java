@@ -18,8 +18,14 @@
 
 package com.tle.core.notification.service;
 
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
 import com.tle.beans.Institution;
 import com.tle.beans.item.ItemId;
 import com.tle.beans.item.ItemKey;
@@ -34,15 +40,15 @@ import com.tle.core.email.EmailService;
 import com.tle.core.guice.Bind;
 import com.tle.core.institution.InstitutionService;
 import com.tle.core.institution.RunAsInstitution;
+import com.tle.core.item.service.ItemService;
 import com.tle.core.notification.EmailKey;
 import com.tle.core.notification.NotificationExtension;
 import com.tle.core.notification.NotificationService;
+import com.tle.core.notification.PrefetchedItems;
 import com.tle.core.notification.beans.Notification;
 import com.tle.core.notification.dao.NotificationDao;
-import com.tle.core.notification.dao.NotifiedUser;
 import com.tle.core.plugins.PluginService;
 import com.tle.core.plugins.PluginTracker;
-import com.tle.core.plugins.impl.PluginServiceImpl;
 import com.tle.core.security.RunAsUser;
 import com.tle.core.services.TaskService;
 import com.tle.core.services.impl.BeanClusteredTask;
@@ -56,6 +62,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
@@ -64,7 +71,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -78,12 +85,10 @@ import org.springframework.transaction.annotation.Transactional;
 public class NotificationServiceImpl implements NotificationService {
   private static final int MAX_EMAIL_NOTIFICATIONS = 30;
   private static final long RETRY_MILLIS = TimeUnit.HOURS.toMillis(2);
+  private static final int STATUS_BATCH_SIZE = 500;
 
   private static final Log LOGGER = LogFactory.getLog(NotificationService.class);
 
-  private static String keyPrefix =
-      PluginServiceImpl.getMyPluginId(NotificationServiceImpl.class) + ".";
-
   private final Executor emailerPool =
       Executors.newFixedThreadPool(
           4, new NamedThreadFactory("NotificationServiceImpl.emailerPool"));
@@ -96,6 +101,11 @@ public class NotificationServiceImpl implements NotificationService {
   @Inject private TaskService taskService;
   @Inject private InstitutionService institutionService;
   @Inject private SchemaDataSourceService schemaDataSourceService;
+  @Inject private ItemService itemService;
+
+  @Inject(optional = true)
+  @Named("notifications.claimBatchSize")
+  private int claimBatchSize = 50;
 
   private PluginTracker<NotificationExtension> extensionTracker;
 
@@ -183,6 +193,7 @@ public class NotificationServiceImpl implements NotificationService {
     final ExecutorCompletionService<EmailResult<EmailKey>> completionService =
         new ExecutorCompletionService<EmailResult<EmailKey>>(emailerPool);
     final AtomicInteger emailCounter = new AtomicInteger();
+    final NotificationStatusUpdates statusUpdates = new NotificationStatusUpdates();
     Multimap<Long, Institution> availableInsts = institutionService.getAvailableMap();
     for (Long schemaId : availableInsts.keySet()) {
       schemaDataSourceService.executeWithSchema(
@@ -190,13 +201,24 @@ public class NotificationServiceImpl implements NotificationService {
           new Callable<Void>() {
             @Override
             public Void call() {
-
-              while (processFirstUser(
-                  notBefore, processTime, completionService, emailCounter, attemptId, batched)) {
+              long lastId = 0;
+              while (lastId >= 0) {
+                lastId =
+                    processUsers(
+                        notBefore,
+                        processTime,
+                        completionService,
+                        emailCounter,
+                        attemptId,
+                        batched,
+                        lastId,
+                        statusUpdates);
                 Future<EmailResult<EmailKey>> result;
                 while ((result = completionService.poll()) != null) {
                   processResult(result, emailCounter);
                 }
+                // Whatever has been sent so far is saved after every batch
+                saveStatusUpdates(statusUpdates, attemptId, true);
               }
               return null;
             }
@@ -204,11 +226,19 @@ public class NotificationServiceImpl implements NotificationService {
     }
     try {
       while (emailCounter.intValue() > 0) {
-        processResult(completionService.take(), emailCounter);
+        Future<EmailResult<EmailKey>> result = completionService.poll();
+        if (result == null) {
+          // Don't sit on sent notifications while waiting for slower emails
+          saveStatusUpdates(statusUpdates, attemptId, true);
+          result = completionService.take();
+        }
+        processResult(result, emailCounter);
+        saveStatusUpdates(statusUpdates, attemptId, false);
       }
     } catch (InterruptedException e) {
       LOGGER.error("Error waiting for emails");
     }
+    saveStatusUpdates(statusUpdates, attemptId, true);
   }
 
   protected void processResult(
@@ -217,80 +247,172 @@ public class NotificationServiceImpl implements NotificationService {
     try {
       final EmailResult<EmailKey> emailResult = result.get();
       final EmailKey key = emailResult.getKey();
-      runAs.executeAsSystem(
-          key.institution(),
-          new Callable<Void>() {
-            @Override
-            public Void call() {
-              Throwable error = emailResult.getError();
-              if (error == null) {
-                markProcessed(key);
-              } else {
-                UserBean user = key.user();
-                LOGGER.error(
-                    "Error sending mail to "
-                        + user.getEmailAddress()
-                        + " ("
-                        + user.getUsername()
-                        + ") ",
-                    error);
-              }
-              return null;
-            }
-          });
+      Throwable error = emailResult.getError();
+      if (error == null) {
+        // Collects the sent notifications for saveStatusUpdates
+        key.successCallback();
+      } else {
+        UserBean user = key.user();
+        LOGGER.error(
+            "Error sending mail to " + user.getEmailAddress() + " (" + user.getUsername() + ") ",
+            error);
+      }
     } catch (Exception e) {
       LOGGER.error("Error getting emailer status", e);
     }
   }
 
+  /**
+   * Marks the notifications for sent emails as processed, or deletes them, once enough have been
+   * collected or when {@code force} is set.
+   */
+  protected void saveStatusUpdates(
+      NotificationStatusUpdates statusUpdates, final String attemptId, boolean force) {
+    if (!force && statusUpdates.size() < STATUS_BATCH_SIZE) {
+      return;
+    }
+    final ListMultimap<Institution, Long> processed = statusUpdates.takeProcessed();
+    final ListMultimap<Institution, Long> deletes = statusUpdates.takeDeletes();
+    for (final Institution institution : Sets.union(processed.keySet(), deletes.keySet())) {
+      try {
+        runAs.executeAsSystem(
+            institution,
+            new Runnable() {
+              @Override
+              public void run() {
+                updateStatuses(processed.get(institution), deletes.get(institution), attemptId);
+              }
+            });
+      } catch (Exception e) {
+        LOGGER.error("Error updating sent notifications", e);
+      }
+    }
+  }
+
   @Transactional
-  protected void markProcessed(EmailKey key) {
-    key.successCallback();
+  protected void updateStatuses(
+      Collection<Long> processed, Collection<Long> deletes, String attemptId) {
+    dao.markProcessedById(processed, attemptId);
+    dao.deleteUnindexedById(deletes, attemptId);
   }
 
+  /**
+   * Claims the users of the next {@code claimBatchSize} pending notifications after {@code afterId}
+   * and queues their emails, all in one transaction. Notifications that another node has locked are
+   * skipped, and claiming a user takes all of their pending notifications that aren't locked
+   * elsewhere, so later batches don't see them again.
+   *
+   * @return the ID of the last notification read, or -1 when there were none left
+   */
   @Transactional
-  protected boolean processFirstUser(
+  protected long processUsers(
       Date notAfter,
+      Date processTime,
+      ExecutorCompletionService<EmailResult<EmailKey>> completionService,
+      AtomicInteger emailCounter,
+      String attemptId,
+      boolean batched,
+      long afterId,
+      NotificationStatusUpdates statusUpdates) {
+    List<Notification> pending =
+        dao.lockPendingNotifications(notAfter, attemptId, batched, afterId, claimBatchSize);
+    if (pending.isEmpty()) {
+      return -1;
+    }
+
+    SetMultimap<Long, String> users = LinkedHashMultimap.create();
+    for (Notification notification : pending) {
+      users.put(notification.getInstitution().getUniqueId(), notification.getUserTo());
+    }
+
+    for (Long instId : users.keySet()) {
+      queueEmails(
+          institutionService.getInstitution(instId),
+          users.get(instId),
+          notAfter,
+          processTime,
+          completionService,
+          emailCounter,
+          attemptId,
+          batched,
+          statusUpdates);
+    }
+    return pending.get(pending.size() - 1).getId();
+  }
+
+  private void queueEmails(
+      final Institution institution,
+      final Collection<String> users,
+      final Date notAfter,
       final Date processTime,
       ExecutorCompletionService<EmailResult<EmailKey>> completionService,
       AtomicInteger emailCounter,
       final String attemptId,
-      final boolean batched) {
-    NotifiedUser userToNotify = dao.getUserToNotify(notAfter, attemptId, batched);
-    if (userToNotify != null) {
-      final String user = userToNotify.getUser();
-      Institution institution = institutionService.getInstitution(userToNotify.getInstId());
-      try {
-        Iterable<Callable<EmailResult<EmailKey>>> emailer =
-            runAsUser.execute(
-                institution,
-                user,
-                new NotificationEmailer(batched, processTime, attemptId, dao, emailService));
-        for (Callable<EmailResult<EmailKey>> em : emailer) {
-          emailCounter.incrementAndGet();
-          completionService.submit(em);
-        }
-      } catch (UserException ue) {
+      final boolean batched,
+      final NotificationStatusUpdates statusUpdates) {
+    final Map<String, NotificationEmailer> emailers = Maps.newLinkedHashMap();
+    final Map<String, Map<String, Integer>> reasonCounts =
         runAs.executeAsSystem(
             institution,
-            new Runnable() {
+            new Callable<Map<String, Map<String, Integer>>>() {
               @Override
-              public void run() {
-                dao.updateLastAttempt(user, batched, processTime, attemptId);
-                Map<String, Integer> reasonCounts = dao.getReasonCounts(user, attemptId);
-                List<String> processed = Lists.newArrayList();
-                List<String> deletes = Lists.newArrayList();
-                for (Entry<String, Integer> reasonCount : reasonCounts.entrySet()) {
-                  String reason = reasonCount.getKey();
-                  (getExtensionForType(reason).isIndexed(reason) ? processed : deletes).add(reason);
+              public Map<String, Map<String, Integer>> call() {
+                dao.claimUsers(users, batched, notAfter, processTime, attemptId);
+                // Users that someone else claimed first won't have any counts
+                Map<String, Map<String, Integer>> counts = dao.getReasonCounts(users, attemptId);
+                Set<ItemId> itemIds = Sets.newHashSet();
+                for (Entry<String, Map<String, Integer>> entry : counts.entrySet()) {
+                  NotificationEmailer emailer =
+                      new NotificationEmailer(
+                          entry.getKey(),
+                          entry.getValue(),
+                          attemptId,
+                          dao,
+                          emailService,
+                          statusUpdates);
+                  for (Notification note : emailer.loadNotifications()) {
+                    itemIds.add(new ItemId(note.getItemidOnly()));
+                  }
+                  emailers.put(entry.getKey(), emailer);
                 }
-                dao.deleteUnindexed(user, deletes, attemptId);
-                dao.markProcessed(user, processed, attemptId);
+                if (!itemIds.isEmpty()) {
+                  PrefetchedItems.set(itemService.queryItemsByItemIds(Lists.newArrayList(itemIds)));
+                }
+                return counts;
               }
             });
+
+    try {
+      for (Entry<String, NotificationEmailer> entry : emailers.entrySet()) {
+        final String user = entry.getKey();
+        try {
+          Iterable<Callable<EmailResult<EmailKey>>> emailer =
+              runAsUser.execute(institution, user, entry.getValue());
+          for (Callable<EmailResult<EmailKey>> em : emailer) {
+            emailCounter.incrementAndGet();
+            completionService.submit(em);
+          }
+        } catch (UserException ue) {
+          runAs.executeAsSystem(
+              institution,
+              new Runnable() {
+                @Override
+                public void run() {
+                  List<String> processed = Lists.newArrayList();
+                  List<String> deletes = Lists.newArrayList();
+                  for (String reason : reasonCounts.get(user).keySet()) {
+                    (getExtensionForType(reason).isIndexed(reason) ? processed : deletes)
+                        .add(reason);
+                  }
+                  dao.deleteUnindexed(user, deletes, attemptId);
+                  dao.markProcessed(user, processed, attemptId);
+                }
+              });
+        }
       }
+    } finally {
+      PrefetchedItems.clear();
     }
-    return userToNotify != null;
   }
 
   @Override
@@ -321,6 +443,19 @@ public class NotificationServiceImpl implements NotificationService {
             .setBeanKey("bean");
   }
 
+  // Injected, except in tests
+  void setRunAs(RunAsInstitution runAs) {
+    this.runAs = runAs;
+  }
+
+  void setInstitutionService(InstitutionService institutionService) {
+    this.institutionService = institutionService;
+  }
+
+  void setSchemaDataSourceService(SchemaDataSourceService schemaDataSourceService) {
+    this.schemaDataSourceService = schemaDataSourceService;
+  }
+
   @Override
   public NotificationExtension getExtensionForType(String type) {
     Extension extension = extensionTracker.getExtension(type);
@@ -0,0 +1,59 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tle.core.notification.service;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.tle.beans.Institution;
+import java.util.Collection;
+
+/**
+ * Collects the notifications to mark as processed or delete once their emails have been sent, so
+ * that they can be updated a few hundred at a time instead of with statements for every email.
+ */
+public class NotificationStatusUpdates {
+  private final ListMultimap<Institution, Long> processed = ArrayListMultimap.create();
+  private final ListMultimap<Institution, Long> deletes = ArrayListMultimap.create();
+
+  public synchronized void add(
+      Institution institution, Collection<Long> processedIds, Collection<Long> deleteIds) {
+    processed.putAll(institution, processedIds);
+    deletes.putAll(institution, deleteIds);
+  }
+
+  public synchronized int size() {
+    return processed.size() + deletes.size();
+  }
+
+  /** Removes and returns the notifications to mark as processed, by institution. */
+  public synchronized ListMultimap<Institution, Long> takeProcessed() {
+    ListMultimap<Institution, Long> taken = ImmutableListMultimap.copyOf(processed);
+    processed.clear();
+    return taken;
+  }
+
+  /** Removes and returns the notifications to delete, by institution. */
+  public synchronized ListMultimap<Institution, Long> takeDeletes() {
+    ListMultimap<Institution, Long> taken = ImmutableListMultimap.copyOf(deletes);
+    deletes.clear();
+    return taken;
+  }
+}
@@ -77,7 +77,6 @@ public class OAuthTokenDaoImpl extends GenericInstitionalDaoImpl<OAuthToken, Lon
                         session.createQuery(
                             "from OAuthToken where client.institution = :institution");
                     query.setParameter("institution", CurrentInstitution.get());
-                    query.setCacheable(true);
                     query.setReadOnly(true);
                     return query.list();
                   }
@@ -55,7 +55,6 @@ public class PortletDaoImpl extends AbstractEntityDaoImpl<Portlet> implements Po
                                 "FROM Portlet WHERE"
                                     + " (owner = :owner OR institutional = :institutional)"
                                     + " AND enabled = :enabled AND institution = :institution ORDER BY dateCreated");
-                        query.setCacheable(true);
                         query.setParameter("owner", userId);
                         query.setParameter("institutional", true);
                         query.setParameter("enabled", true);
@@ -160,7 +159,6 @@ public class PortletDaoImpl extends AbstractEntityDaoImpl<Portlet> implements Po
 
                         Query query = session.createQuery(hql.toString());
                         query.setParameter("institution", CurrentInstitution.get());
-                        query.setCacheable(true);
                         query.setReadOnly(true);
 
                         if (callback != null) {
@@ -27,5 +27,6 @@ public class SchedulerModule extends OptionalConfigModule {
     bindInt("com.tle.core.tasks.RemoveDeletedItems.daysBeforeRemoval");
     bindInt("com.tle.core.tasks.RemoveOldAuditLogs.daysBeforeRemoval");
     bindBoolean("com.tle.core.tasks.RemoveStagingAreas.enable", true);
+    bindInt("scheduler.maxConcurrentShards", 4);
   }
 }
@@ -23,9 +23,12 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 import com.tle.beans.Institution;
 import com.tle.common.Check;
@@ -42,6 +45,7 @@ import com.tle.core.plugins.PluginTracker;
 import com.tle.core.plugins.PluginTracker.ParamFilter;
 import com.tle.core.scheduler.ScheduledTask;
 import com.tle.core.scheduler.SchedulerService;
+import com.tle.core.scheduler.SchemaScheduledTask;
 import com.tle.core.security.impl.SecureOnCallSystem;
 import com.tle.core.services.TaskService;
 import com.tle.core.services.TaskStatus;
@@ -56,6 +60,7 @@ import com.tle.core.xml.service.XmlService;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -65,6 +70,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
 import org.java.plugin.registry.Extension;
@@ -79,6 +85,8 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
 
   private static final long TASK_WAIT_WARN_TIME =
       TimeUnit.HOURS.toMillis(1) + TimeUnit.MINUTES.toMillis(15);
+  private static final int SLOWEST_SHARDS_TO_LOG = 10;
+  private static final String SHARD_SCHEMA = "schema";
 
   @Inject private ConfigurationService configService;
   @Inject private SystemConfigService systemConfigService;
@@ -88,6 +96,10 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
   @Inject private TaskService taskService;
   @Inject private SchemaDataSourceService databaseSchemaService;
 
+  @com.google.inject.Inject(optional = true)
+  @Named("scheduler.maxConcurrentShards")
+  private int maxConcurrentShards = 4;
+
   private PluginService pluginService;
   private PluginTracker<ScheduledTask> taskTracker;
 
@@ -101,6 +113,15 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
     taskTracker.setBeanKey("bean");
   }
 
+  // Injected, except in tests
+  void setInstitutionService(InstitutionService institutionService) {
+    this.institutionService = institutionService;
+  }
+
+  void setSchemaDataSourceService(SchemaDataSourceService databaseSchemaService) {
+    this.databaseSchemaService = databaseSchemaService;
+  }
+
   @Override
   public Schedules getSchedules() {
     return configService.getProperties(new Schedules());
@@ -168,7 +189,9 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
 
       @Override
       public void runTask(Void ignore) {
-        // Run any institution specific tasks first
+        // Gather the tasks due for every institution and run them all together, so that one slow
+        // institution doesn't hold up the others
+        final List<Shard> shards = Lists.newArrayList();
         Collection<Institution> institutions = institutionService.getAvailableMap().values();
         for (final Institution inst : institutions) {
           runAs.executeAsSystem(
@@ -176,8 +199,9 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
               new Runnable() {
                 @Override
                 public void run() {
-                  List<Extension> toRun = getExtensionsToRun(inst);
-                  runExtensions(inst, toRun);
+                  for (Extension extension : getExtensionsToRun(inst)) {
+                    shards.add(new Shard(extension, inst, null));
+                  }
                   updateSchedule(inst, getSchedules());
                 }
               });
@@ -196,10 +220,13 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
           targetDates.invalidateAll(inactiveInsts);
         }
 
-        // Now run any system tasks
-        List<Extension> toRun = getExtensionsToRun(Institution.FAKE);
-        runExtensions(Institution.FAKE, toRun);
+        // Now any system tasks
+        for (Extension extension : getExtensionsToRun(Institution.FAKE)) {
+          shards.addAll(getServerShards(extension));
+        }
         updateSchedule(Institution.FAKE, getServerSchedules());
+
+        runShards(shards);
       }
 
       @SuppressWarnings("unchecked")
@@ -273,44 +300,55 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
         td.hourlyTarget = c.getTime();
       }
 
-      private void runExtensions(Institution inst, List<Extension> toRun) {
+      private void runShards(List<Shard> toRun) {
         if (Check.isEmpty(toRun)) {
           return;
         }
 
-        // Order tasks based on dependencies
+        // Order tasks based on dependencies, which apply within an institution (or the server)
         ListMultimap<String, String> dependMap = ArrayListMultimap.create();
-        for (Extension extension : toRun) {
-          String extId = extension.getParameter("id").valueAsString();
-          for (Parameter depend : extension.getParameters("depends")) {
-            dependMap.put(extId, depend.valueAsString());
-          }
-          for (Parameter depend : extension.getParameters("before")) {
-            dependMap.put(depend.valueAsString(), extId);
+        Multiset<String> unfinishedShards = HashMultiset.create();
+        Set<Extension> extensions = Sets.newHashSet();
+        for (Shard shard : toRun) {
+          unfinishedShards.add(shard.getGroupKey(shard.extId));
+          if (extensions.add(shard.extension)) {
+            for (Parameter depend : shard.extension.getParameters("depends")) {
+              dependMap.put(shard.extId, depend.valueAsString());
+            }
+            for (Parameter depend : shard.extension.getParameters("before")) {
+              dependMap.put(depend.valueAsString(), shard.extId);
+            }
           }
         }
 
-        // Extension ID to task ID
-        Map<String, String> runningTasks = Maps.newHashMap();
-        // Extension IDs
+        // Shard to task ID
+        Map<Shard, String> runningTasks = Maps.newHashMap();
+        Multiset<String> runningPerTask = HashMultiset.create();
+        // Extension IDs, by institution, which have finished for all shards
         Set<String> finishedTasks = Sets.newHashSet();
+        List<Shard> finishedShards = Lists.newArrayList();
 
-        // Start as many of the scheduled tasks as possible in parallel
-        // - let the cluster nodes balance it out. Once any task
-        // finishes, check through the remaining tasks to see if more
-        // can also be started. Keep looping until all the tasks have
-        // been started and all finished.
+        // Start as many of the scheduled tasks as possible in parallel,
+        // up to the limit for each task - let the cluster nodes balance
+        // it out. Once any task finishes, check through the remaining
+        // tasks to see if more can also be started. Keep looping until
+        // all the tasks have been started and all finished.
         while (!toRun.isEmpty() || !runningTasks.isEmpty()) {
           boolean startedTask = false;
-          for (Iterator<Extension> iter = toRun.iterator(); iter.hasNext(); ) {
-            Extension extension = iter.next();
-            String extId = extension.getParameter("id").valueAsString();
-            List<String> deps = dependMap.get(extId);
-            if (Check.isEmpty(deps) || finishedTasks.containsAll(deps)) {
+          for (Iterator<Shard> iter = toRun.iterator(); iter.hasNext(); ) {
+            Shard shard = iter.next();
+            if (runningPerTask.count(shard.extId) >= getMaxConcurrentShards(shard.extension)) {
+              continue;
+            }
+            boolean ready = true;
+            for (String dep : dependMap.get(shard.extId)) {
+              ready &= finishedTasks.contains(shard.getGroupKey(dep));
+            }
+            if (ready) {
               // All dependencies are finished, so start the task
-
-              String taskId = startGlobalTask(extension, extId, inst);
-              runningTasks.put(extId, taskId);
+              runningTasks.put(shard, startShard(shard));
+              runningPerTask.add(shard.extId);
+              shard.started = System.currentTimeMillis();
               iter.remove();
               startedTask = true;
             }
@@ -323,25 +361,78 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
           // future it would be better to be able to specify "weak"
           // dependencies where it doesn't matter if they're missing.
           if (!startedTask && runningTasks.isEmpty()) {
-            throw logDependencyError(finishedTasks, dependMap);
+            Set<String> finishedExtIds = Sets.newHashSet();
+            for (Shard shard : finishedShards) {
+              finishedExtIds.add(shard.extId);
+            }
+            ListMultimap<String, String> unstarted = ArrayListMultimap.create();
+            for (Shard shard : toRun) {
+              unstarted.putAll(shard.extId, dependMap.get(shard.extId));
+            }
+            throw logDependencyError(finishedExtIds, unstarted);
           }
 
           // Wait for one of the currently running tasks to finish
-          String finishedId = waitForAnyTaskToFinish(runningTasks);
-          runningTasks.remove(finishedId);
-          finishedTasks.add(finishedId);
+          Shard finished = waitForAnyTaskToFinish(runningTasks);
+          if (finished == null) {
+            // The running tasks carry on by themselves
+            LOGGER.warn(
+                "Interrupted waiting for "
+                    + runningTasks.size()
+                    + " scheduled tasks, not starting the remaining "
+                    + toRun.size());
+            return;
+          }
+          finished.finished = System.currentTimeMillis();
+          runningTasks.remove(finished);
+          runningPerTask.remove(finished.extId);
+          finishedShards.add(finished);
+          String groupKey = finished.getGroupKey(finished.extId);
+          unfinishedShards.remove(groupKey);
+          if (!unfinishedShards.contains(groupKey)) {
+            finishedTasks.add(groupKey);
+          }
+
+          LOGGER.info(
+              "Aware of finished "
+                  + finished
+                  + " after "
+                  + TimeUnit.MILLISECONDS.toSeconds(finished.getRuntime())
+                  + " seconds");
+        }
+
+        logSlowestShards(finishedShards);
+      }
 
-          LOGGER.info("Aware of finished " + taskLog(finishedId, inst));
+      private void logSlowestShards(List<Shard> finishedShards) {
+        if (finishedShards.size() <= 1) {
+          return;
+        }
+        Collections.sort(
+            finishedShards,
+            new Comparator<Shard>() {
+              @Override
+              public int compare(Shard s1, Shard s2) {
+                return Long.compare(s2.getRuntime(), s1.getRuntime());
+              }
+            });
+        StringBuilder sb = new StringBuilder("Slowest scheduled tasks of this run:");
+        for (Shard shard : Iterables.limit(finishedShards, SLOWEST_SHARDS_TO_LOG)) {
+          sb.append("\n  ")
+              .append(TimeUnit.MILLISECONDS.toSeconds(shard.getRuntime()))
+              .append("s ")
+              .append(shard);
         }
+        LOGGER.info(sb.toString());
       }
 
       /**
-       * Waits for any of the given tasks to finish and returns that extension ID.
+       * Waits for any of the given tasks to finish and returns that shard.
        *
-       * @param runningTasks maps of extension IDs to task IDs.
-       * @return extension ID of task that has finished.
+       * @param runningTasks maps of shards to task IDs.
+       * @return the shard whose task has finished, or null if this thread was interrupted.
        */
-      private String waitForAnyTaskToFinish(Map<String, String> runningTasks) {
+      private Shard waitForAnyTaskToFinish(Map<Shard, String> runningTasks) {
         final long start = System.currentTimeMillis();
         long checkStart = start;
         while (true) {
@@ -352,7 +443,7 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
             LOGGER.warn("Waiting for a task to finish for " + (now - start) + "ms");
 
             final StringBuilder rt = new StringBuilder("Current runningTasks: ");
-            for (Map.Entry<String, String> runningTask : runningTasks.entrySet()) {
+            for (Map.Entry<Shard, String> runningTask : runningTasks.entrySet()) {
               rt.append(runningTask.getKey())
                   .append("=")
                   .append(runningTask.getValue())
@@ -369,13 +460,21 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
             LOGGER.warn(rt.toString());
           }
 
-          for (Map.Entry<String, String> runningTask : runningTasks.entrySet()) {
+          for (Map.Entry<Shard, String> runningTask : runningTasks.entrySet()) {
             String taskId = runningTask.getValue();
             TaskStatus status = taskService.waitForTaskStatus(taskId, TimeUnit.SECONDS.toMillis(1));
             if (status != null ? status.isFinished() : !taskService.isTaskActive(taskId)) {
               return runningTask.getKey();
             }
           }
+
+          // Known statuses come straight back, so don't spin through them
+          try {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+          }
         }
       }
 
@@ -431,28 +530,20 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
         LOGGER.info("Starting execution of " + taskLog(beanName, inst));
         long t1 = System.currentTimeMillis();
 
-        final ScheduledTask task = (ScheduledTask) pluginService.getBean(pluginId, beanName);
+        final Object task = pluginService.getBean(pluginId, beanName);
         if (inst != Institution.FAKE) {
           runAs.executeAsSystem(
               inst,
               new Callable<Void>() {
                 @Override
                 public Void call() {
-                  task.execute();
+                  ((ScheduledTask) task).execute();
                   return null;
                 }
               });
         } else {
           for (Long schemaId : institutionService.getAvailableMap().keySet()) {
-            databaseSchemaService.executeWithSchema(
-                schemaId,
-                new Callable<Void>() {
-                  @Override
-                  public Void call() {
-                    task.execute();
-                    return null;
-                  }
-                });
+            executeWithSchema(task, schemaId);
           }
         }
 
@@ -472,6 +563,57 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
     };
   }
 
+  public Task createScheduledSchemaTask(
+      final String pluginId, final String beanName, final long schemaId) {
+    return new SingleShotTask() {
+      @Override
+      public void runTask() {
+        String name = schemaTaskLog(beanName, schemaId);
+        LOGGER.info("Starting execution of " + name);
+        long t1 = System.currentTimeMillis();
+
+        executeWithSchema(pluginService.getBean(pluginId, beanName), schemaId);
+
+        long t2 = System.currentTimeMillis();
+        LOGGER.info(
+            "Finished execution of "
+                + name
+                + " - it took a total of "
+                + TimeUnit.MILLISECONDS.toSeconds(t2 - t1)
+                + " seconds");
+      }
+
+      @Override
+      protected String getTitleKey() {
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Runs a server task in one schema. A {@link SchemaScheduledTask} is told which schema it is
+   * running for, so that it only does that schema's work.
+   */
+  private void executeWithSchema(final Object task, final long schemaId) {
+    databaseSchemaService.executeWithSchema(
+        schemaId,
+        new Callable<Void>() {
+          @Override
+          public Void call() {
+            if (task instanceof SchemaScheduledTask) {
+              ((SchemaScheduledTask) task).execute(schemaId);
+            } else {
+              ((ScheduledTask) task).execute();
+            }
+            return null;
+          }
+        });
+  }
+
+  private String schemaTaskLog(String id, long schemaId) {
+    return "scheduled task " + id + " for schema " + schemaId;
+  }
+
   private String taskLog(String id, Institution inst) {
     StringBuilder sb = new StringBuilder();
     sb.append("scheduled task ");
@@ -495,6 +637,47 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
         TimeUnit.MINUTES.toMillis(1));
   }
 
+  private List<Shard> getServerShards(Extension extension) {
+    List<Shard> shards = Lists.newArrayList();
+    Parameter shard = extension.getParameter("shard");
+    if (shard != null && SHARD_SCHEMA.equals(shard.valueAsString())) {
+      for (Long schemaId : institutionService.getAvailableMap().keySet()) {
+        shards.add(new Shard(extension, Institution.FAKE, schemaId));
+      }
+    } else {
+      shards.add(new Shard(extension, Institution.FAKE, null));
+    }
+    return shards;
+  }
+
+  private int getMaxConcurrentShards(Extension extension) {
+    Parameter max = extension.getParameter("maxConcurrentShards");
+    return max != null ? max.valueAsNumber().intValue() : maxConcurrentShards;
+  }
+
+  private String startShard(Shard shard) {
+    if (shard.schemaId == null) {
+      return startGlobalTask(shard.extension, shard.extId, shard.institution);
+    }
+
+    String pluginId = shard.extension.getDeclaringPluginDescriptor().getId();
+    String beanName = shard.extension.getParameter("bean").valueAsString();
+    long schemaId = shard.schemaId;
+    BeanClusteredTask bct =
+        new BeanClusteredTask(
+            "Scheduled-Task-" + shard.extId + "-schema-" + schemaId,
+            SchedulerService.class,
+            "createScheduledSchemaTask",
+            pluginId,
+            beanName,
+            schemaId);
+
+    String taskId = taskService.getGlobalTask(bct, TimeUnit.SECONDS.toMillis(30)).getTaskId();
+
+    LOGGER.info("Submitted " + shard + " with task ID " + taskId);
+    return taskId;
+  }
+
   private String startGlobalTask(Extension extension, String extId, Institution inst) {
     String pluginId = extension.getDeclaringPluginDescriptor().getId();
     String beanName = extension.getParameter("bean").valueAsString();
@@ -520,7 +703,10 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
     Institution inst = CurrentInstitution.get();
     Extension extension = taskTracker.getExtension(extId);
     if (extension.getParameter("scope").valueAsString().equals("server")) {
-      inst = Institution.FAKE;
+      for (Shard shard : getServerShards(extension)) {
+        startShard(shard);
+      }
+      return;
     }
     startGlobalTask(extension, extId, inst);
   }
@@ -540,4 +726,38 @@ public class SchedulerServiceImpl implements SchedulerService, SchemaListener {
   public void schemasAvailable(Collection<Long> schemas) {
     // only care about system
   }
+
+  /**
+   * One scheduled task for one institution, or for the server. Server tasks may be further split
+   * into one shard per database schema.
+   */
+  private class Shard {
+    final Extension extension;
+    final String extId;
+    final Institution institution;
+    final Long schemaId;
+    long started;
+    long finished;
+
+    Shard(Extension extension, Institution institution, Long schemaId) {
+      this.extension = extension;
+      this.extId = extension.getParameter("id").valueAsString();
+      this.institution = institution;
+      this.schemaId = schemaId;
+    }
+
+    /** The ID of a task in the same institution (or the server) as this shard. */
+    String getGroupKey(String taskExtId) {
+      return institution.getUniqueId() + "/" + taskExtId;
+    }
+
+    long getRuntime() {
+      return finished - started;
+    }
+
+    @Override
+    public String toString() {
+      return schemaId != null ? schemaTaskLog(extId, schemaId) : taskLog(extId, institution);
+    }
+  }
 }
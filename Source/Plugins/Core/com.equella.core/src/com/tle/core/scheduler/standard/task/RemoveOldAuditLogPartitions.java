@@ -0,0 +1,45 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.scheduler.standard.task;
+
+import com.google.inject.Inject;
+import com.tle.core.auditlog.AuditLogService;
+import com.tle.core.guice.Bind;
+import com.tle.core.scheduler.ScheduledTask;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Drops whole months of the audit log once they are older than the retention period. Runs once per
+ * database schema, as the partitions hold the entries of every institution in the schema.
+ */
+@Bind
+@Singleton
+public class RemoveOldAuditLogPartitions implements ScheduledTask {
+  @Inject private AuditLogService auditLogService;
+
+  @Inject(optional = true)
+  @Named("com.tle.core.tasks.RemoveOldAuditLogs.daysBeforeRemoval")
+  private int daysBeforeRemoval = 120;
+
+  @Override
+  public void execute() {
+    auditLogService.removeOldPartitions(daysBeforeRemoval);
+  }
+}
@@ -69,8 +69,6 @@ public class ScriptingServiceImpl implements ScriptingService {
   private Logger logger;
   private PluginTracker<ScriptObjectContributor> scriptObjectTracker;
   private PluginTracker<UserScriptObjectContributor> userScriptObjectTracker;
-  private static final PluginResourceHelper r =
-      ResourcesService.getResourceHelper(ScriptingServiceImpl.class);
 
   @Override
   public ScriptContext createScriptContext(ScriptContextCreationParams params) {
@@ -230,7 +228,7 @@ public class ScriptingServiceImpl implements ScriptingService {
           Utils.safeSubstring(line, 0, linePos - 1)
               + "<<<"
               + Utils.safeSubstring(line, linePos - 1);
-      return msg + "\n" + r.getString("error.line", lineNum, alteredLine, linePos);
+      return msg + "\n" + Resources.r.getString("error.line", lineNum, alteredLine, linePos);
     }
 
     @Override
@@ -251,19 +249,28 @@ public class ScriptingServiceImpl implements ScriptingService {
     public EvaluatorException runtimeError(
         String msg, String scriptName, int lineNum, String line, int linePos) {
       StringBuilder summary = new StringBuilder();
-      summary.append(r.getString("error.preamble", scriptName) + "\n");
+      summary.append(Resources.r.getString("error.preamble", scriptName) + "\n");
       summary.append(msg + "\n");
 
       for (String error : errors) {
-        summary.append(r.getString("label.error") + ": " + error + "\n");
+        summary.append(Resources.r.getString("label.error") + ": " + error + "\n");
       }
       for (String warning : warnings) {
-        summary.append(r.getString("label.warning") + ": " + warning + "\n");
+        summary.append(Resources.r.getString("label.warning") + ": " + warning + "\n");
       }
       return new EvaluatorException(summary.toString());
     }
   }
 
+  /**
+   * Only needed for error messages, and looked up when first used so that scripts can be run
+   * without the plugin service, e.g. in benchmarks.
+   */
+  private static final class Resources {
+    static final PluginResourceHelper r =
+        ResourcesService.getResourceHelper(ScriptingServiceImpl.class);
+  }
+
   @Inject
   public void setLoggingService(LoggingService loggingService) {
     logger = loggingService.getLogger(ScriptingService.class);
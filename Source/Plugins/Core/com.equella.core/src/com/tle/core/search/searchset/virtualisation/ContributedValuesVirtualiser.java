@@ -19,20 +19,33 @@
 package com.tle.core.search.searchset.virtualisation;
 
 import com.dytech.edge.queries.FreeTextQuery;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.tle.common.Check;
 import com.tle.common.Pair;
+import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.search.DefaultSearch;
 import com.tle.common.search.LiveItemSearch;
 import com.tle.common.search.searchset.SearchSet;
+import com.tle.common.searching.Field;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.UserState;
 import com.tle.core.guice.Bind;
 import com.tle.core.search.VirtualisableAndValue;
 import com.tle.core.search.searchset.SearchSetService;
 import com.tle.freetext.FreetextIndex;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 import javax.inject.Singleton;
 
 @Bind
@@ -41,6 +54,35 @@ public class ContributedValuesVirtualiser implements SearchSetVirtualiser {
   @Inject private FreetextIndex freetext;
   @Inject private SearchSetService searchSetService;
 
+  private final Cache<ExpansionKey, CachedCounts> cache;
+
+  /**
+   * Expanding a virtualised topic counts every value of the virtualisation path across the whole
+   * index, so the value counts are kept (up to {@code maxKilobytes} worth) until the index changes.
+   */
+  @Inject
+  public ContributedValuesVirtualiser(
+      @Named("searchSet.expansionCache.maxKilobytes") int maxKilobytes) {
+    cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxKilobytes * 1024L)
+            .weigher(
+                new Weigher<ExpansionKey, CachedCounts>() {
+                  @Override
+                  public int weigh(ExpansionKey key, CachedCounts value) {
+                    return key.weigh() + value.weigh();
+                  }
+                })
+            .build();
+  }
+
+  ContributedValuesVirtualiser(
+      int maxKilobytes, FreetextIndex freetext, SearchSetService searchSetService) {
+    this(maxKilobytes);
+    this.freetext = freetext;
+    this.searchSetService = searchSetService;
+  }
+
   @Override
   public <T> void expandSearchSet(
       List<VirtualisableAndValue<T>> rv,
@@ -61,8 +103,7 @@ public class ContributedValuesVirtualiser implements SearchSetVirtualiser {
     filterSearchCollections(ls, collectionUuids);
 
     String virtPath = set.getVirtualisationPath();
-    for (Pair<String, Integer> valueCount :
-        freetext.facetCount(ls, Collections.singletonList(virtPath)).get(virtPath)) {
+    for (Pair<String, Integer> valueCount : getValueCounts(ls, virtPath)) {
       final String value = valueCount.getFirst();
       if (!Check.isEmpty(value)) {
         rv.add(helper.newVirtualisedPathFromPrototypeForValue(obj, value, valueCount.getSecond()));
@@ -70,6 +111,26 @@ public class ContributedValuesVirtualiser implements SearchSetVirtualiser {
     }
   }
 
+  /**
+   * The key includes everything that goes into the search and the user's security expressions, so
+   * editing a hierarchy topic, dynamic collection or ACL simply starts using a different key.
+   * Entries counted against an older version of the index are recounted.
+   */
+  private List<Pair<String, Integer>> getValueCounts(LocalSearch ls, String virtPath) {
+    final long indexVersion = freetext.getIndexVersion();
+    final ExpansionKey key = new ExpansionKey(ls, virtPath);
+    final CachedCounts cached = cache.getIfPresent(key);
+    if (cached != null && cached.indexVersion == indexVersion) {
+      return cached.counts;
+    }
+
+    final List<Pair<String, Integer>> counts =
+        ImmutableList.copyOf(
+            freetext.facetCount(ls, Collections.singletonList(virtPath)).get(virtPath));
+    cache.put(key, new CachedCounts(indexVersion, counts));
+    return counts;
+  }
+
   /**
    * Only if the searchSet is related to hierarchy topics is it possible to have parents (ie
    * excludes DynamicCollections) and if this hierarchy does in fact have parents, and those parents
@@ -101,6 +162,98 @@ public class ContributedValuesVirtualiser implements SearchSetVirtualiser {
     }
   }
 
+  private static final class ExpansionKey {
+    private final long institutionId;
+    private final String query;
+    private final FreeTextQuery freeTextQuery;
+    private final List<List<Field>> musts;
+    private final Set<String> collectionUuids;
+    private final String virtPath;
+    private final List<Object> security;
+    private final int hashCode;
+
+    ExpansionKey(LocalSearch search, String virtPath) {
+      this.institutionId = CurrentInstitution.get().getUniqueId();
+      this.query = search.getQuery();
+      this.freeTextQuery = search.getFreeTextQuery();
+      this.musts = search.getMust();
+      this.collectionUuids = sorted(search.getCollectionUuids());
+      this.virtPath = virtPath;
+      this.security = getSecurityKey(CurrentUser.getUserState());
+      this.hashCode =
+          Objects.hash(
+              institutionId, query, freeTextQuery, musts, collectionUuids, virtPath, security);
+    }
+
+    /**
+     * Users with the same ACL expressions see the same counts, unless some of the expressions
+     * depend on being the owner of the item.
+     */
+    private static List<Object> getSecurityKey(UserState userState) {
+      if (userState.isSystem()) {
+        return Collections.<Object>singletonList(Boolean.TRUE);
+      }
+      final Collection<Long> owner = userState.getOwnerAclExpressions();
+      final Collection<Long> notOwner = userState.getNotOwnerAclExpressions();
+      final boolean ownerDependent = !Check.isEmpty(owner) || !Check.isEmpty(notOwner);
+      return Arrays.<Object>asList(
+          sorted(userState.getCommonAclExpressions()),
+          sorted(owner),
+          sorted(notOwner),
+          ownerDependent ? CurrentUser.getUserID() : null);
+    }
+
+    private static <T extends Comparable<? super T>> Set<T> sorted(Collection<T> values) {
+      return values == null ? null : new TreeSet<T>(values);
+    }
+
+    int weigh() {
+      return 100 + (query == null ? 0 : query.length()) + virtPath.length();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ExpansionKey)) {
+        return false;
+      }
+      final ExpansionKey rhs = (ExpansionKey) obj;
+      return institutionId == rhs.institutionId
+          && Objects.equals(query, rhs.query)
+          && Objects.equals(virtPath, rhs.virtPath)
+          && Objects.equals(freeTextQuery, rhs.freeTextQuery)
+          && Objects.equals(musts, rhs.musts)
+          && Objects.equals(collectionUuids, rhs.collectionUuids)
+          && Objects.equals(security, rhs.security);
+    }
+  }
+
+  private static final class CachedCounts {
+    final long indexVersion;
+    final List<Pair<String, Integer>> counts;
+
+    CachedCounts(long indexVersion, List<Pair<String, Integer>> counts) {
+      this.indexVersion = indexVersion;
+      this.counts = counts;
+    }
+
+    int weigh() {
+      int size = 0;
+      for (Pair<String, Integer> count : counts) {
+        // Roughly the pair, the boxed count and the string's chars
+        size += 64 + count.getFirst().length() * 2;
+      }
+      return size;
+    }
+  }
+
   private static class LocalSearch extends LiveItemSearch {
     private static final long serialVersionUID = 1L;
 
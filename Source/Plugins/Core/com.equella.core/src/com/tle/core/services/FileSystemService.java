@@ -53,6 +53,11 @@ public interface FileSystemService extends RemoteFileSystemService {
   String VIDEO_PREVIEW_EXTENSION = ".mp4";
   String VIDEO_PREVIEW_FOLDER = "_VIDEOPREVIEW";
   String ZIPS_FOLDER = "_zips";
+  /**
+   * Marks a package folder whose content is served from the package archive in the {@code _IMS}
+   * folder, rather than having been extracted
+   */
+  String PACKAGE_ARCHIVE_MARKER = "_ARCHIVED";
 
   /**
    * Gets a Java File object if you for the associated Staging/Institution/Item file
@@ -238,6 +243,14 @@ public interface FileSystemService extends RemoteFileSystemService {
 
   FileInfo unzipFile(FileHandle handle, String zipfile, String outpath) throws IOException;
 
+  /**
+   * Unzips a package to be moved to a package folder alongside its archive in the {@code _IMS}
+   * folder. Packages with enough files to be worth it are only partly extracted: just their XML
+   * files (manifests and the like) are written out, and the rest of the package is served from the
+   * archive.
+   */
+  FileInfo unzipPackage(FileHandle handle, String zipfile, String outpath) throws IOException;
+
   ZipProgress unzipWithProgress(FileHandle handle, String zipFile, String targetPath)
       throws IOException;
 
@@ -344,7 +357,8 @@ public interface FileSystemService extends RemoteFileSystemService {
 
   /**
    * Applies a functor to a list of paths matching the given pattern. See matchFiles() for basic
-   * pattern usage, and an example of returning a list of match file names.
+   * pattern usage, and an example of returning a list of match file names. Files of packages left
+   * in their archive are given as paths in a zip file system, only readable until this returns.
    */
   void apply(FileHandle root, String path, String pattern, GrepFunctor functor);
 
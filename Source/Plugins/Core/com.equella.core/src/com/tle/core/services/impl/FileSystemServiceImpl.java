@@ -25,13 +25,19 @@ import com.dytech.edge.common.FileInfo;
 import com.dytech.edge.exceptions.BannedFileException;
 import com.dytech.edge.exceptions.FileSystemException;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
+import com.tle.annotation.Nullable;
 import com.tle.beans.Institution;
 import com.tle.common.Check;
 import com.tle.common.NameValue;
+import com.tle.common.NamedThreadFactory;
 import com.tle.common.filesystem.FileCallback;
 import com.tle.common.filesystem.FileEntry;
+import com.tle.common.filesystem.FileSystemConstants;
 import com.tle.common.filesystem.FileSystemHelper;
 import com.tle.common.filesystem.Filestore;
 import com.tle.common.filesystem.handle.*;
@@ -40,6 +46,10 @@ import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.quota.settings.QuotaSettings;
 import com.tle.core.events.services.EventService;
 import com.tle.core.filesystem.InstitutionFile;
+import com.tle.core.filesystem.event.FilesCommittedEvent;
+import com.tle.core.filesystem.zip.ParallelZipExtractor;
+import com.tle.core.filesystem.zip.ParallelZipWriter;
+import com.tle.core.filesystem.zip.ZipIndex;
 import com.tle.core.guice.Bind;
 import com.tle.core.healthcheck.listeners.ServiceCheckRequestListener;
 import com.tle.core.healthcheck.listeners.ServiceCheckResponseListener.CheckServiceResponseEvent;
@@ -53,19 +63,28 @@ import com.tle.core.settings.service.ConfigurationService;
 import com.tle.core.util.archive.*;
 import com.tle.core.zookeeper.ZookeeperService;
 import com.tle.web.stream.FileContentStream;
+import com.tle.web.stream.ZipEntryContentStream;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.spi.FileSystemProvider;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipException;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -80,6 +99,7 @@ import org.apache.commons.logging.LogFactory;
 public class FileSystemServiceImpl implements FileSystemService, ServiceCheckRequestListener {
   private static final Log LOGGER = LogFactory.getLog(FileSystemServiceImpl.class);
   private static final String DIGEST_MD5 = "md5";
+  private static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
   private static final String KEY_PFX =
       AbstractPluginService.getMyPluginId(FileSystemServiceImpl.class) + ".";
 
@@ -96,12 +116,67 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
   @Named("filestore.zipExtractCharset")
   private String charset;
 
+  @com.google.inject.Inject(optional = true)
+  @Named("filestore.packageArchiveMinFiles")
+  private int packageArchiveMinFiles = -1;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("filestore.archiveIndexCacheEntries")
+  private int archiveIndexCacheEntries = 200000;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("filestore.archiveThreads")
+  private int archiveThreads = Runtime.getRuntime().availableProcessors();
+
   @Inject
   @Named("filestore.root")
   private File rootDir;
 
+  /** Central directories of package archives, weighed by their number of entries */
+  private Cache<File, ZipIndex> archiveIndexes;
+
+  /** Shared by all zip extractions and creations, each keeping it busy with a few entries */
+  private ExecutorService archiveExecutor;
+
+  public FileSystemServiceImpl() {
+    // Configured by injection
+  }
+
+  /** A filestore at {@code rootDir} with no additional filestores */
+  FileSystemServiceImpl(File rootDir, String charset, int packageArchiveMinFiles) {
+    this.rootDir = rootDir;
+    this.charset = charset;
+    this.packageArchiveMinFiles = packageArchiveMinFiles;
+    this.filestores = Collections.emptyMap();
+    init();
+  }
+
   @PostConstruct
   private void init() {
+    archiveThreads = Math.max(1, archiveThreads);
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            archiveThreads,
+            archiveThreads,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory("FileSystemService.archive"));
+    executor.allowCoreThreadTimeOut(true);
+    archiveExecutor = executor;
+
+    archiveIndexes =
+        CacheBuilder.newBuilder()
+            .maximumWeight(archiveIndexCacheEntries)
+            .weigher(
+                new Weigher<File, ZipIndex>() {
+                  @Override
+                  public int weigh(File file, ZipIndex index) {
+                    return Math.max(1, index.size());
+                  }
+                })
+            .build();
+
     LOGGER.info("Filestore: " + this.rootDir.getAbsolutePath());
     LOGGER.info("Filestore advanced: " + advancedFilestore);
 
@@ -171,11 +246,36 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
    */
   @Override
   public FileEntry[] enumerate(FileHandle handle, String path, FileFilter filter) {
-    return FileSystemHelper.listDir(getFile(handle, path), filter);
-  }
+    // Package archives only have content below the top
+    if (Check.isEmpty(path)) {
+      return FileSystemHelper.listDir(getFile(handle, path), filter);
+    }
+    final Map<File, ZipIndex> packages = findArchivedPackages(handle, path);
+    if (packages.isEmpty()) {
+      return FileSystemHelper.listDir(getFile(handle, path), filter);
+    }
 
-  private void enumTree(final FileEntry parent, final File parentFile, final FileFilter filter) {
-    final File[] files = FileSystemHelper.listDirFiles(parentFile, filter);
+    final File[] files = listMerged(getExisting(handle, path), filter, packages);
+    if (files == null) {
+      return new FileEntry[0];
+    }
+    final FileEntry[] entries = new FileEntry[files.length];
+    for (int i = 0; i < files.length; i++) {
+      entries[i] = new FileEntry(files[i]);
+      entries[i].setName(FileSystemHelper.decode(files[i].getName()));
+    }
+    return entries;
+  }
+
+  private void enumTree(
+      final FileEntry parent,
+      final File parentFile,
+      final FileFilter filter,
+      final Map<File, ZipIndex> packages) {
+    final File[] files =
+        packages.isEmpty()
+            ? FileSystemHelper.listDirFiles(parentFile, filter)
+            : listMerged(parentFile, filter, packages);
     if (files != null) {
       final List<FileEntry> fileEntries = new ArrayList<FileEntry>();
 
@@ -195,7 +295,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
       for (File file : files) {
         FileEntry newfile = new FileEntry(file);
         if (newfile.isFolder()) {
-          enumTree(newfile, file, filter);
+          enumTree(newfile, file, filter, packages);
         }
         newfile.setLength(file.length());
         newfile.setName(FileSystemHelper.decode(newfile.getName()));
@@ -208,16 +308,38 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
 
   @Override
   public FileEntry enumerateTree(FileHandle handle, String path, FileFilter filter) {
-    File rootFile = getFile(handle, path);
+    final Map<File, ZipIndex> packages = findArchivedPackages(handle, path);
+    File rootFile = packages.isEmpty() ? getFile(handle, path) : getExisting(handle, path);
     FileEntry root = new FileEntry(rootFile);
     root.setName(FileSystemHelper.decode(rootFile.getName()));
-    enumTree(root, rootFile, filter);
+    enumTree(root, rootFile, filter, packages);
     return root;
   }
 
   @Override
   public long countFiles(FileHandle handle, String path) {
-    return FileUtils.countFiles(getFile(handle, path).toPath());
+    final Map<File, ZipIndex> packages = findArchivedPackages(handle, path);
+    if (packages.isEmpty()) {
+      return FileUtils.countFiles(getFile(handle, path).toPath());
+    }
+    return countFiles(getExisting(handle, path), packages);
+  }
+
+  /** Counts files and folders the same way as {@link FileUtils#countFiles} */
+  private long countFiles(File file, Map<File, ZipIndex> packages) {
+    if (!file.exists()) {
+      return 0;
+    }
+    long count = 1;
+    if (file.isDirectory()) {
+      final File[] files = listMerged(file, null, packages);
+      if (files != null) {
+        for (File child : files) {
+          count += countFiles(child, packages);
+        }
+      }
+    }
+    return count;
   }
 
   /** Ensures that a filename is not banned. */
@@ -244,6 +366,12 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     if (LOGGER.isDebugEnabled()) {
       LOGGER.debug("read: " + handle.getAbsolutePath() + '/' + filename);
     }
+    if (!file.exists()) {
+      final ArchivedFile archived = findArchived(handle, filename);
+      if (archived != null && archived.entry != null) {
+        return archived.index.openStream(archived.entry);
+      }
+    }
     return getInputStream(file);
   }
 
@@ -392,6 +520,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     if (trash != null) {
       FileUtils.delete(trash.toPath(), null);
     }
+    eventService.publishApplicationEvent(new FilesCommittedEvent(destination));
   }
 
   @Override
@@ -464,6 +593,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
       FileUtils.delete(trash.toPath(), null);
     }
     LOGGER.debug("Done committing files from [" + staging + "] to [" + to + "]");
+    eventService.publishApplicationEvent(new FilesCommittedEvent(destination));
   }
 
   @Override
@@ -473,7 +603,11 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
 
   @Override
   public boolean fileExists(FileHandle handle, String filename) {
-    return FileSystemHelper.exists(getFile(handle, filename));
+    if (FileSystemHelper.exists(getFile(handle, filename))) {
+      return true;
+    }
+    final ArchivedFile archived = findArchived(handle, filename);
+    return archived != null && (archived.entry != null || archived.isDirectory());
   }
 
   /*
@@ -484,7 +618,12 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
    */
   @Override
   public boolean fileIsDir(FileHandle handle, String filename) {
-    return FileSystemHelper.isDir(getFile(handle, filename));
+    final File file = getFile(handle, filename);
+    if (file.exists()) {
+      return FileSystemHelper.isDir(file);
+    }
+    final ArchivedFile archived = findArchived(handle, filename);
+    return archived != null && archived.isDirectory();
   }
 
   @Override
@@ -518,6 +657,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
   @Override
   public boolean rename(FileHandle handle, String filename, String newname) {
     ensureNotBanned(newname);
+    extractArchivedPackage(handle, filename, true);
 
     File from = getFile(handle, filename);
     File to = getFile(handle, newname);
@@ -530,6 +670,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
   @Override
   public boolean move(FileHandle handle, String filename, FileHandle newHandle, String newname) {
     ensureNotBanned(newname);
+    extractArchivedPackage(handle, filename, true);
 
     File from = getFile(handle, filename);
     File to = getFile(newHandle, newname);
@@ -557,6 +698,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
 
   @Override
   public FileInfo copy(FileHandle handle, String filename, FileHandle toHandle, String newname) {
+    extractArchivedPackage(handle, filename, true);
     File from = getFile(handle, filename);
     File to = getFile(toHandle, newname);
 
@@ -687,12 +829,37 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
    */
   @Override
   public long fileLength(FileHandle handle, String filename) throws FileNotFoundException {
-    return FileUtils.fileSize(getFile(handle, filename).toPath());
+    final File file = getFile(handle, filename);
+    if (!file.exists()) {
+      final ArchivedFile archived = findArchived(handle, filename);
+      if (archived != null && archived.entry != null) {
+        return archived.entry.getSize();
+      }
+    }
+    return FileUtils.fileSize(file.toPath());
   }
 
   @Override
   public long recursivefileLength(FileHandle handle, String filename) throws IOException {
-    return FileSystemHelper.recursiveFileLength(getFile(handle, filename));
+    final Map<File, ZipIndex> packages = findArchivedPackages(handle, filename);
+    if (packages.isEmpty()) {
+      return FileSystemHelper.recursiveFileLength(getFile(handle, filename));
+    }
+    return recursiveFileLength(getExisting(handle, filename), packages);
+  }
+
+  private long recursiveFileLength(File file, Map<File, ZipIndex> packages) {
+    if (file.isDirectory()) {
+      long length = 0;
+      final File[] files = listMerged(file, null, packages);
+      if (files != null) {
+        for (File child : files) {
+          length += recursiveFileLength(child, packages);
+        }
+      }
+      return length;
+    }
+    return file.length();
   }
 
   /*
@@ -746,8 +913,40 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
       ArchiveType archiveType,
       final ArchiveProgress progress)
       throws IOException {
-    try (ArchiveCreator archiver = archiveType.createArchiver(out)) {
-      apply(
+    // Files of unextracted packages are read from their archives, which have to stay open until
+    // the writer has finished with them
+    final Map<File, FileSystem> archives = new HashMap<File, FileSystem>();
+    if (archiveType == ArchiveType.ZIP) {
+      try (ParallelZipWriter zip =
+          new ParallelZipWriter(out, archiveExecutor, archiveThreads * 2, progress)) {
+        grep(
+            handle,
+            path,
+            "**",
+            new GrepFunctor() {
+              @Override
+              public void matched(Path file, String relFilepath) {
+                if (Files.isDirectory(file)) {
+                  return;
+                }
+                try {
+                  zip.addFile(FileSystemHelper.decode(relFilepath), file);
+                } catch (IOException ex) {
+                  throw new RuntimeException("Error archiving directory", ex);
+                }
+              }
+            },
+            true,
+            archives);
+      } finally {
+        closeArchives(archives);
+      }
+      return;
+    }
+
+    try (ArchiveCreator archiver =
+        archiveType.createArchiver(new BufferedOutputStream(out, ARCHIVE_BUFFER_SIZE))) {
+      grep(
           handle,
           path,
           "**",
@@ -762,7 +961,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
                 OutputStream entry =
                     archiver.newEntry(FileSystemHelper.decode(relFilepath), Files.size(file));
                 try (InputStream in = Files.newInputStream(file, StandardOpenOption.READ)) {
-                  copyStream(in, entry, null);
+                  ByteStreams.copy(in, entry);
                 } finally {
                   archiver.closeEntry();
                 }
@@ -774,7 +973,11 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
                 throw new RuntimeException("Error archiving directory", ex);
               }
             }
-          });
+          },
+          true,
+          archives);
+    } finally {
+      closeArchives(archives);
     }
   }
 
@@ -800,89 +1003,463 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     return unzipFile(handle, zipfile, outpath, null);
   }
 
-  private static class ZipFileArchiveExtractor extends ArchiveProgress implements ArchiveExtractor {
-    private final Enumeration<? extends ZipEntry> entries;
-    private final ZipFile zipFile;
-    private InputStream stream;
-    private volatile int upto;
-    private volatile boolean finished;
+  @Override
+  public FileInfo unzipPackage(FileHandle handle, String zipfile, String outpath)
+      throws IOException {
+    if (packageArchiveMinFiles < 0 || ArchiveType.getForFilename(zipfile) != ArchiveType.ZIP) {
+      return unzipFile(handle, zipfile, outpath);
+    }
+
+    final ZipIndex index = getZipIndex(getFile(handle, zipfile));
+    if (index.size() < packageArchiveMinFiles) {
+      return unzipFile(handle, zipfile, outpath);
+    }
+
+    final File outdir = getFile(handle, outpath);
+    if (!outdir.mkdirs() && !outdir.isDirectory()) {
+      throw new IOException("Could not create directory " + outdir.getAbsolutePath());
+    }
+    for (ZipIndex.Entry entry : index.getEntries()) {
+      final String name = entry.getName().toLowerCase();
+      if (name.endsWith(".xml") || name.endsWith(".xsd")) {
+        final File tfile = new File(outdir, FileSystemHelper.encode(entry.getName()));
+        tfile.getParentFile().mkdirs();
+        try (InputStream in = index.openStream(entry);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tfile))) {
+          ByteStreams.copy(in, out);
+        }
+      }
+    }
+    new File(outdir, PACKAGE_ARCHIVE_MARKER).createNewFile();
+    return new FileInfo(0, outdir.getName());
+  }
+
+  private ZipIndex getZipIndex(final File zipFile) throws IOException {
+    try {
+      ZipIndex index = archiveIndexes.getIfPresent(zipFile);
+      if (index != null && index.isStale()) {
+        archiveIndexes.invalidate(zipFile);
+      }
+      return archiveIndexes.get(zipFile, () -> ZipIndex.read(zipFile, Charset.forName(charset)));
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Finds where a path that isn't on disk would be in its package's archive, for packages that
+   * haven't been extracted.
+   *
+   * @return null if the path isn't in such a package
+   */
+  private ArchivedFile findArchived(FileHandle handle, String path) {
+    if (Check.isEmpty(path)) {
+      return null;
+    }
+    final int slash = path.indexOf('/');
+    if (slash <= 0) {
+      return null;
+    }
+    final String packageFolder = path.substring(0, slash);
+    if (!getFile(handle, packageFolder + '/' + PACKAGE_ARCHIVE_MARKER).exists()) {
+      return null;
+    }
+    final File archive = getFile(handle, FileSystemConstants.IMS_FOLDER + '/' + packageFolder);
+    if (!archive.isFile()) {
+      return null;
+    }
+
+    String entryPath = path.substring(slash + 1);
+    if (entryPath.endsWith("/")) {
+      entryPath = entryPath.substring(0, entryPath.length() - 1);
+    }
+    try {
+      final ZipIndex index = getZipIndex(archive);
+      return new ArchivedFile(index, entryPath, index.getEntry(entryPath));
+    } catch (IOException e) {
+      LOGGER.warn("Could not read package archive " + archive, e);
+      return null;
+    }
+  }
+
+  /**
+   * Finds the package folders whose content is left in their archive that a walk of path covers:
+   * the package folder path is in, or every such folder if path is the top. Walks include the
+   * archived content of these as well as what's on disk.
+   *
+   * @return the archive of each package folder
+   */
+  private Map<File, ZipIndex> findArchivedPackages(FileHandle handle, String path) {
+    final Map<File, ZipIndex> packages = new LinkedHashMap<File, ZipIndex>();
+    String folder = Check.isEmpty(path) ? "" : path;
+    while (folder.startsWith("/")) {
+      folder = folder.substring(1);
+    }
+    if (folder.isEmpty()) {
+      final File[] folders = getFile(handle).listFiles();
+      if (folders != null) {
+        for (File packageFolder : folders) {
+          addArchivedPackage(handle, FileSystemHelper.decode(packageFolder.getName()), packages);
+        }
+      }
+    } else {
+      final int slash = folder.indexOf('/');
+      addArchivedPackage(handle, slash < 0 ? folder : folder.substring(0, slash), packages);
+    }
+    return packages;
+  }
 
-    public ZipFileArchiveExtractor(ZipFile zipFile) {
-      super(zipFile.size());
-      this.zipFile = zipFile;
-      entries = zipFile.entries();
+  private void addArchivedPackage(
+      FileHandle handle, String packageFolder, Map<File, ZipIndex> packages) {
+    final File folder = getFile(handle, packageFolder);
+    if (!new File(folder, PACKAGE_ARCHIVE_MARKER).exists()) {
+      return;
+    }
+    final File archive = getFile(handle, FileSystemConstants.IMS_FOLDER + '/' + packageFolder);
+    if (!archive.isFile()) {
+      return;
+    }
+    try {
+      packages.put(folder, getZipIndex(archive));
+    } catch (IOException e) {
+      LOGGER.warn("Could not read package archive " + archive, e);
+    }
+  }
+
+  /**
+   * Extracts the rest of a package whose content is left in its archive before part of it, its
+   * folder or its archive is renamed, moved, copied or deleted. The package is then an ordinary
+   * extracted one, rather than one whose archived content would be left behind or listed again.
+   *
+   * @param includeFolder whether to extract for the package folder itself, and not just what's in
+   *     it
+   */
+  private void extractArchivedPackage(FileHandle handle, String path, boolean includeFolder) {
+    if (Check.isEmpty(path)) {
+      return;
+    }
+    String folder = path;
+    while (folder.startsWith("/")) {
+      folder = folder.substring(1);
+    }
+    while (folder.endsWith("/")) {
+      folder = folder.substring(0, folder.length() - 1);
+    }
+    final int slash = folder.indexOf('/');
+    final String packageFolder;
+    if (slash < 0) {
+      if (!includeFolder) {
+        return;
+      }
+      packageFolder = folder;
+    } else if (folder.substring(0, slash).equals(FileSystemConstants.IMS_FOLDER)) {
+      // The archive itself
+      packageFolder = folder.substring(slash + 1);
+    } else {
+      packageFolder = folder.substring(0, slash);
+    }
+    if (packageFolder.isEmpty() || packageFolder.indexOf('/') >= 0) {
+      return;
+    }
+
+    final Map<File, ZipIndex> packages = new LinkedHashMap<File, ZipIndex>();
+    addArchivedPackage(handle, packageFolder, packages);
+    for (Map.Entry<File, ZipIndex> pkg : packages.entrySet()) {
+      try {
+        extractRest(pkg.getKey(), pkg.getValue());
+      } catch (IOException e) {
+        throw new RuntimeException(
+            "Error extracting package archive " + pkg.getValue().getFile(), e);
+      }
+    }
+  }
+
+  /** Extracts everything that isn't on disk yet, such as the manifests, then drops the marker */
+  private static void extractRest(File folder, ZipIndex index) throws IOException {
+    for (String dir : index.getDirectoryEntries()) {
+      new File(folder, FileSystemHelper.encode(dir)).mkdirs();
+    }
+    for (ZipIndex.Entry entry : index.getEntries()) {
+      final File target = new File(folder, FileSystemHelper.encode(entry.getName()));
+      if (!target.exists()) {
+        target.getParentFile().mkdirs();
+        try (InputStream in = index.openStream(entry);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+          ByteStreams.copy(in, out);
+        }
+      }
+    }
+    final File marker = new File(folder, PACKAGE_ARCHIVE_MARKER);
+    if (!marker.delete() && marker.exists()) {
+      throw new IOException("Could not delete " + marker);
+    }
+  }
+
+  /** The file for a path, which may only be in a package archive */
+  private File getExisting(FileHandle handle, String path) {
+    final File file = getFile(handle, path);
+    if (!file.exists()) {
+      final ArchivedFile archived = findArchived(handle, path);
+      if (archived != null && (archived.entry != null || archived.isDirectory())) {
+        return new ArchivedFileView(file, archived.index, archived.path, archived.entry);
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Lists a folder along with anything in it that's only in its package's archive, the latter as
+   * {@link ArchivedFileView}s.
+   *
+   * @return null if the folder is neither on disk nor in an archive
+   */
+  @Nullable
+  private static File[] listMerged(
+      File dir, @Nullable FileFilter filter, Map<File, ZipIndex> packages) {
+    File[] onDisk = dir.listFiles(filter);
+    if (onDisk != null && packages.containsKey(dir)) {
+      final List<File> withoutMarker = new ArrayList<File>(onDisk.length);
+      for (File file : onDisk) {
+        if (!isArchiveMarker(file, packages)) {
+          withoutMarker.add(file);
+        }
+      }
+      onDisk = withoutMarker.toArray(new File[withoutMarker.size()]);
+    }
+    List<File> files = null;
+    for (Map.Entry<File, ZipIndex> pkg : packages.entrySet()) {
+      final String folder = getArchivePath(pkg.getKey(), dir);
+      final SortedMap<String, ZipIndex.Entry> listing =
+          folder != null ? pkg.getValue().list(folder) : null;
+      if (listing == null) {
+        continue;
+      }
+      if (files == null) {
+        files = onDisk != null ? new ArrayList<File>(Arrays.asList(onDisk)) : new ArrayList<File>();
+      }
+      for (Map.Entry<String, ZipIndex.Entry> child : listing.entrySet()) {
+        final File file = new File(dir, FileSystemHelper.encode(child.getKey()));
+        // Extracted files, such as manifests, are on disk already
+        if (!file.exists()) {
+          final String archivePath =
+              folder.isEmpty() ? child.getKey() : folder + '/' + child.getKey();
+          final File view =
+              new ArchivedFileView(file, pkg.getValue(), archivePath, child.getValue());
+          if (filter == null || filter.accept(view)) {
+            files.add(view);
+          }
+        }
+      }
+    }
+    return files == null ? onDisk : files.toArray(new File[files.size()]);
+  }
+
+  /** Whether file is what marks one of the package folders as left in its archive */
+  private static boolean isArchiveMarker(File file, Map<File, ZipIndex> packages) {
+    return file.getName().equals(PACKAGE_ARCHIVE_MARKER)
+        && packages.containsKey(file.getParentFile());
+  }
+
+  /** @return the path of dir in the archive of a package folder, or null if it's not in it */
+  @Nullable
+  private static String getArchivePath(File packageFolder, File dir) {
+    final String base = packageFolder.getPath();
+    final String path = dir.getPath();
+    if (path.equals(base)) {
+      return "";
+    }
+    if (!path.startsWith(base + File.separatorChar)) {
+      return null;
+    }
+    return FileSystemHelper.decode(
+        path.substring(base.length() + 1).replace(File.separatorChar, '/'));
+  }
+
+  /** Whether dir is in, or above, one of the package folders */
+  private static boolean mayHoldArchived(File dir, Map<File, ZipIndex> packages) {
+    final String path = dir.getPath() + File.separatorChar;
+    for (File packageFolder : packages.keySet()) {
+      final String base = packageFolder.getPath() + File.separatorChar;
+      if (path.startsWith(base) || base.startsWith(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Path getZipPath(ArchivedFileView file, Map<File, FileSystem> archives) {
+    final File archive = file.index.getFile();
+    FileSystem zip = archives.get(archive);
+    if (zip == null) {
+      try {
+        zip = openArchive(archive);
+      } catch (IOException e) {
+        throw new RuntimeException("Error opening package archive " + archive, e);
+      }
+      archives.put(archive, zip);
+    }
+    return zip.getPath("/" + file.archivePath);
+  }
+
+  /** Opens a zip as a file system of its own, rather than one shared through its URI */
+  private FileSystem openArchive(File archive) throws IOException {
+    for (FileSystemProvider provider : FileSystemProvider.installedProviders()) {
+      if ("jar".equalsIgnoreCase(provider.getScheme())) {
+        return provider.newFileSystem(
+            archive.toPath(), Collections.singletonMap("encoding", charset));
+      }
+    }
+    throw new IOException("No zip file system provider");
+  }
+
+  private static void closeArchives(Map<File, FileSystem> archives) {
+    for (FileSystem zip : archives.values()) {
+      try {
+        zip.close();
+      } catch (IOException e) {
+        LOGGER.warn("Error closing package archive", e);
+      }
+    }
+  }
+
+  private static class ArchivedFile {
+    final ZipIndex index;
+    final String path;
+    final ZipIndex.Entry entry;
+
+    ArchivedFile(ZipIndex index, String path, ZipIndex.Entry entry) {
+      this.index = index;
+      this.path = path;
+      this.entry = entry;
+    }
+
+    boolean isDirectory() {
+      return entry == null && index.isDirectory(path);
+    }
+  }
+
+  /**
+   * Something in a package archive as if it were on disk, so walks can treat it like the files
+   * around it. Nothing exists at its path.
+   */
+  private static class ArchivedFileView extends File {
+    private static final long serialVersionUID = 1L;
+
+    final transient ZipIndex index;
+    final String archivePath;
+    @Nullable final transient ZipIndex.Entry entry;
+
+    ArchivedFileView(
+        File file, ZipIndex index, String archivePath, @Nullable ZipIndex.Entry entry) {
+      super(file.getPath());
+      this.index = index;
+      this.archivePath = archivePath;
+      this.entry = entry;
+    }
+
+    InputStream openStream() throws IOException {
+      return index.openStream(entry);
     }
 
     @Override
-    public ArchiveEntry getNextEntry() throws IOException {
-      if (entries.hasMoreElements()) {
-        ZipEntry zipEntry = entries.nextElement();
-        stream = zipFile.getInputStream(zipEntry);
-        return new ArchiveEntry(
-            zipEntry.getName().replace('\\', '/'), zipEntry.isDirectory(), zipEntry.getSize());
-      } else return null;
+    public boolean exists() {
+      return true;
     }
 
     @Override
-    public InputStream getStream() {
-      return stream;
+    public boolean isDirectory() {
+      return entry == null;
     }
 
     @Override
-    public void nextEntry(String entryPath) {
-      upto++;
+    public boolean isFile() {
+      return entry != null;
+    }
+
+    @Override
+    public long length() {
+      return entry != null ? entry.getSize() : 0;
+    }
+
+    @Override
+    public long lastModified() {
+      return index.getFile().lastModified();
     }
   }
 
   @Override
   public ZipProgress unzipWithProgress(FileHandle handle, String zipPath, String targetPath)
       throws IOException {
-    File zipFile = getFile(handle, zipPath);
-    ZipFile zip = new ZipFile(zipFile);
-    ZipFileArchiveExtractor zipFileExtractor = new ZipFileArchiveExtractor(zip);
+    final ZipIndex index = ZipIndex.read(getFile(handle, zipPath), Charset.forName(charset));
+    final File outdir = getFile(handle, targetPath);
+    final CountingProgress progress =
+        new CountingProgress(index.size() + index.getDirectoryEntries().size());
     new Thread(
             () -> {
               try {
-                extract(zipFileExtractor, getFile(handle, targetPath), zipFileExtractor);
+                new ParallelZipExtractor(archiveExecutor, archiveThreads)
+                    .extract(index, outdir, progress);
               } catch (IOException e) {
                 throw new RuntimeException(e);
               } finally {
-                try {
-                  zip.close();
-                } catch (IOException e) {
-
-                }
-
-                zipFileExtractor.finished = true;
+                progress.finished = true;
               }
             })
         .start();
     return new ZipProgress() {
       @Override
       public int getTotalFiles() {
-        return (int) zipFileExtractor.getEntryCount();
+        return (int) progress.getEntryCount();
       }
 
       @Override
       public int getCurrentFile() {
-        return zipFileExtractor.upto;
+        return progress.upto;
       }
 
       @Override
       public boolean isFinished() {
-        return zipFileExtractor.finished;
+        return progress.finished;
       }
     };
   }
 
+  private static class CountingProgress extends ArchiveProgress {
+    private volatile int upto;
+    private volatile boolean finished;
+
+    CountingProgress(long entryCount) {
+      super(entryCount);
+    }
+
+    @Override
+    public void nextEntry(String entryPath) {
+      upto++;
+    }
+  }
+
   @Override
   public FileInfo unzipFile(
       FileHandle handle, String zipfile, String outpath, final ArchiveProgress progress)
       throws IOException {
-    return new FileInfo(
-        0,
-        unzipPrivate(
-            handle, outpath, read(handle, zipfile), ArchiveType.getForFilename(zipfile), progress));
+    final ArchiveType method = ArchiveType.getForFilename(zipfile);
+    if (method == ArchiveType.ZIP) {
+      final File zip = getFile(handle, zipfile);
+      ZipIndex index = null;
+      try {
+        index = ZipIndex.read(zip, Charset.forName(charset));
+      } catch (ZipException e) {
+        // Streaming may still get something out of it
+        LOGGER.warn("Could not read the central directory of " + zip + ", streaming it instead", e);
+      }
+      if (index != null) {
+        final File outdir = getFile(handle, outpath);
+        new ParallelZipExtractor(archiveExecutor, archiveThreads).extract(index, outdir, progress);
+        return new FileInfo(0, outdir.getName());
+      }
+    }
+    return new FileInfo(0, unzipPrivate(handle, outpath, read(handle, zipfile), method, progress));
   }
 
   private String unzipPrivate(
@@ -926,7 +1503,8 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
         File tfile = new File(target);
         tfile.getParentFile().mkdirs();
 
-        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tfile))) {
+        try (OutputStream out =
+            new BufferedOutputStream(new FileOutputStream(tfile), ARCHIVE_BUFFER_SIZE)) {
           ByteStreams.copy(extractor.getStream(), out);
         } catch (IOException ex) {
           LOGGER.warn("Could not extract " + entry.getName(), ex);
@@ -1016,6 +1594,8 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
 
   @Override
   public boolean removeFile(FileHandle handle, String filename, FileCallback callback) {
+    // Deleting the whole package folder takes the archived content with it
+    extractArchivedPackage(handle, filename, false);
     File target = getFile(handle, filename);
     if (LOGGER.isDebugEnabled()) {
       LOGGER.debug("removeFile:" + handle.getAbsolutePath() + '/' + filename);
@@ -1057,30 +1637,153 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
   @Override
   public String getMD5Checksum(FileHandle handle, String path) {
     try {
-      return FileSystemHelper.md5recurse(getFile(handle, path), new byte[Short.MAX_VALUE]);
+      final Map<File, ZipIndex> packages = findArchivedPackages(handle, path);
+      if (packages.isEmpty()) {
+        return FileSystemHelper.md5recurse(getFile(handle, path), new byte[Short.MAX_VALUE]);
+      }
+      final MessageDigest md5 = MessageDigest.getInstance("md5");
+      md5recurse(getExisting(handle, path), new byte[Short.MAX_VALUE], md5, packages);
+      return Md5.stringify(md5.digest());
     } catch (Exception e) {
       throw new FileSystemException("FATAL", e);
     }
   }
 
+  /** Digests files in the same order as {@link FileSystemHelper#md5recurse} */
+  private void md5recurse(
+      File file, byte[] buffer, MessageDigest md5, Map<File, ZipIndex> packages)
+      throws IOException {
+    if (file.isDirectory()) {
+      final File[] files = listMerged(file, null, packages);
+      if (files != null) {
+        Arrays.sort(files);
+        for (File child : files) {
+          md5recurse(child, buffer, md5, packages);
+        }
+      }
+    } else if (file.exists()) {
+      final InputStream in =
+          file instanceof ArchivedFileView
+              ? ((ArchivedFileView) file).openStream()
+              : new FileInputStream(file);
+      FileSystemHelper.checkSumFromStream(buffer, md5, in);
+    }
+  }
+
   @Override
   public List<String> grep(FileHandle handle, String path, String pattern) {
-    Path dirs = getFile(handle, path).toPath();
-    List<String> files = FileUtils.grep(dirs, pattern, true);
-    return FileSystemHelper.decode(files);
+    return FileSystemHelper.decode(grep(handle, path, pattern, null, true, null));
   }
 
   @Override
   public List<String> grepIncludingDirs(FileHandle handle, String path, String pattern) {
-    Path dirs = getFile(handle, path).toPath();
-    List<String> files = FileUtils.grep(dirs, pattern, false);
-    return FileSystemHelper.decode(files);
+    return FileSystemHelper.decode(grep(handle, path, pattern, null, false, null));
   }
 
   @Override
   public void apply(final FileHandle root, String path, String pattern, final GrepFunctor functor) {
-    final File base = getFile(root, path);
-    FileUtils.grep(base.toPath(), pattern, functor, true);
+    final Map<File, FileSystem> archives = new HashMap<File, FileSystem>();
+    try {
+      grep(root, path, pattern, functor, true, archives);
+    } finally {
+      closeArchives(archives);
+    }
+  }
+
+  /**
+   * Greps what's on disk with {@link FileUtils#grep}, then anything below path that's only in a
+   * package archive, matching it the same way.
+   *
+   * @param archives the zip file systems opened to give archived files to the functor, for the
+   *     caller to close
+   */
+  private List<String> grep(
+      FileHandle handle,
+      String path,
+      String pattern,
+      @Nullable GrepFunctor functor,
+      boolean filesOnly,
+      @Nullable Map<File, FileSystem> archives) {
+    final File base = getFile(handle, path);
+    final Map<File, ZipIndex> packages = findArchivedPackages(handle, path);
+    if (packages.isEmpty()) {
+      return FileUtils.grep(base.toPath(), pattern, functor, filesOnly);
+    }
+
+    final GrepFunctor withoutMarkers =
+        functor == null
+            ? null
+            : new GrepFunctor() {
+              @Override
+              public void matched(Path file, String relFilepath) {
+                if (!isArchiveMarker(file.toFile(), packages)) {
+                  functor.matched(file, relFilepath);
+                }
+              }
+            };
+    final List<String> results = new ArrayList<String>();
+    for (String relPath : FileUtils.grep(base.toPath(), pattern, withoutMarkers, filesOnly)) {
+      if (!isArchiveMarker(new File(base, relPath), packages)) {
+        results.add(relPath);
+      }
+    }
+
+    final String dirName = pattern.contains("**") ? "**" : base.getName();
+    final PathMatcher matcher =
+        FileSystems.getDefault().getPathMatcher("glob:**/" + dirName + "/" + pattern);
+    final int depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+    grepArchived(
+        getExisting(handle, path),
+        "",
+        depth,
+        matcher,
+        functor,
+        filesOnly,
+        packages,
+        archives,
+        results);
+    return results;
+  }
+
+  private void grepArchived(
+      File dir,
+      String relDir,
+      int depth,
+      PathMatcher matcher,
+      @Nullable GrepFunctor functor,
+      boolean filesOnly,
+      Map<File, ZipIndex> packages,
+      @Nullable Map<File, FileSystem> archives,
+      List<String> results) {
+    if (depth <= 0 || !dir.isDirectory() || !mayHoldArchived(dir, packages)) {
+      return;
+    }
+    final File[] files = listMerged(dir, null, packages);
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      final String relPath = relDir + file.getName();
+      // Anything on disk has already been matched
+      if (file instanceof ArchivedFileView
+          && matcher.matches(file.toPath())
+          && (!filesOnly || file.isFile())) {
+        results.add(relPath);
+        if (functor != null) {
+          functor.matched(getZipPath((ArchivedFileView) file, archives), relPath);
+        }
+      }
+      grepArchived(
+          file,
+          relPath + '/',
+          depth - 1,
+          matcher,
+          functor,
+          filesOnly,
+          packages,
+          archives,
+          results);
+    }
   }
 
   @Override
@@ -1095,17 +1798,24 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
       }
       parent = parent.getParentFile();
     }
-    return getContentStream(file, mimeType);
+    return getContentStream(handle, path, file, mimeType);
   }
 
   @Override
   public FileContentStream getInsecureContentStream(
       FileHandle handle, String path, String mimeType) {
     final File file = getFile(handle, path);
-    return getContentStream(file, mimeType);
+    return getContentStream(handle, path, file, mimeType);
   }
 
-  private FileContentStream getContentStream(File file, String mimeType) {
+  private FileContentStream getContentStream(
+      FileHandle handle, String path, File file, String mimeType) {
+    if (!file.exists()) {
+      final ArchivedFile archived = findArchived(handle, path);
+      if (archived != null && archived.entry != null) {
+        return new ZipEntryContentStream(archived.index, archived.entry, file.getName(), mimeType);
+      }
+    }
     return new FileContentStream(file, file.getName(), mimeType);
   }
 
@@ -28,6 +28,9 @@ public class UserManagementModule extends OptionalConfigModule {
   @Override
   protected void configure() {
     bindBoolean("userService.useXForwardedFor");
+    bindInt("ldap.groupGraph.refreshMinutes");
+    bindInt("ldap.groupGraph.rebuildHours");
+    bindInt("ldap.groupGraph.pageSize");
     install(new UserManagementTrackerModule());
   }
 
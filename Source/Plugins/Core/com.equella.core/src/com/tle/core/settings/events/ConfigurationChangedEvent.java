@@ -20,13 +20,32 @@ package com.tle.core.settings.events;
 
 import com.tle.core.events.ApplicationEvent;
 import com.tle.core.settings.events.listeners.ConfigurationChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
 
 /** @author Nicholas Read */
 public class ConfigurationChangedEvent extends ApplicationEvent<ConfigurationChangeListener> {
   private static final long serialVersionUID = 1L;
 
+  private final ArrayList<String> properties;
+
+  /** All of the institution's properties may have changed. */
   public ConfigurationChangedEvent() {
+    this(null);
+  }
+
+  /**
+   * @param properties the changed properties. Each one is treated as a prefix, so that a change to
+   *     {@code "foo"} also covers {@code "foo.bar"}.
+   */
+  public ConfigurationChangedEvent(Collection<String> properties) {
     super(PostTo.POST_TO_OTHER_CLUSTER_NODES);
+    this.properties = properties == null ? null : new ArrayList<String>(properties);
+  }
+
+  /** @return the changed property prefixes, or null if everything may have changed */
+  public Collection<String> getProperties() {
+    return properties;
   }
 
   @Override
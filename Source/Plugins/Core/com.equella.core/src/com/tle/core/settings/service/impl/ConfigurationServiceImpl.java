@@ -19,10 +19,8 @@
 package com.tle.core.settings.service.impl;
 
 import com.dytech.common.net.Proxy;
-import com.dytech.edge.exceptions.RuntimeApplicationException;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.tle.beans.ConfigurationProperty;
@@ -48,8 +46,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.annotation.PostConstruct;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
@@ -60,6 +63,8 @@ import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.engine.spi.TypedValue;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Singleton
 @SuppressWarnings("nls")
@@ -67,8 +72,7 @@ import org.springframework.transaction.annotation.Transactional;
 public class ConfigurationServiceImpl implements ConfigurationService, ConfigurationChangeListener {
   private static final Logger LOGGER = Logger.getLogger(ConfigurationServiceImpl.class);
 
-  private static final Object CACHED_NULL = new Object();
-  private InstitutionCache<Cache<Object, Object>> cache;
+  private InstitutionCache<ConfigurationStore> cache;
 
   @Inject private EventService eventService;
   @Inject private ConfigurationDao configurationDao;
@@ -100,14 +104,23 @@ public class ConfigurationServiceImpl implements ConfigurationService, Configura
   public void setInstitutionService(InstitutionService service) {
     cache =
         service.newInstitutionAwareCache(
-            new CacheLoader<Institution, Cache<Object, Object>>() {
+            new CacheLoader<Institution, ConfigurationStore>() {
               @Override
-              public Cache<Object, Object> load(Institution key) {
-                return CacheBuilder.newBuilder().concurrencyLevel(12).build();
+              public ConfigurationStore load(Institution key) {
+                return new ConfigurationStore();
               }
             });
   }
 
+  // Injected, except in tests
+  void setConfigurationDao(ConfigurationDao configurationDao) {
+    this.configurationDao = configurationDao;
+  }
+
+  void setEventService(EventService eventService) {
+    this.eventService = eventService;
+  }
+
   @Inject(optional = true)
   public void setProxyExceptions(
       @Named("configurationService.proxyExceptions") String proxyExceptions) {
@@ -152,69 +165,35 @@ public class ConfigurationServiceImpl implements ConfigurationService, Configura
     return PropertyBeanFactory.fill(all);
   }
 
-  // Appearances aside, the getPropertires is effectively synchronized so long
-  // as getFromCache is
   @Override
-  public <T extends ConfigurationProperties> T getProperties(final T empty) {
-    return getFromCache(
-        empty.getClass(),
-        null,
-        new CacheLoader<String, T>() // NOSONAR
-        {
-          @Override
-          public T load(String property) {
-            Collection<String> queries = PropertyBeanFactory.getSelect(empty);
-            MultipleOr criterion = new MultipleOr();
-            for (String query : queries) {
-              Criterion crit = Restrictions.like("key.property", query + "%");
-              criterion.add(crit);
-            }
-
-            List<ConfigurationProperty> all;
-            if (queries.size() > 0) {
-              all = configurationDao.findAllByCriteria(getInstitutionCriterion(), criterion);
-            } else {
-              all = new ArrayList<ConfigurationProperty>();
-            }
-            PropertyBeanFactory.fill(all, empty);
-            return empty;
-          }
-        });
+  @SuppressWarnings("unchecked")
+  public <T extends ConfigurationProperties> T getProperties(T empty) {
+    Snapshot snapshot = cache.getCache().get();
+    Derived derived = snapshot.derived.get(empty.getClass());
+    if (derived == null) {
+      Collection<String> select = PropertyBeanFactory.getSelect(empty);
+      PropertyBeanFactory.load(empty, snapshot.values);
+      derived = snapshot.derive(empty.getClass(), empty, select);
+    }
+    return (T) derived.value;
   }
 
   @Override
   public String getProperty(String property) {
-    return getFromCache(
-        property,
-        property,
-        new CacheLoader<String, String>() {
-          @Override
-          public String load(String property) {
-            PropertyKey key = new PropertyKey(CurrentInstitution.get(), property);
-            ConfigurationProperty prop = configurationDao.findById(key);
-            return prop == null ? null : prop.getValue();
-          }
-        });
+    return cache.getCache().get().values.get(property);
   }
 
   @Override
-  public <T> List<T> getPropertyList(final String property) {
-    return getFromCache(
-        property,
-        property,
-        new CacheLoader<String, List<T>>() {
-          @Override
-          public List<T> load(String property) {
-            Criterion crit = Restrictions.like("key.property", property + "%");
-            Criterion crit2 = getInstitutionCriterion();
-            Map<String, String> vals =
-                PropertyBeanFactory.fill(configurationDao.findAllByCriteria(crit, crit2));
-
-            List<T> list = new ArrayList<T>();
-            PropertyBeanFactory.load(list, property, vals);
-            return list;
-          }
-        });
+  @SuppressWarnings("unchecked")
+  public <T> List<T> getPropertyList(String property) {
+    Snapshot snapshot = cache.getCache().get();
+    Derived derived = snapshot.derived.get(property);
+    if (derived == null) {
+      List<T> list = new ArrayList<T>();
+      PropertyBeanFactory.load(list, property, snapshot.values);
+      derived = snapshot.derive(property, list, Collections.singleton(property));
+    }
+    return (List<T>) derived.value;
   }
 
   @Override
@@ -228,7 +207,7 @@ public class ConfigurationServiceImpl implements ConfigurationService, Configura
   @Transactional
   public void setProperty(String property, String value) {
     setPropertyImpl(property, value);
-    invalidateCache();
+    invalidateCache(Collections.singleton(property));
   }
 
   @Override
@@ -241,9 +220,8 @@ public class ConfigurationServiceImpl implements ConfigurationService, Configura
       HashMap<String, String> map = new HashMap<String, String>();
       PropertyBeanFactory.save(properties, map);
       setPropertiesImpl(map);
+      invalidateCache(select);
     }
-
-    invalidateCache();
   }
 
   private void setPropertiesImpl(Map<String, String> map) {
@@ -263,15 +241,16 @@ public class ConfigurationServiceImpl implements ConfigurationService, Configura
   @Override
   @Transactional
   public void deleteProperty(String property) {
-    configurationDao.deletePropertiesLike(Collections.singleton(property));
-    invalidateCache();
+    Collection<String> select = Collections.singleton(property);
+    configurationDao.deletePropertiesLike(select);
+    invalidateCache(select);
   }
 
   @Override
   @Transactional
   @SecureOnCallSystem
   public void deleteAllInstitutionProperties() {
-    invalidateCache();
+    invalidateCache(null);
     configurationDao.deleteAll();
   }
 
@@ -303,41 +282,228 @@ public class ConfigurationServiceImpl implements ConfigurationService, Configura
 
   @Override
   public void configurationChangedEvent(ConfigurationChangedEvent event) {
-    cache.clear();
+    cache.getCache().changed(event.getProperties());
   }
 
-  private void invalidateCache() {
-    ConfigurationChangedEvent event = new ConfigurationChangedEvent();
-
-    // Call to local handler method to invalidate the local cache, then post
-    // it to everyone else.
-    configurationChangedEvent(event);
+  /** @param properties the changed property prefixes, or null for everything */
+  private void invalidateCache(final Collection<String> properties) {
+    final ConfigurationStore store = cache.getCache();
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      store.changed(properties);
+      eventService.publishApplicationEvent(new ConfigurationChangedEvent(properties));
+      return;
+    }
 
-    eventService.publishApplicationEvent(event);
+    // Only this transaction sees the change until it commits. Everyone else keeps reading the
+    // committed snapshot, so uncommitted values are never published.
+    PendingChanges pending = (PendingChanges) TransactionSynchronizationManager.getResource(store);
+    if (pending == null) {
+      final PendingChanges newPending = new PendingChanges(store);
+      TransactionSynchronizationManager.bindResource(store, newPending);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+              TransactionSynchronizationManager.unbindResourceIfPossible(store);
+              if (status == STATUS_COMMITTED) {
+                store.changed(newPending.changed);
+                eventService.publishApplicationEvent(
+                    new ConfigurationChangedEvent(newPending.changed));
+              }
+            }
+          });
+      pending = newPending;
+    }
+    pending.changed(properties);
   }
 
+  /**
+   * Loads all of the institution's properties in one query or, given a previous snapshot, just the
+   * ones that have changed since.
+   */
   @Transactional
-  <T> T loadFromDb(String property, CacheLoader<String, T> loader) {
-    try {
-      return loader.load(property);
-    } catch (Exception e) {
-      throw new RuntimeApplicationException("Could not create config object", e); // $NON-NLS-1$
+  Snapshot loadSnapshot(Snapshot previous, Collection<String> changed) {
+    if (previous == null) {
+      List<ConfigurationProperty> all =
+          configurationDao.findAllByCriteria(getInstitutionCriterion());
+      return new Snapshot(PropertyBeanFactory.fill(all), null);
     }
+
+    MultipleOr criterion = new MultipleOr();
+    for (String prefix : changed) {
+      criterion.add(Restrictions.like("key.property", prefix + "%"));
+    }
+    List<ConfigurationProperty> reloaded =
+        configurationDao.findAllByCriteria(getInstitutionCriterion(), criterion);
+
+    Map<String, String> values = new HashMap<String, String>(previous.values);
+    for (Iterator<String> iter = values.keySet().iterator(); iter.hasNext(); ) {
+      if (startsWithAny(iter.next(), changed)) {
+        iter.remove();
+      }
+    }
+    values.putAll(PropertyBeanFactory.fill(reloaded));
+    return new Snapshot(values, previous.unaffectedBy(changed));
   }
 
-  @SuppressWarnings("unchecked")
-  private <T> T getFromCache(Object key, String property, final CacheLoader<String, T> loader) {
-    Cache<Object, Object> map = cache.getCache();
-
-    Object ro = map.getIfPresent(key);
-    if (ro == null) {
-      T newObj = loadFromDb(property, loader);
-      synchronized (map) {
-        map.put(key, newObj != null ? newObj : CACHED_NULL);
-        return newObj;
+  private static boolean startsWithAny(String property, Collection<String> prefixes) {
+    for (String prefix : prefixes) {
+      if (property.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The configuration of one institution. Reads never block once a snapshot is loaded. Changes
+   * only note which properties need reloading, and the next read reloads them into a new snapshot.
+   * Only one thread loads at a time, the rest wait for its snapshot rather than going to the
+   * database themselves.
+   */
+  private class ConfigurationStore {
+    private volatile Snapshot current;
+
+    // Guarded by this. A null previous snapshot means everything gets loaded.
+    private Snapshot previous;
+    private final Set<String> changed = new HashSet<String>();
+
+    Snapshot get() {
+      if (TransactionSynchronizationManager.isSynchronizationActive()) {
+        PendingChanges pending =
+            (PendingChanges) TransactionSynchronizationManager.getResource(this);
+        if (pending != null) {
+          return pending.get();
+        }
+      }
+      return getCommitted();
+    }
+
+    /** The committed snapshot, or null if it needs loading */
+    Snapshot getLoaded() {
+      return current;
+    }
+
+    Snapshot getCommitted() {
+      Snapshot snapshot = current;
+      if (snapshot == null) {
+        synchronized (this) {
+          snapshot = current;
+          if (snapshot == null) {
+            snapshot =
+                previous != null && changed.isEmpty()
+                    ? previous
+                    : loadSnapshot(previous, new ArrayList<String>(changed));
+            previous = snapshot;
+            changed.clear();
+            current = snapshot;
+          }
+        }
+      }
+      return snapshot;
+    }
+
+    synchronized void changed(Collection<String> properties) {
+      if (properties == null) {
+        previous = null;
+        changed.clear();
+      } else if (previous != null) {
+        changed.addAll(properties);
+      }
+      current = null;
+    }
+  }
+
+  /**
+   * Changes made by a transaction that hasn't completed yet. The transaction reads its own
+   * snapshot, built from the committed one, which is thrown away when the transaction completes.
+   */
+  private class PendingChanges {
+    private final ConfigurationStore store;
+
+    // Null means everything
+    private Set<String> changed = new HashSet<String>();
+    private Snapshot snapshot;
+
+    PendingChanges(ConfigurationStore store) {
+      this.store = store;
+    }
+
+    void changed(Collection<String> properties) {
+      if (properties == null) {
+        changed = null;
+      } else if (changed != null) {
+        changed.addAll(properties);
+      }
+      snapshot = null;
+    }
+
+    Snapshot get() {
+      if (snapshot == null) {
+        // The committed snapshot can't be loaded from here, as Hibernate flushes this transaction's
+        // changes before querying and they'd be published to everyone, even after a rollback.
+        Snapshot committed = changed == null ? null : store.getLoaded();
+        snapshot =
+            committed == null
+                ? loadSnapshot(null, null)
+                : loadSnapshot(committed, new ArrayList<String>(changed));
+      }
+      return snapshot;
+    }
+  }
+
+  /**
+   * An immutable view of all of an institution's properties, along with the beans and lists built
+   * from them. Beans and lists are only built once per snapshot, and the ones that don't depend on
+   * any changed properties are carried over to the next snapshot.
+   */
+  static class Snapshot {
+    final ImmutableMap<String, String> values;
+    final ConcurrentMap<Object, Derived> derived = new ConcurrentHashMap<Object, Derived>();
+
+    Snapshot(Map<String, String> values, Map<Object, Derived> derived) {
+      this.values = ImmutableMap.copyOf(values);
+      if (derived != null) {
+        this.derived.putAll(derived);
+      }
+    }
+
+    Derived derive(Object key, Object value, Collection<String> prefixes) {
+      Derived newDerived = new Derived(value, prefixes);
+      Derived existing = derived.putIfAbsent(key, newDerived);
+      return existing != null ? existing : newDerived;
+    }
+
+    Map<Object, Derived> unaffectedBy(Collection<String> changed) {
+      Map<Object, Derived> unaffected = new HashMap<Object, Derived>();
+      for (Map.Entry<Object, Derived> entry : derived.entrySet()) {
+        if (!entry.getValue().dependsOn(changed)) {
+          unaffected.put(entry.getKey(), entry.getValue());
+        }
+      }
+      return unaffected;
+    }
+  }
+
+  /** A bean or list built from the properties starting with any of {@code prefixes}. */
+  static class Derived {
+    final Object value;
+    final Collection<String> prefixes;
+
+    Derived(Object value, Collection<String> prefixes) {
+      this.value = value;
+      this.prefixes = prefixes;
+    }
+
+    boolean dependsOn(Collection<String> changed) {
+      for (String prefix : prefixes) {
+        for (String change : changed) {
+          if (change.startsWith(prefix) || prefix.startsWith(change)) {
+            return true;
+          }
+        }
       }
-    } else {
-      return ro.equals(CACHED_NULL) ? null : (T) ro;
+      return false;
     }
   }
 
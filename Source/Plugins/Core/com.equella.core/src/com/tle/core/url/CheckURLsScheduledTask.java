@@ -18,10 +18,11 @@
 
 package com.tle.core.url;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.tle.beans.Institution;
 import com.tle.beans.ReferencedURL;
@@ -29,27 +30,35 @@ import com.tle.core.dao.helpers.BatchingIterator;
 import com.tle.core.events.services.EventService;
 import com.tle.core.guice.Bind;
 import com.tle.core.institution.InstitutionService;
-import com.tle.core.scheduler.ScheduledTask;
+import com.tle.core.scheduler.SchemaScheduledTask;
 import com.tle.core.services.HttpService;
-import com.tle.core.system.service.SchemaDataSourceService;
 import com.tle.core.url.URLEvent.URLEventType;
 import com.tle.core.url.dao.URLCheckerDao;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import javax.inject.Inject;
+import java.util.List;
+import javax.inject.Named;
 
 /** @author Nicholas Read */
 @Bind
 @Singleton
-public class CheckURLsScheduledTask implements ScheduledTask {
-  private static final int MAX_CONCURRENT_CHECKS = 200;
+public class CheckURLsScheduledTask implements SchemaScheduledTask {
+  @Inject(optional = true)
+  @Named("urlChecker.maxConcurrentChecks")
+  private int maxConcurrentChecks = 200;
+
+  @Inject(optional = true)
+  @Named("urlChecker.maxConnectionsPerHost")
+  private int maxChecksPerHost = 2;
+
+  @Inject(optional = true)
+  @Named("urlChecker.hostDelayMillis")
+  private int hostDelayMillis = 0;
+
+  @Inject(optional = true)
+  @Named("urlChecker.updateBatchSize")
+  private int updateBatchSize = 100;
 
-  @Inject private SchemaDataSourceService schemaDataSourceService;
   @Inject private URLCheckerDao dao;
   @Inject private URLCheckerService service;
   @Inject private EventService eventService;
@@ -58,70 +67,80 @@ public class CheckURLsScheduledTask implements ScheduledTask {
   @Inject private URLCheckerPolicy policy;
 
   @Override
-  public void execute() {
+  public void execute(long schemaId) {
     if (!httpService.canAccessInternet()) {
       // Nothing we can do...
       return;
     }
 
-    Multimap<Long, Institution> schemaToInsts = institutionService.getAvailableMap();
-    for (final Map.Entry<Long, Collection<Institution>> entry : schemaToInsts.asMap().entrySet()) {
-      schemaDataSourceService.executeWithSchema(
-          entry.getKey(),
-          new Callable<Object>() {
+    try {
+      executeForInstitutions(institutionService.getAvailableMap().get(schemaId));
+    } catch (InterruptedException e) {
+      // Shutting down, the rest get checked next time
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void executeForInstitutions(final Collection<Institution> insts)
+      throws InterruptedException {
+    // ReferencedURLs are unique per schema, so a URL linked from several institutions in the
+    // schema is only checked once and the event goes to all of them.
+    final List<ReferencedURL> batch = Lists.newArrayListWithCapacity(updateBatchSize);
+    HostQueueScheduler<ReferencedURL> scheduler =
+        new HostQueueScheduler<ReferencedURL>(
+            maxConcurrentChecks, maxChecksPerHost, hostDelayMillis);
+    try {
+      scheduler.run(
+          new ReferencedURLIterator(),
+          new Function<ReferencedURL, String>() {
+            @Override
+            public String apply(ReferencedURL rurl) {
+              return rurl.getUrl();
+            }
+          },
+          new Function<ReferencedURL, ListenableFuture<ReferencedURL>>() {
             @Override
-            public Object call() throws Exception {
-              executeForInstitutions(entry.getValue());
-              return null;
+            public ListenableFuture<ReferencedURL> apply(ReferencedURL rurl) {
+              return service.checkUrl(rurl);
+            }
+          },
+          new HostQueueScheduler.ResultHandler<ReferencedURL>() {
+            @Override
+            public void completed(ReferencedURL rurl) {
+              if (rurl != null) {
+                batch.add(rurl);
+                if (batch.size() >= updateBatchSize) {
+                  saveResults(batch, insts);
+                }
+              }
             }
           });
+    } finally {
+      saveResults(batch, insts);
     }
   }
 
-  private void executeForInstitutions(Collection<Institution> insts)
-      throws InterruptedException, ExecutionException {
-    Iterator<ReferencedURL> bi = new ReferencedURLIterator();
-
-    // Asynchronously check a maximum number of URLs at any given time. As
-    // they complete, remove them from the working set and fill it back up
-    // with more.
-    Set<ListenableFuture<ReferencedURL>> workingset =
-        Sets.newHashSetWithExpectedSize(MAX_CONCURRENT_CHECKS);
-    while (bi.hasNext() || !workingset.isEmpty()) {
-      // Remove completed URLs.
-      for (Iterator<ListenableFuture<ReferencedURL>> iter = workingset.iterator();
-          iter.hasNext(); ) {
-        ListenableFuture<ReferencedURL> f = iter.next();
-        if (f.isDone()) {
-          iter.remove();
-
-          ReferencedURL rurl = f.get();
-          dao.updateWithTransaction(rurl);
-
-          // Send event if exactly at the warning or disabled level.
-          URLEventType eventType = null;
-          if (rurl.getTries() == policy.getTriesUntilWarning()) {
-            eventType = URLEventType.URL_WARNING;
-          } else if (rurl.getTries() == policy.getTriesUntilDisabled()) {
-            eventType = URLEventType.URL_DISABLED;
-          }
+  private void saveResults(List<ReferencedURL> batch, Collection<Institution> insts) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    dao.updateAllWithTransaction(batch);
 
-          if (eventType != null) {
-            // Send event to all institutions
-            eventService.publishApplicationEvent(insts, new URLEvent(eventType, rurl.getUrl()));
-          }
-        }
+    for (ReferencedURL rurl : batch) {
+      // Send event if exactly at the warning or disabled level.
+      URLEventType eventType = null;
+      if (rurl.getTries() == policy.getTriesUntilWarning()) {
+        eventType = URLEventType.URL_WARNING;
+      } else if (rurl.getTries() == policy.getTriesUntilDisabled()) {
+        eventType = URLEventType.URL_DISABLED;
       }
 
-      // Fill up the working set with maximum allowed.
-      while (bi.hasNext() && workingset.size() < MAX_CONCURRENT_CHECKS) {
-        workingset.add(service.checkUrl(bi.next()));
+      if (eventType != null) {
+        // Send event to all institutions
+        eventService.publishApplicationEvent(insts, new URLEvent(eventType, rurl.getUrl()));
       }
-
-      // Now sleep for a couple of seconds before trying again, at least
-      // some URLs should already be complete.
-      Thread.sleep(TimeUnit.SECONDS.toMillis(2));
     }
+    batch.clear();
   }
 
   private class ReferencedURLIterator extends BatchingIterator<ReferencedURL> {
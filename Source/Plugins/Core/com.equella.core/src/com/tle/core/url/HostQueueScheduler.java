@@ -0,0 +1,236 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.url;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs checks for a stream of URLs, keeping at most {@code maxConcurrent} checks in flight overall
+ * and at most {@code maxPerHost} against any one host. Checks against the same host can also be
+ * started at least {@code hostDelayMillis} apart, for sites which object to a burst of requests
+ * even from a couple of connections. Hosts take turns in the order they next become available.
+ *
+ * <p>All of the bookkeeping happens on the thread calling {@link #run}, which sleeps until either a
+ * check completes or a host becomes available again.
+ */
+@SuppressWarnings("nls")
+class HostQueueScheduler<T> {
+  /** How many URLs to read ahead of the checks, as a multiple of the concurrent checks. */
+  private static final int READ_AHEAD = 10;
+
+  private final int maxConcurrent;
+  private final int maxPerHost;
+  private final long hostDelayMillis;
+  private final Clock clock;
+
+  private final Map<String, HostQueue> hosts = new HashMap<String, HostQueue>();
+  private final PriorityQueue<HostQueue> ready =
+      new PriorityQueue<HostQueue>(
+          64,
+          new Comparator<HostQueue>() {
+            @Override
+            public int compare(HostQueue h1, HostQueue h2) {
+              return Long.compare(h1.nextAllowed, h2.nextAllowed);
+            }
+          });
+  private final BlockingQueue<Completion> completed = new LinkedBlockingQueue<Completion>();
+
+  private int queued;
+  private int inFlight;
+
+  HostQueueScheduler(int maxConcurrent, int maxPerHost, long hostDelayMillis) {
+    this(maxConcurrent, maxPerHost, hostDelayMillis, Clock.SYSTEM);
+  }
+
+  HostQueueScheduler(int maxConcurrent, int maxPerHost, long hostDelayMillis, Clock clock) {
+    this.maxConcurrent = Math.max(1, maxConcurrent);
+    this.maxPerHost = Math.max(1, maxPerHost);
+    this.hostDelayMillis = Math.max(0, hostDelayMillis);
+    this.clock = clock;
+  }
+
+  /**
+   * Checks everything from {@code source} and hands each result to {@code results} as it completes,
+   * returning once the last check has finished.
+   *
+   * @param url gets the URL to check from a source item
+   * @param check starts the check of a source item
+   */
+  void run(
+      Iterator<T> source,
+      Function<T, String> url,
+      Function<T, ListenableFuture<T>> check,
+      ResultHandler<T> results)
+      throws InterruptedException {
+    while (true) {
+      while (queued < maxConcurrent * READ_AHEAD && source.hasNext()) {
+        T item = source.next();
+        enqueue(hostOf(url.apply(item)), item);
+      }
+
+      long now = clock.currentTimeMillis();
+      while (inFlight < maxConcurrent && !ready.isEmpty() && ready.peek().nextAllowed <= now) {
+        start(ready.poll(), now, check);
+      }
+
+      if (inFlight == 0 && queued == 0 && !source.hasNext()) {
+        return;
+      }
+
+      Completion done;
+      if (inFlight < maxConcurrent && !ready.isEmpty()) {
+        long wait = ready.peek().nextAllowed - clock.currentTimeMillis();
+        done = clock.poll(completed, Math.max(wait, 0));
+      } else {
+        // Nothing can start until something finishes
+        done = completed.take();
+      }
+
+      while (done != null) {
+        finish(done);
+        results.completed(done.result);
+        done = completed.poll();
+      }
+    }
+  }
+
+  private void enqueue(String host, T item) {
+    HostQueue hq = hosts.get(host);
+    if (hq == null) {
+      hq = new HostQueue();
+      hosts.put(host, hq);
+    }
+    hq.items.add(item);
+    queued++;
+    schedule(hq);
+  }
+
+  private void start(final HostQueue hq, long now, Function<T, ListenableFuture<T>> check) {
+    hq.scheduled = false;
+    T item = hq.items.poll();
+    queued--;
+    hq.active++;
+    inFlight++;
+    hq.nextAllowed = now + hostDelayMillis;
+    schedule(hq);
+
+    Futures.addCallback(
+        check.apply(item),
+        new FutureCallback<T>() {
+          @Override
+          public void onSuccess(T result) {
+            completed.add(new Completion(hq, result));
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            // The checker maps failures to a failed result, so this is unexpected
+            completed.add(new Completion(hq, null));
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private void finish(Completion done) {
+    HostQueue hq = done.host;
+    hq.active--;
+    inFlight--;
+    // Hosts are kept for the whole run so that their delay still applies when more of their URLs
+    // are read in later
+    schedule(hq);
+  }
+
+  private void schedule(HostQueue hq) {
+    if (!hq.scheduled && !hq.items.isEmpty() && hq.active < maxPerHost) {
+      hq.scheduled = true;
+      ready.add(hq);
+    }
+  }
+
+  static String hostOf(String url) {
+    try {
+      String host = new URI(url).getHost();
+      if (host != null) {
+        return host.toLowerCase(Locale.ENGLISH);
+      }
+    } catch (Exception e) {
+      // Not a valid URL, the check itself will fail quickly
+    }
+    return "";
+  }
+
+  /** Where the time comes from, and how to wait for it to pass */
+  interface Clock {
+    Clock SYSTEM =
+        new Clock() {
+          @Override
+          public long currentTimeMillis() {
+            return System.currentTimeMillis();
+          }
+
+          @Override
+          public <E> E poll(BlockingQueue<E> queue, long millis) throws InterruptedException {
+            return queue.poll(millis, TimeUnit.MILLISECONDS);
+          }
+        };
+
+    long currentTimeMillis();
+
+    /** Takes the head of the queue, waiting up to {@code millis} for something to be added */
+    <E> E poll(BlockingQueue<E> queue, long millis) throws InterruptedException;
+  }
+
+  interface ResultHandler<T> {
+    /** @param result the checked item, or null if the check failed unexpectedly */
+    void completed(T result);
+  }
+
+  private class HostQueue {
+    final Deque<T> items = new ArrayDeque<T>();
+    long nextAllowed;
+    int active;
+    boolean scheduled;
+  }
+
+  private class Completion {
+    final HostQueue host;
+    final T result;
+
+    Completion(HostQueue host, T result) {
+      this.host = host;
+      this.result = result;
+    }
+  }
+}
@@ -53,6 +53,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -104,13 +105,18 @@ public class URLCheckerService {
 
   private final AsyncHttpClient client;
 
-  public URLCheckerService() {
+  @Inject
+  public URLCheckerService(
+      @Named("urlChecker.maxConnectionsPerHost") int maxConnectionsPerHost) {
     Builder bc = new AsyncHttpClientConfig.Builder();
-    bc.setAllowPoolingConnections(false); // Avoid keep-alive
+    // Keep connections open between checks of URLs on the same host. The scheduled checker
+    // spaces out requests to each host, so a short idle timeout is enough.
+    bc.setAllowPoolingConnections(true);
+    bc.setPooledConnectionIdleTimeout(30000);
     bc.setCompressionEnforced(true);
     bc.setUseProxyProperties(true);
     bc.setFollowRedirect(true);
-    bc.setMaxConnectionsPerHost(2);
+    bc.setMaxConnectionsPerHost(maxConnectionsPerHost);
     bc.setMaxConnections(200);
     bc.setMaxRedirects(25);
     bc.setUserAgent("Mozilla/5.0 (compatible; equellaurlbot/1.0; +http://support.equella.com/)");
@@ -282,8 +288,9 @@ public class URLCheckerService {
                 LOGGER.debug("Retry with GET for " + url);
               }
 
-              // And abort the current request
-              return STATE.ABORT;
+              // A HEAD response has no body, so let it complete rather than
+              // aborting and the connection can go back to the pool
+              return STATE.CONTINUE;
             }
 
             // Retrieved status code is valid here
@@ -304,7 +311,8 @@ public class URLCheckerService {
               rurl.setMessage(null);
               rurl.setTries(0);
 
-              return STATE.ABORT;
+              // Don't download the body of a successful GET
+              return head ? STATE.CONTINUE : STATE.ABORT;
             }
 
             if (LOGGER.isDebugEnabled()) {
@@ -28,4 +28,7 @@ public interface URLCheckerDao extends GenericDao<ReferencedURL, Long> {
   Collection<ReferencedURL> getRecheckingBatch(long startId, int batchSize);
 
   void updateWithTransaction(ReferencedURL rurl);
+
+  /** Updates all of the URLs in a single transaction. */
+  void updateAllWithTransaction(Collection<ReferencedURL> rurls);
 }
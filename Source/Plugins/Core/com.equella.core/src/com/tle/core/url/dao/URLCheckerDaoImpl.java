@@ -168,6 +168,16 @@ public class URLCheckerDaoImpl extends GenericDaoImpl<ReferencedURL, Long>
     update(rurl);
   }
 
+  @Override
+  @Transactional
+  public void updateAllWithTransaction(Collection<ReferencedURL> rurls) {
+    for (ReferencedURL rurl : rurls) {
+      update(rurl);
+    }
+    flush();
+    clear();
+  }
+
   private ReferencedURL getFromDb(Session session, String url) {
     return (ReferencedURL)
         session
@@ -24,11 +24,16 @@ import com.tle.core.config.guice.OptionalConfigModule;
 public class URLModule extends OptionalConfigModule {
   private static final int TRIES_UNTIL_WARNING = 5;
   private static final int TRIES_UNTIL_DISABLED = 10;
+  private static final int MAX_CONNECTIONS_PER_HOST = 2;
 
   @SuppressWarnings("nls")
   @Override
   protected void configure() {
     bindInt("urlChecker.triesUntilWarning", TRIES_UNTIL_WARNING);
     bindInt("urlChecker.triesUntilDisabled", TRIES_UNTIL_DISABLED);
+    bindInt("urlChecker.maxConnectionsPerHost", MAX_CONNECTIONS_PER_HOST);
+    bindInt("urlChecker.maxConcurrentChecks");
+    bindInt("urlChecker.hostDelayMillis");
+    bindInt("urlChecker.updateBatchSize");
   }
 }
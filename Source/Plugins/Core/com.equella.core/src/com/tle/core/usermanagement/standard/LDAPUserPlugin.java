@@ -43,7 +43,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
+import javax.inject.Named;
 import org.apache.log4j.Logger;
 
 @Bind
@@ -56,11 +58,31 @@ public class LDAPUserPlugin extends AbstractUserDirectory {
   @Inject private LDAPService ldapService;
   @Inject private EncryptionService encryptionService;
 
+  /** How often the groups kept in memory are checked for changes. Zero searches every time. */
+  @com.google.inject.Inject(optional = true)
+  @Named("ldap.groupGraph.refreshMinutes")
+  private int groupRefreshMinutes = 5;
+
+  /** How often all of the groups are loaded again, to drop deleted ones */
+  @com.google.inject.Inject(optional = true)
+  @Named("ldap.groupGraph.rebuildHours")
+  private int groupRebuildHours = 24;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("ldap.groupGraph.pageSize")
+  private int groupPageSize = 500;
+
   private LDAP ldap;
 
   @Override
   protected boolean initialise(UserManagementSettings settings) {
     this.ldap = new LDAP((LDAPSettings) settings, encryptionService);
+    if (groupRefreshMinutes > 0) {
+      ldap.enableGroupGraph(
+          groupPageSize,
+          TimeUnit.MINUTES.toMillis(groupRefreshMinutes),
+          TimeUnit.HOURS.toMillis(groupRebuildHours));
+    }
     return false;
   }
 
@@ -111,7 +111,6 @@ public class TLEUserDaoImpl extends GenericDaoImpl<TLEUser, Long> implements TLE
                   @Override
                   public Object doInHibernate(Session session) {
                     Query query = session.createQuery(q.toString());
-                    query.setCacheable(true);
                     query.setReadOnly(true);
 
                     query.setParameter("institution", CurrentInstitution.get());
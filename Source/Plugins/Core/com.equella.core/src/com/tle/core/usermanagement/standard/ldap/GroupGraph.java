@@ -0,0 +1,552 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.usermanagement.standard.ldap;
+
+import com.tle.annotation.Nullable;
+import com.tle.common.Check;
+import com.tle.common.usermanagement.user.valuebean.GroupBean;
+import com.tle.core.usermanagement.standard.ldap.LDAP.AndFilter;
+import com.tle.core.usermanagement.standard.ldap.LDAP.Filter;
+import com.tle.core.usermanagement.standard.ldap.LDAP.GreaterOrEqualFilter;
+import com.tle.core.usermanagement.standard.ldap.LDAP.HitsCollector;
+import com.tle.core.usermanagement.standard.ldap.LDAP.InContext;
+import com.tle.core.usermanagement.standard.ldap.LDAP.SingleFilter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchResult;
+import org.apache.log4j.Logger;
+
+/**
+ * The groups of an LDAP directory and how they are nested, kept in memory so that the groups above
+ * or below a group can be found without a search for each level of nesting.
+ *
+ * <p>The groups are loaded with a paged search for every group, then kept up to date by searching
+ * only for the groups changed since: by {@code uSNChanged} where the directory has it (Active
+ * Directory), otherwise by {@code modifyTimestamp}. Deleted groups aren't found this way, so all
+ * of the groups are loaded again every {@code rebuildMillis}, or on every refresh if the directory
+ * has neither attribute.
+ *
+ * <p>Nesting is read from the member attribute of the enclosing group if there is one, since a
+ * change of members changes the enclosing group, otherwise from the memberOf attribute of the
+ * nested group. memberOf is usually kept by the directory without changing the nested group, so
+ * without a member attribute all of the groups are loaded again on every refresh.
+ *
+ * <p>Loads happen in the background, as the admin user, so that a large directory doesn't hold up
+ * logins or whichever request finds a refresh due. Until the first has finished {@link #getGroups}
+ * throws and callers search the directory instead, after that they get the groups as last loaded.
+ */
+@SuppressWarnings("nls")
+public class GroupGraph {
+  private static final Logger LOGGER = Logger.getLogger(GroupGraph.class);
+
+  static final String USN_CHANGED = "uSNChanged";
+  static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+  private final LDAP ldap;
+  /** The attribute naming a group's members, or its parents if {@link #membersListed} is false */
+  @Nullable private final String nestingField;
+
+  private final boolean membersListed;
+  private final int pageSize;
+  private final long refreshMillis;
+  private final long rebuildMillis;
+
+  private final AtomicBoolean loading = new AtomicBoolean();
+  private volatile Thread loader;
+  private volatile Groups groups;
+  private volatile long refreshed;
+  private volatile long failed;
+  private long rebuilt;
+
+  GroupGraph(
+      LDAP ldap,
+      @Nullable String memberField,
+      @Nullable String memberOfField,
+      int pageSize,
+      long refreshMillis,
+      long rebuildMillis) {
+    this.ldap = ldap;
+    this.membersListed = !Check.isEmpty(memberField);
+    this.nestingField =
+        membersListed ? memberField : Check.isEmpty(memberOfField) ? null : memberOfField;
+    this.pageSize = pageSize;
+    this.refreshMillis = refreshMillis;
+    this.rebuildMillis = rebuildMillis;
+  }
+
+  /**
+   * Gets the groups as they were last loaded, starting a refresh in the background if one is due.
+   * Only one load runs at a time, and callers never wait for it.
+   *
+   * @throws IllegalStateException if the groups haven't been loaded yet, starting the first load
+   *     in the background if it isn't already running. A failed load isn't tried again until the
+   *     next refresh is due.
+   */
+  public Groups getGroups() {
+    Groups current = groups;
+    long now = System.currentTimeMillis();
+    if (current == null && now - failed < refreshMillis) {
+      throw new IllegalStateException("Loading LDAP groups failed recently");
+    }
+    if ((current == null || now - refreshed >= refreshMillis)
+        && loading.compareAndSet(false, true)) {
+      startLoading(current);
+    }
+    if (current == null) {
+      throw new IllegalStateException("LDAP groups are still being loaded");
+    }
+    return current;
+  }
+
+  /** Waits for the load running in the background, if any, to finish. For tests. */
+  Groups awaitLoading() throws InterruptedException {
+    Thread thread = loader;
+    if (thread != null) {
+      thread.join();
+    }
+    return groups;
+  }
+
+  private void startLoading(@Nullable final Groups current) {
+    Thread thread =
+        new Thread("LDAP group loader") {
+          @Override
+          public void run() {
+            final long now = System.currentTimeMillis();
+            try {
+              groups =
+                  ldap.doAsAdmin(
+                      new InContext<Groups>() {
+                        @Override
+                        public Groups execute(DirContext ctx) {
+                          return load(ctx, current, now);
+                        }
+                      });
+              refreshed = now;
+            } catch (RuntimeException e) {
+              if (current == null) {
+                LOGGER.error("Couldn't load LDAP groups", e);
+                failed = now;
+              } else {
+                LOGGER.warn("Couldn't refresh LDAP groups, will try again later", e);
+                refreshed = now;
+              }
+            } finally {
+              loading.set(false);
+            }
+          }
+        };
+    thread.setDaemon(true);
+    loader = thread;
+    thread.start();
+  }
+
+  private Groups load(DirContext ctx, @Nullable Groups current, long now) {
+    SingleFilter groupClass = new SingleFilter(LDAP.OBJECTCLASS, ldap.getGroupObject());
+    boolean rebuild =
+        !membersListed
+            || current == null
+            || current.changedSince == null
+            || now - rebuilt >= rebuildMillis;
+    Filter filter = groupClass;
+    if (!rebuild) {
+      filter =
+          new AndFilter(
+              groupClass, new GreaterOrEqualFilter(current.changeField, current.changedSince));
+    }
+
+    long start = System.currentTimeMillis();
+    List<FoundGroup> found = ldap.searchPagedAllBases(ctx, filter, new Collector(), pageSize);
+    Groups updated;
+    if (rebuild) {
+      updated = new Groups(Collections.<Name, Group>emptyMap(), found, null, null);
+      rebuilt = now;
+    } else if (found.isEmpty()) {
+      return current;
+    } else {
+      updated = new Groups(current.groups, found, current.changeField, current.changedSince);
+    }
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug(
+          (rebuild ? "Loaded " : "Refreshed ")
+              + found.size()
+              + " of "
+              + updated.size()
+              + " LDAP groups in "
+              + (System.currentTimeMillis() - start)
+              + "ms");
+    }
+    return updated;
+  }
+
+  /** An immutable snapshot of the groups. */
+  public class Groups {
+    private final Map<Name, Group> groups;
+    private final Map<String, Name> byId = new HashMap<String, Name>();
+    private final Map<String, Name> byName = new HashMap<String, Name>();
+    private final Map<Name, Set<Name>> parents = new HashMap<Name, Set<Name>>();
+    private final Map<Name, Set<Name>> children = new HashMap<Name, Set<Name>>();
+
+    /** The attribute to find changed groups by, or null if the directory doesn't have one */
+    @Nullable final String changeField;
+    /** The lowest value of the change attribute that hasn't been seen yet */
+    @Nullable final String changedSince;
+
+    Groups(
+        Map<Name, Group> previous,
+        List<FoundGroup> found,
+        @Nullable String changeField,
+        @Nullable String changedSince) {
+      Map<Name, Group> all = new HashMap<Name, Group>(previous);
+      for (FoundGroup group : found) {
+        all.put(group.name, new Group(group));
+      }
+      for (Group group : all.values()) {
+        if (group.id != null) {
+          byId.put(group.id.toLowerCase(Locale.ENGLISH), group.name);
+        }
+        if (group.groupName != null) {
+          byName.put(group.groupName.toLowerCase(Locale.ENGLISH), group.name);
+        }
+      }
+      // The found groups may refer to each other, so are resolved once they've all been added
+      for (FoundGroup group : found) {
+        Set<Name> nested = all.get(group.name).nested;
+        for (String ref : group.nesting) {
+          Name name = resolve(all, ref);
+          if (name != null) {
+            nested.add(name);
+          }
+        }
+      }
+      this.groups = all;
+
+      for (Group group : all.values()) {
+        for (Name other : group.nested) {
+          if (membersListed) {
+            link(other, group.name);
+          } else {
+            link(group.name, other);
+          }
+        }
+      }
+
+      if (changeField == null) {
+        for (FoundGroup group : found) {
+          if (group.usn != null) {
+            changeField = USN_CHANGED;
+            break;
+          } else if (group.modified != null) {
+            changeField = MODIFY_TIMESTAMP;
+          }
+        }
+      }
+      this.changeField = changeField;
+      this.changedSince = changeField == null ? null : nextChange(found, changedSince);
+    }
+
+    @Nullable
+    private Name resolve(Map<Name, Group> all, String ref) {
+      try {
+        Name name = LDAP.parse(ref);
+        if (all.containsKey(name)) {
+          return name;
+        }
+      } catch (InvalidNameException e) {
+        // Not a DN, could be a group name
+      }
+      return byName.get(ref.toLowerCase(Locale.ENGLISH));
+    }
+
+    private void link(Name child, Name parent) {
+      if (groups.containsKey(child) && groups.containsKey(parent)) {
+        add(parents, child, parent);
+        add(children, parent, child);
+      }
+    }
+
+    @Nullable
+    private String nextChange(List<FoundGroup> found, @Nullable String changedSince) {
+      if (USN_CHANGED.equals(changeField)) {
+        long highest = changedSince == null ? 0 : Long.parseLong(changedSince) - 1;
+        for (FoundGroup group : found) {
+          if (group.usn != null) {
+            highest = Math.max(highest, Long.parseLong(group.usn));
+          }
+        }
+        return Long.toString(highest + 1);
+      }
+
+      // Generalized times in the same format sort as strings. The last change is searched for
+      // again, in case there were others at the same time.
+      String highest = changedSince;
+      for (FoundGroup group : found) {
+        if (group.modified != null && (highest == null || group.modified.compareTo(highest) > 0)) {
+          highest = group.modified;
+        }
+      }
+      return highest;
+    }
+
+    public int size() {
+      return groups.size();
+    }
+
+    public boolean contains(Name group) {
+      return groups.containsKey(group);
+    }
+
+    /**
+     * Finds a group by its ID, which is its DN if there's no group ID attribute.
+     *
+     * @return null if there's no such group
+     */
+    @Nullable
+    public Name find(String groupId) {
+      if (!Check.isEmpty(ldap.getGroupIdField())) {
+        return byId.get(groupId.toLowerCase(Locale.ENGLISH));
+      }
+      try {
+        Name name = LDAP.parse(groupId);
+        return groups.containsKey(name) ? name : null;
+      } catch (InvalidNameException e) {
+        return null;
+      }
+    }
+
+    /** @return null for an unknown group, or one without an ID or name */
+    @Nullable
+    public GroupBean getBean(Name group) {
+      Group g = groups.get(group);
+      return g == null ? null : g.bean;
+    }
+
+    /** @return the beans of the known groups with an ID and name, in the same order */
+    public List<GroupBean> getBeans(Collection<Name> names) {
+      List<GroupBean> beans = new ArrayList<GroupBean>(names.size());
+      for (Name name : names) {
+        GroupBean bean = getBean(name);
+        if (bean != null) {
+          beans.add(bean);
+        }
+      }
+      return beans;
+    }
+
+    /** @return the value of the group name attribute, or null if it doesn't have one */
+    @Nullable
+    public String getGroupName(Name group) {
+      Group g = groups.get(group);
+      return g == null ? null : g.groupName;
+    }
+
+    /** The groups that the group is directly nested in. */
+    public Set<Name> getParents(Name group) {
+      Set<Name> direct = parents.get(group);
+      return direct == null ? Collections.<Name>emptySet() : direct;
+    }
+
+    /** The groups along with all of the groups they're nested in, however deeply. */
+    public Set<Name> withAncestors(Collection<Name> groups) {
+      return closure(groups, parents);
+    }
+
+    /** The group along with all of the groups nested in it, however deeply. */
+    public Set<Name> withDescendants(Name group) {
+      return closure(Collections.singleton(group), children);
+    }
+
+    private Set<Name> closure(Collection<Name> start, Map<Name, Set<Name>> edges) {
+      Set<Name> seen = new LinkedHashSet<Name>(start);
+      Deque<Name> todo = new ArrayDeque<Name>(start);
+      while (!todo.isEmpty()) {
+        Set<Name> next = edges.get(todo.poll());
+        if (next != null) {
+          for (Name name : next) {
+            if (seen.add(name)) {
+              todo.add(name);
+            }
+          }
+        }
+      }
+      return seen;
+    }
+  }
+
+  private static void add(Map<Name, Set<Name>> edges, Name from, Name to) {
+    Set<Name> set = edges.get(from);
+    if (set == null) {
+      set = new LinkedHashSet<Name>();
+      edges.put(from, set);
+    }
+    set.add(to);
+  }
+
+  /** A group as kept in memory, with the groups its nesting attribute names. */
+  private static class Group {
+    final Name name;
+    @Nullable final GroupBean bean;
+    @Nullable final String id;
+    @Nullable final String groupName;
+    final Set<Name> nested = new LinkedHashSet<Name>();
+
+    Group(FoundGroup found) {
+      this.name = found.name;
+      this.bean = found.bean;
+      this.id = found.id;
+      this.groupName = found.groupName;
+    }
+  }
+
+  /** A group as found by a search, before its nesting attribute has been resolved. */
+  private static class FoundGroup {
+    Name name;
+    GroupBean bean;
+    String id;
+    String groupName;
+    List<String> nesting = new ArrayList<String>();
+    String usn;
+    String modified;
+  }
+
+  private class Collector extends HitsCollector<FoundGroup> {
+    private String[] returnAttributes;
+
+    @Override
+    protected void setup(DirContext ctx, LDAP ldap) {
+      super.setup(ctx, ldap);
+
+      List<String> attributes = new ArrayList<String>();
+      for (String attribute :
+          new String[] {
+            ldap.getGroupIdField(),
+            ldap.getGroupNameField(),
+            nestingField,
+            USN_CHANGED,
+            MODIFY_TIMESTAMP
+          }) {
+        if (!Check.isEmpty(attribute)) {
+          attributes.add(attribute);
+        }
+      }
+      returnAttributes = attributes.toArray(new String[attributes.size()]);
+    }
+
+    @Override
+    public void addResult(SearchResult sr, Name base) throws NamingException {
+      FoundGroup group = new FoundGroup();
+      group.name = LDAP.parse(sr.getNameInNamespace());
+      Attributes attributes = sr.getAttributes();
+      group.bean = ldap.getGroupBeanFromResult(group.name, attributes);
+      group.id = getValue(attributes, ldap.getGroupIdField());
+      group.groupName = getValue(attributes, ldap.getGroupNameField());
+      group.usn = getValue(attributes, USN_CHANGED);
+      group.modified = getValue(attributes, MODIFY_TIMESTAMP);
+      if (nestingField != null) {
+        readNesting(group, attributes);
+      }
+      results.add(group);
+    }
+
+    /**
+     * Active Directory only returns so many values of an attribute at once, as {@code
+     * member;range=0-1499}, and the rest have to be asked for a range at a time.
+     */
+    private void readNesting(FoundGroup group, Attributes attributes) throws NamingException {
+      String rangePrefix = (nestingField + ";range=").toLowerCase(Locale.ENGLISH);
+      NamingEnumeration<? extends Attribute> all = attributes.getAll();
+      while (all.hasMore()) {
+        Attribute attribute = all.next();
+        String id = attribute.getID().toLowerCase(Locale.ENGLISH);
+        if (id.equals(nestingField.toLowerCase(Locale.ENGLISH))) {
+          addValues(group.nesting, attribute);
+        } else if (id.startsWith(rangePrefix)) {
+          while (attribute != null) {
+            addValues(group.nesting, attribute);
+            String range = attribute.getID().substring(rangePrefix.length());
+            if (range.endsWith("*")) {
+              break;
+            }
+            int next = Integer.parseInt(range.substring(range.indexOf('-') + 1)) + 1;
+            attribute =
+                findRange(
+                    ctx.getAttributes(
+                        group.name, new String[] {nestingField + ";range=" + next + "-*"}),
+                    rangePrefix);
+          }
+        }
+      }
+    }
+
+    @Nullable
+    private Attribute findRange(Attributes attributes, String rangePrefix)
+        throws NamingException {
+      NamingEnumeration<? extends Attribute> all = attributes.getAll();
+      while (all.hasMore()) {
+        Attribute attribute = all.next();
+        if (attribute.getID().toLowerCase(Locale.ENGLISH).startsWith(rangePrefix)) {
+          return attribute;
+        }
+      }
+      return null;
+    }
+
+    private void addValues(List<String> values, Attribute attribute) throws NamingException {
+      NamingEnumeration<?> all = attribute.getAll();
+      while (all.hasMore()) {
+        values.add(all.next().toString());
+      }
+    }
+
+    @Nullable
+    private String getValue(Attributes attributes, @Nullable String name) throws NamingException {
+      if (Check.isEmpty(name)) {
+        return null;
+      }
+      Attribute attribute = attributes.get(name);
+      if (attribute == null || attribute.size() == 0) {
+        return null;
+      }
+      Object value = attribute.get();
+      return value == null ? null : value.toString();
+    }
+
+    @Override
+    public String[] getReturnAttributes() {
+      return returnAttributes;
+    }
+  }
+}
@@ -18,6 +18,7 @@
 
 package com.tle.core.usermanagement.standard.ldap;
 
+import com.tle.annotation.Nullable;
 import com.tle.common.Check;
 import com.tle.common.usermanagement.user.valuebean.GroupBean;
 import com.tle.common.usermanagement.user.valuebean.UserBean;
@@ -32,8 +33,12 @@ import java.util.List;
 import javax.naming.Name;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 public abstract class GroupSearch {
+  private static final Log LOGGER = LogFactory.getLog(GroupSearch.class);
+
   protected LDAP ldap;
 
   public GroupSearch(LDAP ldap) {
@@ -52,10 +57,16 @@ public abstract class GroupSearch {
 
   public List<GroupBean> getGroupsFromNames(DirContext ctx, Collection<Name> ldapgroupnames) {
     List<GroupBean> alist = new ArrayList<GroupBean>();
+    GroupGraph.Groups groups = getGroups();
 
     for (Name groupname : ldapgroupnames) {
-      Attributes gattr = ldap.getAttributes(ctx, groupname, ldap.getGroupAttributes());
-      GroupBean gbean = ldap.getGroupBeanFromResult(new LDAPResult(groupname, gattr));
+      GroupBean gbean;
+      if (groups != null && groups.contains(groupname)) {
+        gbean = groups.getBean(groupname);
+      } else {
+        Attributes gattr = ldap.getAttributes(ctx, groupname, ldap.getGroupAttributes());
+        gbean = ldap.getGroupBeanFromResult(new LDAPResult(groupname, gattr));
+      }
       if (gbean != null) {
         alist.add(gbean);
       }
@@ -63,6 +74,22 @@ public abstract class GroupSearch {
     return alist;
   }
 
+  /** @return the groups kept in memory, or null if they aren't so the directory is searched */
+  @Nullable
+  protected GroupGraph.Groups getGroups() {
+    GroupGraph graph = ldap.getGroupGraph();
+    if (graph == null) {
+      return null;
+    }
+    try {
+      return graph.getGroups();
+    } catch (RuntimeException e) {
+      // Still loading, or the failure was already logged by the graph
+      LOGGER.debug("Searching the directory for groups instead", e);
+      return null;
+    }
+  }
+
   @SuppressWarnings("nls")
   public List<GroupBean> search(DirContext ctx, String query) {
     if (Check.isEmpty(ldap.getGroupObject())) {
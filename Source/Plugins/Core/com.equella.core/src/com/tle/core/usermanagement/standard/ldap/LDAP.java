@@ -31,6 +31,7 @@ import com.tle.common.usermanagement.user.valuebean.UserBean;
 import com.tle.common.util.BlindSSLSocketFactory;
 import com.tle.core.encryption.EncryptionService;
 import com.tle.exceptions.BadCredentialsException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -51,10 +52,14 @@ import javax.naming.SizeLimitExceededException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 import org.apache.log4j.Logger;
 
 /**
@@ -106,6 +111,7 @@ public class LDAP {
   private boolean blind;
 
   private transient GroupSearch groupSearch;
+  private volatile GroupGraph groupGraph;
 
   public LDAP(LDAPSettings config, EncryptionService encryptionService) {
     this.config = config;
@@ -299,6 +305,70 @@ public class LDAP {
     return collector.getResults();
   }
 
+  /**
+   * Searches the subtrees of all bases a page at a time, so that every match is returned no matter
+   * what the server's size limit is. Unlike the other searches, errors are thrown rather than
+   * logged, so that the caller can tell a failed search from one with fewer results.
+   */
+  public <T> List<T> searchPagedAllBases(
+      DirContext ctx, Filter filter, HitsCollector<T> collector, int pageSize) {
+    collector.setup(ctx, this);
+
+    SearchControls ctls = new SearchControls();
+    ctls.setReturningAttributes(collector.getReturnAttributes());
+    ctls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+    String query = filter.toFilter();
+    LdapContext lctx = ctx instanceof LdapContext ? (LdapContext) ctx : null;
+    try {
+      for (Name base : getBases()) {
+        if (LOGGER.isDebugEnabled()) {
+          LOGGER.debug("Paged query:" + query + " Base:" + base);
+        }
+        byte[] cookie = null;
+        do {
+          if (lctx != null) {
+            lctx.setRequestControls(
+                new Control[] {new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL)});
+          }
+          NamingEnumeration<SearchResult> ne = ctx.search(base, query, ctls);
+          try {
+            while (ne.hasMore()) {
+              collector.addResult(ne.next(), base);
+            }
+          } catch (PartialResultException pre) {
+            // Referrals that aren't being followed
+            LOGGER.debug(pre);
+          } finally {
+            ne.close();
+          }
+          cookie = lctx != null ? getPagedResultsCookie(lctx.getResponseControls()) : null;
+        } while (cookie != null && cookie.length > 0);
+      }
+    } catch (NamingException | IOException e) {
+      throw new RuntimeException("Error searching " + query, e);
+    } finally {
+      if (lctx != null) {
+        try {
+          lctx.setRequestControls(null);
+        } catch (NamingException e) {
+          LOGGER.warn("Couldn't clear request controls", e);
+        }
+      }
+    }
+    return collector.getResults();
+  }
+
+  private static byte[] getPagedResultsCookie(Control[] controls) {
+    if (controls != null) {
+      for (Control control : controls) {
+        if (control instanceof PagedResultsResponseControl) {
+          return ((PagedResultsResponseControl) control).getCookie();
+        }
+      }
+    }
+    return null;
+  }
+
   public String searchAuthenticate(final String username, final String password) {
     if (username.length() == 0 || password.length() == 0) {
       throw new BadCredentialsException("Error authenticating with LDAP");
@@ -394,7 +464,8 @@ public class LDAP {
         oldLoader = Thread.currentThread().getContextClassLoader();
         Thread.currentThread().setContextClassLoader(LDAP.class.getClassLoader());
       }
-      return new InitialDirContext(map);
+      // An LDAP context so that searches can ask for paged results
+      return new InitialLdapContext(map, null);
     } catch (AuthenticationException e) {
       throw new BadCredentialsException("Couldn't authenticate with LDAP");
     } finally {
@@ -539,6 +610,7 @@ public class LDAP {
 
   public static class SingleFilter extends Filter {
     private final String name;
+    private final String operator;
     private final String value;
     private final boolean escapeWildcards;
 
@@ -549,7 +621,12 @@ public class LDAP {
     }
 
     public SingleFilter(String name, String value, boolean escapeWildcards) {
+      this(name, "=", value, escapeWildcards);
+    }
+
+    protected SingleFilter(String name, String operator, String value, boolean escapeWildcards) {
       this.name = name;
+      this.operator = operator;
       this.value = value;
       this.escapeWildcards = escapeWildcards;
     }
@@ -559,7 +636,7 @@ public class LDAP {
       if (name != null) {
         sb.append('(');
         sb.append(name);
-        sb.append('=');
+        sb.append(operator);
         escapeValue(sb, value);
         sb.append(')');
       }
@@ -610,6 +687,13 @@ public class LDAP {
     }
   }
 
+  /** Matches entries where the attribute is at least the value, e.g. changed since a time. */
+  public static class GreaterOrEqualFilter extends SingleFilter {
+    public GreaterOrEqualFilter(String name, String value) {
+      super(name, ">=", value, true);
+    }
+  }
+
   public abstract static class MultipleFilter extends Filter {
     private final String operator;
     private final SortedSet<Filter> filters;
@@ -787,6 +871,22 @@ public class LDAP {
     return groupSearch;
   }
 
+  /**
+   * Keeps the groups and how they're nested in memory, rather than searching the directory for
+   * each level of nesting. Only possible when the group object class is known.
+   */
+  public void enableGroupGraph(int pageSize, long refreshMillis, long rebuildMillis) {
+    if (!Check.isEmpty(groupObject)) {
+      groupGraph =
+          new GroupGraph(this, memberField, memberOfField, pageSize, refreshMillis, rebuildMillis);
+    }
+  }
+
+  /** @return null if the groups aren't kept in memory */
+  public GroupGraph getGroupGraph() {
+    return groupGraph;
+  }
+
   public LDAPResult getGroupResult(DirContext ctx, String groupID, String[] attrs) {
     if (!Check.isEmpty(groupIdField)) {
       SingleFilter nv1 = new SingleFilter(OBJECTCLASS, getGroupObject());
@@ -75,6 +75,13 @@ public class MemberOfGroupSearch extends GroupSearch {
 
   @Override
   public GroupBean getParentGroupForGroup(DirContext ctx, String groupID) {
+    GroupGraph.Groups groups = getGroups();
+    Name group = groups != null ? groups.find(groupID) : null;
+    if (group != null) {
+      Set<Name> parents = groups.getParents(group);
+      return parents.isEmpty() ? null : groups.getBean(parents.iterator().next());
+    }
+
     SubgroupResultHitsCollector collector = new SubgroupResultHitsCollector();
 
     SubgroupResultHitsCollector.SubgroupResult result = null;
@@ -119,6 +126,18 @@ public class MemberOfGroupSearch extends GroupSearch {
     }
 
     if (!Check.isEmpty(memberField)) {
+      GroupGraph.Groups groups = getGroups();
+      if (groups != null) {
+        // Only the groups the user is directly in need finding, their parents are in memory
+        Collection<Name> immediateGroups = getMemberOfNames(res.getAttributes());
+        if (immediateGroups.isEmpty()) {
+          immediateGroups =
+              ldap.searchAllBases(
+                  ctx, getMemberFilter(getUserUid(res)), new FullNameHitsCollector(), true);
+        }
+        return getGroupsFromNames(ctx, groups.withAncestors(immediateGroups));
+      }
+
       // Get groups is an immediate member of
       List<SubgroupResultHitsCollector.SubgroupResult> immediateGroups =
           ldap.searchAllBases(
@@ -181,8 +200,7 @@ public class MemberOfGroupSearch extends GroupSearch {
         if (!Check.isEmpty(memberOfField)) {
           Filter filter;
           if (recurse) {
-            Set<String> groups = new HashSet<String>();
-            collectAllSubGroupFullNames(groups, ctx, res.getFullName());
+            Set<String> groups = getAllSubGroupFullNames(ctx, res.getFullName());
             filter = getMemberOfFilter(query, groups);
           } else {
             filter = getMemberOfFilter(query, res.getFullName().toString());
@@ -197,6 +215,40 @@ public class MemberOfGroupSearch extends GroupSearch {
     return Collections.emptyList();
   }
 
+  private Set<String> getAllSubGroupFullNames(DirContext ctx, Name parent) {
+    Set<String> results = new HashSet<String>();
+    GroupGraph.Groups groups = getGroups();
+    if (groups != null && groups.contains(parent)) {
+      for (Name group : groups.withDescendants(parent)) {
+        results.add(group.toString());
+      }
+    } else {
+      collectAllSubGroupFullNames(results, ctx, parent);
+    }
+    return results;
+  }
+
+  /** The names of the groups nested in the parent, not including the parent. */
+  private Set<String> getAllSubGroupNames(DirContext ctx, LDAPResult parent) {
+    Set<String> results = new HashSet<String>();
+    GroupGraph.Groups groups = getGroups();
+    if (groups != null && groups.contains(parent.getFullName())) {
+      int limit = ldap.config.getSearchLimit();
+      for (Name group : groups.withDescendants(parent.getFullName())) {
+        String groupName = groups.getGroupName(group);
+        if (groupName != null && !group.equals(parent.getFullName())) {
+          results.add(groupName);
+          if (results.size() == limit) {
+            break;
+          }
+        }
+      }
+    } else {
+      collectAllSubGroups(results, ctx, parent.getAttributes());
+    }
+    return results;
+  }
+
   private void collectAllSubGroupFullNames(Set<String> results, DirContext ctx, Name parent) {
     final String fullname = parent.toString();
     if (results.add(fullname)) {
@@ -271,6 +323,23 @@ public class MemberOfGroupSearch extends GroupSearch {
     return foundGroups;
   }
 
+  /** Parsed the same way as the groups in memory, so they can be looked up. */
+  private Collection<Name> getMemberOfNames(Attributes useratt) {
+    List<Name> names = new ArrayList<Name>();
+    Attribute attribute = Check.isEmpty(memberOfField) ? null : useratt.get(memberOfField);
+    if (attribute != null) {
+      try {
+        NamingEnumeration<?> enumeration = attribute.getAll();
+        while (enumeration.hasMore()) {
+          names.add(LDAP.parse(enumeration.next().toString()));
+        }
+      } catch (NamingException e) {
+        throw new RuntimeException("Couldn't get memberOfField", e);
+      }
+    }
+    return names;
+  }
+
   private List<UserBean> getUserSet(DirContext ctx, String query, Attributes groupatt) {
     query = ldap.checkQuery(query);
 
@@ -461,8 +530,7 @@ public class MemberOfGroupSearch extends GroupSearch {
         Filter filter;
         if (!Check.isEmpty(memberOfField)) {
           if (recurse) {
-            Set<String> groups = new HashSet<String>();
-            collectAllSubGroupFullNames(groups, ctx, res.getFullName());
+            Set<String> groups = getAllSubGroupFullNames(ctx, res.getFullName());
             filter = getMemberOfGroupFilter(query, groups);
           } else {
             filter = getMemberOfGroupFilter(query, res.getFullName().toString());
@@ -471,8 +539,7 @@ public class MemberOfGroupSearch extends GroupSearch {
           return ldap.searchAllBases(ctx, filter, new GroupBeanHitsCollector(), true);
         }
 
-        Set<String> groups = new HashSet<String>();
-        collectAllSubGroups(groups, ctx, res.getAttributes());
+        Set<String> groups = getAllSubGroupNames(ctx, res);
 
         filter = getMemberGroupNameFilter(query, groups);
 
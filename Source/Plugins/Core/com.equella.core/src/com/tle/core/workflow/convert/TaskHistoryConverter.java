@@ -127,6 +127,9 @@ public class TaskHistoryConverter implements ItemExtrasConverter {
       th.setItem(info.getItem());
       th.setId(0);
       taskHistoryDao.save(th);
+      if (th.getExitDate() == null) {
+        taskHistoryDao.adjustWaitingCount(th.getTask().getId(), 1);
+      }
     }
   }
 
@@ -0,0 +1,59 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.workflow.convert;
+
+import com.tle.beans.Institution;
+import com.tle.common.filesystem.handle.TemporaryFileHandle;
+import com.tle.core.guice.Bind;
+import com.tle.core.institution.convert.AbstractConverter;
+import com.tle.core.institution.convert.ConverterParams;
+import com.tle.core.workflow.dao.TaskHistoryDao;
+import java.io.IOException;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Task waiting counts aren't exported, they are rebuilt from the task history as items are
+ * imported. They are removed before the workflows when an institution is deleted.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class TaskWaitingCountConverter extends AbstractConverter<Object> {
+  @Inject private TaskHistoryDao taskHistoryDao;
+
+  @Override
+  public void doDelete(Institution institution, ConverterParams callback) {
+    taskHistoryDao.deleteWaitingCounts(institution);
+  }
+
+  @Override
+  public void doImport(TemporaryFileHandle staging, Institution institution, ConverterParams params)
+      throws IOException {}
+
+  @Override
+  public void doExport(
+      TemporaryFileHandle staging, Institution institution, ConverterParams callback)
+      throws IOException {}
+
+  @Override
+  public String getStringId() {
+    return "TASKWAITINGCOUNTS";
+  }
+}
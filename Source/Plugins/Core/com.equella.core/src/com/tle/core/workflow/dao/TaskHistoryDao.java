@@ -18,6 +18,7 @@
 
 package com.tle.core.workflow.dao;
 
+import com.tle.beans.Institution;
 import com.tle.beans.TaskHistory;
 import com.tle.beans.item.Item;
 import com.tle.core.hibernate.dao.GenericDao;
@@ -34,4 +35,18 @@ public interface TaskHistoryDao extends GenericDao<TaskHistory, Long> {
   List<TaskTrend> getTaskTrendsForWorkflows(Collection<String> uuid, Date date);
 
   List<TaskHistory> getAllTasksForItem(Item item);
+
+  /** Adds delta to the number of items waiting at the task once the transaction commits. */
+  void adjustWaitingCount(long taskId, int delta);
+
+  /** Removes the waiting counts of every task in the institution's workflows. */
+  void deleteWaitingCounts(Institution institution);
+
+  /**
+   * Recounts the items waiting at each task in the current institution and corrects any waiting
+   * counts that have drifted.
+   *
+   * @return the number of tasks that had to be corrected
+   */
+  int reconcileWaitingCounts();
 }
@@ -20,7 +20,9 @@ package com.tle.core.workflow.dao.impl;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.tle.beans.Institution;
 import com.tle.beans.TaskHistory;
+import com.tle.beans.TaskWaitingCount;
 import com.tle.beans.item.Item;
 import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.workflow.node.WorkflowItem;
@@ -41,12 +43,16 @@ import java.util.Map;
 import java.util.Set;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import org.hibernate.LockMode;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.orm.hibernate5.HibernateCallback;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Bind(TaskHistoryDao.class)
 @Singleton
@@ -55,6 +61,8 @@ public class TaskHistoryDaoImpl extends GenericDaoImpl<TaskHistory, Long>
     implements TaskHistoryDao, ItemDaoExtension, WorkflowChangeListener {
   @Inject private WorkflowDao workflowDao;
 
+  private final Object pendingDeltasKey = new Object();
+
   public TaskHistoryDaoImpl() {
     super(TaskHistory.class);
   }
@@ -62,6 +70,7 @@ public class TaskHistoryDaoImpl extends GenericDaoImpl<TaskHistory, Long>
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
   public void exitAllTasksForItem(final Item item, final Date end) {
+    final List<Long> openTasks = getOpenTaskIds(item);
     getHibernateTemplate()
         .execute(
             new HibernateCallback() {
@@ -76,6 +85,9 @@ public class TaskHistoryDaoImpl extends GenericDaoImpl<TaskHistory, Long>
                 return query.executeUpdate();
               }
             });
+    for (Long taskId : openTasks) {
+      adjustWaitingCount(taskId, -1);
+    }
   }
 
   @Override
@@ -84,12 +96,16 @@ public class TaskHistoryDaoImpl extends GenericDaoImpl<TaskHistory, Long>
     List<WorkflowItem> incompleteTasks = workflowDao.getIncompleteTasks(item);
     for (WorkflowItem task : incompleteTasks) {
       save(new TaskHistory(item, task, new Date(), null));
+      adjustWaitingCount(task.getId(), 1);
     }
   }
 
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
   public void delete(final Item item) {
+    for (Long taskId : getOpenTaskIds(item)) {
+      adjustWaitingCount(taskId, -1);
+    }
     getHibernateTemplate()
         .execute(
             new HibernateCallback() {
@@ -120,9 +136,9 @@ public class TaskHistoryDaoImpl extends GenericDaoImpl<TaskHistory, Long>
                       public Object doInHibernate(final Session session) {
                         final Query query =
                             session.createQuery(
-                                "SELECT wi.id, wi.name.id, count(*) FROM TaskHistory th JOIN th.task wi "
-                                    + "WHERE wi.workflow.institution = :inst and wi.id = th.task.id AND wi.workflow.uuid in (:uuids) AND th.exitDate IS NULL "
-                                    + "GROUP BY wi.id, wi.name.id ORDER BY count(*) DESC");
+                                "SELECT wi.id, wi.name.id, twc.waiting FROM TaskWaitingCount twc, WorkflowItem wi "
+                                    + "WHERE wi.id = twc.taskId AND wi.workflow.institution = :inst AND wi.workflow.uuid in (:uuids) AND twc.waiting > 0 "
+                                    + "ORDER BY twc.waiting DESC");
                         query.setParameter("inst", CurrentInstitution.get());
                         query.setParameterList("uuids", uuids);
                         return query.setMaxResults(5).list();
@@ -175,6 +191,201 @@ public class TaskHistoryDaoImpl extends GenericDaoImpl<TaskHistory, Long>
     return findAllByCriteria(Restrictions.eq("item.id", item.getId()));
   }
 
+  /**
+   * The deltas are collected for the transaction and applied just before it commits, in task
+   * order. Count rows are then only locked for the end of the transaction, and transactions
+   * touching the same tasks (such as the parallel batches of a bulk operation) lock them in the
+   * same order rather than deadlocking on each other.
+   */
+  @Override
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void adjustWaitingCount(final long taskId, final int delta) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      applyWaitingCount(taskId, delta);
+      return;
+    }
+    @SuppressWarnings("unchecked")
+    Map<Long, Integer> deltas =
+        (Map<Long, Integer>) TransactionSynchronizationManager.getResource(pendingDeltasKey);
+    if (deltas == null) {
+      final Map<Long, Integer> pending = Maps.newTreeMap();
+      deltas = pending;
+      TransactionSynchronizationManager.bindResource(pendingDeltasKey, pending);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+              TransactionSynchronizationManager.unbindResource(pendingDeltasKey);
+              for (Map.Entry<Long, Integer> entry : pending.entrySet()) {
+                if (entry.getValue() != 0) {
+                  applyWaitingCount(entry.getKey(), entry.getValue());
+                }
+              }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+              TransactionSynchronizationManager.unbindResourceIfPossible(pendingDeltasKey);
+            }
+          });
+    }
+    Integer current = deltas.get(taskId);
+    deltas.put(taskId, current == null ? delta : current + delta);
+  }
+
+  private void applyWaitingCount(long taskId, int delta) {
+    // A missing count going down is left for the reconciliation to sort out
+    if (updateWaitingCount(taskId, delta) == 0 && delta > 0) {
+      ensureWaitingCount(taskId);
+      updateWaitingCount(taskId, delta);
+    }
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void deleteWaitingCounts(final Institution institution) {
+    getHibernateTemplate()
+        .execute(
+            new HibernateCallback() {
+              @Override
+              public Object doInHibernate(Session session) {
+                return session
+                    .createQuery(
+                        "DELETE FROM TaskWaitingCount twc WHERE twc.taskId in "
+                            + "(select wn.id from Workflow w join w.nodes as wn "
+                            + "where w.institution = :inst)")
+                    .setParameter("inst", institution)
+                    .executeUpdate();
+              }
+            });
+  }
+
+  protected int updateWaitingCount(final long taskId, final long delta) {
+    return (Integer)
+        getHibernateTemplate()
+            .execute(
+                new HibernateCallback() {
+                  @Override
+                  public Object doInHibernate(Session session) {
+                    return session
+                        .createQuery(
+                            "UPDATE TaskWaitingCount SET waiting = waiting + :delta WHERE taskId = :task")
+                        .setParameter("delta", delta)
+                        .setParameter("task", taskId)
+                        .executeUpdate();
+                  }
+                });
+  }
+
+  /**
+   * Two items entering a task that has no count yet would both find nothing to update and both
+   * insert one. The count is instead created empty in a transaction of its own, so whichever comes
+   * second fails on the primary key and both then add to the same row.
+   */
+  private void ensureWaitingCount(long taskId) {
+    try {
+      createWaitingCount(taskId);
+    } catch (DataIntegrityViolationException e) {
+      // Another transaction created it first
+    }
+  }
+
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  protected void createWaitingCount(final long taskId) {
+    getHibernateTemplate()
+        .execute(
+            new HibernateCallback() {
+              @Override
+              public Object doInHibernate(Session session) {
+                session.save(new TaskWaitingCount(taskId, 0));
+                session.flush();
+                return null;
+              }
+            });
+  }
+
+  /**
+   * Corrections are made under the locks of the count rows, taken in task order like the deltas,
+   * and before the task history is counted. Transactions that have adjusted a count have committed
+   * their history by then, and the rest wait for the correction before adding their deltas on top.
+   */
+  @Override
+  @Transactional
+  @SuppressWarnings("unchecked")
+  public int reconcileWaitingCounts() {
+    return (Integer)
+        getHibernateTemplate()
+            .execute(
+                new HibernateCallback() {
+                  @Override
+                  public Object doInHibernate(Session session) {
+                    final Institution inst = CurrentInstitution.get();
+                    for (Long taskId :
+                        (List<Long>)
+                            session
+                                .createQuery(
+                                    "SELECT DISTINCT wi.id FROM TaskHistory th JOIN th.task wi "
+                                        + "WHERE wi.workflow.institution = :inst AND th.exitDate IS NULL "
+                                        + "AND wi.id NOT IN (SELECT twc.taskId FROM TaskWaitingCount twc)")
+                                .setParameter("inst", inst)
+                                .list()) {
+                      ensureWaitingCount(taskId);
+                    }
+
+                    final List<TaskWaitingCount> counts =
+                        session
+                            .createQuery(
+                                "SELECT twc FROM TaskWaitingCount twc, WorkflowItem wi "
+                                    + "WHERE wi.id = twc.taskId AND wi.workflow.institution = :inst "
+                                    + "ORDER BY twc.taskId")
+                            .setParameter("inst", inst)
+                            .setLockMode("twc", LockMode.PESSIMISTIC_WRITE)
+                            .list();
+
+                    final Map<Long, Long> actual = Maps.newHashMap();
+                    for (Object[] row :
+                        (List<Object[]>)
+                            session
+                                .createQuery(
+                                    "SELECT wi.id, count(*) FROM TaskHistory th JOIN th.task wi "
+                                        + "WHERE wi.workflow.institution = :inst AND th.exitDate IS NULL "
+                                        + "GROUP BY wi.id")
+                                .setParameter("inst", inst)
+                                .list()) {
+                      actual.put(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+                    }
+
+                    int corrected = 0;
+                    for (TaskWaitingCount count : counts) {
+                      Long waiting = actual.get(count.getTaskId());
+                      long correction = (waiting == null ? 0 : waiting) - count.getWaiting();
+                      if (correction != 0) {
+                        updateWaitingCount(count.getTaskId(), correction);
+                        corrected++;
+                      }
+                    }
+                    return corrected;
+                  }
+                });
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Long> getOpenTaskIds(final Item item) {
+    return (List<Long>)
+        getHibernateTemplate()
+            .execute(
+                new HibernateCallback() {
+                  @Override
+                  public Object doInHibernate(Session session) {
+                    return session
+                        .createQuery(
+                            "SELECT th.task.id FROM TaskHistory th WHERE th.item = :item AND th.exitDate IS NULL")
+                        .setParameter("item", item)
+                        .list();
+                  }
+                });
+  }
+
   @Override
   public void workflowChange(WorkflowChangeEvent event) {
     if (event.isDelete()) {
@@ -186,6 +397,12 @@ public class TaskHistoryDaoImpl extends GenericDaoImpl<TaskHistory, Long>
                 new HibernateCallback() {
                   @Override
                   public Object doInHibernate(Session session) {
+                    session
+                        .createQuery(
+                            "DELETE FROM TaskWaitingCount twc WHERE twc.taskId in "
+                                + "(select wn.id from Workflow w join w.nodes as wn where w.id = :workflow)")
+                        .setParameter("workflow", workflowId)
+                        .executeUpdate();
                     Query query =
                         session.createQuery(
                             "DELETE FROM TaskHistory th WHERE th.task in "
@@ -200,6 +417,14 @@ public class TaskHistoryDaoImpl extends GenericDaoImpl<TaskHistory, Long>
                 new HibernateCallback() {
                   @Override
                   public Object doInHibernate(Session session) {
+                    List<Long> nodeIds = Lists.newArrayList();
+                    for (WorkflowNode node : nodes) {
+                      nodeIds.add(node.getId());
+                    }
+                    session
+                        .createQuery("DELETE FROM TaskWaitingCount twc WHERE twc.taskId in (:nodes)")
+                        .setParameterList("nodes", nodeIds)
+                        .executeUpdate();
                     Query query =
                         session.createQuery("DELETE FROM TaskHistory th WHERE th.task in (:nodes)");
                     query.setParameterList("nodes", nodes);
@@ -18,17 +18,29 @@
 
 package com.tle.core.workflow.freetext;
 
-import com.tle.common.Check;
 import java.io.IOException;
+import java.util.Arrays;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldCache.StringIndex;
 import org.apache.lucene.search.FieldComparator;
 
+/**
+ * Sorts tasks assigned to the current user first, then unassigned tasks, then tasks assigned to
+ * anyone else. The user is looked up once per segment in the segment's sorted term list, so
+ * collecting a document only compares its term ordinal. The ordinals come from the {@link
+ * FieldCache}, which keeps them for each segment across searches.
+ */
 public final class CustomLuceneSortComparator extends FieldComparator<Integer> {
+  private static final int CURRENT_USER = 0;
+  private static final int UNASSIGNED = 1;
+  private static final int OTHER_USER = 2;
 
   private final String userId;
   private int[] values;
-  private String[] currentReaderValues;
+  private int[] currentReaderOrds;
+  private int userOrd;
+  private int emptyOrd;
   private final String field;
   private int bottom;
 
@@ -45,24 +57,38 @@ public final class CustomLuceneSortComparator extends FieldComparator<Integer> {
     return val1 - val2;
   }
 
-  public int isCurrentUser(String userId) {
-    return this.userId.equals(userId) ? 0 : Check.isEmpty(userId) ? 1 : 2;
+  private int valueForOrd(int ord) {
+    if (ord == userOrd) {
+      return CURRENT_USER;
+    }
+    // Ordinal 0 is for documents without a value
+    return ord == 0 || ord == emptyOrd ? UNASSIGNED : OTHER_USER;
   }
 
   @Override
   public int compareBottom(int doc) {
-    final int val2 = isCurrentUser(currentReaderValues[doc]);
+    final int val2 = valueForOrd(currentReaderOrds[doc]);
     return bottom - val2;
   }
 
   @Override
   public void copy(int slot, int doc) {
-    values[slot] = isCurrentUser(currentReaderValues[doc]);
+    values[slot] = valueForOrd(currentReaderOrds[doc]);
   }
 
   @Override
   public void setNextReader(IndexReader reader, int docBase) throws IOException {
-    currentReaderValues = FieldCache.DEFAULT.getStrings(reader, field);
+    final StringIndex index = FieldCache.DEFAULT.getStringIndex(reader, field);
+    currentReaderOrds = index.order;
+    userOrd = findOrd(index.lookup, userId);
+    emptyOrd = findOrd(index.lookup, "");
+  }
+
+  /** @return the ordinal of the term in this segment, or -1 if no document has it */
+  private static int findOrd(String[] lookup, String term) {
+    // lookup[0] is null for documents without a value, the rest are sorted
+    final int ord = Arrays.binarySearch(lookup, 1, lookup.length, term);
+    return ord > 0 ? ord : -1;
   }
 
   @Override
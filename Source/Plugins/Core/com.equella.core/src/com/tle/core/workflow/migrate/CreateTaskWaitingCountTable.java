@@ -0,0 +1,86 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.workflow.migrate;
+
+import com.tle.core.guice.Bind;
+import com.tle.core.hibernate.impl.HibernateMigrationHelper;
+import com.tle.core.hibernate.impl.TablesOnlyFilter;
+import com.tle.core.migration.AbstractHibernateSchemaMigration;
+import com.tle.core.migration.MigrationInfo;
+import com.tle.core.migration.MigrationResult;
+import java.util.Collections;
+import java.util.List;
+import javax.inject.Singleton;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.hibernate.Session;
+import org.hibernate.annotations.AccessType;
+
+/** Creates the task waiting counts and fills them in from the open task history. */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class CreateTaskWaitingCountTable extends AbstractHibernateSchemaMigration {
+  private static final String TABLE_NAME = "task_waiting_count";
+
+  @Override
+  public MigrationInfo createMigrationInfo() {
+    return new MigrationInfo("com.tle.core.entity.services.migration.v20211.taskwaitingcount");
+  }
+
+  @Override
+  protected void executeDataMigration(
+      HibernateMigrationHelper helper, MigrationResult result, Session session) {
+    session
+        .createSQLQuery(
+            "INSERT INTO task_waiting_count (task_id, waiting) "
+                + "SELECT task_id, COUNT(*) FROM task_history WHERE exit_date IS NULL "
+                + "GROUP BY task_id")
+        .executeUpdate();
+    result.incrementStatus();
+  }
+
+  @Override
+  protected int countDataMigrations(HibernateMigrationHelper helper, Session session) {
+    return 1;
+  }
+
+  @Override
+  protected List<String> getDropModifySql(HibernateMigrationHelper helper) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  protected List<String> getAddSql(HibernateMigrationHelper helper) {
+    return helper.getCreationSql(new TablesOnlyFilter(TABLE_NAME));
+  }
+
+  @Override
+  protected Class<?>[] getDomainClasses() {
+    return new Class<?>[] {FakeTaskWaitingCount.class};
+  }
+
+  @Entity(name = "TaskWaitingCount")
+  @AccessType("field")
+  public static class FakeTaskWaitingCount {
+    @Id long taskId;
+
+    long waiting;
+  }
+}
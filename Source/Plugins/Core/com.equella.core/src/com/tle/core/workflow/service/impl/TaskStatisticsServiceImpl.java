@@ -63,6 +63,7 @@ public class TaskStatisticsServiceImpl implements TaskStatisticsService {
               + task.getId());
     }
     taskHistoryDao.save(new TaskHistory(item, task, entry, null));
+    taskHistoryDao.adjustWaitingCount(task.getId(), 1);
   }
 
   @Override
@@ -75,6 +76,7 @@ public class TaskStatisticsServiceImpl implements TaskStatisticsService {
             Restrictions.isNull("exitDate"));
     th.setExitDate(exit);
     taskHistoryDao.update(th);
+    taskHistoryDao.adjustWaitingCount(task.getId(), -1);
   }
 
   @Override
@@ -0,0 +1,47 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.workflow.task;
+
+import com.tle.core.guice.Bind;
+import com.tle.core.scheduler.ScheduledTask;
+import com.tle.core.workflow.dao.TaskHistoryDao;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.apache.log4j.Logger;
+
+/**
+ * The waiting counts behind the task trend portlets are adjusted as items enter and leave tasks.
+ * This recounts them from the task history in case anything has slipped through.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class ReconcileTaskWaitingCountsTask implements ScheduledTask {
+  private static final Logger LOGGER = Logger.getLogger(ReconcileTaskWaitingCountsTask.class);
+
+  @Inject private TaskHistoryDao taskHistoryDao;
+
+  @Override
+  public void execute() {
+    int corrected = taskHistoryDao.reconcileWaitingCounts();
+    if (corrected > 0) {
+      LOGGER.info("Corrected the waiting count of " + corrected + " workflow tasks");
+    }
+  }
+}
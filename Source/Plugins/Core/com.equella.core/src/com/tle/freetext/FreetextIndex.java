@@ -62,6 +62,10 @@ public interface FreetextIndex {
   <T extends FreetextResult> SearchResults<T> search(
       Search searchReq, int start, int count, boolean searchAttachments);
 
+  /** @see ItemIndex#searchAfter(Search, String, int, boolean) */
+  <T extends FreetextResult> SearchResults<T> searchAfter(
+      Search searchReq, String afterId, int count, boolean searchAttachments);
+
   LongSet searchBitSet(Search searchReq);
 
   int count(Search searchReq);
@@ -69,6 +73,9 @@ public interface FreetextIndex {
   /** @return Collection of value/count pairs */
   Multimap<String, Pair<String, Integer>> facetCount(Search search, Collection<String> fields);
 
+  /** @see ItemIndex#getSearcherVersion() */
+  long getIndexVersion();
+
   MatrixResults matrixSearch(
       Search searchRequest, List<String> fields, boolean countOnly, boolean searchAttachments);
 
@@ -174,6 +174,22 @@ public class FreetextIndexImpl
     }
   }
 
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T extends FreetextResult> SearchResults<T> searchAfter(
+      Search searchReq, String afterId, int count, boolean searchAttachments) {
+    try {
+      return (SearchResults<T>)
+          getIndexer(searchReq.getSearchType())
+              .searchAfter(searchReq, afterId, count, searchAttachments);
+    } catch (SearchingException ex) {
+      if (!ex.isLogged()) {
+        LOGGER.error(ex);
+      }
+      throw ex;
+    }
+  }
+
   @Override
   public LongSet searchBitSet(Search searchReq) {
     try {
@@ -246,6 +262,11 @@ public class FreetextIndexImpl
     return getIndexer(Search.INDEX_ITEM).facetCount(search, fields);
   }
 
+  @Override
+  public long getIndexVersion() {
+    return getIndexer(Search.INDEX_ITEM).getSearcherVersion();
+  }
+
   @Override
   public MatrixResults matrixSearch(
       Search search, List<String> fields, boolean countOnly, boolean searchAttachments) {
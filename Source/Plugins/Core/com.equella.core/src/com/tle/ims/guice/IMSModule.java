@@ -16,22 +16,14 @@
  * limitations under the License.
  */
 
-package com.tle.core.notification.dao;
+package com.tle.ims.guice;
 
-public class NotifiedUser {
-  private final String user;
-  private final long instId;
+import com.tle.core.config.guice.OptionalConfigModule;
 
-  public NotifiedUser(String user, long instId) {
-    this.user = user;
-    this.instId = instId;
-  }
-
-  public String getUser() {
-    return user;
-  }
-
-  public long getInstId() {
-    return instId;
+@SuppressWarnings("nls")
+public class IMSModule extends OptionalConfigModule {
+  @Override
+  protected void configure() {
+    bindInt("ims.manifestCacheMegabytes", 32);
   }
 }
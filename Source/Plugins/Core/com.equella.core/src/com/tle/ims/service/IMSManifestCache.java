@@ -0,0 +1,176 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.ims.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.tle.annotation.Nullable;
+import com.tle.beans.item.attachments.ItemNavigationNode;
+import com.tle.core.filesystem.event.FilesCommittedEvent;
+import com.tle.core.filesystem.event.listener.FilesCommittedListener;
+import com.tle.core.guice.Bind;
+import com.tle.core.services.FileSystemService;
+import com.tle.core.util.ims.beans.IMSManifest;
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Keeps what has been read from combined IMS manifests, so viewing a package doesn't parse its
+ * manifest and build its navigation tree on every request. Entries are keyed by the manifest file
+ * and are only used while the file's last modified time and length are unchanged. Everything under
+ * a file handle is dropped when new files are committed to it.
+ *
+ * <p>The cache is bounded by {@code ims.manifestCacheMegabytes}, with the size of each manifest
+ * file standing in for the memory used by what is read from it.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class IMSManifestCache implements FilesCommittedListener {
+  @Inject private FileSystemService fileSystemService;
+
+  @Nullable private final Cache<String, CachedManifest> cache;
+
+  @Inject
+  public IMSManifestCache(@Named("ims.manifestCacheMegabytes") int cacheMegabytes) {
+    if (cacheMegabytes > 0) {
+      cache =
+          CacheBuilder.newBuilder()
+              .maximumWeight(cacheMegabytes * 1024L * 1024L)
+              .weigher(
+                  new Weigher<String, CachedManifest>() {
+                    @Override
+                    public int weigh(String key, CachedManifest value) {
+                      return (int) Math.min(Integer.MAX_VALUE, key.length() + value.length);
+                    }
+                  })
+              .build();
+    } else {
+      cache = null;
+    }
+  }
+
+  /**
+   * @param manifest the combined manifest file, which must exist
+   * @return the entry for the manifest as it is now. It will be empty if the manifest has changed
+   *     or hasn't been read before.
+   */
+  CachedManifest get(File manifest) {
+    final long lastModified = manifest.lastModified();
+    final long length = manifest.length();
+    if (cache == null) {
+      return new CachedManifest(lastModified, length);
+    }
+
+    final String key = manifest.getAbsolutePath();
+    CachedManifest cached = cache.getIfPresent(key);
+    if (cached == null || cached.lastModified != lastModified || cached.length != length) {
+      cached = new CachedManifest(lastModified, length);
+      cache.put(key, cached);
+    }
+    return cached;
+  }
+
+  /** Drops the entries for every manifest in or below the given folder. */
+  void invalidate(File folder) {
+    if (cache == null) {
+      return;
+    }
+    final String path = folder.getAbsolutePath();
+    final String prefix = path.endsWith(File.separator) ? path : path + File.separator;
+    Iterator<String> keys = cache.asMap().keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().startsWith(prefix)) {
+        keys.remove();
+      }
+    }
+  }
+
+  @Override
+  public void filesCommitted(FilesCommittedEvent event) {
+    invalidate(fileSystemService.getExternalFile(event.getDestination(), null));
+  }
+
+  /**
+   * What has been read from one version of a manifest. The values are filled in as they are
+   * needed, and are shared between everyone viewing the package, so must not be modified.
+   */
+  static class CachedManifest {
+    private final long lastModified;
+    private final long length;
+
+    private volatile IMSManifest manifest;
+    private volatile String title;
+    private volatile String scormVersion;
+    private final Map<String, List<ItemNavigationNode>> navigationNodes =
+        new ConcurrentHashMap<String, List<ItemNavigationNode>>();
+
+    CachedManifest(long lastModified, long length) {
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+
+    @Nullable
+    IMSManifest getManifest() {
+      return manifest;
+    }
+
+    void setManifest(IMSManifest manifest) {
+      this.manifest = manifest;
+    }
+
+    @Nullable
+    String getTitle() {
+      return title;
+    }
+
+    void setTitle(String title) {
+      this.title = title;
+    }
+
+    @Nullable
+    String getScormVersion() {
+      return scormVersion;
+    }
+
+    void setScormVersion(String scormVersion) {
+      this.scormVersion = scormVersion;
+    }
+
+    @Nullable
+    List<ItemNavigationNode> getNavigationNodes(boolean scorm, boolean expand) {
+      return navigationNodes.get(treeKey(scorm, expand));
+    }
+
+    void setNavigationNodes(boolean scorm, boolean expand, List<ItemNavigationNode> nodes) {
+      navigationNodes.put(treeKey(scorm, expand), nodes);
+    }
+
+    private static String treeKey(boolean scorm, boolean expand) {
+      return (scorm ? "scorm" : "ims") + (expand ? "-expanded" : "");
+    }
+  }
+}
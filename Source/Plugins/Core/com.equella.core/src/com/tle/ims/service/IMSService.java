@@ -19,10 +19,12 @@
 package com.tle.ims.service;
 
 import com.tle.annotation.Nullable;
+import com.tle.beans.item.attachments.ItemNavigationNode;
 import com.tle.common.filesystem.handle.FileHandle;
 import com.tle.core.util.ims.beans.IMSManifest;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 public interface IMSService {
   String getScormVersion(FileHandle stagingHandle, String pagename);
@@ -61,7 +63,8 @@ public interface IMSService {
   /**
    * Retrieve the IMS manifest for an IMS package as a bean hierarchy. Due to SCORM extensions,
    * manifest may be split up into several files. Using the manifest returned for this method will
-   * guarantee that the manifest is combined into a single entity.
+   * guarantee that the manifest is combined into a single entity. The manifest is cached and may be
+   * shared with other callers, so it must not be modified.
    *
    * @param handle The base directory handle
    * @param packageName the name of the ims package
@@ -69,6 +72,16 @@ public interface IMSService {
   IMSManifest getImsManifest(FileHandle handle, String packageExtractedFolder, boolean logNotFound)
       throws IOException;
 
+  /**
+   * Retrieve the navigation tree built from the IMS manifest of a package. The nodes belong to a
+   * throwaway item, and are cached and shared with other callers, so they must not be modified.
+   *
+   * @param handle The base directory handle
+   * @param packageExtractedFolder the folder of the ims package
+   */
+  List<ItemNavigationNode> getNavigationNodes(
+      FileHandle handle, String packageExtractedFolder, boolean scorm, boolean expand);
+
   /**
    * Retrieve the IMS manifest for an IMS package as a bean hierarchy. Due to SCORM extensions,
    * manifest may be split up into several files. Using the manifest returned for this method will
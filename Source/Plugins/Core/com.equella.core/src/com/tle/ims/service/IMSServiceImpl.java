@@ -21,6 +21,9 @@ package com.tle.ims.service;
 import com.dytech.common.io.UnicodeReader;
 import com.dytech.edge.exceptions.FileSystemException;
 import com.dytech.edge.exceptions.RuntimeApplicationException;
+import com.tle.annotation.Nullable;
+import com.tle.beans.item.Item;
+import com.tle.beans.item.attachments.ItemNavigationNode;
 import com.tle.common.Check;
 import com.tle.common.PathUtils;
 import com.tle.common.filesystem.FileSystemHelper;
@@ -29,9 +32,11 @@ import com.tle.core.guice.Bind;
 import com.tle.core.services.FileSystemService;
 import com.tle.core.services.impl.FileSystemServiceImpl;
 import com.tle.core.util.archive.ArchiveType;
+import com.tle.core.util.ims.IMSNavigationHelper;
 import com.tle.core.util.ims.IMSUtilities;
 import com.tle.core.util.ims.beans.IMSManifest;
 import com.tle.core.xstream.TLEXStream;
+import com.tle.ims.service.IMSManifestCache.CachedManifest;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
@@ -44,6 +49,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
@@ -55,6 +62,8 @@ public class IMSServiceImpl implements IMSService {
   private static final Logger LOGGER = Logger.getLogger(FileSystemServiceImpl.class);
 
   @Inject private FileSystemService fileSystemService;
+  @Inject private IMSManifestCache manifestCache;
+  @Inject private IMSNavigationHelper navHelper;
 
   @Override
   public void ensureIMSPackage(FileHandle handle, String imsPackageName) throws IOException {
@@ -122,15 +131,9 @@ public class IMSServiceImpl implements IMSService {
     File newManifest = ensureCombinedManifest(handle, packageExtractedFolder);
 
     if (newManifest.exists()) {
-      try (FileInputStream finp = new FileInputStream(newManifest)) {
-        return (IMSManifest)
-            getXstream().fromXML(new UnicodeReader(finp, "UTF-8"), IMSManifest.class);
-      } catch (FileNotFoundException e) {
-        LOGGER.error(e);
-        // shouldn't ever happen
-      } catch (Exception e) {
-        LOGGER.error(e);
-        // what
+      IMSManifest manifest = getImsManifest(newManifest, manifestCache.get(newManifest));
+      if (manifest != null) {
+        return manifest;
       }
     }
     if (logNotFound) {
@@ -143,17 +146,85 @@ public class IMSServiceImpl implements IMSService {
     return null;
   }
 
+  @Nullable
+  private IMSManifest getImsManifest(File newManifest, CachedManifest cached) {
+    IMSManifest manifest = cached.getManifest();
+    if (manifest == null) {
+      try (FileInputStream finp = new FileInputStream(newManifest)) {
+        manifest =
+            (IMSManifest)
+                getXstream().fromXML(new UnicodeReader(finp, "UTF-8"), IMSManifest.class);
+      } catch (FileNotFoundException e) {
+        LOGGER.error(e);
+        // shouldn't ever happen
+        return null;
+      } catch (Exception e) {
+        LOGGER.error(e);
+        // what
+        return null;
+      }
+      // The resource maps are built lazily, build them before the manifest is shared
+      buildResourceMaps(manifest);
+      cached.setManifest(manifest);
+    }
+    return manifest;
+  }
+
+  private void buildResourceMaps(IMSManifest manifest) {
+    manifest.getResourceMap();
+    for (IMSManifest subManifest : manifest.getSubManifests()) {
+      buildResourceMaps(subManifest);
+    }
+  }
+
   @Override
   public IMSManifest getImsManifest(InputStream in) {
     return (IMSManifest) getXstream().fromXML(new UnicodeReader(in, "UTF-8"), IMSManifest.class);
   }
 
+  @Override
+  public List<ItemNavigationNode> getNavigationNodes(
+      FileHandle handle, String packageExtractedFolder, boolean scorm, boolean expand) {
+    File newManifest = ensureCombinedManifest(handle, packageExtractedFolder);
+    if (newManifest.exists()) {
+      CachedManifest cached = manifestCache.get(newManifest);
+      List<ItemNavigationNode> nodes = cached.getNavigationNodes(scorm, expand);
+      if (nodes != null) {
+        return nodes;
+      }
+
+      IMSManifest manifest = getImsManifest(newManifest, cached);
+      if (manifest != null) {
+        // The nodes only belong to a throwaway item, and are shared from here on
+        Item item = new Item();
+        navHelper.createTree(manifest, item, handle, packageExtractedFolder, scorm, expand);
+        nodes = Collections.unmodifiableList(item.getTreeNodes());
+        cached.setNavigationNodes(scorm, expand, nodes);
+        return nodes;
+      }
+    }
+
+    LOGGER.info(
+        "Non-existent manifest ("
+            + newManifest.getName()
+            + ") requested for "
+            + handle.getAbsolutePath());
+    throw new RuntimeApplicationException("IMS manifest is invalid, or does not exist");
+  }
+
   @Override
   public String getImsTitle(FileHandle handle, String packageExtractedFolder) {
     File newManifest = ensureCombinedManifest(handle, packageExtractedFolder);
     if (newManifest.exists()) {
+      CachedManifest cached = manifestCache.get(newManifest);
+      String title = cached.getTitle();
+      if (title != null) {
+        return title;
+      }
       try (FileInputStream finp = new FileInputStream(newManifest)) {
-        return IMSUtilities.getTitleFromManifest(new UnicodeReader(finp, "UTF-8"));
+        title = IMSUtilities.getTitleFromManifest(new UnicodeReader(finp, "UTF-8"));
+        cached.setTitle(title);
+        return title;
       } catch (Exception ex) {
         LOGGER.error("Error getting IMS title", ex);
       }
@@ -171,8 +242,15 @@ public class IMSServiceImpl implements IMSService {
   public String getScormVersion(FileHandle handle, String packageExtractedFolder) {
     File newManifest = ensureCombinedManifest(handle, packageExtractedFolder);
     if (newManifest.exists()) {
+      CachedManifest cached = manifestCache.get(newManifest);
+      String scormVersion = cached.getScormVersion();
+      if (scormVersion != null) {
+        return scormVersion;
+      }
       try (FileInputStream finp = new FileInputStream(newManifest)) {
-        return IMSUtilities.getScormVersion(new UnicodeReader(finp, "UTF-8"));
+        scormVersion = IMSUtilities.getScormVersion(new UnicodeReader(finp, "UTF-8"));
+        cached.setScormVersion(scormVersion);
+        return scormVersion;
       } catch (Exception ex) {
         LOGGER.error("Error getting IMS scorm type", ex);
       }
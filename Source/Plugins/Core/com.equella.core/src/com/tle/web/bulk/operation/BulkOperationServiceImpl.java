@@ -199,23 +199,31 @@ public class BulkOperationServiceImpl implements BulkOperationService {
       return false;
     }
 
-    private String getResultName(Item item, ItemPack<Item> pack) {
+    @Override
+    public boolean isBulkSafe() {
+      return true;
+    }
+
+    private String getResultName(ItemKey itemId, Item item, ItemPack<Item> pack) {
       if (pack != null && pack.getAttribute(KEY_ITEM_RESULT_TITLE) != null) {
         return pack.getAttribute(KEY_ITEM_RESULT_TITLE);
-      } else {
+      } else if (item != null) {
         return CurrentLocale.get(item.getName(), item.getUuid());
+      } else {
+        // The whole batch failed before the item could be loaded
+        return itemId.toString();
       }
     }
 
     @Override
     public void succeeded(ItemKey itemId, ItemPack<Item> pack) {
       Item item = pack.getItem();
-      task.addLogEntry(new BulkResult(true, getResultName(item, pack), null));
+      task.addLogEntry(new BulkResult(true, getResultName(itemId, item, pack), null));
     }
 
     @Override
     public void failed(ItemKey itemId, Item item, ItemPack<Item> pack, Throwable e) {
-      task.addLogEntry(new BulkResult(false, getResultName(item, pack), e.getMessage()));
+      task.addLogEntry(new BulkResult(false, getResultName(itemId, item, pack), e.getMessage()));
     }
 
     @Override
@@ -134,6 +134,11 @@ public class ConnectorBulkOperationServiceImpl implements ConnectorBulkOperation
       return false;
     }
 
+    @Override
+    public boolean isBulkSafe() {
+      return true;
+    }
+
     @Override
     public void succeeded(ItemKey itemId, ItemPack pack) {
       ConnectorItemKey itemKey = (ConnectorItemKey) itemId;
@@ -0,0 +1,290 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tle.web.core.filter;
+
+import com.tle.web.stream.ContentEncoding;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Gzips the response if it turns out to be of a compressible type and at least {@code minBytes}
+ * long. The first {@code minBytes} are buffered until that can be decided, which is when the
+ * buffer fills up, the response is flushed or {@link #finish()} is called.
+ *
+ * <p>Responses with an entity tag or byte ranges are left alone, since those identify the
+ * uncompressed bytes. An entity tag set after compression has started is made weak.
+ */
+@SuppressWarnings("nls")
+public class CompressingResponseWrapper extends HttpServletResponseWrapper {
+  private final int minBytes;
+
+  private CompressingOutputStream stream;
+  private PrintWriter writer;
+  private long contentLength = -1;
+  private boolean abandoned;
+
+  public CompressingResponseWrapper(HttpServletResponse response, int minBytes) {
+    super(response);
+    this.minBytes = minBytes;
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null) {
+      throw new IllegalStateException("getWriter() has already been called");
+    }
+    if (stream == null) {
+      stream = new CompressingOutputStream();
+    }
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null) {
+      if (stream != null) {
+        throw new IllegalStateException("getOutputStream() has already been called");
+      }
+      // As the container would, so the charset ends up in the content type
+      String encoding = getCharacterEncoding();
+      setCharacterEncoding(encoding);
+      stream = new CompressingOutputStream();
+      writer = new PrintWriter(new OutputStreamWriter(stream, encoding));
+    }
+    return writer;
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    setContentLengthLong(len);
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    // The length isn't known until it's been decided whether to compress
+    if (stream != null && stream.out != null) {
+      if (!stream.compressing) {
+        super.setContentLengthLong(len);
+      }
+    } else {
+      contentLength = len;
+    }
+  }
+
+  @Override
+  public void setHeader(String name, String value) {
+    if (name.equalsIgnoreCase("Content-Length")) {
+      setContentLengthLong(Long.parseLong(value));
+    } else {
+      super.setHeader(name, compressedValue(name, value));
+    }
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    if (name.equalsIgnoreCase("Content-Length")) {
+      setContentLengthLong(Long.parseLong(value));
+    } else {
+      super.addHeader(name, compressedValue(name, value));
+    }
+  }
+
+  /** The gzipped bytes aren't the ones a strong entity tag would promise. */
+  private String compressedValue(String name, String value) {
+    if (stream != null && stream.compressing && name.equalsIgnoreCase("ETag")) {
+      return value.startsWith("W/") ? value : "W/" + value;
+    }
+    return value;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    }
+    if (stream != null) {
+      stream.flush();
+    }
+    super.flushBuffer();
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    stream = null;
+    writer = null;
+    contentLength = -1;
+  }
+
+  @Override
+  public void resetBuffer() {
+    super.resetBuffer();
+    if (stream != null) {
+      stream.restart();
+    }
+  }
+
+  @Override
+  public void sendError(int sc) throws IOException {
+    abandoned = true;
+    super.sendError(sc);
+  }
+
+  @Override
+  public void sendError(int sc, String msg) throws IOException {
+    abandoned = true;
+    super.sendError(sc, msg);
+  }
+
+  @Override
+  public void sendRedirect(String location) throws IOException {
+    abandoned = true;
+    super.sendRedirect(location);
+  }
+
+  /** Writes out anything still buffered and finishes the compressed stream. */
+  public void finish() throws IOException {
+    if (abandoned) {
+      return;
+    }
+    if (writer != null) {
+      writer.flush();
+    }
+    if (stream != null) {
+      stream.finish();
+    } else if (contentLength >= 0) {
+      super.setContentLengthLong(contentLength);
+    }
+  }
+
+  private boolean shouldCompress() {
+    int status = getStatus();
+    return !isCommitted()
+        && status != SC_NO_CONTENT
+        && status != SC_PARTIAL_CONTENT
+        && status != SC_NOT_MODIFIED
+        && getHeader("Content-Encoding") == null
+        && getHeader("ETag") == null
+        && getHeader("Content-Range") == null
+        && !acceptsRanges()
+        && ContentEncoding.isCompressible(getContentType());
+  }
+
+  private boolean acceptsRanges() {
+    String ranges = getHeader("Accept-Ranges");
+    return ranges != null && !ranges.trim().equalsIgnoreCase("none");
+  }
+
+  private class CompressingOutputStream extends ServletOutputStream {
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    /** Where the output goes once it has been decided whether to compress */
+    OutputStream out;
+
+    boolean compressing;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (out == null) {
+        buffer.write(b, off, len);
+        if (buffer.size() >= minBytes) {
+          start(shouldCompress());
+        }
+      } else {
+        out.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out == null) {
+        // Too late to wait for more
+        start(false);
+      }
+      out.flush();
+    }
+
+    void finish() throws IOException {
+      if (out == null) {
+        start(false);
+      }
+      if (compressing) {
+        ((GZIPOutputStream) out).finish();
+      }
+      out.flush();
+    }
+
+    void restart() {
+      if (compressing) {
+        // The headers are still there, so carry on compressing from scratch
+        try {
+          out = new GZIPOutputStream(getResponse().getOutputStream(), true);
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      } else {
+        buffer = new ByteArrayOutputStream();
+        out = null;
+      }
+    }
+
+    private void start(boolean compress) throws IOException {
+      ServletOutputStream raw = getResponse().getOutputStream();
+      if (ContentEncoding.isCompressible(getContentType())) {
+        addHeader("Vary", "Accept-Encoding");
+      }
+      if (compress) {
+        setHeader("Content-Encoding", ContentEncoding.GZIP);
+        out = new GZIPOutputStream(raw, true);
+        compressing = true;
+      } else {
+        if (contentLength >= 0) {
+          CompressingResponseWrapper.super.setContentLengthLong(contentLength);
+        }
+        out = raw;
+      }
+      buffer.writeTo(out);
+      buffer = null;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      throw new UnsupportedOperationException(
+          "Compressed responses can't be written asynchronously");
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tle.web.core.filter;
+
+import com.google.inject.Inject;
+import com.tle.core.guice.Bind;
+import com.tle.web.dispatcher.FilterResult;
+import com.tle.web.dispatcher.WebFilterCallback;
+import com.tle.web.stream.ContentEncoding;
+import java.io.IOException;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.log4j.Logger;
+
+/**
+ * Gzips dynamic responses, such as HTML pages and JSON, for clients that accept it. Plugin
+ * resources are compressed ahead of time by the resources servlet rather than here. Range requests
+ * are passed through, since the range is of the uncompressed content.
+ */
+@Bind
+@Singleton
+public class CompressionFilter extends OncePerRequestFilter {
+  private static final Logger LOGGER = Logger.getLogger(CompressionFilter.class);
+
+  @Inject(optional = true)
+  @Named("web.compression.minBytes")
+  private int minBytes = 1024;
+
+  @SuppressWarnings("nls")
+  @Override
+  protected FilterResult doFilterInternal(HttpServletRequest request, HttpServletResponse response)
+      throws ServletException, IOException {
+    if (minBytes < 0
+        || request.getMethod().equals("HEAD")
+        || request.getHeader("Range") != null
+        || !ContentEncoding.acceptsGzip(request)) {
+      return FilterResult.FILTER_CONTINUE;
+    }
+
+    final CompressingResponseWrapper compressing =
+        new CompressingResponseWrapper(response, minBytes);
+    FilterResult result = new FilterResult(compressing);
+    result.setCallback(
+        new WebFilterCallback() {
+          @Override
+          public void afterServlet(HttpServletRequest request, HttpServletResponse response) {
+            try {
+              compressing.finish();
+            } catch (IOException e) {
+              LOGGER.debug("Error finishing compressed response", e);
+            }
+          }
+        });
+    return result;
+  }
+}
@@ -20,9 +20,12 @@ package com.tle.web.core.guice;
 
 import com.tle.core.config.guice.OptionalConfigModule;
 
+@SuppressWarnings("nls")
 public class WebCoreModule extends OptionalConfigModule {
   @Override
   protected void configure() {
     bindInt("strictTransportSecurity.maxage", -1);
+    bindInt("web.compression.minBytes", 1024);
+    bindInt("web.compression.cacheMegabytes", 64);
   }
 }
@@ -18,8 +18,11 @@
 
 package com.tle.web.resources;
 
+import com.tle.annotation.Nullable;
 import com.tle.common.PathUtils;
+import com.tle.core.equella.runner.TLEPluginLocation;
 import com.tle.core.plugins.PluginService;
+import com.tle.web.stream.ContentEncoding;
 import com.tle.web.stream.ContentStream;
 import com.tle.web.stream.ContentStreamWriter;
 import com.tle.web.stream.FileContentStream;
@@ -27,6 +30,7 @@ import com.tle.web.stream.URLContentStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -41,6 +45,7 @@ public abstract class AbstractResourcesServlet extends HttpServlet {
 
   @Inject private PluginService pluginService;
   @Inject private ContentStreamWriter contentStreamWriter;
+  @Inject private PrecompressedResources precompressedResources;
 
   protected void service(
       HttpServletRequest request,
@@ -54,21 +59,61 @@ public abstract class AbstractResourcesServlet extends HttpServlet {
       resourcePath = resourcePath.substring(1);
     }
 
+    final String pluginId = getPluginId(request);
     final URL res =
-        new URL(
-            pluginService.getClassLoader(getPluginId(request)).getResource(getRootPath()),
-            resourcePath);
+        new URL(pluginService.getClassLoader(pluginId).getResource(getRootPath()), resourcePath);
     final File file = IoUtil.url2file(res);
 
-    ContentStream stream;
-    if (file != null) {
-      stream = new FileContentStream(file, filename, mimeType);
-    } else {
-      stream = new URLContentStream(res, filename, mimeType);
+    ContentStream stream = openStream(res, file, filename, mimeType);
+    if (ContentEncoding.isCompressible(mimeType)) {
+      response.addHeader("Vary", "Accept-Encoding");
+      if (ContentEncoding.acceptsGzip(request) && stream.exists()) {
+        ContentStream gzipped = getGzipped(pluginId, resourcePath, res, file, filename, mimeType);
+        if (gzipped != null) {
+          response.setHeader("Content-Encoding", ContentEncoding.GZIP);
+          stream = gzipped;
+        }
+      }
     }
     contentStreamWriter.outputStream(request, response, stream, isCalculateETag);
   }
 
+  @Nullable
+  private ContentStream getGzipped(
+      String pluginId,
+      String resourcePath,
+      final URL res,
+      @Nullable final File file,
+      final String filename,
+      final String mimeType) {
+    // Plugins are only replaced by upgrades, which change their version. Unpacked plugins
+    // (i.e. in development) can change at any time.
+    TLEPluginLocation location = pluginService.getPluginIdToLocation().get(pluginId);
+    String key =
+        pluginId
+            + '@'
+            + (location != null ? location.getVersion() : 0)
+            + '/'
+            + resourcePath
+            + (file != null ? "@" + file.lastModified() : "");
+    return precompressedResources.getGzipped(
+        key,
+        new Callable<ContentStream>() {
+          @Override
+          public ContentStream call() throws IOException {
+            return openStream(res, file, filename, mimeType);
+          }
+        });
+  }
+
+  private ContentStream openStream(
+      URL res, @Nullable File file, String filename, String mimeType) throws IOException {
+    if (file != null) {
+      return new FileContentStream(file, filename, mimeType);
+    }
+    return new URLContentStream(res, filename, mimeType);
+  }
+
   public abstract String getRootPath();
 
   public abstract String getPluginId(HttpServletRequest request);
@@ -0,0 +1,123 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tle.web.resources;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.io.ByteStreams;
+import com.tle.annotation.Nullable;
+import com.tle.core.guice.Bind;
+import com.tle.web.stream.ContentStream;
+import com.tle.web.stream.GzippedContentStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps gzipped copies of plugin resources in memory, so each resource is only compressed once
+ * per plugin version rather than on every request. Resources which don't compress well are
+ * remembered as such and served as they are.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class PrecompressedResources {
+  private static final Logger LOGGER = Logger.getLogger(PrecompressedResources.class);
+
+  /** Don't bother with the gzipped copy unless it saves at least this fraction of the size */
+  private static final double MIN_SAVING = 0.1;
+
+  private static final byte[] INCOMPRESSIBLE = new byte[0];
+
+  @Nullable private final Cache<String, byte[]> cache;
+
+  @Inject
+  public PrecompressedResources(@Named("web.compression.cacheMegabytes") int cacheMegabytes) {
+    if (cacheMegabytes > 0) {
+      cache =
+          CacheBuilder.newBuilder()
+              .maximumWeight(cacheMegabytes * 1024L * 1024L)
+              .weigher(
+                  new Weigher<String, byte[]>() {
+                    @Override
+                    public int weigh(String key, byte[] value) {
+                      return key.length() + value.length;
+                    }
+                  })
+              .build();
+    } else {
+      cache = null;
+    }
+  }
+
+  /**
+   * @param key identifies the resource and its version
+   * @param source opens the resource, for its details and to compress it if it hasn't been already
+   * @return the gzipped resource, or null if it isn't worth sending compressed
+   */
+  @Nullable
+  public ContentStream getGzipped(String key, final Callable<ContentStream> source) {
+    if (cache == null) {
+      return null;
+    }
+    try {
+      byte[] gzipped =
+          cache.get(
+              key,
+              new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                  return gzip(source.call());
+                }
+              });
+      if (gzipped == INCOMPRESSIBLE) {
+        return null;
+      }
+      return new GzippedContentStream(source.call(), gzipped);
+    } catch (ExecutionException e) {
+      LOGGER.warn("Error compressing " + key, e.getCause());
+      return null;
+    } catch (Exception e) {
+      LOGGER.warn("Error opening " + key, e);
+      return null;
+    }
+  }
+
+  private static byte[] gzip(ContentStream stream) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    long length;
+    try (InputStream in = stream.getInputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      length = ByteStreams.copy(in, out);
+    }
+    if (bytes.size() > length * (1 - MIN_SAVING)) {
+      return INCOMPRESSIBLE;
+    }
+    return bytes.toByteArray();
+  }
+}
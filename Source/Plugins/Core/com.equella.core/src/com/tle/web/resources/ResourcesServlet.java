@@ -23,6 +23,7 @@ import com.google.common.collect.ImmutableMap.Builder;
 import com.tle.common.PathUtils;
 import com.tle.core.guice.Bind;
 import com.tle.core.mimetypes.MimeTypeService;
+import com.tle.core.services.ApplicationVersion;
 import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -52,7 +53,9 @@ public class ResourcesServlet extends AbstractResourcesServlet {
   }
 
   private final String maxAge;
+  private final String immutableMaxAge;
   private final long expires;
+  private final String version = ApplicationVersion.get().getSemanticVersion();
 
   @Inject private MimeTypeService mimeService;
 
@@ -60,6 +63,7 @@ public class ResourcesServlet extends AbstractResourcesServlet {
     long twentyFiveYearsInMillis = TimeUnit.DAYS.toMillis(365) * 25;
 
     maxAge = "max-age=" + TimeUnit.MILLISECONDS.toSeconds(twentyFiveYearsInMillis) + ", public";
+    immutableMaxAge = maxAge + ", immutable";
     expires = System.currentTimeMillis() + twentyFiveYearsInMillis;
   }
 
@@ -77,7 +81,10 @@ public class ResourcesServlet extends AbstractResourcesServlet {
     }
 
     response.setDateHeader("Expires", expires);
-    response.setHeader("Cache-Control", maxAge);
+    // URLs with the current version will never serve anything else, so browsers needn't check
+    // them again even on reload
+    final boolean current = pathInfo.substring(1, ind1).equals(version);
+    response.setHeader("Cache-Control", current ? immutableMaxAge : maxAge);
 
     final String resourcePath =
         PathUtils.relativeUrlPath("", pathInfo.substring(ind2 + 1)).substring(1);
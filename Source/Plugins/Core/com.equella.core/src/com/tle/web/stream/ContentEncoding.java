@@ -0,0 +1,98 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tle.web.stream;
+
+import com.google.common.collect.ImmutableSet;
+import com.tle.annotation.Nullable;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+
+/** Helpers for negotiating a compressed {@code Content-Encoding} with the client. */
+@SuppressWarnings("nls")
+public final class ContentEncoding {
+  public static final String GZIP = "gzip";
+
+  private static final Set<String> COMPRESSIBLE =
+      ImmutableSet.of(
+          "text/html",
+          "text/css",
+          "text/plain",
+          "text/xml",
+          "text/javascript",
+          "application/javascript",
+          "application/x-javascript",
+          "application/json",
+          "application/xml",
+          "application/xhtml+xml",
+          "image/svg+xml");
+
+  /**
+   * Whether the client will take a gzipped response, going by the q-values in its {@code
+   * Accept-Encoding} headers. An explicit {@code gzip} entry takes precedence over {@code *}.
+   */
+  public static boolean acceptsGzip(HttpServletRequest request) {
+    Float gzip = null;
+    Float any = null;
+    for (String header : Collections.list(request.getHeaders("Accept-Encoding"))) {
+      for (String coding : header.split(",")) {
+        String[] params = coding.split(";");
+        String name = params[0].trim().toLowerCase(Locale.ENGLISH);
+        float q = quality(params);
+        if (name.equals(GZIP) || name.equals("x-gzip")) {
+          gzip = q;
+        } else if (name.equals("*")) {
+          any = q;
+        }
+      }
+    }
+    Float q = gzip != null ? gzip : any;
+    return q != null && q > 0;
+  }
+
+  /** Whether content of this type is worth compressing, i.e. it isn't already compressed. */
+  public static boolean isCompressible(@Nullable String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    int semi = contentType.indexOf(';');
+    String mimeType = semi >= 0 ? contentType.substring(0, semi) : contentType;
+    return COMPRESSIBLE.contains(mimeType.trim().toLowerCase(Locale.ENGLISH));
+  }
+
+  private static float quality(String[] params) {
+    for (int i = 1; i < params.length; i++) {
+      String param = params[i].trim();
+      if (param.startsWith("q=")) {
+        try {
+          return Float.parseFloat(param.substring(2));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  private ContentEncoding() {
+    throw new Error();
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tle.web.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Serves a gzipped copy of another stream's content. The response must be sent with a {@code
+ * Content-Encoding: gzip} header.
+ */
+public class GzippedContentStream extends WrappedContentStream {
+  private final byte[] gzipped;
+
+  public GzippedContentStream(ContentStream inner, byte[] gzipped) {
+    super(inner);
+    this.gzipped = gzipped;
+  }
+
+  @Override
+  public long getContentLength() {
+    return gzipped.length;
+  }
+
+  @Override
+  public String calculateETag() {
+    String etag = inner.calculateETag();
+    // The gzipped representation needs its own tag
+    return etag == null ? null : etag + "-gzip"; // $NON-NLS-1$
+  }
+
+  @Override
+  public File getDirectFile() {
+    // Never send the uncompressed file
+    return null;
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return new ByteArrayInputStream(gzipped);
+  }
+
+  @Override
+  public boolean mustWrite() {
+    return false;
+  }
+}
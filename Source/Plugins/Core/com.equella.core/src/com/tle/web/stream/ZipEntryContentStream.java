@@ -0,0 +1,65 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.web.stream;
+
+import com.tle.core.filesystem.zip.ZipIndex;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An entry of a zip file served straight from the archive. Ranges of stored entries are read in
+ * place; there's no file to hand to sendfile, so everything goes through the input stream.
+ */
+public class ZipEntryContentStream extends FileContentStream {
+  private final ZipIndex index;
+  private final ZipIndex.Entry entry;
+
+  public ZipEntryContentStream(
+      ZipIndex index, ZipIndex.Entry entry, String filename, String mimeType) {
+    super(index.getFile(), filename, mimeType);
+    this.index = index;
+    this.entry = entry;
+  }
+
+  @Override
+  public boolean exists() {
+    return index.getFile().exists();
+  }
+
+  @Override
+  public long getContentLength() {
+    return entry.getSize();
+  }
+
+  @Override
+  public String calculateETag() {
+    return Long.toHexString(entry.getCrc()) + '-' + Long.toHexString(entry.getSize());
+  }
+
+  @Override
+  public File getDirectFile() {
+    return null;
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return index.openStream(entry);
+  }
+}
@@ -36,8 +36,6 @@ import com.tle.common.filesystem.handle.FileHandle;
 import com.tle.core.guice.Bind;
 import com.tle.core.institution.InstitutionService;
 import com.tle.core.services.FileSystemService;
-import com.tle.core.util.ims.IMSNavigationHelper;
-import com.tle.core.util.ims.beans.IMSManifest;
 import com.tle.ims.service.IMSService;
 import com.tle.web.ajax.services.ScormAPIHandler;
 import com.tle.web.sections.SectionInfo;
@@ -77,7 +75,6 @@ public class TreeNavigationSection
   @Inject private ScormAPIHandler scormAPIHandler;
   @Inject private ViewItemUrlFactory itemUrls;
   @Inject private IMSService imsService;
-  @Inject private IMSNavigationHelper navHelper;
   @Inject private FileSystemService fileSystem;
   @Inject private InstitutionService institutionService;
 
@@ -136,16 +133,13 @@ public class TreeNavigationSection
     for (IAttachment attachment : attachments) {
       try {
         String packageZip = attachment.getUrl();
-        IMSManifest imsManifest =
-            imsService.getImsManifest(vitem.getFileHandle(), packageZip, true);
-        Item item2 = new Item();
         boolean expand = false;
         if (attachment instanceof ImsAttachment) {
           ImsAttachment imsAttach = (ImsAttachment) attachment;
           expand = imsAttach.isExpand();
         }
-        navHelper.createTree(imsManifest, item2, vitem.getFileHandle(), packageZip, scorm, expand);
-        treeNodes.addAll(item2.getTreeNodes());
+        treeNodes.addAll(
+            imsService.getNavigationNodes(vitem.getFileHandle(), packageZip, scorm, expand));
       } catch (Exception e) {
         throw new SectionsRuntimeException(e);
       }
@@ -395,6 +395,15 @@ public class WebRepository implements LERepository {
     }
   }
 
+  /** Unzips a package, which may leave most of it to be served from the archive. */
+  public FileInfo unzipPackage(String zipfile, String targetFolder) {
+    try {
+      return fsys.unzipPackage(stagingHandle, zipfile, targetFolder);
+    } catch (IOException ex) {
+      throw new RuntimeApplicationException("Error unzipping package", ex);
+    }
+  }
+
   @Override
   public ModifiableAttachments getAttachments() {
     return state.getAttachments();
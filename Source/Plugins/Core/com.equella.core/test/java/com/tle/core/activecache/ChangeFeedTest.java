@@ -0,0 +1,119 @@
+package com.tle.core.activecache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.Sets;
+import com.tle.beans.item.ItemId;
+import com.tle.beans.item.ItemKey;
+import com.tle.core.activecache.ChangeFeed.Changes;
+import com.tle.core.activecache.ChangeFeed.Delta;
+import com.tle.core.activecache.ChangeFeed.WindowQuery;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ChangeFeedTest {
+  private static final long MINUTE = 60 * 1000L;
+  private static final long HOUR = 60 * MINUTE;
+
+  private static final ItemKey A = new ItemId("a", 1);
+  private static final ItemKey B = new ItemId("b", 1);
+  private static final ItemKey C = new ItemId("c", 1);
+
+  private final ChangeFeed feed = new ChangeFeed(MINUTE, 24 * HOUR);
+  private final FakeQuery query = new FakeQuery();
+
+  @Test
+  public void testSharesWindowsBetweenClients() {
+    query.added(A, B);
+    Delta first = feed.changesSince(at(0), at(HOUR), query);
+    assertEquals(Sets.newHashSet(A, B), first.getAdded());
+    assertEquals(at(HOUR), first.getCursor());
+
+    // A second client a few seconds later gets the same answer without a query
+    Delta second = feed.changesSince(at(0), at(HOUR + 5000), query);
+    assertEquals(Sets.newHashSet(A, B), second.getAdded());
+    assertEquals(at(HOUR), second.getCursor());
+    assertEquals(1, query.windows.size());
+  }
+
+  @Test
+  public void testOnlyQueriesSinceLastWindow() {
+    query.added(A);
+    feed.changesSince(at(0), at(HOUR), query);
+
+    query.removed(A);
+    query.added(C);
+    Delta delta = feed.changesSince(at(HOUR), at(2 * HOUR), query);
+    assertEquals(Collections.singleton(C), delta.getAdded());
+    assertEquals(Collections.singleton(A), delta.getRemoved());
+    assertEquals("(" + HOUR + "," + 2 * HOUR + "]", query.windows.get(1));
+
+    // The removal replaced the earlier addition
+    delta = feed.changesSince(at(0), at(2 * HOUR), query);
+    assertEquals(Collections.singleton(C), delta.getAdded());
+    assertEquals(Collections.singleton(A), delta.getRemoved());
+    assertEquals(2, feed.size());
+  }
+
+  @Test
+  public void testOlderClientExtendsTheLog() {
+    query.added(A);
+    feed.changesSince(at(2 * HOUR), at(3 * HOUR), query);
+
+    // B changed before the log started, A was changed again since
+    query.added(A, B);
+    Delta delta = feed.changesSince(at(HOUR), at(3 * HOUR), query);
+    assertEquals(Sets.newHashSet(A, B), delta.getAdded());
+    assertEquals("(" + HOUR + "," + 2 * HOUR + "]", query.windows.get(1));
+
+    delta = feed.changesSince(at(2 * HOUR + MINUTE), at(3 * HOUR), query);
+    assertEquals(Collections.singleton(A), delta.getAdded());
+  }
+
+  @Test
+  public void testDropsChangesPastRetention() {
+    query.added(A);
+    feed.changesSince(at(0), at(HOUR), query);
+    query.added(B);
+    feed.changesSince(at(HOUR), at(30 * HOUR), query);
+
+    assertNull(feed.changesSince(at(0), at(30 * HOUR), query));
+    Delta delta = feed.changesSince(at(10 * HOUR), at(30 * HOUR), query);
+    assertEquals(Collections.singleton(B), delta.getAdded());
+    assertEquals(1, feed.size());
+  }
+
+  private static Date at(long millis) {
+    return new Date(millis);
+  }
+
+  /** Hands out the next changes set up by the test, recording the windows asked for. */
+  private static class FakeQuery implements WindowQuery {
+    final List<String> windows = new ArrayList<String>();
+    private Set<ItemKey> added = Sets.newHashSet();
+    private Set<ItemKey> removed = Sets.newHashSet();
+
+    void added(ItemKey... keys) {
+      added.addAll(Sets.newHashSet(keys));
+    }
+
+    void removed(ItemKey... keys) {
+      removed.addAll(Sets.newHashSet(keys));
+    }
+
+    @Override
+    public Changes changes(Date after, Date upTo) {
+      windows.add("(" + after.getTime() + "," + upTo.getTime() + "]");
+      Changes changes = new Changes(added, removed);
+      added = Sets.newHashSet();
+      removed = Sets.newHashSet();
+      return changes;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package com.tle.core.auditlog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.tle.beans.Institution;
+import com.tle.core.auditlog.PendingAuditLogEntry;
+import com.tle.core.auditlog.impl.AsyncAuditLogWriter.OverflowPolicy;
+import com.tle.core.institution.events.InstitutionEvent;
+import com.tle.core.institution.events.InstitutionEvent.InstitutionEventType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class AsyncAuditLogWriterTest {
+  private final Institution institution = new Institution();
+
+  @Test
+  public void testDefaultPolicyBlocks() throws Exception {
+    AsyncAuditLogWriter defaults = new AsyncAuditLogWriter();
+    assertFalse(defaults.isEnabled());
+
+    TestWriter writer = new TestWriter(OverflowPolicy.BLOCK);
+    writer.fillQueue();
+
+    Thread caller = new Thread(() -> writer.offer(entry("third")));
+    caller.start();
+    caller.join(200);
+    assertTrue("Caller should wait for space", caller.isAlive());
+
+    writer.release.countDown();
+    caller.join(5000);
+    assertFalse(caller.isAlive());
+    writer.waitForWritten(3);
+    assertEquals(3, writer.getWrittenCount());
+    assertEquals(0, writer.getDiscardedCount());
+    assertEquals(0, writer.getCallerWritesCount());
+  }
+
+  @Test
+  public void testDiscardCountsEntries() throws Exception {
+    TestWriter writer = new TestWriter(OverflowPolicy.DISCARD);
+    writer.fillQueue();
+
+    assertTrue(writer.offer(entry("third")));
+    assertTrue(writer.offer(entry("fourth")));
+    assertEquals(2, writer.getDiscardedCount());
+
+    writer.release.countDown();
+    writer.waitForWritten(2);
+    assertEquals(2, writer.getWrittenCount());
+  }
+
+  @Test
+  public void testCallerWrites() throws Exception {
+    TestWriter writer = new TestWriter(OverflowPolicy.CALLER_WRITES);
+    writer.fillQueue();
+
+    assertFalse(writer.offer(entry("third")));
+    assertEquals(1, writer.getCallerWritesCount());
+    writer.release.countDown();
+  }
+
+  @Test
+  public void testWrittenInOrder() throws Exception {
+    TestWriter writer = new TestWriter(OverflowPolicy.BLOCK);
+    writer.release.countDown();
+    for (int i = 0; i < 20; i++) {
+      writer.offer(entry(Integer.toString(i)));
+    }
+    writer.waitForWritten(20);
+    for (int i = 0; i < 20; i++) {
+      assertEquals(Integer.toString(i), writer.types.get(i));
+    }
+  }
+
+  @Test
+  public void testStopWritesRestInOrderOnOneThread() throws Exception {
+    TestWriter writer = new TestWriter(OverflowPolicy.BLOCK);
+    writer.fillQueue();
+
+    Thread stopper = new Thread(writer::stop);
+    stopper.start();
+    stopper.join(200);
+    assertTrue("Stop should wait for the batch being written", stopper.isAlive());
+
+    writer.release.countDown();
+    stopper.join(5000);
+    assertFalse(stopper.isAlive());
+    assertEquals(Arrays.asList("first", "second"), writer.types);
+    assertEquals(1, writer.maxWriting);
+  }
+
+  @Test
+  public void testOfferAfterStopLeftToCaller() throws Exception {
+    TestWriter writer = new TestWriter(OverflowPolicy.BLOCK);
+    writer.release.countDown();
+    assertTrue(writer.offer(entry("first")));
+    writer.stop();
+
+    // The queue only holds one, so the second would wait for ever if it were queued
+    List<Boolean> queued = new ArrayList<>();
+    Thread caller =
+        new Thread(
+            () -> {
+              queued.add(writer.offer(entry("second")));
+              queued.add(writer.offer(entry("third")));
+            });
+    caller.start();
+    caller.join(5000);
+    assertFalse(caller.isAlive());
+    assertEquals(Arrays.asList(false, false), queued);
+    assertEquals(Arrays.asList("first"), writer.types);
+    assertEquals(0, writer.getQueueDepth());
+  }
+
+  @Test
+  public void testUnavailableInstitutionWaitsForQueue() throws Exception {
+    TestWriter writer = new TestWriter(OverflowPolicy.BLOCK);
+    writer.fillQueue();
+
+    Thread event =
+        new Thread(
+            () ->
+                writer.institutionEvent(
+                    new InstitutionEvent(
+                        InstitutionEventType.UNAVAILABLE,
+                        ImmutableMultimap.of(institution.getUniqueId(), institution))));
+    event.start();
+    event.join(200);
+    assertTrue("The event should wait for the queued entries", event.isAlive());
+
+    writer.release.countDown();
+    event.join(5000);
+    assertFalse(event.isAlive());
+    assertEquals(Arrays.asList("first", "second"), writer.types);
+  }
+
+  private PendingAuditLogEntry entry(String type) {
+    return new PendingAuditLogEntry(
+        "user", "session", "TEST", type, null, null, null, null, null, institution);
+  }
+
+  /**
+   * Queue of one entry. The first batch is held up until released, so the queue can be filled
+   * while the writer is busy.
+   */
+  private class TestWriter extends AsyncAuditLogWriter {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> types = new ArrayList<>();
+    final AtomicInteger concurrent = new AtomicInteger();
+    volatile int maxWriting;
+
+    TestWriter(OverflowPolicy policy) {
+      super(1, 10, policy);
+    }
+
+    @Override
+    protected void writeEntries(Institution institution, List<PendingAuditLogEntry> entries) {
+      maxWriting = Math.max(maxWriting, concurrent.incrementAndGet());
+      writing.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } finally {
+        concurrent.decrementAndGet();
+      }
+      synchronized (types) {
+        for (PendingAuditLogEntry entry : entries) {
+          types.add(entry.getType());
+        }
+      }
+    }
+
+    /** One entry being written and one waiting on the queue */
+    void fillQueue() throws InterruptedException {
+      assertTrue(offer(entry("first")));
+      assertTrue(writing.await(5, TimeUnit.SECONDS));
+      assertTrue(offer(entry("second")));
+      assertEquals(1, getQueueDepth());
+    }
+
+    void waitForWritten(int count) throws InterruptedException {
+      long until = System.currentTimeMillis() + 5000;
+      while (getWrittenCount() < count && System.currentTimeMillis() < until) {
+        Thread.sleep(10);
+      }
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package com.tle.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.tle.beans.Institution;
+import com.tle.core.db.UserContext;
+import com.tle.core.institution.events.InstitutionEvent;
+import com.tle.core.institution.events.InstitutionEvent.InstitutionEventType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.After;
+import org.junit.Test;
+import scala.Function0;
+import scala.Function2;
+import scala.Option;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+import scala.runtime.BoxedUnit;
+
+@SuppressWarnings("nls")
+public class DBCacheTest {
+  private final UserContext first = context(1);
+  private final UserContext second = context(2);
+  private final AtomicInteger loads = new AtomicInteger();
+  private final List<Runnable> refreshes = new ArrayList<Runnable>();
+  private final ExecutorService readers = Executors.newCachedThreadPool();
+  private volatile String value = "v1";
+
+  @After
+  public void tearDown() {
+    readers.shutdownNow();
+  }
+
+  @Test
+  public void testConcurrentReadsShareOneLoad() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    DBCache<BoxedUnit, String> cache =
+        cache(
+            settings(Option.empty(), 5000),
+            uc -> {
+              if (uc == first) {
+                await(release);
+              }
+              return value;
+            },
+            DBCacheTest::runAsUser);
+
+    List<Future<String>> reads = new ArrayList<Future<String>>();
+    for (int i = 0; i < 4; i++) {
+      reads.add(readers.submit(() -> get(cache, first)));
+    }
+    waitFor(() -> cache.stats().hits() == 3);
+
+    // Other keys aren't held up by the load
+    assertEquals("v1", get(cache, second));
+
+    release.countDown();
+    for (Future<String> read : reads) {
+      assertEquals("v1", read.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(2, loads.get());
+    assertEquals(2, cache.stats().loadSuccesses());
+  }
+
+  @Test
+  public void testFailureKeptForTtl() throws Exception {
+    RuntimeException broken = new RuntimeException("broken");
+    DBCache<BoxedUnit, String> cache =
+        cache(
+            settings(Option.empty(), 200),
+            uc -> {
+              if (loads.get() == 1) {
+                throw broken;
+              }
+              return value;
+            },
+            DBCacheTest::runAsUser);
+
+    assertSame(broken, failure(cache));
+    assertSame(broken, failure(cache));
+    assertEquals(1, loads.get());
+
+    Thread.sleep(300);
+    assertEquals("v1", get(cache, first));
+    assertEquals(2, loads.get());
+    assertEquals(1, cache.stats().loadFailures());
+  }
+
+  @Test
+  public void testStaleValueServedWhileRefreshing() throws Exception {
+    DBCache<BoxedUnit, String> cache =
+        cache(settings(Option.apply(millis(1)), 5000), uc -> value, DBCacheTest::runAsUser);
+
+    assertEquals("v1", get(cache, first));
+    Thread.sleep(10);
+    value = "v2";
+    assertEquals("v1", get(cache, first));
+    assertEquals("v1", get(cache, first));
+    assertEquals(1, refreshes.size());
+
+    refreshes.get(0).run();
+    assertEquals("v2", get(cache, first));
+    assertEquals(2, loads.get());
+    assertEquals(1, cache.stats().refreshes());
+  }
+
+  @Test
+  public void testRefreshRetriedWhenItCannotRun() throws Exception {
+    AtomicInteger refused = new AtomicInteger(1);
+    DBCache<BoxedUnit, String> cache =
+        cache(
+            settings(Option.apply(millis(1)), 5000),
+            uc -> value,
+            (uc, f) -> {
+              if (refused.getAndDecrement() > 0) {
+                throw new IllegalStateException("Institution unavailable");
+              }
+              return f.apply();
+            });
+
+    assertEquals("v1", get(cache, first));
+    Thread.sleep(10);
+    value = "v2";
+    assertEquals("v1", get(cache, first));
+    refreshes.get(0).run();
+
+    // The old value is still served and the next read tries again
+    assertEquals("v1", get(cache, first));
+    assertEquals(2, refreshes.size());
+    refreshes.get(1).run();
+    assertEquals("v2", get(cache, first));
+  }
+
+  @Test
+  public void testUnavailableInstitutionsEvicted() {
+    DBCache<BoxedUnit, String> cache =
+        DBCacheBuilder.register(
+            "DBCacheTest",
+            cache(settings(Option.empty(), 5000), uc -> value, DBCacheTest::runAsUser));
+    get(cache, first);
+    get(cache, second);
+
+    DBCacheBuilder.institutionEvent(event(InstitutionEventType.EDITED, first));
+    get(cache, first);
+    assertEquals(2, loads.get());
+
+    DBCacheBuilder.institutionEvent(event(InstitutionEventType.UNAVAILABLE, first));
+    get(cache, first);
+    get(cache, second);
+    assertEquals(3, loads.get());
+  }
+
+  private DBCache<BoxedUnit, String> cache(
+      CacheSettings settings,
+      Function<UserContext, String> query,
+      Function2<UserContext, Function0<BoxedUnit>, BoxedUnit> runAsUser) {
+    return new DBCache<BoxedUnit, String>(
+        new InstCacheable<String>("DBCacheTest", null),
+        settings,
+        (uc, k) -> {
+          loads.incrementAndGet();
+          return query.apply(uc);
+        },
+        runAsUser,
+        refreshes::add);
+  }
+
+  private static String get(DBCache<BoxedUnit, String> cache, UserContext uc) {
+    return cache.lookup(uc, BoxedUnit.UNIT).unsafeRunSync();
+  }
+
+  private Throwable failure(DBCache<BoxedUnit, String> cache) {
+    try {
+      get(cache, first);
+    } catch (Throwable t) {
+      return t;
+    }
+    fail("Expected the load to fail");
+    return null;
+  }
+
+  private static BoxedUnit runAsUser(UserContext uc, Function0<BoxedUnit> f) {
+    return f.apply();
+  }
+
+  private static CacheSettings settings(Option<FiniteDuration> refreshAfterWrite, long failureTtl) {
+    return new CacheSettings(
+        1000, Option.empty(), Option.empty(), refreshAfterWrite, millis(failureTtl));
+  }
+
+  private static FiniteDuration millis(long millis) {
+    return Duration.create(millis, TimeUnit.MILLISECONDS);
+  }
+
+  private static UserContext context(long institutionId) {
+    Institution institution = new Institution();
+    institution.setUniqueId(institutionId);
+    return new UserContext(institution, null, null, Locale.ENGLISH);
+  }
+
+  private static InstitutionEvent event(InstitutionEventType type, UserContext uc) {
+    return new InstitutionEvent(type, ImmutableMultimap.of(uc.inst().getUniqueId(), uc.inst()));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private interface Condition {
+    boolean holds();
+  }
+
+  private static void waitFor(Condition condition) throws InterruptedException {
+    long until = System.currentTimeMillis() + 5000;
+    while (!condition.holds()) {
+      if (System.currentTimeMillis() > until) {
+        fail("Timed out waiting");
+      }
+      Thread.sleep(5);
+    }
+  }
+}
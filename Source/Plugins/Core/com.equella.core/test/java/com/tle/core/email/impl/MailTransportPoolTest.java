@@ -0,0 +1,261 @@
+package com.tle.core.email.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.tle.core.email.impl.MailTransportPool.MailServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class MailTransportPoolTest {
+  private SmtpStub smtp;
+  private MailTransportPool pool;
+  private MailServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    smtp = new SmtpStub();
+    pool = new MailTransportPool();
+    server = new MailServer("127.0.0.1", Integer.toString(smtp.getPort()), null, null);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    pool.closeAll();
+    smtp.close();
+  }
+
+  @Test
+  public void testReusesConnection() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      pool.send(server, message(i));
+    }
+    assertEquals(5, smtp.messages.get());
+    assertEquals(1, smtp.connections.get());
+  }
+
+  @Test
+  public void testReconnectsAfterMaxMessages() throws Exception {
+    pool.setMaxMessagesPerConnection(2);
+    for (int i = 0; i < 5; i++) {
+      pool.send(server, message(i));
+    }
+    assertEquals(5, smtp.messages.get());
+    assertEquals(3, smtp.connections.get());
+  }
+
+  @Test
+  public void testReconnectsWhenServerDropsConnection() throws Exception {
+    pool.send(server, message(0));
+    smtp.dropConnections();
+    pool.send(server, message(1));
+    assertEquals(2, smtp.messages.get());
+    assertEquals(2, smtp.connections.get());
+  }
+
+  @Test
+  public void testRetriesWhenDroppedBeforeData() throws Exception {
+    pool.send(server, message(0));
+    smtp.dropOn = "MAIL";
+    pool.send(server, message(1));
+    assertEquals(2, smtp.messages.get());
+    assertEquals(2, smtp.connections.get());
+  }
+
+  @Test
+  public void testNoRetryWhenDroppedAfterData() throws Exception {
+    pool.send(server, message(0));
+    smtp.dropOn = "DATA";
+    try {
+      pool.send(server, message(1));
+      fail("The message may have been delivered, so shouldn't be sent again");
+    } catch (MessagingException e) {
+      // Expected
+    }
+    assertEquals(2, smtp.messages.get());
+    assertEquals(1, smtp.connections.get());
+  }
+
+  @Test
+  public void testNoRetryForOtherMessages() throws Exception {
+    pool.send(server, message(0));
+    smtp.dropOn = "MAIL";
+    MimeMessage message = new MimeMessage(message(1));
+    try {
+      pool.send(server, message);
+      fail("Can't tell if the message got to the server");
+    } catch (MessagingException e) {
+      // Expected
+    }
+    assertEquals(1, smtp.connections.get());
+  }
+
+  @Test
+  public void testEqualSettingsSharePool() throws Exception {
+    pool.send(server, message(0));
+    MailServer same = new MailServer("127.0.0.1", Integer.toString(smtp.getPort()), null, null);
+    pool.send(same, message(same, 1));
+    pool.send(server, message(2));
+    assertEquals(3, smtp.messages.get());
+    assertEquals(1, smtp.connections.get());
+    assertEquals(0, smtp.quits.get());
+    assertEquals(1, pool.getPoolCount());
+  }
+
+  @Test
+  public void testUnusedPoolDropped() throws Exception {
+    pool.send(server, message(0));
+    pool.closeAll();
+    assertEquals(1, smtp.quits.get());
+    assertEquals(0, pool.getPoolCount());
+    pool.send(server, message(1));
+    assertEquals(2, smtp.connections.get());
+    assertEquals(1, pool.getPoolCount());
+  }
+
+  private MimeMessage message(int i) throws Exception {
+    return message(server, i);
+  }
+
+  private MimeMessage message(MailServer server, int i) throws Exception {
+    MimeMessage message = pool.createMessage(server);
+    message.setFrom(new InternetAddress("noreply@example.com"));
+    message.addRecipient(RecipientType.TO, new InternetAddress("user" + i + "@example.com"));
+    message.setSubject("Message " + i);
+    message.setText("Body " + i);
+    return message;
+  }
+
+  /** Just enough SMTP to accept mail, counting connections and messages. */
+  private static class SmtpStub implements Runnable {
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger messages = new AtomicInteger();
+    final AtomicInteger quits = new AtomicInteger();
+    /** The command (MAIL, or DATA for after the content) to next drop the connection on */
+    volatile String dropOn;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<Socket>();
+    private final ServerSocket serverSocket;
+
+    SmtpStub() throws IOException {
+      serverSocket = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+      Thread thread = new Thread(this, "SmtpStub");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = serverSocket.accept();
+          connections.incrementAndGet();
+          sockets.add(socket);
+          Thread thread =
+              new Thread(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      converse(socket);
+                    }
+                  },
+                  "SmtpStub-connection");
+          thread.setDaemon(true);
+          thread.start();
+        }
+      } catch (IOException e) {
+        // Closed
+      }
+    }
+
+    private void converse(Socket socket) {
+      try {
+        BufferedReader in =
+            new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+        reply(out, "220 stub ready");
+        String line;
+        while ((line = in.readLine()) != null) {
+          String command = line.length() > 4 ? line.substring(0, 4) : line;
+          command = command.toUpperCase();
+          if (command.equals("QUIT")) {
+            quits.incrementAndGet();
+            reply(out, "221 bye");
+            break;
+          } else if (command.equals("MAIL") && drop("MAIL")) {
+            break;
+          } else if (command.equals("DATA")) {
+            reply(out, "354 go ahead");
+            while ((line = in.readLine()) != null && !line.equals(".")) {
+              // message content
+            }
+            messages.incrementAndGet();
+            if (drop("DATA")) {
+              break;
+            }
+            reply(out, "250 accepted");
+          } else {
+            reply(out, "250 OK");
+          }
+        }
+      } catch (IOException e) {
+        // Dropped
+      } finally {
+        close(socket);
+      }
+    }
+
+    private synchronized boolean drop(String command) {
+      if (command.equals(dropOn)) {
+        dropOn = null;
+        return true;
+      }
+      return false;
+    }
+
+    private void reply(Writer out, String line) throws IOException {
+      out.write(line + "\r\n");
+      out.flush();
+    }
+
+    void dropConnections() {
+      for (Socket socket : sockets) {
+        close(socket);
+      }
+      sockets.clear();
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+      dropConnections();
+    }
+
+    private static void close(Socket socket) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package com.tle.core.filesystem.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import com.tle.core.util.archive.ArchiveProgress;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ParallelZipTest {
+  private final ExecutorService executor = Executors.newFixedThreadPool(3);
+  private final Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("parallelzip").toFile();
+
+    Random random = new Random(42);
+    byte[] noise = new byte[50000];
+    random.nextBytes(noise);
+    byte[] big = new byte[ParallelZipWriter.IN_MEMORY_LIMIT + 100000];
+    for (int i = 0; i < big.length; i++) {
+      big[i] = (byte) (i % 97);
+    }
+    files.put("empty.txt", new byte[0]);
+    files.put("noise.bin", noise);
+    files.put("big/streamed.bin", big);
+    for (int i = 0; i < 20; i++) {
+      files.put("pages/page" + i + ".html", ("<p>Page " + i + "</p>").getBytes("UTF-8"));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    delete(dir);
+  }
+
+  @Test
+  public void testWritesReadableZip() throws IOException {
+    File zip = new File(dir, "out.zip");
+    Progress progress = new Progress(files.size());
+    write(zip, progress);
+    assertEquals(new ArrayList<String>(files.keySet()), progress.entries);
+
+    // Random access
+    try (ZipFile zipFile = new ZipFile(zip)) {
+      assertEquals(files.size(), zipFile.size());
+      for (Map.Entry<String, byte[]> file : files.entrySet()) {
+        ZipEntry entry = zipFile.getEntry(file.getKey());
+        try (InputStream in = zipFile.getInputStream(entry)) {
+          assertArrayEquals(file.getValue(), ByteStreams.toByteArray(in));
+        }
+      }
+      // Incompressible content is stored
+      assertEquals(ZipEntry.STORED, zipFile.getEntry("noise.bin").getMethod());
+      assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("big/streamed.bin").getMethod());
+    }
+
+    // Streaming, which relies on the local headers and data descriptors
+    try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip.toPath()))) {
+      int count = 0;
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        assertArrayEquals(files.get(entry.getName()), ByteStreams.toByteArray(in));
+        count++;
+      }
+      assertEquals(files.size(), count);
+    }
+  }
+
+  @Test
+  public void testExtractsInParallel() throws IOException {
+    File zip = new File(dir, "out.zip");
+    write(zip, null);
+
+    File target = new File(dir, "extracted");
+    Progress progress = new Progress(files.size());
+    new ParallelZipExtractor(executor, 3)
+        .extract(ZipIndex.read(zip, StandardCharsets.UTF_8), target, progress);
+
+    assertEquals(files.size(), progress.entries.size());
+    for (Map.Entry<String, byte[]> file : files.entrySet()) {
+      assertArrayEquals(
+          file.getValue(), Files.readAllBytes(new File(target, file.getKey()).toPath()));
+    }
+  }
+
+  @Test
+  public void testCountsUnextractableEntriesAsWarnings() throws IOException {
+    File zip = new File(dir, "out.zip");
+    write(zip, null);
+
+    File target = new File(dir, "extracted");
+    // A file where the folder should be
+    target.mkdirs();
+    Files.write(new File(target, "pages").toPath(), new byte[0]);
+    Progress progress = new Progress(files.size());
+    new ParallelZipExtractor(executor, 3)
+        .extract(ZipIndex.read(zip, StandardCharsets.UTF_8), target, progress);
+
+    assertEquals(files.size(), progress.entries.size());
+    assertEquals(20, progress.warnings);
+    assertTrue(new File(target, "big/streamed.bin").exists());
+  }
+
+  private void write(File zip, ArchiveProgress progress) throws IOException {
+    File source = new File(dir, "source");
+    for (Map.Entry<String, byte[]> file : files.entrySet()) {
+      File f = new File(source, file.getKey());
+      f.getParentFile().mkdirs();
+      Files.write(f.toPath(), file.getValue());
+    }
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(new FileOutputStream(zip), executor, 2, progress)) {
+      for (String name : files.keySet()) {
+        writer.addFile(name, new File(source, name));
+      }
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static class Progress extends ArchiveProgress {
+    final List<String> entries = Collections.synchronizedList(new ArrayList<String>());
+    int warnings;
+
+    Progress(long entryCount) {
+      super(entryCount);
+    }
+
+    @Override
+    public void nextEntry(String entryPath) {
+      entries.add(entryPath);
+    }
+
+    @Override
+    public void incrementWarningCount() {
+      warnings++;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package com.tle.core.filesystem.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ZipIndexTest {
+  private final byte[] big = new byte[100000];
+  private File zip;
+
+  @Before
+  public void setUp() throws IOException {
+    for (int i = 0; i < big.length; i++) {
+      big[i] = (byte) (i % 251);
+    }
+    zip = File.createTempFile("zipindex", ".zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      out.setComment("A package");
+      out.putNextEntry(new ZipEntry("imsmanifest.xml"));
+      out.write("<manifest/>".getBytes(StandardCharsets.UTF_8));
+      out.putNextEntry(new ZipEntry("content/"));
+      out.putNextEntry(new ZipEntry("content/pages/deflated.bin"));
+      out.write(big);
+      out.putNextEntry(stored("content/stored.bin", big));
+      out.write(big);
+      out.putNextEntry(stored("content/\u00fcber.txt", new byte[0]));
+      out.putNextEntry(new ZipEntry("windows\\style.txt"));
+      out.write('x');
+    }
+  }
+
+  @After
+  public void tearDown() {
+    zip.delete();
+  }
+
+  @Test
+  public void testIndexesEntriesAndFolders() throws IOException {
+    ZipIndex index = ZipIndex.read(zip, StandardCharsets.ISO_8859_1);
+
+    assertEquals(5, index.size());
+    assertEquals(big.length, index.getEntry("content/stored.bin").getSize());
+    assertTrue(index.getEntry("content/stored.bin").isStored());
+    assertFalse(index.getEntry("content/pages/deflated.bin").isStored());
+    // ZipOutputStream flags names as UTF-8
+    assertEquals(0, index.getEntry("content/\u00fcber.txt").getSize());
+    assertEquals(1, index.getEntry("windows/style.txt").getSize());
+
+    assertTrue(index.isDirectory("content"));
+    assertTrue(index.isDirectory("content/pages"));
+    assertTrue(index.isDirectory("windows"));
+    assertFalse(index.isDirectory("content/stored.bin"));
+    assertNull(index.getEntry("content"));
+    assertNull(index.getEntry("missing.txt"));
+    assertFalse(index.isStale());
+  }
+
+  @Test
+  public void testListsFolders() throws IOException {
+    ZipIndex index = ZipIndex.read(zip, StandardCharsets.UTF_8);
+
+    assertEquals(
+        Arrays.asList("content", "imsmanifest.xml", "windows"),
+        new ArrayList<String>(index.list("").keySet()));
+    assertNull(index.list("").get("content"));
+    assertEquals(
+        Arrays.asList("pages", "stored.bin", "\u00fcber.txt"),
+        new ArrayList<String>(index.list("content").keySet()));
+    assertEquals(
+        index.getEntry("content/pages/deflated.bin"),
+        index.list("content/pages").get("deflated.bin"));
+    assertNull(index.list("content/stored.bin"));
+    assertNull(index.list("missing"));
+  }
+
+  @Test
+  public void testReadsStoredAndDeflatedEntries() throws IOException {
+    ZipIndex index = ZipIndex.read(zip, StandardCharsets.UTF_8);
+    assertArrayEquals(
+        "<manifest/>".getBytes(StandardCharsets.UTF_8), read(index, "imsmanifest.xml", 0));
+    assertArrayEquals(big, read(index, "content/stored.bin", 0));
+    assertArrayEquals(big, read(index, "content/pages/deflated.bin", 0));
+  }
+
+  @Test
+  public void testSkipsToRanges() throws IOException {
+    ZipIndex index = ZipIndex.read(zip, StandardCharsets.UTF_8);
+    byte[] tail = Arrays.copyOfRange(big, 99000, big.length);
+    assertArrayEquals(tail, read(index, "content/stored.bin", 99000));
+    assertArrayEquals(tail, read(index, "content/pages/deflated.bin", 99000));
+  }
+
+  @Test
+  public void testNoticesChangedArchive() throws IOException {
+    ZipIndex index = ZipIndex.read(zip, StandardCharsets.UTF_8);
+    try (FileOutputStream out = new FileOutputStream(zip, true)) {
+      out.write(0);
+    }
+    assertTrue(index.isStale());
+  }
+
+  @Test
+  public void testRejectsOtherFiles() throws IOException {
+    File notZip = File.createTempFile("zipindex", ".txt");
+    try {
+      try (FileOutputStream out = new FileOutputStream(notZip)) {
+        out.write(big);
+      }
+      ZipIndex.read(notZip, StandardCharsets.UTF_8);
+      fail("Should have thrown");
+    } catch (ZipException e) {
+      // Expected
+    } finally {
+      notZip.delete();
+    }
+  }
+
+  private static byte[] read(ZipIndex index, String name, long skip) throws IOException {
+    try (InputStream in = index.openStream(index.getEntry(name))) {
+      assertEquals(skip, in.skip(skip));
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  private static ZipEntry stored(String name, byte[] data) {
+    ZipEntry entry = new ZipEntry(name);
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(data.length);
+    entry.setCrc(crc.getValue());
+    return entry;
+  }
+}
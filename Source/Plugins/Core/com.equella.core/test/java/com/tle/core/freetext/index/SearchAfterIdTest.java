@@ -0,0 +1,124 @@
+package com.tle.core.freetext.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.freetext.LuceneConstants;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Paging through an index with the ID cursor used by the streaming search */
+@SuppressWarnings("nls")
+public class SearchAfterIdTest {
+  private final RAMDirectory directory = new RAMDirectory();
+  private IndexSearcher searcher;
+
+  @Before
+  public void setUp() throws IOException {
+    // IDs of different lengths, so string and numeric order differ
+    IndexWriterConfig config =
+        new IndexWriterConfig(LuceneConstants.LATEST_VERSION, new KeywordAnalyzer());
+    try (IndexWriter writer = new IndexWriter(directory, config)) {
+      for (int id = 1; id <= 25; id++) {
+        Document doc = new Document();
+        doc.add(
+            new Field(
+                FreeTextQuery.FIELD_ID,
+                Integer.toString(id),
+                Field.Store.YES,
+                Field.Index.NOT_ANALYZED));
+        doc.add(
+            new Field(
+                "status",
+                id % 3 == 0 ? "draft" : "live",
+                Field.Store.NO,
+                Field.Index.NOT_ANALYZED));
+        writer.addDocument(doc);
+      }
+    }
+    searcher = new IndexSearcher(IndexReader.open(directory));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    searcher.getIndexReader().close();
+    directory.close();
+  }
+
+  @Test
+  public void testResumesAfterCursor() throws IOException {
+    List<String> all = new ArrayList<String>();
+    List<Integer> batchSizes = new ArrayList<Integer>();
+    String cursor = null;
+    List<String> batch;
+    do {
+      batch = search("live", cursor, 4);
+      batchSizes.add(batch.size());
+      all.addAll(batch);
+      if (!batch.isEmpty()) {
+        cursor = batch.get(batch.size() - 1);
+      }
+    } while (batch.size() == 4);
+
+    // Each live item once, in string order of the ID
+    List<String> expected = new ArrayList<String>();
+    for (int id = 1; id <= 25; id++) {
+      if (id % 3 != 0) {
+        expected.add(Integer.toString(id));
+      }
+    }
+    Collections.sort(expected);
+    assertEquals(expected, all);
+    assertEquals(Arrays.asList(4, 4, 4, 4, 1), batchSizes);
+  }
+
+  @Test
+  public void testBatchEndingOnLastResult() throws IOException {
+    // 8 drafts, so the second batch of 4 ends exactly on the last one
+    List<String> first = search("draft", null, 4);
+    List<String> second = search("draft", first.get(3), 4);
+    assertEquals(Arrays.asList("12", "15", "18", "21"), first);
+    assertEquals(Arrays.asList("24", "3", "6", "9"), second);
+    assertTrue(search("draft", second.get(3), 4).isEmpty());
+  }
+
+  @Test
+  public void testEmptyResults() throws IOException {
+    assertTrue(search("archived", null, 4).isEmpty());
+    assertTrue(search("live", "99", 4).isEmpty());
+  }
+
+  private List<String> search(String status, String afterId, int count) throws IOException {
+    List<Filter> filters = new ArrayList<Filter>();
+    filters.add(new QueryWrapperFilter(new TermQuery(new Term("status", status))));
+    TopDocs hits =
+        ItemIndex.searchAfterId(searcher, new MatchAllDocsQuery(), filters, afterId, count);
+    List<String> ids = new ArrayList<String>();
+    for (ScoreDoc hit : hits.scoreDocs) {
+      ids.add(searcher.doc(hit.doc).get(FreeTextQuery.FIELD_ID));
+    }
+    return ids;
+  }
+}
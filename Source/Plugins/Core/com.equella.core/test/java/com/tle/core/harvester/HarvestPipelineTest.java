@@ -0,0 +1,238 @@
+package com.tle.core.harvester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tle.core.harvester.HarvestPipeline.BatchProcessor;
+import com.tle.core.harvester.HarvestPipeline.CheckpointListener;
+import com.tle.core.harvester.oai.OAIClient;
+import com.tle.core.harvester.oai.data.Record;
+import com.tle.core.harvester.old.LearningObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class HarvestPipelineTest {
+  private static final int PAGES = 4;
+  private static final int PAGE_SIZE = 5;
+
+  private FakeOAIServer oai;
+  private final List<String> harvested = Collections.synchronizedList(new ArrayList<String>());
+  private final List<String> checkpoints = new ArrayList<String>();
+
+  @Before
+  public void setUp() throws IOException {
+    oai = new FakeOAIServer();
+  }
+
+  @After
+  public void tearDown() {
+    oai.stop();
+  }
+
+  @Test
+  public void testHarvestsEveryPage() throws Exception {
+    int total = new HarvestPipeline(3, 2, 2).run(pages(null), processor(), listener());
+
+    assertEquals(PAGES * PAGE_SIZE, total);
+    assertEquals(PAGES * PAGE_SIZE, harvested.size());
+    // The last page has no resumption token
+    assertEquals(Arrays.asList("page1", "page2", "page3"), checkpoints);
+  }
+
+  @Test
+  public void testResumesFromCheckpoint() throws Exception {
+    int total = new HarvestPipeline(3, 2, 2).run(pages("page2"), processor(), listener());
+
+    assertEquals((PAGES - 2) * PAGE_SIZE, total);
+    assertTrue(harvested.contains("oai:test:2-0"));
+    assertFalse(harvested.contains("oai:test:1-0"));
+    assertEquals(Arrays.asList("page3"), checkpoints);
+    assertEquals("ListRecords?resumptionToken=page2", oai.requests.get(0));
+  }
+
+  @Test
+  public void testFetchFailureKeepsLastCheckpoint() throws Exception {
+    oai.failOnPage = 2;
+    try {
+      new HarvestPipeline(3, 2, 2).run(pages(null), processor(), listener());
+      fail("Should have thrown");
+    } catch (RuntimeException e) {
+      // The fake server's error
+    }
+    // The pages fetched before the failure were still harvested
+    assertEquals(2 * PAGE_SIZE, harvested.size());
+    assertEquals(Arrays.asList("page1", "page2"), checkpoints);
+  }
+
+  @Test
+  public void testBatchFailureStopsCheckpoints() throws Exception {
+    final BatchProcessor processor = processor();
+    try {
+      new HarvestPipeline(3, 2, PAGE_SIZE)
+          .run(
+              pages(null),
+              new BatchProcessor() {
+                @Override
+                public void process(List<LearningObject> batch) {
+                  if (batch.get(0).getIdentifier().equals("oai:test:1-0")) {
+                    throw new IllegalStateException("Import failed");
+                  }
+                  processor.process(batch);
+                }
+              },
+              listener());
+      fail("Should have thrown");
+    } catch (IllegalStateException e) {
+      assertEquals("Import failed", e.getMessage());
+    }
+    // Resuming starts again at the page that failed
+    assertEquals(Arrays.asList("page1"), checkpoints);
+  }
+
+  @Test
+  public void testLimitsPagesFetchedAhead() throws Exception {
+    final AtomicInteger maxAhead = new AtomicInteger();
+    new HarvestPipeline(1, 1, PAGE_SIZE)
+        .run(
+            pages(null),
+            new BatchProcessor() {
+              @Override
+              public void process(List<LearningObject> batch) {
+                int pagesDone = harvested.size() / PAGE_SIZE;
+                maxAhead.set(Math.max(maxAhead.get(), oai.requests.size() - pagesDone));
+                for (LearningObject lobject : batch) {
+                  harvested.add(lobject.getIdentifier());
+                }
+              }
+            },
+            listener());
+    assertEquals(1, maxAhead.get());
+  }
+
+  private OAIRecordPages pages(String resumeFrom) throws IOException {
+    return new OAIRecordPages(
+        new OAIClient(new URL("http://127.0.0.1:" + oai.getPort() + "/oai")),
+        null,
+        "2000-01-01",
+        "oai_dc",
+        resumeFrom) {
+      @Override
+      protected LearningObject convert(Record record) {
+        return new LearningObject(record.getHeader().getIdentifier(), "", new Date(), false);
+      }
+    };
+  }
+
+  private BatchProcessor processor() {
+    return new BatchProcessor() {
+      @Override
+      public void process(List<LearningObject> batch) {
+        for (LearningObject lobject : batch) {
+          try {
+            // Finish out of order
+            Thread.sleep(lobject.getIdentifier().hashCode() & 7);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          harvested.add(lobject.getIdentifier());
+        }
+      }
+    };
+  }
+
+  private CheckpointListener listener() {
+    return new CheckpointListener() {
+      @Override
+      public void reached(String checkpoint) {
+        // The page before the checkpoint has been harvested
+        int page = Integer.parseInt(checkpoint.substring("page".length()));
+        for (int i = 0; i < PAGE_SIZE; i++) {
+          assertTrue(harvested.contains("oai:test:" + (page - 1) + '-' + i));
+        }
+        checkpoints.add(checkpoint);
+      }
+    };
+  }
+
+  /** Serves ListRecords pages of {@link #PAGE_SIZE} records, with "pageN" resumption tokens. */
+  private static class FakeOAIServer implements HttpHandler {
+    final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    volatile int failOnPage = -1;
+    private final HttpServer server;
+
+    FakeOAIServer() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/oai", this);
+      server.start();
+    }
+
+    int getPort() {
+      return server.getAddress().getPort();
+    }
+
+    void stop() {
+      server.stop(0);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String query = exchange.getRequestURI().getQuery();
+      requests.add(query.replace("verb=", "").replaceFirst("&", "?"));
+
+      int page = 0;
+      int token = query.indexOf("resumptionToken=page");
+      if (token >= 0) {
+        page = Integer.parseInt(query.substring(token + "resumptionToken=page".length()));
+      }
+      if (page == failOnPage) {
+        exchange.sendResponseHeaders(500, -1);
+        exchange.close();
+        return;
+      }
+
+      StringBuilder xml = new StringBuilder();
+      xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      xml.append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">");
+      xml.append("<responseDate>2020-01-01T00:00:00Z</responseDate>");
+      xml.append("<ListRecords>");
+      for (int i = 0; i < PAGE_SIZE; i++) {
+        xml.append("<record><header><identifier>oai:test:")
+            .append(page)
+            .append('-')
+            .append(i)
+            .append("</identifier><datestamp>2020-01-01</datestamp></header>")
+            .append("<metadata><dc><title>Record</title></dc></metadata></record>");
+      }
+      if (page < PAGES - 1) {
+        xml.append("<resumptionToken>page").append(page + 1).append("</resumptionToken>");
+      } else {
+        xml.append("<resumptionToken/>");
+      }
+      xml.append("</ListRecords></OAI-PMH>");
+
+      byte[] body = xml.toString().getBytes("UTF-8");
+      exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.tle.core.institution;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.Multimap;
+import com.tle.beans.Institution;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.core.migration.SchemaInfo;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A fixed set of available institutions, each with its own cache */
+public class FakeInstitutionService implements InstitutionService {
+  private final Multimap<Long, Institution> available;
+
+  /** @param available the institutions by schema id */
+  public FakeInstitutionService(Multimap<Long, Institution> available) {
+    this.available = available;
+  }
+
+  @Override
+  public Multimap<Long, Institution> getAvailableMap() {
+    return available;
+  }
+
+  @Override
+  public Collection<Institution> enumerateAvailable() {
+    return available.values();
+  }
+
+  @Override
+  public <T> InstitutionCache<T> newInstitutionAwareCache(CacheLoader<Institution, T> loader) {
+    return new InstitutionCache<T>() {
+      private final Map<Institution, T> caches = new ConcurrentHashMap<Institution, T>();
+
+      @Override
+      public T getCache() {
+        return getCache(CurrentInstitution.get());
+      }
+
+      @Override
+      public T getCache(Institution inst) {
+        return caches.computeIfAbsent(
+            inst,
+            i -> {
+              try {
+                return loader.load(i);
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+      }
+
+      @Override
+      public void clear() {
+        caches.clear();
+      }
+
+      @Override
+      public void clear(Institution institution) {
+        caches.remove(institution);
+      }
+    };
+  }
+
+  @Override
+  public Collection<InstitutionStatus> getAllInstitutions() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public InstitutionStatus getInstitutionStatus(long institutionId) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long getSchemaIdForInstitution(Institution institution) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Institution getInstitution(long institutionId) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void update(Institution institution) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setEnabled(long instId, boolean enabled) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void deleteInstitution(Institution institution) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Institution createInstitution(Institution newInstitution, long schemaId) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean canAddInstitution() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public List<InstitutionValidationError> validate(Institution institution) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public List<SchemaInfo> getAllSchemaInfos() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public URL getInstitutionUrl() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public URI getInstitutionUri() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public URL getInstitutionUrl(Institution institution) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String institutionalise(String url) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String removeInstitution(String url) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isInstitutionUrl(String url) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,197 @@
+package com.tle.core.item;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.tle.beans.Institution;
+import com.tle.beans.item.ItemId;
+import com.tle.beans.item.ItemKey;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.core.institution.events.InstitutionEvent;
+import com.tle.core.institution.events.InstitutionEvent.InstitutionEventType;
+import com.tle.core.item.ViewCountBuffer.PendingViews;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ViewCountBufferTest {
+  private final ItemKey good = new ItemId("good", 1);
+  private final ItemKey bad = new ItemId("bad", 1);
+  private TestBuffer buffer;
+
+  @Before
+  public void setUp() {
+    CurrentInstitution.set(institution(1));
+    buffer = new TestBuffer();
+  }
+
+  @After
+  public void tearDown() {
+    CurrentInstitution.remove();
+  }
+
+  @Test
+  public void testBadViewDoesNotHoldUpOthers() {
+    buffer.addSummaryView(good);
+    buffer.addSummaryView(bad);
+    buffer.flush();
+
+    assertEquals(1, buffer.written(good));
+    assertEquals(0, buffer.getPendingSummaryViews(good));
+    // Kept for the next flush
+    assertEquals(1, buffer.getPendingSummaryViews(bad));
+  }
+
+  @Test
+  public void testDropsViewsAfterMaxAttempts() {
+    buffer.addSummaryView(bad);
+    for (int i = 1; i < ViewCountBuffer.MAX_ATTEMPTS; i++) {
+      buffer.flush();
+      assertEquals(1, buffer.getPendingSummaryViews(bad));
+    }
+    buffer.flush();
+    assertEquals(0, buffer.getPendingSummaryViews(bad));
+
+    // Nothing left to try
+    int attempts = buffer.attempts;
+    buffer.flush();
+    assertEquals(attempts, buffer.attempts);
+  }
+
+  @Test
+  public void testDiscardStopsViewsBeingFlushed() {
+    buffer.addSummaryView(good);
+    buffer.discardWhileWriting = good;
+    buffer.flush();
+
+    assertEquals(0, buffer.written(good));
+    assertEquals(0, buffer.getPendingSummaryViews(good));
+  }
+
+  @Test
+  public void testWrittenViewsNoLongerPending() {
+    buffer.addSummaryView(good);
+    CurrentInstitution.set(institution(2));
+    buffer.addSummaryView(good);
+
+    final List<Integer> pendingOnceWritten = new ArrayList<>();
+    buffer.beforeWrite =
+        () -> {
+          Institution writing = CurrentInstitution.get();
+          for (Institution written : buffer.institutions) {
+            CurrentInstitution.set(written);
+            pendingOnceWritten.add(buffer.getPendingSummaryViews(good));
+          }
+          CurrentInstitution.set(writing);
+        };
+    buffer.flush();
+
+    // While the second institution's views were written, the first's were already in the database
+    assertEquals(Collections.singletonList(0), pendingOnceWritten);
+  }
+
+  @Test
+  public void testDiscard() {
+    buffer.addSummaryView(good);
+    buffer.addAttachmentView(good, "attachment");
+    buffer.discard(good);
+    buffer.flush();
+
+    assertEquals(0, buffer.written(good));
+    assertTrue(buffer.batches.isEmpty());
+  }
+
+  @Test
+  public void testViewOutsideInstitutionIgnored() {
+    CurrentInstitution.remove();
+    buffer.addSummaryView(good);
+    buffer.flush();
+
+    assertTrue(buffer.batches.isEmpty());
+  }
+
+  @Test
+  public void testUnavailableInstitutionFlushed() {
+    buffer.addSummaryView(good);
+    buffer.institutionEvent(event(InstitutionEventType.UNAVAILABLE, institution(1)));
+
+    assertEquals(1, buffer.written(good));
+    assertEquals(0, buffer.getPendingSummaryViews(good));
+  }
+
+  @Test
+  public void testDeletedInstitutionDiscarded() {
+    buffer.addSummaryView(good);
+    CurrentInstitution.set(institution(2));
+    buffer.addSummaryView(good);
+    buffer.institutionEvent(event(InstitutionEventType.DELETED, institution(1)));
+    buffer.flush();
+
+    assertEquals(1, buffer.written(good));
+    assertEquals(Collections.singletonList(institution(2).getUniqueId()), writtenInstitutions());
+  }
+
+  private List<Long> writtenInstitutions() {
+    List<Long> ids = new ArrayList<>();
+    for (Institution institution : buffer.institutions) {
+      ids.add(institution.getUniqueId());
+    }
+    return ids;
+  }
+
+  private static InstitutionEvent event(InstitutionEventType type, Institution institution) {
+    return new InstitutionEvent(type, ImmutableMultimap.of(institution.getUniqueId(), institution));
+  }
+
+  private static Institution institution(long id) {
+    Institution institution = new Institution();
+    institution.setDatabaseId(id);
+    institution.setUniqueId(id);
+    return institution;
+  }
+
+  private class TestBuffer extends ViewCountBuffer {
+    final List<List<PendingViews>> batches = new ArrayList<>();
+    final Set<PendingViews> writtenViews = new HashSet<>();
+    final List<Institution> institutions = new ArrayList<>();
+    ItemKey discardWhileWriting;
+    Runnable beforeWrite = () -> {};
+    int attempts;
+
+    @Override
+    protected void writeViews(Institution institution, List<PendingViews> views) {
+      beforeWrite.run();
+      if (discardWhileWriting != null) {
+        discard(discardWhileWriting);
+        discardWhileWriting = null;
+        throw new IllegalStateException("deadlock");
+      }
+      attempts++;
+      for (PendingViews view : views) {
+        if (view.getItemKey().equals(bad)) {
+          throw new IllegalStateException("constraint violation");
+        }
+      }
+      batches.add(views);
+      writtenViews.addAll(views);
+      institutions.add(institution);
+    }
+
+    int written(ItemKey itemKey) {
+      int count = 0;
+      for (PendingViews view : writtenViews) {
+        if (view.getItemKey().equals(itemKey)) {
+          count += view.getCount();
+        }
+      }
+      return count;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.tle.core.item.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.tle.beans.item.Item;
+import com.tle.beans.item.ItemId;
+import com.tle.beans.item.ItemKey;
+import com.tle.beans.item.ItemPack;
+import com.tle.core.item.operations.FilterResultListener;
+import com.tle.core.services.impl.Task;
+import com.tle.web.bulk.operation.BulkOperationServiceImpl;
+import com.tle.web.bulk.operation.BulkResult;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class OperateAllBatchesTest {
+  private final ExecutorService pool = Executors.newFixedThreadPool(3);
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testReportsEveryItemOnce() throws InterruptedException {
+    Results results = new Results();
+    List<Throwable> errors =
+        OperateAllBatches.run(
+            pool,
+            7,
+            items(100).iterator(),
+            results,
+            new OperateAllBatches.BatchProcessor() {
+              @Override
+              public void process(List<ItemKey> batch, FilterResultListener listener) {
+                for (ItemKey itemId : batch) {
+                  listener.succeeded(itemId, new ItemPack<Item>());
+                }
+              }
+            });
+
+    assertTrue(errors.isEmpty());
+    assertEquals(100, results.succeeded.size());
+    for (int count : results.succeeded.values()) {
+      assertEquals(1, count);
+    }
+  }
+
+  @Test
+  public void testFailsUnreportedItemsOfBrokenBatch() throws InterruptedException {
+    Results results = new Results();
+    final ItemKey broken = new ItemId("item", 12);
+    List<Throwable> errors =
+        OperateAllBatches.run(
+            pool,
+            5,
+            items(20).iterator(),
+            results,
+            new OperateAllBatches.BatchProcessor() {
+              @Override
+              public void process(List<ItemKey> batch, FilterResultListener listener) {
+                for (ItemKey itemId : batch) {
+                  if (itemId.equals(broken)) {
+                    throw new IllegalStateException("institution went away");
+                  }
+                  listener.succeeded(itemId, new ItemPack<Item>());
+                }
+              }
+            });
+
+    assertEquals(1, errors.size());
+    assertEquals("institution went away", errors.get(0).getMessage());
+    // 10 and 11 were reported before the batch broke, 12 to 14 never ran
+    assertEquals(17, results.succeeded.size());
+    assertEquals(3, results.failed.size());
+    assertTrue(results.failed.contains(new ItemId("item", 12)));
+    assertTrue(results.failed.contains(new ItemId("item", 14)));
+    assertEquals(Integer.valueOf(1), results.succeeded.get(new ItemId("item", 11)));
+  }
+
+  @Test
+  public void testNoListener() throws InterruptedException {
+    List<Throwable> errors =
+        OperateAllBatches.run(
+            pool,
+            5,
+            items(10).iterator(),
+            null,
+            new OperateAllBatches.BatchProcessor() {
+              @Override
+              public void process(List<ItemKey> batch, FilterResultListener listener) {
+                assertNull(listener);
+                throw new IllegalStateException();
+              }
+            });
+    assertEquals(2, errors.size());
+  }
+
+  @Test
+  public void testBrokenBatchLoggedByBulkOperation() throws InterruptedException {
+    final List<BulkResult> log = Collections.synchronizedList(new ArrayList<BulkResult>());
+    Task task =
+        new Task() {
+          @Override
+          protected String getTitleKey() {
+            return null;
+          }
+
+          @Override
+          public void addLogEntry(Serializable o) {
+            log.add((BulkResult) o);
+          }
+
+          @Override
+          public Void call() {
+            return null;
+          }
+        };
+    List<ItemKey> items = items(4);
+    BulkOperationServiceImpl.BulkWorkflowFilter filter =
+        new BulkOperationServiceImpl().new BulkWorkflowFilter(task, itemIds(items), null);
+
+    List<Throwable> errors =
+        OperateAllBatches.run(
+            pool,
+            2,
+            items.iterator(),
+            filter,
+            new OperateAllBatches.BatchProcessor() {
+              @Override
+              public void process(List<ItemKey> batch, FilterResultListener listener) {
+                throw new IllegalStateException("institution went away");
+              }
+            });
+
+    assertEquals(2, errors.size());
+    assertEquals(4, log.size());
+    for (BulkResult result : log) {
+      assertFalse(result.isSucceeded());
+      assertEquals("institution went away", result.getReason());
+      assertTrue(result.getName().startsWith("item/"));
+    }
+  }
+
+  private static List<ItemKey> items(int count) {
+    List<ItemKey> items = new ArrayList<ItemKey>();
+    for (int i = 0; i < count; i++) {
+      items.add(new ItemId("item", i));
+    }
+    return items;
+  }
+
+  private static List<ItemId> itemIds(List<ItemKey> keys) {
+    List<ItemId> ids = new ArrayList<ItemId>();
+    for (ItemKey key : keys) {
+      ids.add((ItemId) key);
+    }
+    return ids;
+  }
+
+  private static class Results implements FilterResultListener {
+    final Map<ItemKey, Integer> succeeded =
+        Collections.synchronizedMap(new HashMap<ItemKey, Integer>());
+    final List<ItemKey> failed = Collections.synchronizedList(new ArrayList<ItemKey>());
+
+    @Override
+    public void succeeded(ItemKey itemId, ItemPack<Item> pack) {
+      Integer count = succeeded.get(itemId);
+      succeeded.put(itemId, count == null ? 1 : count + 1);
+    }
+
+    @Override
+    public void failed(ItemKey itemId, Item item, ItemPack<Item> pack, Throwable e) {
+      failed.add(itemId);
+    }
+
+    @Override
+    public void total(int total) {
+      // Not needed
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package com.tle.core.notification.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.tle.beans.Institution;
+import com.tle.core.email.EmailResult;
+import com.tle.common.usermanagement.user.UserState;
+import com.tle.core.institution.FakeInstitutionService;
+import com.tle.core.institution.RunAsInstitution;
+import com.tle.core.notification.EmailKey;
+import com.tle.core.system.service.FakeSchemaDataSourceService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import scala.runtime.BoxedUnit;
+
+@SuppressWarnings("nls")
+public class NotificationServiceImplTest {
+  private final Institution institution = new Institution();
+  private final TestService service = new TestService();
+
+  @Before
+  public void setUp() {
+    service.setInstitutionService(
+        new FakeInstitutionService(ImmutableMultimap.of(1L, institution)));
+    service.setSchemaDataSourceService(new FakeSchemaDataSourceService());
+    service.setRunAs(new DirectRunAs());
+  }
+
+  @Test
+  public void testStatusesSavedAfterEachBatch() {
+    service.batches.add(
+        (completion, statusUpdates) ->
+            statusUpdates.add(institution, Arrays.asList(1L, 2L), Collections.singleton(3L)));
+    service.batches.add(
+        (completion, statusUpdates) -> {
+          // The first batch must already be saved before the next is claimed
+          assertEquals(Arrays.asList(1L, 2L), service.processed);
+          assertEquals(Collections.singletonList(3L), service.deleted);
+        });
+
+    service.emailTask(false);
+
+    assertEquals(1, service.saves);
+  }
+
+  @Test
+  public void testSentStatusesSavedWhileWaitingForEmails() throws Exception {
+    CountDownLatch saved = new CountDownLatch(1);
+    service.onSave = saved::countDown;
+    service.batches.add(
+        (completion, statusUpdates) -> {
+          completion.submit(sent(statusUpdates, 1L));
+          completion.submit(
+              () -> {
+                // The slow email only finishes once the fast one has been saved
+                assertTrue(saved.await(5, TimeUnit.SECONDS));
+                return sent(statusUpdates, 2L).call();
+              });
+        });
+
+    service.emailTask(false);
+
+    assertEquals(Arrays.asList(1L, 2L), service.processed);
+    assertEquals(2, service.saves);
+  }
+
+  private Callable<EmailResult<EmailKey>> sent(NotificationStatusUpdates statusUpdates, long id) {
+    EmailKey key =
+        new EmailKey(
+            UUID.randomUUID(),
+            null,
+            institution,
+            () -> {
+              statusUpdates.add(
+                  institution, Collections.singleton(id), Collections.<Long>emptyList());
+              return BoxedUnit.UNIT;
+            });
+    return () -> new EmailResult<>(null, key);
+  }
+
+  private interface Batch {
+    void process(
+        ExecutorCompletionService<EmailResult<EmailKey>> completion,
+        NotificationStatusUpdates statusUpdates)
+        throws Exception;
+  }
+
+  /** Each call to processUsers runs the next batch, with the emails for it counted. */
+  private static class TestService extends NotificationServiceImpl {
+    final List<Batch> batches = new ArrayList<>();
+    final List<Long> processed = new ArrayList<>();
+    final List<Long> deleted = new ArrayList<>();
+    Runnable onSave = () -> {};
+    int saves;
+
+    @Override
+    protected long processUsers(
+        Date notAfter,
+        Date processTime,
+        ExecutorCompletionService<EmailResult<EmailKey>> completionService,
+        AtomicInteger emailCounter,
+        String attemptId,
+        boolean batched,
+        long afterId,
+        NotificationStatusUpdates statusUpdates) {
+      if (batches.isEmpty()) {
+        return -1;
+      }
+      CountingCompletionService counting =
+          new CountingCompletionService(completionService, emailCounter);
+      try {
+        batches.remove(0).process(counting, statusUpdates);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return afterId + 1;
+    }
+
+    @Override
+    protected void updateStatuses(
+        Collection<Long> processed, Collection<Long> deletes, String attemptId) {
+      saves++;
+      this.processed.addAll(processed);
+      this.deleted.addAll(deletes);
+      onSave.run();
+    }
+  }
+
+  /** Submits to the task's completion service and counts the emails like queueEmails does */
+  private static class CountingCompletionService
+      extends ExecutorCompletionService<EmailResult<EmailKey>> {
+    private final ExecutorCompletionService<EmailResult<EmailKey>> delegate;
+    private final AtomicInteger emailCounter;
+
+    CountingCompletionService(
+        ExecutorCompletionService<EmailResult<EmailKey>> delegate, AtomicInteger emailCounter) {
+      super(Runnable::run);
+      this.delegate = delegate;
+      this.emailCounter = emailCounter;
+    }
+
+    @Override
+    public Future<EmailResult<EmailKey>> submit(Callable<EmailResult<EmailKey>> task) {
+      emailCounter.incrementAndGet();
+      return delegate.submit(task);
+    }
+  }
+
+  /** Runs everything straight away on the calling thread */
+  private static class DirectRunAs implements RunAsInstitution {
+    @Override
+    public <V> V execute(UserState userState, Callable<V> callable) {
+      return call(callable);
+    }
+
+    @Override
+    public void executeAsSystem(Institution institution, Runnable runnable) {
+      runnable.run();
+    }
+
+    @Override
+    public <V> V executeAsSystem(Institution institution, Callable<V> callable) {
+      return call(callable);
+    }
+
+    private static <V> V call(Callable<V> callable) {
+      try {
+        return callable.call();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.tle.core.scheduler.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.tle.beans.Institution;
+import com.tle.common.filters.Filter;
+import com.tle.core.institution.FakeInstitutionService;
+import com.tle.core.plugins.AbstractPluginService.TLEPluginLocation;
+import com.tle.core.plugins.PluginBeanLocator;
+import com.tle.core.plugins.PluginService;
+import com.tle.core.scheduler.SchemaScheduledTask;
+import com.tle.core.services.impl.SingleShotTask;
+import com.tle.core.system.service.FakeSchemaDataSourceService;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.java.plugin.Plugin;
+import org.java.plugin.registry.Extension;
+import org.java.plugin.registry.ExtensionPoint;
+import org.java.plugin.registry.PluginDescriptor;
+import org.java.plugin.registry.PluginRegistry.RegistryChangeListener;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class SchedulerServiceImplTest {
+  private final SchedulerServiceImpl scheduler = new SchedulerServiceImpl();
+  private final FakeSchemaDataSourceService schemas = new FakeSchemaDataSourceService();
+  private final List<String> executed = new ArrayList<>();
+
+  /** Records the schema it was told about and the schema that was really current */
+  private final SchemaScheduledTask task =
+      schemaId -> executed.add(schemaId + " in " + schemas.getCurrentSchema());
+
+  @Before
+  public void setUp() {
+    scheduler.setInstitutionService(
+        new FakeInstitutionService(
+            ImmutableMultimap.of(1L, new Institution(), 2L, new Institution())));
+    scheduler.setSchemaDataSourceService(schemas);
+    scheduler.setPluginService(new TaskPluginService());
+  }
+
+  @Test
+  public void testSchemaShardOnlyRunsItsSchema() throws Exception {
+    ((SingleShotTask) scheduler.createScheduledSchemaTask("plugin", "bean", 2L)).runTask();
+
+    assertEquals(Collections.singletonList("2 in 2"), executed);
+  }
+
+  @Test
+  public void testUnshardedTaskRunsEachSchemaOnce() throws Exception {
+    ((SingleShotTask)
+            scheduler.createScheduledTask("plugin", "bean", Institution.FAKE.getUniqueId()))
+        .runTask();
+
+    assertEquals(Arrays.asList("1 in 1", "2 in 2"), executed);
+  }
+
+  /** Every bean is the task, and there are no extensions to track */
+  private class TaskPluginService implements PluginService {
+    @Override
+    public Object getBean(String id, String clazzName) {
+      return task;
+    }
+
+    @Override
+    public void registerExtensionListener(
+        String pluginId, String extensionId, RegistryChangeListener listener) {
+      // Nothing ever changes
+    }
+
+    @Override
+    public PluginBeanLocator getBeanLocator(String pluginId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PluginDescriptor getPluginDescriptor(String id) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ExtensionPoint getExtensionPoint(String pluginId, String pointId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<Extension> getConnectedExtensions(String pluginId, String pointId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object getBean(PluginDescriptor plugin, String clazzName) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterable<URL> getLocalClassPath(String pluginId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ClassLoader getClassLoader(PluginDescriptor plugin) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ClassLoader getClassLoader(String pluginId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void ensureActivated(PluginDescriptor plugin) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getPluginIdForObject(Object object) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Plugin getPluginForObject(Object object) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isPluginDisabled(TLEPluginLocation location) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<String, TLEPluginLocation> getPluginIdToLocation() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<PluginDescriptor> getAllPluginsAndDependencies(
+        Filter<PluginDescriptor> filter, Set<String> disallowed, boolean includeOptional) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void initLocatorsFor(List<Extension> extensions) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
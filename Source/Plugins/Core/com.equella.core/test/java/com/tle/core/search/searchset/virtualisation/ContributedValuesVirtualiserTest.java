@@ -0,0 +1,254 @@
+package com.tle.core.search.searchset.virtualisation;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.tle.beans.Institution;
+import com.tle.beans.hierarchy.HierarchyTopic;
+import com.tle.common.Pair;
+import com.tle.common.hierarchy.SearchSetAdapter;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.common.search.DefaultSearch;
+import com.tle.common.search.searchset.SearchSet;
+import com.tle.common.searching.Search;
+import com.tle.common.searching.SearchResults;
+import com.tle.common.settings.standard.SearchSettings;
+import com.tle.common.usermanagement.user.AbstractUserState;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.core.freetext.index.ItemIndex;
+import com.tle.core.freetext.indexer.IndexingExtension;
+import com.tle.core.freetext.queries.FreeTextBooleanQuery;
+import com.tle.core.remoting.MatrixResults;
+import com.tle.core.search.VirtualisableAndValue;
+import com.tle.core.search.searchset.SearchSetService;
+import com.tle.core.services.item.FreetextResult;
+import com.tle.freetext.FreetextIndex;
+import com.tle.freetext.IndexedItem;
+import it.uniroma3.mat.extendedset.wrappers.LongSet;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ContributedValuesVirtualiserTest {
+  private static final String PATH = "/item/subject";
+
+  private final ContributedValuesVirtualiser virtualiser =
+      new ContributedValuesVirtualiser(1024, new SubjectIndex(), new PlainSearchSetService());
+  private final SearchSet set = topic();
+  private int facetCounts;
+
+  @Before
+  public void setUp() {
+    Institution institution = new Institution();
+    institution.setUniqueId(1);
+    CurrentInstitution.set(institution);
+    CurrentUser.setUserState(new SystemUserState());
+  }
+
+  @After
+  public void tearDown() {
+    CurrentInstitution.remove();
+    CurrentUser.setUserState(null);
+  }
+
+  @Test
+  public void testCollectionFiltersCountedSeparately() {
+    assertEquals(1, expand("collection1"));
+    assertEquals(2, expand("collection1", "collection2"));
+    assertEquals(2, facetCounts);
+
+    assertEquals(2, expand("collection2", "collection1"));
+    assertEquals(1, expand("collection1"));
+    assertEquals(2, facetCounts);
+  }
+
+  private static SearchSet topic() {
+    HierarchyTopic topic = new HierarchyTopic();
+    topic.setVirtualisationPath(PATH);
+    return new SearchSetAdapter(topic);
+  }
+
+  private int expand(String... collectionUuids) {
+    List<VirtualisableAndValue<String>> rv = new ArrayList<>();
+    virtualiser.expandSearchSet(
+        rv,
+        "topic",
+        set,
+        Collections.<String, String>emptyMap(),
+        Arrays.asList(collectionUuids),
+        new VirtualisationHelper<String>() {
+          @Override
+          public SearchSet getSearchSet(String obj) {
+            return set;
+          }
+
+          @Override
+          public String newFromPrototypeForValue(String obj, String value) {
+            return obj + '/' + value;
+          }
+        });
+    assertEquals(1, rv.size());
+    return rv.get(0).getCount();
+  }
+
+  private static class SystemUserState extends AbstractUserState {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public boolean isSystem() {
+      return true;
+    }
+  }
+
+  /** Topics without any query or clauses of their own */
+  private static class PlainSearchSetService implements SearchSetService {
+    @Override
+    public String getFreetextQuery(SearchSet topic) {
+      return null;
+    }
+
+    @Override
+    public FreeTextBooleanQuery getSearchClausesNoVirtualisation(SearchSet searchSet) {
+      return null;
+    }
+
+    @Override
+    public <T> List<VirtualisableAndValue<T>> expandSearchSets(
+        Collection<T> objs,
+        Map<String, String> mappedValues,
+        Collection<String> collectionUuids,
+        VirtualisationHelper<T> helper) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FreeTextBooleanQuery getSearchClauses(
+        SearchSet searchSet, Map<String, String> virtualisationValues) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Every item in a collection has the same subject, so the count is the number of collections.
+   * The index never changes.
+   */
+  private class SubjectIndex implements FreetextIndex {
+    @Override
+    public long getIndexVersion() {
+      return 1L;
+    }
+
+    @Override
+    public Multimap<String, Pair<String, Integer>> facetCount(
+        Search search, Collection<String> fields) {
+      facetCounts++;
+      Multimap<String, Pair<String, Integer>> counts = ArrayListMultimap.create();
+      counts.put(
+          PATH, new Pair<>("Mathematics", ((DefaultSearch) search).getCollectionUuids().size()));
+      return counts;
+    }
+
+    @Override
+    public void deleteIndexes() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void indexBatch(List<IndexedItem> batch) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SearchSettings getSearchSettings() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<IndexingExtension> getIndexingExtensions() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public File getStopWordsFile() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getAnalyzerLanguage() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getDefaultOperator() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public File getRootIndexPath() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends FreetextResult> SearchResults<T> search(
+        Search searchReq, int start, int count) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends FreetextResult> SearchResults<T> search(
+        Search searchReq, int start, int count, boolean searchAttachments) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends FreetextResult> SearchResults<T> searchAfter(
+        Search searchReq, String afterId, int count, boolean searchAttachments) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public LongSet searchBitSet(Search searchReq) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int count(Search searchReq) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MatrixResults matrixSearch(
+        Search searchRequest, List<String> fields, boolean countOnly, boolean searchAttachments) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ItemIndex<? extends FreetextResult> getIndexer(String indexItem) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getSynchroniseMinutes() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void prepareItemsForIndexing(Collection<IndexedItem> inditems) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String suggestTerm(Search request, String prefix) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
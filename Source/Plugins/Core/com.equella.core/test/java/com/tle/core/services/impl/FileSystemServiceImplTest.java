@@ -0,0 +1,228 @@
+package com.tle.core.services.impl;
+
+import static com.tle.core.services.FileSystemService.PACKAGE_ARCHIVE_MARKER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import com.tle.common.filesystem.FileEntry;
+import com.tle.common.filesystem.handle.StagingFile;
+import com.tle.core.util.archive.ArchiveType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Walks of packages left in their archive see the same files as walks of extracted ones */
+@SuppressWarnings("nls")
+public class FileSystemServiceImplTest {
+  private static final String PACKAGE = "package.zip";
+
+  private final Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+  private final StagingFile archived = new StagingFile("archived");
+  private final StagingFile extracted = new StagingFile("extracted");
+  private File root;
+  private FileSystemServiceImpl service;
+
+  @Before
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("filesystem").toFile();
+    service = new FileSystemServiceImpl(root, "UTF-8", 1);
+
+    files.put("imsmanifest.xml", "<manifest/>".getBytes(StandardCharsets.UTF_8));
+    files.put("content/page.html", "<p>Page</p>".getBytes(StandardCharsets.UTF_8));
+    files.put("content/b.txt", "b".getBytes(StandardCharsets.UTF_8));
+    files.put("content/images/a.png", new byte[] {1, 2, 3});
+
+    for (StagingFile handle : new StagingFile[] {archived, extracted}) {
+      File zip = service.getExternalFile(handle, "_IMS/" + PACKAGE);
+      zip.getParentFile().mkdirs();
+      try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+          out.putNextEntry(new ZipEntry(file.getKey()));
+          out.write(file.getValue());
+        }
+      }
+    }
+    service.unzipPackage(archived, "_IMS/" + PACKAGE, PACKAGE);
+    service.unzipFile(extracted, "_IMS/" + PACKAGE, PACKAGE);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> walk = Files.walk(root.toPath())) {
+      walk.sorted(Collections.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testOnlyManifestExtracted() {
+    assertTrue(service.getExternalFile(archived, PACKAGE + "/imsmanifest.xml").exists());
+    assertFalse(service.getExternalFile(archived, PACKAGE + "/content").exists());
+  }
+
+  @Test
+  public void testEnumerate() {
+    Map<String, Boolean> folders = new HashMap<String, Boolean>();
+    for (FileEntry entry : service.enumerate(archived, PACKAGE + "/content", null)) {
+      folders.put(entry.getName(), entry.isFolder());
+    }
+    Map<String, Boolean> expected = new HashMap<String, Boolean>();
+    expected.put("page.html", false);
+    expected.put("b.txt", false);
+    expected.put("images", true);
+    assertEquals(expected, folders);
+
+    FileEntry[] images = service.enumerate(archived, PACKAGE + "/content/images", null);
+    assertEquals(1, images.length);
+    assertEquals(3, images[0].getLength());
+  }
+
+  @Test
+  public void testMarkerNotListed() {
+    for (FileEntry entry : service.enumerate(archived, PACKAGE, null)) {
+      assertFalse(entry.getName().equals(PACKAGE_ARCHIVE_MARKER));
+    }
+    assertFalse(
+        service
+            .enumerateTree(archived, "", null)
+            .foldToPaths()
+            .contains(PACKAGE + "/" + PACKAGE_ARCHIVE_MARKER));
+  }
+
+  @Test
+  public void testEnumerateTree() {
+    List<String> paths = service.enumerateTree(archived, "", null).foldToPaths();
+    assertTrue(paths.contains(PACKAGE + "/imsmanifest.xml"));
+    assertTrue(paths.contains(PACKAGE + "/content/page.html"));
+    assertTrue(paths.contains(PACKAGE + "/content/images/a.png"));
+
+    FileEntry content = service.enumerateTree(archived, PACKAGE + "/content", null);
+    assertTrue(content.isFolder());
+    assertEquals(
+        service.enumerateTree(extracted, PACKAGE + "/content", null).foldToPaths(),
+        content.foldToPaths());
+  }
+
+  @Test
+  public void testGrep() {
+    assertEquals(
+        sorted(service.grep(extracted, "", "**")),
+        sorted(service.grep(archived, "", "**")));
+    assertEquals(
+        Collections.singletonList("content/page.html"),
+        service.grep(archived, PACKAGE, "content/*.html"));
+    assertEquals(Collections.emptyList(), service.grep(archived, PACKAGE, "*.html"));
+    assertEquals(
+        sorted(service.grepIncludingDirs(extracted, PACKAGE + "/content", "*")),
+        sorted(service.grepIncludingDirs(archived, PACKAGE + "/content", "*")));
+  }
+
+  @Test
+  public void testApplyGivesReadablePaths() {
+    Map<String, byte[]> read = new HashMap<String, byte[]>();
+    service.apply(
+        archived,
+        PACKAGE,
+        "**",
+        (file, relFilepath) -> {
+          try {
+            read.put(relFilepath, Files.readAllBytes(file));
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        });
+    for (Map.Entry<String, byte[]> file : files.entrySet()) {
+      assertArrayEquals(file.getValue(), read.get(file.getKey()));
+    }
+  }
+
+  @Test
+  public void testSizesAndChecksums() throws IOException {
+    assertEquals(service.countFiles(extracted, PACKAGE), service.countFiles(archived, PACKAGE));
+    assertEquals(
+        service.recursivefileLength(extracted, PACKAGE),
+        service.recursivefileLength(archived, PACKAGE));
+    assertEquals(
+        service.getMD5Checksum(extracted, PACKAGE), service.getMD5Checksum(archived, PACKAGE));
+    assertEquals(
+        service.getMD5Checksum(extracted, PACKAGE + "/content/images/a.png"),
+        service.getMD5Checksum(archived, PACKAGE + "/content/images/a.png"));
+  }
+
+  @Test
+  public void testZipFile() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    service.zipFile(archived, PACKAGE, out, ArchiveType.ZIP, null);
+
+    Map<String, byte[]> zipped = new HashMap<String, byte[]>();
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        zipped.put(entry.getName(), ByteStreams.toByteArray(in));
+      }
+    }
+    for (Map.Entry<String, byte[]> file : files.entrySet()) {
+      assertArrayEquals(file.getKey(), file.getValue(), zipped.get(file.getKey()));
+    }
+    assertEquals(files.size(), zipped.size());
+  }
+
+  @Test
+  public void testDeleteArchivedFile() {
+    assertTrue(service.removeFile(archived, PACKAGE + "/content/b.txt"));
+
+    List<String> paths = service.enumerateTree(archived, PACKAGE, null).foldToPaths();
+    assertFalse(paths.contains(PACKAGE + "/content/b.txt"));
+    assertFalse(service.fileExists(archived, PACKAGE + "/content/b.txt"));
+    // The rest of the package has been extracted so that the file stays deleted
+    assertTrue(service.getExternalFile(archived, PACKAGE + "/content/page.html").exists());
+    assertFalse(
+        service.getExternalFile(archived, PACKAGE + "/" + PACKAGE_ARCHIVE_MARKER).exists());
+  }
+
+  @Test
+  public void testRenamePackageFolder() throws IOException {
+    assertTrue(service.rename(archived, PACKAGE, "renamed"));
+
+    assertEquals(
+        sorted(service.grep(extracted, PACKAGE, "**")),
+        sorted(service.grep(archived, "renamed", "**")));
+    assertArrayEquals(
+        files.get("content/images/a.png"),
+        Files.readAllBytes(
+            service.getExternalFile(archived, "renamed/content/images/a.png").toPath()));
+  }
+
+  @Test
+  public void testDeleteArchive() {
+    assertTrue(service.removeFile(archived, "_IMS/" + PACKAGE));
+    assertEquals(
+        sorted(service.grep(extracted, PACKAGE, "**")),
+        sorted(service.grep(archived, PACKAGE, "**")));
+  }
+
+  private static List<String> sorted(List<String> paths) {
+    List<String> sorted = new ArrayList<String>(paths);
+    Collections.sort(sorted);
+    return sorted;
+  }
+}
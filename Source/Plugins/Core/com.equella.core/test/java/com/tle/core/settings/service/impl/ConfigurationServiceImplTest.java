@@ -0,0 +1,250 @@
+package com.tle.core.settings.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.tle.beans.ConfigurationProperty;
+import com.tle.beans.ConfigurationProperty.PropertyKey;
+import com.tle.beans.Institution;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.core.events.ApplicationEvent;
+import com.tle.core.events.services.EventService;
+import com.tle.core.institution.FakeInstitutionService;
+import com.tle.core.settings.dao.impl.ConfigurationDaoImpl;
+import com.tle.core.settings.events.ConfigurationChangedEvent;
+import com.tle.core.settings.service.impl.ConfigurationServiceImpl.Derived;
+import com.tle.core.settings.service.impl.ConfigurationServiceImpl.Snapshot;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.hibernate.criterion.Criterion;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@SuppressWarnings("nls")
+public class ConfigurationServiceImplTest {
+  private final Map<String, String> database = new HashMap<>();
+  private final List<Collection<String>> loads = new ArrayList<>();
+  private final List<ConfigurationChangedEvent> published = new ArrayList<>();
+  private final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+  private final MapConfigurationDao dao = new MapConfigurationDao();
+
+  private ConfigurationServiceImpl service;
+
+  @Before
+  public void setUp() {
+    Institution institution = new Institution();
+    institution.setDatabaseId(1);
+    CurrentInstitution.set(institution);
+
+    service = wire(new TestService());
+
+    database.put("search.defaults.sort", "rank");
+    database.put("login.notice", "Welcome");
+  }
+
+  @After
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    CurrentInstitution.remove();
+    otherThread.shutdownNow();
+  }
+
+  @Test
+  public void testDependsOnPrefixes() {
+    Derived search = new Derived(new Object(), Arrays.asList("search.defaults.", "search.mode"));
+
+    assertTrue(search.dependsOn(Collections.singleton("search.defaults.sort")));
+    assertTrue(search.dependsOn(Collections.singleton("search.mode")));
+    // A change to a shorter prefix covers everything underneath it
+    assertTrue(search.dependsOn(Collections.singleton("search.")));
+    assertFalse(search.dependsOn(Collections.singleton("search.other")));
+    assertFalse(search.dependsOn(Arrays.asList("login.notice", "searching")));
+  }
+
+  @Test
+  public void testUnaffectedCarriedOver() {
+    Snapshot snapshot = new Snapshot(database, null);
+    Derived search = snapshot.derive("search", new Object(), Collections.singleton("search."));
+    Derived login = snapshot.derive("login", new Object(), Collections.singleton("login."));
+
+    Map<Object, Derived> unaffected =
+        snapshot.unaffectedBy(Collections.singleton("search.defaults.sort"));
+    assertEquals(1, unaffected.size());
+    assertSame(login, unaffected.get("login"));
+
+    assertSame(search, snapshot.derive("search", new Object(), Collections.singleton("search.")));
+  }
+
+  @Test
+  public void testChangeReloadsOnlyChangedProperties() {
+    assertEquals("rank", service.getProperty("search.defaults.sort"));
+    assertEquals(Collections.singletonList(null), loads);
+
+    database.put("search.defaults.sort", "name");
+    service.setProperty("search.defaults.sort", "name");
+    assertEquals("name", service.getProperty("search.defaults.sort"));
+    assertEquals("Welcome", service.getProperty("login.notice"));
+    assertEquals(Arrays.asList(null, Collections.singletonList("search.defaults.sort")), loads);
+    assertEquals(1, published.size());
+  }
+
+  @Test
+  public void testChangePublishedOnCommit() throws Exception {
+    assertEquals("rank", service.getProperty("search.defaults.sort"));
+
+    TransactionSynchronizationManager.initSynchronization();
+    database.put("search.defaults.sort", "name");
+    service.setProperty("search.defaults.sort", "name");
+
+    assertEquals("name", service.getProperty("search.defaults.sort"));
+    assertEquals("rank", readElsewhere("search.defaults.sort"));
+    assertTrue(published.isEmpty());
+
+    complete(TransactionSynchronization.STATUS_COMMITTED);
+    assertEquals("name", readElsewhere("search.defaults.sort"));
+    assertEquals("name", service.getProperty("search.defaults.sort"));
+    assertEquals(
+        Collections.singletonList("search.defaults.sort"), published.get(0).getProperties());
+  }
+
+  @Test
+  public void testChangeDiscardedOnRollback() throws Exception {
+    assertEquals("rank", service.getProperty("search.defaults.sort"));
+
+    TransactionSynchronizationManager.initSynchronization();
+    database.put("search.defaults.sort", "name");
+    service.setProperty("search.defaults.sort", "name");
+    assertEquals("name", service.getProperty("search.defaults.sort"));
+
+    database.put("search.defaults.sort", "rank");
+    complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+    int loaded = loads.size();
+    assertEquals("rank", service.getProperty("search.defaults.sort"));
+    assertEquals("rank", readElsewhere("search.defaults.sort"));
+    assertEquals(loaded, loads.size());
+    assertTrue(published.isEmpty());
+  }
+
+  @Test
+  public void testRollbackNotPublishedWhenNothingLoaded() throws Exception {
+    // The real loading code against the DAO
+    service = wire(new ConfigurationServiceImpl());
+
+    TransactionSynchronizationManager.initSynchronization();
+    service.setProperty("search.defaults.sort", "name");
+    assertEquals("name", service.getProperty("search.defaults.sort"));
+
+    dao.uncommitted.clear();
+    complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+    assertEquals("rank", readElsewhere("search.defaults.sort"));
+    assertEquals("rank", service.getProperty("search.defaults.sort"));
+    assertTrue(published.isEmpty());
+  }
+
+  private String readElsewhere(String property) throws Exception {
+    Institution institution = CurrentInstitution.get();
+    return otherThread
+        .submit(
+            new Callable<String>() {
+              @Override
+              public String call() {
+                CurrentInstitution.set(institution);
+                return service.getProperty(property);
+              }
+            })
+        .get();
+  }
+
+  private static void complete(int status) {
+    List<TransactionSynchronization> synchronizations =
+        TransactionSynchronizationManager.getSynchronizations();
+    for (TransactionSynchronization synchronization : synchronizations) {
+      synchronization.afterCompletion(status);
+    }
+    TransactionSynchronizationManager.clearSynchronization();
+  }
+
+  private ConfigurationServiceImpl wire(ConfigurationServiceImpl service) {
+    service.setInstitutionService(
+        new FakeInstitutionService(ImmutableMultimap.of(1L, CurrentInstitution.get())));
+    service.setConfigurationDao(dao);
+    service.setEventService(new RecordingEventService());
+    return service;
+  }
+
+  /** Reads from a map rather than the database */
+  private class TestService extends ConfigurationServiceImpl {
+    @Override
+    Snapshot loadSnapshot(Snapshot previous, Collection<String> changed) {
+      synchronized (loads) {
+        loads.add(previous == null ? null : changed);
+      }
+      Map<String, String> values = new HashMap<>();
+      if (previous != null) {
+        values.putAll(previous.values);
+      }
+      for (Map.Entry<String, String> entry : database.entrySet()) {
+        if (previous == null || changed.contains(entry.getKey())) {
+          values.put(entry.getKey(), entry.getValue());
+        }
+      }
+      return new Snapshot(values, previous == null ? null : previous.unaffectedBy(changed));
+    }
+  }
+
+  /** Like Hibernate, flushes the transaction's own changes before querying */
+  private class MapConfigurationDao extends ConfigurationDaoImpl {
+    final Map<String, String> uncommitted = new HashMap<>();
+
+    @Override
+    public ConfigurationProperty merge(ConfigurationProperty prop) {
+      uncommitted.put(prop.getKey().getProperty(), prop.getValue());
+      return prop;
+    }
+
+    @Override
+    public List<ConfigurationProperty> findAllByCriteria(Criterion... criterion) {
+      Map<String, String> visible = new HashMap<>(database);
+      if (TransactionSynchronizationManager.isSynchronizationActive()) {
+        visible.putAll(uncommitted);
+      }
+      List<ConfigurationProperty> props = new ArrayList<>();
+      for (Map.Entry<String, String> entry : visible.entrySet()) {
+        ConfigurationProperty prop = new ConfigurationProperty();
+        prop.setKey(new PropertyKey(1, entry.getKey()));
+        prop.setValue(entry.getValue());
+        props.add(prop);
+      }
+      return props;
+    }
+  }
+
+  private class RecordingEventService implements EventService {
+    @Override
+    public void publishApplicationEvent(ApplicationEvent<?> event) {
+      published.add((ConfigurationChangedEvent) event);
+    }
+
+    @Override
+    public void publishApplicationEvent(
+        Collection<Institution> institutions, ApplicationEvent<?> event) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
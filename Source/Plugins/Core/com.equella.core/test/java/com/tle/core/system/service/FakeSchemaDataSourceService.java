@@ -0,0 +1,63 @@
+package com.tle.core.system.service;
+
+import com.tle.beans.DatabaseSchema;
+import com.tle.core.hibernate.DataSourceHolder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/** Runs code for a schema on the calling thread, keeping track of which schema is current */
+public class FakeSchemaDataSourceService implements SchemaDataSourceService {
+  private Long currentSchema;
+
+  /** @return the schema the running code was given, or null outside of executeWithSchema */
+  public Long getCurrentSchema() {
+    return currentSchema;
+  }
+
+  @Override
+  public <V> V executeWithSchema(long schemaId, Callable<V> code) {
+    Long previous = currentSchema;
+    currentSchema = schemaId;
+    try {
+      return code.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    } finally {
+      currentSchema = previous;
+    }
+  }
+
+  @Override
+  public <V> Future<V> executeWithSchema(
+      ExecutorService executor, long schemaId, Callable<V> code) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public DataSourceHolder getDataSourceForId(long schemaId) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public DataSourceHolder getReportingDataSourceForId(long schemaId) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removeFromCache(long schemaId) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String[] getConnectionDetails(DatabaseSchema schema) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removeSchemaDataSource(long schemaId) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,243 @@
+package com.tle.core.url;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class HostQueueSchedulerTest {
+  private static final long DELAY = 100;
+
+  private final FakeClock clock = new FakeClock();
+
+  @Test
+  public void testDelaysChecksOfTheSameHost() throws Exception {
+    Map<String, Long> started =
+        run(
+            DELAY,
+            "http://a.example.com/1",
+            "http://a.example.com/2",
+            "http://A.example.com/3",
+            "http://b.example.com/1");
+
+    assertEquals(0, started.get("http://a.example.com/1").longValue());
+    assertEquals(DELAY, started.get("http://a.example.com/2").longValue());
+    assertEquals(2 * DELAY, started.get("http://A.example.com/3").longValue());
+    // A different host doesn't wait for the first
+    assertEquals(0, started.get("http://b.example.com/1").longValue());
+  }
+
+  @Test
+  public void testNoDelay() throws Exception {
+    Map<String, Long> started =
+        run(0, "http://a.example.com/1", "http://a.example.com/2", "http://b.example.com/1");
+
+    for (long time : started.values()) {
+      assertEquals(0, time);
+    }
+    assertEquals(0, clock.now);
+  }
+
+  @Test
+  public void testLimitsChecksInFlight() throws Exception {
+    final int maxConcurrent = 3;
+    final int maxPerHost = 2;
+    final List<String> urls =
+        Lists.newArrayList(
+            "http://a.example.com/1",
+            "http://a.example.com/2",
+            "http://a.example.com/3",
+            "http://a.example.com/4",
+            "http://a.example.com/5",
+            "http://b.example.com/1",
+            "http://b.example.com/2",
+            "http://c.example.com/1");
+    final PendingChecks pending = new PendingChecks();
+    final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> scheduler =
+          executor.submit(
+              () -> {
+                new HostQueueScheduler<String>(maxConcurrent, maxPerHost, 0)
+                    .run(
+                        urls.iterator(),
+                        Functions.<String>identity(),
+                        new Function<String, ListenableFuture<String>>() {
+                          @Override
+                          public ListenableFuture<String> apply(String url) {
+                            return pending.start(url);
+                          }
+                        },
+                        new HostQueueScheduler.ResultHandler<String>() {
+                          @Override
+                          public void completed(String url) {
+                            completed.add(url);
+                          }
+                        });
+                return null;
+              });
+
+      for (int done = 0; done < urls.size(); done++) {
+        // Whatever the limits allow has started before anything completes
+        waitFor(() -> pending.startable(urls, maxConcurrent, maxPerHost) == 0);
+        assertTrue(pending.inFlight() <= maxConcurrent);
+        pending.completeOldest();
+      }
+      scheduler.get(5, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(urls.size(), completed.size());
+    assertEquals(maxConcurrent, pending.mostInFlight);
+    assertEquals(maxPerHost, pending.mostPerHost);
+  }
+
+  @Test
+  public void testHostOf() {
+    assertEquals("www.example.com", HostQueueScheduler.hostOf("https://WWW.example.com:8443/x"));
+    assertEquals("", HostQueueScheduler.hostOf("beatlejuice"));
+  }
+
+  private Map<String, Long> run(long delay, String... urls) throws InterruptedException {
+    final Map<String, Long> started = Maps.newHashMap();
+    final List<String> completed = Lists.newArrayList();
+    new HostQueueScheduler<String>(10, 1, delay, clock)
+        .run(
+            Lists.newArrayList(urls).iterator(),
+            Functions.<String>identity(),
+            new Function<String, ListenableFuture<String>>() {
+              @Override
+              public ListenableFuture<String> apply(String url) {
+                assertFalse("Started twice: " + url, started.containsKey(url));
+                started.put(url, clock.now);
+                return Futures.immediateFuture(url);
+              }
+            },
+            new HostQueueScheduler.ResultHandler<String>() {
+              @Override
+              public void completed(String url) {
+                completed.add(url);
+              }
+            });
+    assertEquals(urls.length, completed.size());
+    return started;
+  }
+
+  /** Checks which only complete when the test says so */
+  private static class PendingChecks {
+    private final Map<String, SettableFuture<String>> checks =
+        new LinkedHashMap<String, SettableFuture<String>>();
+    private final Map<String, Integer> perHost = new HashMap<String, Integer>();
+    private final List<String> started = new ArrayList<String>();
+    int mostInFlight;
+    int mostPerHost;
+
+    synchronized ListenableFuture<String> start(String url) {
+      assertFalse("Started twice: " + url, started.contains(url));
+      started.add(url);
+      SettableFuture<String> check = SettableFuture.create();
+      checks.put(url, check);
+      String host = HostQueueScheduler.hostOf(url);
+      int active = count(host) + 1;
+      perHost.put(host, active);
+      mostInFlight = Math.max(mostInFlight, checks.size());
+      mostPerHost = Math.max(mostPerHost, active);
+      return check;
+    }
+
+    synchronized int inFlight() {
+      return checks.size();
+    }
+
+    /** @return how many more checks could start without going over either limit */
+    synchronized int startable(List<String> urls, int maxConcurrent, int maxPerHost) {
+      Map<String, Integer> waiting = new HashMap<String, Integer>();
+      for (String url : urls) {
+        if (!started.contains(url)) {
+          String host = HostQueueScheduler.hostOf(url);
+          Integer count = waiting.get(host);
+          waiting.put(host, count == null ? 1 : count + 1);
+        }
+      }
+      int startable = 0;
+      for (Map.Entry<String, Integer> host : waiting.entrySet()) {
+        startable += Math.min(host.getValue(), maxPerHost - count(host.getKey()));
+      }
+      return Math.min(startable, maxConcurrent - checks.size());
+    }
+
+    void completeOldest() {
+      String url;
+      SettableFuture<String> check;
+      synchronized (this) {
+        url = checks.keySet().iterator().next();
+        check = checks.remove(url);
+        String host = HostQueueScheduler.hostOf(url);
+        perHost.put(host, count(host) - 1);
+      }
+      check.set(url);
+    }
+
+    private int count(String host) {
+      Integer count = perHost.get(host);
+      return count == null ? 0 : count;
+    }
+  }
+
+  private interface Condition {
+    boolean holds();
+  }
+
+  private static void waitFor(Condition condition) throws InterruptedException {
+    long until = System.currentTimeMillis() + 5000;
+    while (!condition.holds()) {
+      if (System.currentTimeMillis() > until) {
+        fail("Timed out waiting");
+      }
+      Thread.sleep(5);
+    }
+  }
+
+  /** Time only passes when the scheduler waits with nothing to do */
+  private static class FakeClock implements HostQueueScheduler.Clock {
+    long now;
+
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+
+    @Override
+    public <E> E poll(BlockingQueue<E> queue, long millis) {
+      E head = queue.poll();
+      if (head == null) {
+        now += millis;
+      }
+      return head;
+    }
+  }
+}
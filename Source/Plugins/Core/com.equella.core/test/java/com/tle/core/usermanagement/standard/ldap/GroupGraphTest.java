@@ -0,0 +1,319 @@
+package com.tle.core.usermanagement.standard.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.tle.beans.usermanagement.standard.LDAPSettings;
+import com.tle.common.usermanagement.user.valuebean.GroupBean;
+import com.tle.core.encryption.EncryptionService;
+import com.tle.core.usermanagement.standard.ldap.LDAP.InContext;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.naming.directory.DirContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class GroupGraphTest {
+  private static final String BASE = "dc=example,dc=com";
+  private static final long HOUR = 60 * 60 * 1000L;
+
+  private InMemoryDirectoryServer server;
+  private final List<String> searches = Collections.synchronizedList(new ArrayList<String>());
+  private final List<LDAP> created = new ArrayList<LDAP>();
+
+  @Before
+  public void setUp() throws Exception {
+    InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+    config.addAdditionalBindCredentials("cn=admin", "secret");
+    config.addInMemoryOperationInterceptor(
+        new InMemoryOperationInterceptor() {
+          @Override
+          public void processSearchRequest(InMemoryInterceptedSearchRequest request) {
+            searches.add(request.getRequest().getFilter().toString());
+          }
+        });
+    server = new InMemoryDirectoryServer(config);
+    server.add("dn: " + BASE, "objectClass: domain", "dc: example");
+    server.add("dn: ou=people," + BASE, "objectClass: organizationalUnit", "ou: people");
+    server.add("dn: ou=groups," + BASE, "objectClass: organizationalUnit", "ou: groups");
+    addUser("alice");
+    addUser("bob");
+    // everyone > faculty > staff > alice
+    addGroup("staff", user("alice"));
+    addGroup("faculty", group("staff"));
+    addGroup("everyone", group("faculty"), user("bob"));
+    addGroup("other", user("bob"));
+    server.startListening();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    for (LDAP ldap : created) {
+      ldap.getGroupGraph().awaitLoading();
+    }
+    server.shutDown(true);
+  }
+
+  @Test
+  public void testFirstLoadInBackground() throws Exception {
+    final LDAP ldap = newLDAP(500, HOUR, HOUR);
+    // The directory is searched while the groups load
+    assertEquals(names("staff", "faculty", "everyone"), groupsContaining(ldap, "alice"));
+    try {
+      ldap.getGroupGraph().getGroups();
+      fail("Groups loaded before the background load finished");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertEquals(4, awaitGroups(ldap).size());
+  }
+
+  @Test
+  public void testNestedGroupsFromMemory() throws Exception {
+    LDAP ldap = newLDAP(500, HOUR, HOUR);
+    awaitGroups(ldap);
+    assertEquals(names("staff", "faculty", "everyone"), groupsContaining(ldap, "alice"));
+    assertEquals(names("everyone", "other"), groupsContaining(ldap, "bob"));
+
+    // Only the user and the groups they're directly in are searched for, however deep the nesting
+    searches.clear();
+    assertEquals(names("staff", "faculty", "everyone"), groupsContaining(ldap, "alice"));
+    assertEquals(2, searches.size());
+  }
+
+  @Test
+  public void testSubgroupsAndParents() throws Exception {
+    final LDAP ldap = newLDAP(500, HOUR, HOUR);
+    awaitGroups(ldap);
+    List<GroupBean> subgroups =
+        ldap.doAsAdmin(
+            new InContext<List<GroupBean>>() {
+              @Override
+              public List<GroupBean> execute(DirContext ctx) {
+                return ldap.getGroupSearch().searchGroupsInGroup(ctx, "", "everyone", true);
+              }
+            });
+    assertEquals(names("faculty", "staff"), ids(subgroups));
+
+    GroupBean parent =
+        ldap.doAsAdmin(
+            new InContext<GroupBean>() {
+              @Override
+              public GroupBean execute(DirContext ctx) {
+                return ldap.getGroupSearch().getParentGroupForGroup(ctx, "staff");
+              }
+            });
+    assertEquals("faculty", parent.getUniqueID());
+  }
+
+  @Test
+  public void testLoadsEveryPage() throws Exception {
+    for (int i = 0; i < 7; i++) {
+      addGroup("extra" + i, user("bob"));
+    }
+    LDAP ldap = newLDAP(2, HOUR, HOUR);
+    assertEquals(11, awaitGroups(ldap).size());
+  }
+
+  @Test
+  public void testRefreshesChangedGroups() throws Exception {
+    LDAP ldap = newLDAP(500, 0, HOUR);
+    awaitGroups(ldap);
+
+    // Move staff out of faculty, and nest the other group in a new one
+    server.modify(
+        group("faculty"), new Modification(ModificationType.REPLACE, "member", user("bob")));
+    addGroup("new", group("other"));
+
+    searches.clear();
+    refresh(ldap);
+    // Only the changed groups were searched for
+    assertEquals(1, searches.size());
+    assertTrue(searches.toString(), searches.get(0).contains("modifyTimestamp>="));
+    assertEquals(names("staff"), groupsContaining(ldap, "alice"));
+    assertEquals(names("faculty", "everyone", "other", "new"), groupsContaining(ldap, "bob"));
+  }
+
+  @Test
+  public void testRefreshInBackground() throws Exception {
+    LDAP ldap = newLDAP(500, 0, HOUR);
+    GroupGraph.Groups loaded = awaitGroups(ldap);
+    addGroup("new", group("other"));
+
+    // The request that finds a refresh due gets the groups as they were
+    GroupGraph graph = ldap.getGroupGraph();
+    assertSame(loaded, graph.getGroups());
+    GroupGraph.Groups refreshed = graph.awaitLoading();
+    assertNotSame(loaded, refreshed);
+    assertEquals(5, refreshed.size());
+  }
+
+  @Test
+  public void testRebuildDropsDeletedGroups() throws Exception {
+    LDAP ldap = newLDAP(500, 0, 0);
+    awaitGroups(ldap);
+    assertEquals(names("everyone", "other"), groupsContaining(ldap, "bob"));
+    ldap.getGroupGraph().awaitLoading();
+
+    server.delete(group("everyone"));
+    refresh(ldap);
+    assertEquals(names("other"), groupsContaining(ldap, "bob"));
+    assertEquals(names("staff", "faculty"), groupsContaining(ldap, "alice"));
+  }
+
+  @Test
+  public void testMemberOfNestingRebuiltEveryRefresh() throws Exception {
+    LDAP ldap = newLDAP(500, 0, HOUR, "memberOf");
+    awaitGroups(ldap);
+
+    // A change of memberOf doesn't necessarily change the nested group, so nothing is skipped
+    searches.clear();
+    refresh(ldap);
+    assertEquals(1, searches.size());
+    assertFalse(searches.toString(), searches.get(0).contains(">="));
+  }
+
+  private LDAP newLDAP(int pageSize, long refreshMillis, long rebuildMillis) {
+    return newLDAP(pageSize, refreshMillis, rebuildMillis, "member");
+  }
+
+  private LDAP newLDAP(
+      int pageSize, long refreshMillis, long rebuildMillis, String nestingAttribute) {
+    LDAPSettings settings = new LDAPSettings();
+    settings.setUrl("ldap://127.0.0.1:" + server.getListenPort());
+    settings.setBases(Arrays.asList(BASE));
+    settings.setAdminUsername("cn=admin");
+    settings.setAdminPassword("secret");
+    settings.setPersonObject("inetOrgPerson");
+    settings.setGroupObject("groupOfNames");
+    Map<String, String> attributes = new HashMap<String, String>();
+    attributes.put("id", "uid");
+    attributes.put("username", "uid");
+    attributes.put("givenname", "givenName");
+    attributes.put("surname", "sn");
+    attributes.put("email", "mail");
+    attributes.put(nestingAttribute, nestingAttribute);
+    attributes.put("groupId", "cn");
+    attributes.put("groupName", "cn");
+    settings.setAttributes(attributes);
+
+    LDAP ldap = new LDAP(settings, new PlainEncryption());
+    ldap.enableGroupGraph(pageSize, refreshMillis, rebuildMillis);
+    created.add(ldap);
+    return ldap;
+  }
+
+  /**
+   * Waits for the first load, which happens in the background, and for any refresh that finding
+   * the groups started
+   */
+  private GroupGraph.Groups awaitGroups(LDAP ldap) throws InterruptedException {
+    GroupGraph graph = ldap.getGroupGraph();
+    long giveUp = System.currentTimeMillis() + 10000;
+    while (true) {
+      try {
+        graph.getGroups();
+        return graph.awaitLoading();
+      } catch (IllegalStateException e) {
+        if (System.currentTimeMillis() > giveUp) {
+          throw e;
+        }
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  /** Starts a refresh, which must be due, and waits for it to finish */
+  private GroupGraph.Groups refresh(LDAP ldap) throws InterruptedException {
+    GroupGraph graph = ldap.getGroupGraph();
+    graph.awaitLoading();
+    graph.getGroups();
+    return graph.awaitLoading();
+  }
+
+  private Set<String> groupsContaining(final LDAP ldap, final String userId) {
+    return ids(
+        ldap.doAsAdmin(
+            new InContext<List<GroupBean>>() {
+              @Override
+              public List<GroupBean> execute(DirContext ctx) {
+                return ldap.getGroupSearch().getGroupsContainingUser(ctx, userId);
+              }
+            }));
+  }
+
+  private void addUser(String uid) throws Exception {
+    server.add(
+        "dn: " + user(uid),
+        "objectClass: inetOrgPerson",
+        "uid: " + uid,
+        "cn: " + uid,
+        "sn: " + uid,
+        "givenName: " + uid);
+  }
+
+  private void addGroup(String cn, String... members) {
+    List<String> ldif = new ArrayList<String>();
+    ldif.add("dn: " + group(cn));
+    ldif.add("objectClass: groupOfNames");
+    ldif.add("cn: " + cn);
+    for (String member : members) {
+      ldif.add("member: " + member);
+    }
+    try {
+      server.add(ldif.toArray(new String[ldif.size()]));
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String user(String uid) {
+    return "uid=" + uid + ",ou=people," + BASE;
+  }
+
+  private static String group(String cn) {
+    return "cn=" + cn + ",ou=groups," + BASE;
+  }
+
+  private static Set<String> names(String... names) {
+    return new TreeSet<String>(Arrays.asList(names));
+  }
+
+  private static Set<String> ids(List<GroupBean> groups) {
+    Set<String> ids = new TreeSet<String>();
+    for (GroupBean group : groups) {
+      ids.add(group.getUniqueID());
+    }
+    return ids;
+  }
+
+  private static class PlainEncryption implements EncryptionService {
+    @Override
+    public String encrypt(String value) {
+      return value;
+    }
+
+    @Override
+    public String decrypt(String value) {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.tle.core.workflow.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+public class TaskHistoryDaoImplTest {
+  private static final int THREADS = 4;
+
+  @Test
+  public void testConcurrentFirstEntries() throws Exception {
+    CountingDao dao = new CountingDao(THREADS);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < THREADS; i++) {
+        futures.add(
+            executor.submit(
+                new Callable<Void>() {
+                  @Override
+                  public Void call() {
+                    dao.adjustWaitingCount(1L, 1);
+                    return null;
+                  }
+                }));
+      }
+      for (Future<Void> future : futures) {
+        future.get(5, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(THREADS, dao.counts.get(1L).get());
+    assertEquals(THREADS - 1, dao.duplicates.get());
+  }
+
+  @Test
+  public void testMissingCountNotCreatedGoingDown() {
+    CountingDao dao = new CountingDao(1);
+    dao.adjustWaitingCount(1L, -1);
+    assertEquals(null, dao.counts.get(1L));
+
+    dao.adjustWaitingCount(1L, 2);
+    dao.adjustWaitingCount(1L, -1);
+    assertEquals(1, dao.counts.get(1L).get());
+  }
+
+  /**
+   * Keeps the counts in a map which, like the primary key, refuses a second row for a task. Every
+   * thread has to miss on its first update before any of them creates the row.
+   */
+  private static class CountingDao extends TaskHistoryDaoImpl {
+    final Map<Long, AtomicInteger> counts = new ConcurrentHashMap<>();
+    final AtomicInteger duplicates = new AtomicInteger();
+    final Map<Thread, Boolean> missed = new ConcurrentHashMap<>();
+    final CyclicBarrier allMissed;
+
+    CountingDao(int threads) {
+      allMissed = new CyclicBarrier(threads);
+    }
+
+    @Override
+    protected int updateWaitingCount(long taskId, long delta) {
+      AtomicInteger count = counts.get(taskId);
+      if (count == null) {
+        if (delta > 0 && missed.put(Thread.currentThread(), true) == null) {
+          try {
+            allMissed.await(5, TimeUnit.SECONDS);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return 0;
+      }
+      count.addAndGet((int) delta);
+      return 1;
+    }
+
+    @Override
+    protected void createWaitingCount(long taskId) {
+      if (counts.putIfAbsent(taskId, new AtomicInteger()) != null) {
+        duplicates.incrementAndGet();
+        throw new DataIntegrityViolationException("duplicate task_waiting_count " + taskId);
+      }
+    }
+  }
+}
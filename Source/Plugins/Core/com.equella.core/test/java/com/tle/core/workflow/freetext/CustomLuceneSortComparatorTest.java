@@ -0,0 +1,138 @@
+package com.tle.core.workflow.freetext;
+
+import static org.junit.Assert.assertEquals;
+
+import com.tle.freetext.LuceneConstants;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Sorting by term ordinal gives the same order as comparing each assignee with the user */
+@SuppressWarnings("nls")
+public class CustomLuceneSortComparatorTest {
+  private static final String ID = "id";
+  private static final String ASSIGNEE = "assignee";
+
+  private final RAMDirectory directory = new RAMDirectory();
+  // Task ID to assignee, null for tasks without one
+  private final Map<String, String> tasks = new LinkedHashMap<String, String>();
+  private IndexSearcher searcher;
+
+  @Before
+  public void setUp() throws IOException {
+    IndexWriterConfig config =
+        new IndexWriterConfig(LuceneConstants.LATEST_VERSION, new KeywordAnalyzer())
+            .setMergePolicy(NoMergePolicy.COMPOUND_FILES);
+    try (IndexWriter writer = new IndexWriter(directory, config)) {
+      addSegment(writer, "carol", "bob", null, "alice", "", "bob");
+      // Bob has no tasks in this one
+      addSegment(writer, "dave", null, "alice", "");
+      // Nor does anyone else
+      addSegment(writer, null, null);
+    }
+    searcher = new IndexSearcher(IndexReader.open(directory));
+    assertEquals(3, searcher.getIndexReader().getSequentialSubReaders().length);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    searcher.getIndexReader().close();
+    directory.close();
+  }
+
+  @Test
+  public void testSameOrderAsStringComparison() throws IOException {
+    assertEquals(expected("bob"), sorted("bob", tasks.size()));
+    assertEquals(expected("alice"), sorted("alice", tasks.size()));
+  }
+
+  @Test
+  public void testUserWithoutTasks() throws IOException {
+    assertEquals(expected("zed"), sorted("zed", tasks.size()));
+  }
+
+  @Test
+  public void testFewerHitsThanTasks() throws IOException {
+    // Documents from later segments are compared against the bottom of the queue
+    assertEquals(expected("bob").subList(0, 5), sorted("bob", 5));
+    assertEquals(expected("dave").subList(0, 3), sorted("dave", 3));
+  }
+
+  private void addSegment(IndexWriter writer, String... assignees) throws IOException {
+    for (String assignee : assignees) {
+      String id = Integer.toString(tasks.size() + 1);
+      tasks.put(id, assignee);
+      Document doc = new Document();
+      doc.add(new Field(ID, id, Field.Store.YES, Field.Index.NOT_ANALYZED));
+      if (assignee != null) {
+        doc.add(new Field(ASSIGNEE, assignee, Field.Store.NO, Field.Index.NOT_ANALYZED));
+      }
+      writer.addDocument(doc);
+    }
+    writer.commit();
+  }
+
+  private List<String> sorted(final String userId, int count) throws IOException {
+    Sort sort =
+        new Sort(
+            new SortField(
+                ASSIGNEE,
+                new FieldComparatorSource() {
+                  @Override
+                  public FieldComparator<?> newComparator(
+                      String fieldname, int numHits, int sortPos, boolean reversed) {
+                    return new CustomLuceneSortComparator(numHits, fieldname, userId);
+                  }
+                }),
+            // Ties are broken by ID
+            new SortField(ID, SortField.STRING));
+    TopDocs hits = searcher.search(new MatchAllDocsQuery(), null, count, sort);
+    List<String> ids = new ArrayList<String>();
+    for (ScoreDoc hit : hits.scoreDocs) {
+      ids.add(searcher.doc(hit.doc).get(ID));
+    }
+    return ids;
+  }
+
+  /** The order given by the string comparison the comparator used to do */
+  private List<String> expected(final String userId) {
+    List<String> ids = new ArrayList<String>(tasks.keySet());
+    Collections.sort(
+        ids,
+        new Comparator<String>() {
+          @Override
+          public int compare(String id1, String id2) {
+            int diff = rank(userId, tasks.get(id1)) - rank(userId, tasks.get(id2));
+            return diff != 0 ? diff : id1.compareTo(id2);
+          }
+        });
+    return ids;
+  }
+
+  private static int rank(String userId, String assignee) {
+    return userId.equals(assignee) ? 0 : assignee == null || assignee.isEmpty() ? 1 : 2;
+  }
+}
@@ -0,0 +1,76 @@
+package com.tle.ims.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.tle.ims.service.IMSManifestCache.CachedManifest;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class IMSManifestCacheTest {
+  private File root;
+  private File manifest;
+
+  @Before
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("imsmanifestcache").toFile();
+    manifest = new File(root, "item/_IMS/package.zip/imsmanifest-combined.xml");
+    manifest.getParentFile().mkdirs();
+    write(manifest, "<manifest/>");
+  }
+
+  @After
+  public void tearDown() {
+    manifest.delete();
+  }
+
+  @Test
+  public void testReusesEntryUntilManifestChanges() throws IOException {
+    IMSManifestCache cache = new IMSManifestCache(1);
+    CachedManifest cached = cache.get(manifest);
+    cached.setTitle("Package");
+    cached.setNavigationNodes(false, false, Collections.emptyList());
+    assertSame(cached, cache.get(manifest));
+    assertEquals("Package", cache.get(manifest).getTitle());
+    assertNull(cached.getNavigationNodes(true, false));
+
+    write(manifest, "<manifest identifier=\"changed\"/>");
+    CachedManifest changed = cache.get(manifest);
+    assertNotSame(cached, changed);
+    assertNull(changed.getTitle());
+  }
+
+  @Test
+  public void testInvalidatesFolder() {
+    IMSManifestCache cache = new IMSManifestCache(1);
+    CachedManifest cached = cache.get(manifest);
+
+    // Only folders the manifest is in
+    cache.invalidate(new File(root, "ite"));
+    assertSame(cached, cache.get(manifest));
+
+    cache.invalidate(new File(root, "item"));
+    assertNotSame(cached, cache.get(manifest));
+  }
+
+  @Test
+  public void testDisabled() {
+    IMSManifestCache cache = new IMSManifestCache(0);
+    assertNotSame(cache.get(manifest), cache.get(manifest));
+  }
+
+  private static void write(File file, String content) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(content.getBytes("UTF-8"));
+    }
+  }
+}
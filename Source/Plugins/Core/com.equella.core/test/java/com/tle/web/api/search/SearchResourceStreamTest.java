@@ -0,0 +1,75 @@
+package com.tle.web.api.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import scala.Option;
+import scala.runtime.BoxedUnit;
+
+/** The batching behind the streaming search, against a fake index of item keys */
+public class SearchResourceStreamTest {
+  private final List<Object> cursors = new ArrayList<Object>();
+  private final List<List<Long>> written = new ArrayList<List<Long>>();
+
+  @Test
+  public void testResumesAfterCursor() {
+    stream(keys(1, 10), Option.<Object>apply(4L), 4);
+
+    assertEquals(Arrays.asList(keys(5, 8), keys(9, 10)), written);
+    assertEquals(Arrays.asList(4L, 8L), cursors);
+  }
+
+  @Test
+  public void testLastBatchExactlyFull() {
+    stream(keys(1, 10), Option.empty(), 5);
+
+    assertEquals(Arrays.asList(keys(1, 5), keys(6, 10)), written);
+    // A full batch might not be the last, so one more fetch finds nothing
+    assertEquals(Arrays.asList(null, 5L, 10L), cursors);
+  }
+
+  @Test
+  public void testNoResults() {
+    stream(Collections.<Long>emptyList(), Option.empty(), 5);
+    assertEquals(Collections.emptyList(), written);
+    assertEquals(Collections.singletonList(null), cursors);
+
+    cursors.clear();
+    stream(keys(1, 10), Option.<Object>apply(10L), 5);
+    assertEquals(Collections.emptyList(), written);
+    assertEquals(Collections.singletonList(10L), cursors);
+  }
+
+  private void stream(List<Long> index, Option<Object> start, int batchSize) {
+    SearchResource.streamAfter(
+        start,
+        batchSize,
+        afterKey -> {
+          cursors.add(afterKey.isDefined() ? afterKey.get() : null);
+          List<Long> batch = new ArrayList<Long>();
+          for (Long key : index) {
+            if (batch.size() < batchSize && (afterKey.isEmpty() || key > (Long) afterKey.get())) {
+              batch.add(key);
+            }
+          }
+          return batch;
+        },
+        key -> key,
+        batch -> {
+          written.add(new ArrayList<Long>(batch));
+          return BoxedUnit.UNIT;
+        });
+  }
+
+  private static List<Long> keys(long from, long to) {
+    List<Long> keys = new ArrayList<Long>();
+    for (long key = from; key <= to; key++) {
+      keys.add(key);
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,122 @@
+package com.tle.web.core.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.io.ByteStreams;
+import com.tle.web.dispatcher.FilterResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class CompressionFilterTest {
+  private static final String PAGE = repeat("<p>Some page content</p>", 100);
+
+  private final CompressionFilter filter = new CompressionFilter();
+  private final Map<String, String> requestHeaders = new HashMap<>();
+  private final Map<String, String> responseHeaders =
+      new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+  @Test
+  public void testCompressesPage() throws Exception {
+    HttpServletResponse response = filter();
+    writePage(response);
+
+    assertEquals("gzip", responseHeaders.get("Content-Encoding"));
+    assertEquals("Accept-Encoding", responseHeaders.get("Vary"));
+    assertEquals(PAGE, gunzip());
+  }
+
+  @Test
+  public void testEntityTagNotCompressed() throws Exception {
+    HttpServletResponse response = filter();
+    response.setHeader("ETag", "\"abc\"");
+    writePage(response);
+
+    assertNull(responseHeaders.get("Content-Encoding"));
+    assertEquals("\"abc\"", responseHeaders.get("ETag"));
+    assertEquals(PAGE, new String(body.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testByteRangesNotCompressed() throws Exception {
+    HttpServletResponse response = filter();
+    response.setHeader("Accept-Ranges", "bytes");
+    writePage(response);
+    assertNull(responseHeaders.get("Content-Encoding"));
+
+    responseHeaders.clear();
+    body.reset();
+    response = filter();
+    response.setHeader("Content-Range", "bytes 0-2399/2400");
+    writePage(response);
+    assertNull(responseHeaders.get("Content-Encoding"));
+  }
+
+  @Test
+  public void testRangeRequestNotWrapped() throws Exception {
+    requestHeaders.put("Range", "bytes=0-99");
+    assertSame(FilterResult.FILTER_CONTINUE, filter.doFilterInternal(request(), response()));
+  }
+
+  @Test
+  public void testLaterEntityTagWeakened() throws Exception {
+    HttpServletResponse response = filter();
+    response.setContentType("text/html");
+    PrintWriter writer = response.getWriter();
+    writer.write(PAGE);
+    writer.flush();
+    response.setHeader("ETag", "\"abc\"");
+    ((CompressingResponseWrapper) response).finish();
+
+    assertEquals("gzip", responseHeaders.get("Content-Encoding"));
+    assertEquals("W/\"abc\"", responseHeaders.get("ETag"));
+  }
+
+  /** The response the filter hands on to the servlet */
+  private HttpServletResponse filter() throws Exception {
+    requestHeaders.put("Accept-Encoding", "gzip, deflate");
+    FilterResult result = filter.doFilterInternal(request(), response());
+    return result.getFilteredResponse();
+  }
+
+  private void writePage(HttpServletResponse response) throws IOException {
+    response.setContentType("text/html");
+    response.getWriter().write(PAGE);
+    ((CompressingResponseWrapper) response).finish();
+  }
+
+  private String gunzip() throws IOException {
+    byte[] bytes =
+        ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())));
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private HttpServletRequest request() {
+    return new FakeHttpServletRequest(requestHeaders);
+  }
+
+  private HttpServletResponse response() {
+    return new FakeHttpServletResponse(responseHeaders, body);
+  }
+
+  private static String repeat(String text, int times) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      sb.append(text);
+    }
+    return sb.toString();
+  }
+}
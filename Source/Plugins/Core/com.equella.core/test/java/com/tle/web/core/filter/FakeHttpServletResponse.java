@@ -0,0 +1,230 @@
+package com.tle.web.core.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An OK response which writes its body to a buffer. Headers are kept one value per name, with
+ * added values joined up the way they'd be sent.
+ */
+class FakeHttpServletResponse implements HttpServletResponse {
+  private final Map<String, String> headers;
+  private final ServletOutputStream out;
+  private String characterEncoding = "UTF-8";
+
+  /** @param headers where the headers are kept, which should ignore the case of names */
+  FakeHttpServletResponse(Map<String, String> headers, ByteArrayOutputStream body) {
+    this.headers = headers;
+    this.out =
+        new ServletOutputStream() {
+          @Override
+          public void write(int b) {
+            body.write(b);
+          }
+
+          @Override
+          public boolean isReady() {
+            return true;
+          }
+
+          @Override
+          public void setWriteListener(WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+          }
+        };
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() {
+    return out;
+  }
+
+  @Override
+  public int getStatus() {
+    return SC_OK;
+  }
+
+  @Override
+  public boolean isCommitted() {
+    return false;
+  }
+
+  @Override
+  public String getCharacterEncoding() {
+    return characterEncoding;
+  }
+
+  @Override
+  public void setCharacterEncoding(String charset) {
+    characterEncoding = charset;
+  }
+
+  @Override
+  public String getContentType() {
+    return headers.get("Content-Type");
+  }
+
+  @Override
+  public void setContentType(String type) {
+    headers.put("Content-Type", type);
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    setContentLengthLong(len);
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    headers.put("Content-Length", Long.toString(len));
+  }
+
+  @Override
+  public boolean containsHeader(String name) {
+    return headers.containsKey(name);
+  }
+
+  @Override
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+
+  @Override
+  public Collection<String> getHeaders(String name) {
+    String value = headers.get(name);
+    return value == null ? Collections.<String>emptyList() : Collections.singletonList(value);
+  }
+
+  @Override
+  public Collection<String> getHeaderNames() {
+    return headers.keySet();
+  }
+
+  @Override
+  public void setHeader(String name, String value) {
+    headers.put(name, value);
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    headers.merge(name, value, (a, b) -> a + ", " + b);
+  }
+
+  @Override
+  public void flushBuffer() {
+    // Nothing is buffered
+  }
+
+  @Override
+  public PrintWriter getWriter() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setBufferSize(int size) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int getBufferSize() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void resetBuffer() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void reset() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setLocale(Locale loc) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Locale getLocale() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void addCookie(Cookie cookie) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String encodeURL(String url) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String encodeRedirectURL(String url) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String encodeUrl(String url) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String encodeRedirectUrl(String url) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void sendError(int sc, String msg) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void sendError(int sc) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void sendRedirect(String location) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setDateHeader(String name, long date) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void addDateHeader(String name, long date) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setIntHeader(String name, int value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void addIntHeader(String name, int value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setStatus(int sc) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setStatus(int sc, String sm) {
+    throw new UnsupportedOperationException();
+  }
+}
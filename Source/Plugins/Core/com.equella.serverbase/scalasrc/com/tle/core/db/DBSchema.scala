@@ -70,6 +70,38 @@ trait DBSchema extends StdColumns {
 
   def insertAuditLog: (Long => AuditLogEntry) => Stream[JDBCIO, AuditLogEntry]
 
+  /**
+    * SQL for the id of an audit log entry inserted over plain JDBC, or None when the database
+    * generates it.
+    */
+  def auditLogIdSQL: Option[String]
+
+  /**
+    * Placeholder for a JSON column parameter bound as a string.
+    */
+  def jsonParam: String = "?"
+
+  /**
+    * INSERT for batching audit log entries over plain JDBC. The parameters are data1 to data4,
+    * event_category, event_type, session_id, meta, timestamp, user_id and institution_id.
+    */
+  lazy val insertAuditLogBatchSQL: String = {
+    val cols = Seq("data1",
+                   "data2",
+                   "data3",
+                   "data4",
+                   "event_category",
+                   "event_type",
+                   "session_id",
+                   "meta",
+                   "timestamp",
+                   "user_id",
+                   "institution_id").map(c => c -> (if (c == "meta") jsonParam else "?"))
+    val all = auditLogIdSQL.map(id => ("id" -> id) +: cols).getOrElse(cols)
+    s"INSERT INTO audit_log_entry (${all.map(c => config.escapeColumnName(c._1)).mkString(", ")})" +
+      s" VALUES (${all.map(_._2).mkString(", ")})"
+  }
+
   val userAndInst = Cols('user_id, 'institution_id)
 
   val auditLogQueries = AuditLogQueries(
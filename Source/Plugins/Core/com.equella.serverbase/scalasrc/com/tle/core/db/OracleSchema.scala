@@ -18,7 +18,7 @@
 
 package com.tle.core.db
 
-import com.tle.core.db.migration.DBSchemaMigration
+import com.tle.core.db.migration.{DBSchemaMigration, OracleAuditLogPartitioning}
 import com.tle.core.db.tables.CachedValue
 import com.tle.core.db.types.{DbUUID, InstId, String255}
 import io.doolse.simpledba.Iso
@@ -43,8 +43,13 @@ object OracleSchema extends DBSchemaMigration with DBSchema with DBQueries with
 
   override def insertAuditLog = insertWith(auditLog, hibSeq)
 
+  override def auditLogIdSQL = Some("hibernate_sequence.nextval")
+
   override def insertCachedValue = insertWith(cachedValues, hibSeq)
 
+  lazy val auditLogPartitioning =
+    new OracleAuditLogPartitioning(auditLogIndexes, auditLogTimestampCol)
+
   def dbUuidCol =
     wrap[String, DbUUID](stringCol,
                          _.isoMap(Iso(_.id.toString, DbUUID.fromString)),
@@ -20,7 +20,7 @@ package com.tle.core.db
 
 import java.util.UUID
 
-import com.tle.core.db.migration.DBSchemaMigration
+import com.tle.core.db.migration.{DBSchemaMigration, PostgresAuditLogPartitioning}
 import com.tle.core.db.tables.CachedValue
 import com.tle.core.db.types.DbUUID
 import io.doolse.simpledba.Iso
@@ -43,8 +43,15 @@ object PostgresSchema
 
   override def insertAuditLog = insertWith(auditLog, hibSeq)
 
+  override def auditLogIdSQL = Some("nextval('hibernate_sequence')")
+
+  override def jsonParam = "CAST(? AS JSONB)"
+
   override def insertCachedValue = insertWith(cachedValues, hibSeq)
 
+  lazy val auditLogPartitioning =
+    new PostgresAuditLogPartitioning(auditLogIndexes, auditLogTimestampCol)
+
   def dbUuidCol =
     wrap[String, DbUUID](stringCol,
                          _.isoMap(Iso(_.id.toString, DbUUID.fromString)),
@@ -17,7 +17,7 @@
  */
 
 package com.tle.core.db
-import com.tle.core.db.migration.DBSchemaMigration
+import com.tle.core.db.migration.{DBSchemaMigration, SQLServerAuditLogPartitioning}
 import com.tle.core.db.types.DbUUID
 import io.doolse.simpledba.Iso
 import io.doolse.simpledba.jdbc.StandardJDBC
@@ -37,8 +37,13 @@ object SQLServerSchema
 
   override def insertAuditLog = insertIdentity(auditLog)
 
+  override def auditLogIdSQL = None
+
   override def insertCachedValue = insertIdentity(cachedValues)
 
+  lazy val auditLogPartitioning =
+    new SQLServerAuditLogPartitioning(auditLogIndexes, auditLogTimestampCol)
+
   def dbUuidCol =
     wrap[String, DbUUID](stringCol,
                          _.isoMap(Iso(_.id.toString, DbUUID.fromString)),
@@ -0,0 +1,433 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.db.migration
+
+import java.sql.{Connection, ResultSet}
+import java.time.LocalDate
+import java.time.format.DateTimeFormatter
+
+import cats.data.StateT
+import cats.effect.IO
+import io.doolse.simpledba.jdbc.JDBCIO
+
+import scala.collection.mutable
+
+/**
+  * Monthly range partitioning of the audit log table on its timestamp, so that retention can
+  * drop whole months instead of deleting rows.
+  *
+  * @param indexes the audit log indexes as (index name, escaped column name)
+  * @param timestampCol the escaped timestamp column name
+  */
+abstract class AuditLogPartitioning(indexes: Seq[(String, String)], timestampCol: String) {
+
+  val table = "audit_log_entry"
+
+  /**
+    * How many months past the current one should already have a partition. Entries past the last
+    * partition still have somewhere to go (see the implementations), this keeps them out of it.
+    */
+  val monthsAhead = 2
+
+  def isSupported(con: Connection): Boolean
+
+  def isPartitioned(con: Connection): Boolean
+
+  /**
+    * Converts the existing table. All existing entries end up in a single partition which is
+    * bounded by `firstMonth`.
+    */
+  def partitionTable(con: Connection, firstMonth: LocalDate, log: String => Unit): Unit
+
+  /** The partitions with their (exclusive) upper bounds, oldest first */
+  protected def partitions(con: Connection): Seq[(String, LocalDate)]
+
+  /**
+    * The partition the existing table became when it was partitioned, with its upper bound, if it
+    * hasn't been dropped yet
+    */
+  protected def legacyPartition(con: Connection): Option[(String, LocalDate)]
+
+  protected def addPartition(con: Connection,
+                             from: LocalDate,
+                             to: LocalDate,
+                             log: String => Unit): Unit
+
+  protected def dropPartition(con: Connection, name: String, log: String => Unit): Unit
+
+  /** Makes sure there are partitions up to the end of `monthsAhead` months after `today` */
+  def ensurePartitions(con: Connection, today: LocalDate, log: String => Unit): Unit = {
+    val target = today.withDayOfMonth(1).plusMonths(monthsAhead + 1)
+    partitions(con).lastOption.foreach {
+      case (_, last) =>
+        var from = last
+        while (from.isBefore(target)) {
+          addPartition(con, from, from.plusMonths(1), log)
+          from = from.plusMonths(1)
+        }
+    }
+  }
+
+  /**
+    * Drops every partition which can only contain entries from before `date`. The newest
+    * partition is never dropped.
+    *
+    * @return the number of partitions dropped
+    */
+  def dropPartitionsBefore(con: Connection, date: LocalDate, log: String => Unit): Int = {
+    val old = partitions(con).dropRight(1).filterNot(_._2.isAfter(date))
+    old.foreach(p => dropPartition(con, p._1, log))
+    old.size
+  }
+
+  /**
+    * Whether entries from before `date` have to be deleted row by row. The partition the existing
+    * table became holds every entry from before partitioning, so it can't be dropped until all of
+    * them are from before `date`, and until then its old entries are deleted instead.
+    */
+  def mustDeleteLegacyEntries(con: Connection, date: LocalDate): Boolean =
+    legacyPartition(con).exists(_._2.isAfter(date))
+
+  protected def ts: String = timestampCol
+
+  protected def indexNames: Seq[String] = indexes.map(_._1)
+
+  protected def indexColumns: Seq[(String, String)] = indexes
+
+  protected def isoDate(d: LocalDate): String = d.format(DateTimeFormatter.ISO_LOCAL_DATE)
+
+  protected def execute(con: Connection, sql: String, log: String => Unit): Unit = {
+    log(sql)
+    val stmt = con.createStatement()
+    try stmt.execute(sql)
+    finally stmt.close()
+  }
+
+  protected def query[A](con: Connection, sql: String)(f: ResultSet => A): Seq[A] = {
+    val stmt = con.createStatement()
+    try {
+      val rs      = stmt.executeQuery(sql)
+      val results = mutable.Buffer[A]()
+      while (rs.next()) results += f(rs)
+      results
+    } finally stmt.close()
+  }
+
+  protected def count(con: Connection, sql: String): Long =
+    query(con, sql)(_.getLong(1)).headOption.getOrElse(0L)
+
+  /** Commits what has been done so far, so the locks it took are let go of */
+  protected def commit(con: Connection): Unit =
+    if (!con.getAutoCommit) con.commit()
+
+  /** For statements which can't be run inside a transaction block */
+  protected def executeOutsideTransaction(con: Connection,
+                                          sql: String,
+                                          log: String => Unit): Unit = {
+    commit(con)
+    val autoCommit = con.getAutoCommit
+    con.setAutoCommit(true)
+    try execute(con, sql, log)
+    finally con.setAutoCommit(autoCommit)
+  }
+
+  private val DateRegex = """(\d{4}-\d{2}-\d{2})""".r
+
+  protected def parseDate(s: String): Option[LocalDate] =
+    Option(s).flatMap(DateRegex.findFirstIn).map(LocalDate.parse)
+}
+
+object AuditLogPartitioning {
+
+  def withConnection[A](f: Connection => A): JDBCIO[A] =
+    StateT.inspectF[IO, Connection, A](con => IO(f(con)))
+}
+
+/**
+  * Declarative partitioning (PostgreSQL 11+). The existing table becomes a partition covering
+  * everything before the first month. A DEFAULT partition catches entries past the last monthly
+  * partition, should the partitions not have been created in time, and they're moved out of it
+  * when their month's partition is added.
+  */
+class PostgresAuditLogPartitioning(indexes: Seq[(String, String)], timestampCol: String)
+    extends AuditLogPartitioning(indexes, timestampCol) {
+
+  private val legacy       = table + "_legacy"
+  private val default      = table + "_default"
+  private val legacyBounds = legacy + "_range"
+  private val legacyKey    = legacy + "_key"
+
+  def isSupported(con: Connection): Boolean = con.getMetaData.getDatabaseMajorVersion >= 11
+
+  def isPartitioned(con: Connection): Boolean =
+    count(con,
+          s"SELECT COUNT(*) FROM pg_partitioned_table WHERE partrelid = to_regclass('$table')") > 0
+
+  def partitionTable(con: Connection, firstMonth: LocalDate, log: String => Unit): Unit = {
+    val bound = isoDate(firstMonth)
+    // A valid constraint matching the bound means the attach doesn't need to scan the table.
+    // Adding it NOT VALID only locks the table for a moment, and validating it doesn't stop entries
+    // being logged, as long as each is committed before the exclusive locks further down.
+    val hasBounds = count(
+      con,
+      s"SELECT COUNT(*) FROM pg_constraint WHERE conname = '$legacyBounds' " +
+        s"AND conrelid = to_regclass('$table')") > 0
+    if (!hasBounds) {
+      execute(con,
+              s"ALTER TABLE $table ADD CONSTRAINT $legacyBounds CHECK ($ts < '$bound') NOT VALID",
+              log)
+      commit(con)
+    }
+    execute(con, s"ALTER TABLE $table VALIDATE CONSTRAINT $legacyBounds", log)
+    commit(con)
+    // The same goes for the primary key of the new table, which the attach would otherwise build
+    // a unique index for while holding an exclusive lock. Building it concurrently beforehand lets
+    // the attach adopt it, though only once it backs a constraint. A build that failed part way
+    // leaves an invalid index behind, which has to be dropped before trying again.
+    val keyValid = query(
+      con,
+      s"SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass('$legacyKey')"
+    )(_.getBoolean(1)).headOption
+    if (keyValid.contains(false)) {
+      executeOutsideTransaction(con, s"DROP INDEX CONCURRENTLY $legacyKey", log)
+    }
+    if (!keyValid.contains(true)) {
+      executeOutsideTransaction(con,
+                                s"CREATE UNIQUE INDEX CONCURRENTLY $legacyKey ON $table (id, $ts)",
+                                log)
+    }
+    execute(con, s"ALTER TABLE $table RENAME TO $legacy", log)
+    execute(con,
+            s"ALTER TABLE $legacy ADD CONSTRAINT $legacyKey UNIQUE USING INDEX $legacyKey",
+            log)
+    indexNames.foreach(i => execute(con, s"ALTER INDEX $i RENAME TO ${i}_legacy", log))
+    execute(con,
+            s"CREATE TABLE $table (LIKE $legacy INCLUDING DEFAULTS) PARTITION BY RANGE ($ts)",
+            log)
+    execute(con, s"ALTER TABLE $table ADD CONSTRAINT ${table}_pk PRIMARY KEY (id, $ts)", log)
+    indexColumns.foreach {
+      case (name, col) => execute(con, s"CREATE INDEX $name ON $table ($col)", log)
+    }
+    execute(con,
+            s"ALTER TABLE $table ATTACH PARTITION $legacy FOR VALUES FROM (MINVALUE) TO ('$bound')",
+            log)
+  }
+
+  override def ensurePartitions(con: Connection, today: LocalDate, log: String => Unit): Unit = {
+    if (count(con, s"SELECT COUNT(*) FROM pg_class WHERE oid = to_regclass('$default')") == 0) {
+      execute(con, s"CREATE TABLE $default PARTITION OF $table DEFAULT", log)
+    }
+    super.ensurePartitions(con, today, log)
+  }
+
+  // The DEFAULT partition has no upper bound, so isn't included
+  protected def partitions(con: Connection): Seq[(String, LocalDate)] = {
+    val bounds = query(
+      con,
+      "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i " +
+        s"JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass('$table')"
+    )(rs => rs.getString(1) -> rs.getString(2))
+    // FOR VALUES FROM (MINVALUE) TO ('2019-08-01 00:00:00')
+    bounds
+      .flatMap {
+        case (name, bound) =>
+          Option(bound)
+            .filter(_.contains(" TO "))
+            .map(b => b.substring(b.indexOf(" TO ")))
+            .flatMap(parseDate)
+            .map(name -> _)
+      }
+      .sortBy(_._2.toEpochDay)
+  }
+
+  protected def legacyPartition(con: Connection): Option[(String, LocalDate)] =
+    partitions(con).find(_._1 == legacy)
+
+  protected def addPartition(con: Connection,
+                             from: LocalDate,
+                             to: LocalDate,
+                             log: String => Unit): Unit = {
+    val name   = table + "_p" + from.format(DateTimeFormatter.ofPattern("yyyyMM"))
+    val create =
+      s"CREATE TABLE $name PARTITION OF $table " +
+        s"FOR VALUES FROM ('${isoDate(from)}') TO ('${isoDate(to)}')"
+    val range = s"$ts >= '${isoDate(from)}' AND $ts < '${isoDate(to)}'"
+    if (count(con, s"SELECT COUNT(*) FROM $default WHERE $range") == 0) {
+      execute(con, create, log)
+    } else {
+      // The new partition can't be added while the DEFAULT partition has entries that belong in it
+      execute(con, s"ALTER TABLE $table DETACH PARTITION $default", log)
+      execute(con, create, log)
+      execute(con, s"INSERT INTO $name SELECT * FROM $default WHERE $range", log)
+      execute(con, s"DELETE FROM $default WHERE $range", log)
+      execute(con, s"ALTER TABLE $table ATTACH PARTITION $default DEFAULT", log)
+    }
+  }
+
+  protected def dropPartition(con: Connection, name: String, log: String => Unit): Unit =
+    execute(con, s"DROP TABLE $name", log)
+}
+
+/**
+  * A RANGE RIGHT partition function and scheme (SQL Server 2016 SP1+). The clustered primary key
+  * and the indexes are rebuilt on the scheme so that partitions can be truncated. Partitions are
+  * identified by their upper boundary value. The last partition has no upper bound, so there is
+  * always somewhere for an entry to go.
+  */
+class SQLServerAuditLogPartitioning(indexes: Seq[(String, String)], timestampCol: String)
+    extends AuditLogPartitioning(indexes, timestampCol) {
+
+  private val function = "audit_log_pf"
+  private val scheme   = "audit_log_ps"
+
+  def isSupported(con: Connection): Boolean = con.getMetaData.getDatabaseMajorVersion >= 13
+
+  def isPartitioned(con: Connection): Boolean =
+    count(con, s"SELECT COUNT(*) FROM sys.partition_functions WHERE name = '$function'") > 0
+
+  def partitionTable(con: Connection, firstMonth: LocalDate, log: String => Unit): Unit = {
+    // The function's type has to match the column exactly
+    val colType = query(
+      con,
+      "SELECT DATA_TYPE, DATETIME_PRECISION FROM INFORMATION_SCHEMA.COLUMNS " +
+        s"WHERE TABLE_NAME = '$table' AND COLUMN_NAME = 'timestamp'"
+    ) { rs =>
+      val dt = rs.getString(1)
+      if (dt.equalsIgnoreCase("datetime2")) s"$dt(${rs.getInt(2)})" else dt
+    }.head
+    val pk = query(
+      con,
+      "SELECT name FROM sys.key_constraints " +
+        s"WHERE parent_object_id = OBJECT_ID('$table') AND type = 'PK'"
+    )(_.getString(1)).head
+
+    execute(con,
+            s"CREATE PARTITION FUNCTION $function ($colType) AS RANGE RIGHT " +
+              s"FOR VALUES ('${isoDate(firstMonth)}')",
+            log)
+    execute(con, s"CREATE PARTITION SCHEME $scheme AS PARTITION $function ALL TO ([PRIMARY])", log)
+    execute(con, s"ALTER TABLE $table DROP CONSTRAINT $pk", log)
+    execute(con,
+            s"ALTER TABLE $table ADD CONSTRAINT $pk " +
+              s"PRIMARY KEY CLUSTERED (id, $ts) ON $scheme($ts)",
+            log)
+    indexColumns.foreach {
+      case (name, col) =>
+        execute(con,
+                s"CREATE INDEX $name ON $table ($col) WITH (DROP_EXISTING = ON) ON $scheme($ts)",
+                log)
+    }
+  }
+
+  protected def partitions(con: Connection): Seq[(String, LocalDate)] =
+    query(
+      con,
+      "SELECT CONVERT(VARCHAR(10), CAST(prv.value AS DATETIME2), 23) " +
+        "FROM sys.partition_functions pf " +
+        "JOIN sys.partition_range_values prv ON prv.function_id = pf.function_id " +
+        s"WHERE pf.name = '$function' ORDER BY prv.boundary_id"
+    )(rs => parseDate(rs.getString(1))).flatten.map(d => isoDate(d) -> d)
+
+  // The first partition has no lower bound, so it's only still the one the table became if it
+  // holds entries from before its month
+  protected def legacyPartition(con: Connection): Option[(String, LocalDate)] =
+    partitions(con).headOption.filter {
+      case (_, upper) =>
+        val monthBefore = isoDate(upper.minusMonths(1))
+        count(con, s"SELECT COUNT(*) FROM $table WHERE $ts < '$monthBefore'") > 0
+    }
+
+  protected def addPartition(con: Connection,
+                             from: LocalDate,
+                             to: LocalDate,
+                             log: String => Unit): Unit = {
+    execute(con, s"ALTER PARTITION SCHEME $scheme NEXT USED [PRIMARY]", log)
+    execute(con, s"ALTER PARTITION FUNCTION $function() SPLIT RANGE ('${isoDate(to)}')", log)
+  }
+
+  // Partitions are dropped oldest first, so the one to drop is always partition 1
+  protected def dropPartition(con: Connection, name: String, log: String => Unit): Unit = {
+    execute(con, s"TRUNCATE TABLE $table WITH (PARTITIONS (1))", log)
+    execute(con, s"ALTER PARTITION FUNCTION $function() MERGE RANGE ('$name')", log)
+  }
+}
+
+/**
+  * Interval partitioning (Oracle 12.2+ with the Partitioning option). Oracle creates the monthly
+  * partitions itself as entries arrive.
+  */
+class OracleAuditLogPartitioning(indexes: Seq[(String, String)], timestampCol: String)
+    extends AuditLogPartitioning(indexes, timestampCol) {
+
+  private val interval = "INTERVAL (NUMTOYMINTERVAL(1, 'MONTH'))"
+  private val legacy   = "audit_log_legacy"
+
+  def isSupported(con: Connection): Boolean = {
+    val md = con.getMetaData
+    val major = md.getDatabaseMajorVersion
+    val version = major > 12 || (major == 12 && md.getDatabaseMinorVersion >= 2)
+    version && query(con, "SELECT value FROM v$option WHERE parameter = 'Partitioning'")(
+      _.getString(1)).exists(_.equalsIgnoreCase("TRUE"))
+  }
+
+  def isPartitioned(con: Connection): Boolean =
+    count(con,
+          s"SELECT COUNT(*) FROM user_part_tables WHERE table_name = '${table.toUpperCase}'") > 0
+
+  def partitionTable(con: Connection, firstMonth: LocalDate, log: String => Unit): Unit = {
+    // The primary key stays a global index, the rest become local
+    val local = indexNames.map(_ + " LOCAL").mkString(", ")
+    execute(
+      con,
+      s"ALTER TABLE $table MODIFY PARTITION BY RANGE ($ts) $interval " +
+        s"(PARTITION $legacy " +
+        s"VALUES LESS THAN (TIMESTAMP '${isoDate(firstMonth)} 00:00:00')) " +
+        s"ONLINE UPDATE INDEXES ($local)",
+      log
+    )
+  }
+
+  protected def partitions(con: Connection): Seq[(String, LocalDate)] =
+    query(
+      con,
+      "SELECT partition_name, high_value FROM user_tab_partitions " +
+        s"WHERE table_name = '${table.toUpperCase}' ORDER BY partition_position"
+    )(rs => rs.getString(1) -> parseDate(rs.getString(2))).collect {
+      case (name, Some(upper)) => name -> upper
+    }
+
+  protected def legacyPartition(con: Connection): Option[(String, LocalDate)] =
+    partitions(con).find(_._1.equalsIgnoreCase(legacy))
+
+  override def ensurePartitions(con: Connection, today: LocalDate, log: String => Unit): Unit = ()
+
+  protected def addPartition(con: Connection,
+                             from: LocalDate,
+                             to: LocalDate,
+                             log: String => Unit): Unit = ()
+
+  override def dropPartitionsBefore(con: Connection, date: LocalDate, log: String => Unit): Int = {
+    // Moves the transition point up so the automatically created partitions can be dropped
+    execute(con, s"ALTER TABLE $table SET $interval", log)
+    super.dropPartitionsBefore(con, date, log)
+  }
+
+  protected def dropPartition(con: Connection, name: String, log: String => Unit): Unit =
+    execute(con, s"ALTER TABLE $table DROP PARTITION $name UPDATE INDEXES", log)
+}
@@ -61,6 +61,13 @@ trait DBSchemaMigration {
   }
 
   def auditLogNewColumns: TableColumns
+  def auditLogIndexColumns: TableColumns
+  def auditLogPartitioning: AuditLogPartitioning
+
+  def auditLogIndexes: Seq[(String, String)] =
+    auditLogIndexColumns.columns.map(c => ("audit_" + c.name, config.escapeColumnName(c.name)))
+
+  def auditLogTimestampCol: String = config.escapeColumnName("timestamp")
   def viewCountTables: Seq[TableDefinition]
 
   def newEntityTables: Seq[TableDefinition]
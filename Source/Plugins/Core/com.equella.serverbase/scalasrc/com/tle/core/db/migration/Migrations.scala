@@ -29,5 +29,8 @@ import scala.collection.JavaConverters._
 object Migrations {
 
   def migrationList: util.Collection[MigrationExt] =
-    Iterable[MigrationExt](NewAuditLogColumn, NewViewCountTables, NewEntityTable).asJavaCollection
+    Iterable[MigrationExt](NewAuditLogColumn,
+                           NewViewCountTables,
+                           NewEntityTable,
+                           PartitionAuditLog).asJavaCollection
 }
@@ -0,0 +1,49 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.db.migration
+
+import java.time.LocalDate
+
+import com.tle.core.i18n.ServerStrings
+import com.tle.core.migration.MigrationStatusLog.LogType
+import com.tle.core.migration.{MigrationResult, MigrationStatusLog}
+import io.doolse.simpledba.jdbc.JDBCIO
+
+object PartitionAuditLog
+    extends SimpleMigration("PartitionAuditLog",
+                            2020,
+                            3,
+                            1,
+                            ServerStrings.lookup.prefix("mig.auditpartition")) {
+
+  def migration(progress: MigrationResult, schemaMigration: DBSchemaMigration): JDBCIO[Unit] = {
+    val partitioning = schemaMigration.auditLogPartitioning
+    AuditLogPartitioning.withConnection { con =>
+      if (!partitioning.isSupported(con)) {
+        val unsupported = ServerStrings.lookup.key("mig.auditpartition.unsupported")
+        progress.addLogEntry(new MigrationStatusLog(LogType.WARNING, unsupported))
+      } else if (!partitioning.isPartitioned(con)) {
+        val log   = (sql: String) => progress.addLogEntry(new MigrationStatusLog(sql, false))
+        val today = LocalDate.now()
+        partitioning.partitionTable(con, today.withDayOfMonth(1).plusMonths(1), log)
+        partitioning.ensurePartitions(con, today, log)
+      }
+    }
+  }
+}
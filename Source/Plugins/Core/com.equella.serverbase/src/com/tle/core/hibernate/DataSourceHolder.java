@@ -18,6 +18,7 @@
 
 package com.tle.core.hibernate;
 
+import com.tle.annotation.Nullable;
 import java.sql.Connection;
 import java.sql.SQLException;
 import javax.sql.DataSource;
@@ -25,16 +26,31 @@ import javax.sql.DataSource;
 public class DataSourceHolder {
   private final ExtendedDialect dialect;
   private final DataSource dataSource;
+  @Nullable private final String id;
 
   public DataSourceHolder(DataSource dataSource, ExtendedDialect dialect) {
+    this(dataSource, dialect, null);
+  }
+
+  /**
+   * @param id identifies the database the same way on every node of a cluster, so that cached
+   *     rows from different databases can be told apart
+   */
+  public DataSourceHolder(DataSource dataSource, ExtendedDialect dialect, @Nullable String id) {
     this.dataSource = dataSource;
     this.dialect = dialect;
+    this.id = id;
   }
 
   public DataSource getDataSource() {
     return dataSource;
   }
 
+  @Nullable
+  public String getId() {
+    return id;
+  }
+
   public String getDefaultSchema() {
     Connection connection = null;
     final ClassLoader oldLoader = Thread.currentThread().getContextClassLoader();
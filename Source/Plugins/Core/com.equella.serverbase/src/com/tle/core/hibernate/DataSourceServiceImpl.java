@@ -143,7 +143,8 @@ public class DataSourceServiceImpl implements DataSourceService {
             }
           });
 
-      return new DataSourceHolder(new HikariDataSource(newConfig), dialect);
+      return new DataSourceHolder(
+          new HikariDataSource(newConfig), dialect, key.getUrl() + ' ' + key.getUsername());
     }
   }
 
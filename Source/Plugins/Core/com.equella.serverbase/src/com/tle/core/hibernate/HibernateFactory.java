@@ -18,6 +18,7 @@
 
 package com.tle.core.hibernate;
 
+import com.tle.annotation.Nullable;
 import com.tle.hibernate.dialect.OeqImplicitNamingStrategy;
 import com.tle.hibernate.dialect.OeqPhysicalNamingStrategy;
 import java.sql.Connection;
@@ -28,6 +29,7 @@ import javax.sql.DataSource;
 import org.apache.log4j.Logger;
 import org.hibernate.HibernateException;
 import org.hibernate.SessionFactory;
+import org.hibernate.cache.spi.RegionFactory;
 import org.hibernate.cfg.Environment;
 import org.hibernate.engine.jdbc.connections.internal.DatasourceConnectionProviderImpl;
 import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
@@ -46,6 +48,7 @@ public class HibernateFactory {
   private DataSourceHolder dataSourceHolder;
   private Properties properties = new Properties();
   private ClassLoader classLoader;
+  private RegionFactory regionFactory;
 
   public HibernateFactory(DataSourceHolder dataSourceHolder, Class<?>... clazzes) {
     this.clazzes = clazzes;
@@ -57,6 +60,14 @@ public class HibernateFactory {
     properties.setProperty(key, value);
   }
 
+  /**
+   * Turns on the second level and query caches, backed by the given region factory. Only entities
+   * and collections annotated with {@code @Cache} are cached.
+   */
+  public void setRegionFactory(@Nullable RegionFactory regionFactory) {
+    this.regionFactory = regionFactory;
+  }
+
   public synchronized ExtendedAnnotationConfiguration getConfiguration() {
     if (config == null) {
       ClassLoader oldLoader = oldLoader();
@@ -66,9 +77,17 @@ public class HibernateFactory {
         this.config = new ExtendedAnnotationConfiguration(dialect);
         config.setProperty(Environment.CONNECTION_PROVIDER, DataSourceProvider.class.getName());
         properties.put(Environment.DATASOURCE, dataSourceHolder.getDataSource());
+        if (regionFactory != null) {
+          properties.put(Environment.CACHE_REGION_FACTORY, regionFactory);
+        }
         config.addProperties(properties);
         config.setProperty(Environment.DIALECT, dialect.getClass().getName());
-        config.setProperty(Environment.USE_SECOND_LEVEL_CACHE, "false");
+        if (regionFactory != null) {
+          config.setProperty(Environment.USE_SECOND_LEVEL_CACHE, "true");
+          config.setProperty(Environment.USE_QUERY_CACHE, "true");
+        } else {
+          config.setProperty(Environment.USE_SECOND_LEVEL_CACHE, "false");
+        }
         config.setProperty(Environment.JPA_VALIDATION_MODE, "DDL");
         // Due to https://hibernate.atlassian.net/browse/HHH-12665 with SpringHib5,
         // certain operations, like importing a institution would fail with a
@@ -0,0 +1,96 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.hibernate.cache;
+
+import java.io.Serializable;
+
+/** A snapshot of the activity of a second level cache region on this node. */
+public class RegionStats implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final String name;
+  private final long size;
+  private final long hits;
+  private final long misses;
+  private final long puts;
+  private final long evictions;
+  private final long invalidations;
+
+  public RegionStats(
+      String name,
+      long size,
+      long hits,
+      long misses,
+      long puts,
+      long evictions,
+      long invalidations) {
+    this.name = name;
+    this.size = size;
+    this.hits = hits;
+    this.misses = misses;
+    this.puts = puts;
+    this.evictions = evictions;
+    this.invalidations = invalidations;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getPuts() {
+    return puts;
+  }
+
+  /** @return the number of entries dropped to keep the region within its size */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /** @return the number of entries dropped because they were changed, here or on another node */
+  public long getInvalidations() {
+    return invalidations;
+  }
+
+  /** @return the fraction of lookups that were found in the region, or 0 if there were none */
+  public double getHitRatio() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  @SuppressWarnings("nls")
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: %d entries, %.1f%% hit ratio (%d hits, %d misses), %d puts, %d evictions,"
+            + " %d invalidations",
+        name, size, getHitRatio() * 100, hits, misses, puts, evictions, invalidations);
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.hibernate.cache;
+
+import com.tle.annotation.Nullable;
+import java.util.Map;
+import org.hibernate.cache.spi.RegionFactory;
+
+/**
+ * The Hibernate second level and query caches. Each node keeps its own bounded copy of the cached
+ * entities, collections and query results, and tells the other nodes of the cluster to drop their
+ * copies when anything cached is changed.
+ */
+public interface SecondLevelCacheService {
+  /**
+   * @param factoryName the name of the session factory the regions are for
+   * @return the region factory for the session factory, or null if the second level cache is
+   *     turned off
+   */
+  @Nullable
+  RegionFactory createRegionFactory(String factoryName);
+
+  /** @return the stats of every region, keyed by session factory and region name */
+  Map<String, RegionStats> getStats();
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.hibernate.cache.impl;
+
+import com.tle.annotation.Nullable;
+import java.io.Serializable;
+
+/** Tells the other nodes of the cluster that something in a second level cache region changed. */
+public class CacheInvalidation implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  enum Type {
+    /** Drop the entry with the key */
+    REMOVE,
+    /** Drop every entry of the region */
+    CLEAR,
+    /** The table with the key was updated, drop the query results that used it */
+    TOUCH
+  }
+
+  private final String factory;
+  private final String region;
+  private final Type type;
+  @Nullable private final String scope;
+  @Nullable private final Serializable key;
+
+  CacheInvalidation(
+      String factory,
+      String region,
+      Type type,
+      @Nullable String scope,
+      @Nullable Serializable key) {
+    this.factory = factory;
+    this.region = region;
+    this.type = type;
+    this.scope = scope;
+    this.key = key;
+  }
+
+  String getFactory() {
+    return factory;
+  }
+
+  String getRegion() {
+    return region;
+  }
+
+  Type getType() {
+    return type;
+  }
+
+  @Nullable
+  String getScope() {
+    return scope;
+  }
+
+  @Nullable
+  Serializable getKey() {
+    return key;
+  }
+}
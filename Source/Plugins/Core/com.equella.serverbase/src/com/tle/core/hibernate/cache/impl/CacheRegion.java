@@ -0,0 +1,213 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.hibernate.cache.impl;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.tle.annotation.Nullable;
+import com.tle.core.hibernate.cache.RegionStats;
+import com.tle.core.hibernate.cache.impl.CacheInvalidation.Type;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded second level cache region on this node. Entries are scoped by the database they were
+ * read from, as the same session factory serves the institutions of every database.
+ *
+ * <p>Changes are sent to the other nodes as they happen here: an updated entity or collection is
+ * removed from the other nodes rather than copied to them, and an updated table has its timestamp
+ * set on the other nodes so that the query results using it are ignored. Query results are only
+ * ever put into the region of the node that ran the query. An unknown scope can't be matched to
+ * the entries it would have changed, so the whole region is cleared instead.
+ *
+ * <p>Entities and collections also expire a while after being cached, so that a change another
+ * node failed to pass on, or one made straight to the database, isn't served forever.
+ */
+class CacheRegion {
+  enum Kind {
+    DOMAIN,
+    QUERY_RESULTS,
+    TIMESTAMPS
+  }
+
+  private final ClusteredRegions regions;
+  private final String name;
+  private final Kind kind;
+  private final Cache<ScopedKey, Object> cache;
+  private final LongAdder puts = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+
+  CacheRegion(
+      final ClusteredRegions regions, String name, Kind kind, int maxEntries, int expiryMinutes) {
+    this.regions = regions;
+    this.name = name;
+    this.kind = kind;
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+    // Losing the timestamp of a table would make stale query results look current. There is
+    // only one entry per table anyway.
+    if (kind != Kind.TIMESTAMPS) {
+      builder.maximumSize(maxEntries);
+    }
+    // Query results are already checked against the timestamps of their tables
+    if (kind == Kind.DOMAIN && expiryMinutes > 0) {
+      builder
+          .expireAfterWrite(expiryMinutes, TimeUnit.MINUTES)
+          .ticker(
+              new Ticker() {
+                @Override
+                public long read() {
+                  return TimeUnit.MILLISECONDS.toNanos(regions.now());
+                }
+              });
+    }
+    this.cache = builder.build();
+  }
+
+  String getName() {
+    return name;
+  }
+
+  Kind getKind() {
+    return kind;
+  }
+
+  @Nullable
+  Object get(@Nullable String scope, Object key) {
+    if (scope == null) {
+      return null;
+    }
+    return cache.getIfPresent(new ScopedKey(scope, key));
+  }
+
+  boolean contains(@Nullable String scope, Object key) {
+    return scope != null && cache.asMap().containsKey(new ScopedKey(scope, key));
+  }
+
+  /** Caches a value read from the database. The other nodes are not told about it. */
+  void putFromLoad(@Nullable String scope, Object key, Object value) {
+    if (scope != null) {
+      cache.put(new ScopedKey(scope, key), value);
+      puts.increment();
+    }
+  }
+
+  /** Caches a changed value, making the other nodes drop the value they have. */
+  void put(@Nullable String scope, Object key, Object value) {
+    if (scope == null) {
+      if (kind != Kind.QUERY_RESULTS) {
+        clear();
+      }
+      return;
+    }
+    cache.put(new ScopedKey(scope, key), value);
+    puts.increment();
+    if (kind == Kind.DOMAIN) {
+      regions.send(this, Type.REMOVE, scope, key);
+    } else if (kind == Kind.TIMESTAMPS) {
+      regions.send(this, Type.TOUCH, scope, key);
+    }
+  }
+
+  void remove(@Nullable String scope, Object key) {
+    if (scope == null) {
+      clear();
+      return;
+    }
+    removeLocally(scope, key);
+    regions.send(this, Type.REMOVE, scope, key);
+  }
+
+  void clear() {
+    clearLocally();
+    regions.send(this, Type.CLEAR, null, null);
+  }
+
+  void removeLocally(@Nullable String scope, @Nullable Object key) {
+    if (scope == null || key == null) {
+      clearLocally();
+      return;
+    }
+    ScopedKey scopedKey = new ScopedKey(scope, key);
+    if (cache.asMap().remove(scopedKey) != null) {
+      invalidations.increment();
+    }
+  }
+
+  void clearLocally() {
+    invalidations.add(cache.size());
+    cache.invalidateAll();
+    if (kind == Kind.TIMESTAMPS) {
+      // Without the timestamps every query result would look current
+      regions.clearQueryResultsLocally();
+    }
+  }
+
+  /** A table was updated on another node */
+  void touchLocally(@Nullable String scope, @Nullable Object key) {
+    if (scope == null || key == null) {
+      clearLocally();
+      return;
+    }
+    cache.put(new ScopedKey(scope, key), regions.now());
+  }
+
+  RegionStats getStats(String statsName) {
+    CacheStats stats = cache.stats();
+    return new RegionStats(
+        statsName,
+        cache.size(),
+        stats.hitCount(),
+        stats.missCount(),
+        puts.sum(),
+        stats.evictionCount(),
+        invalidations.sum());
+  }
+
+  private static class ScopedKey {
+    private final String scope;
+    private final Object key;
+    private final int hash;
+
+    ScopedKey(String scope, Object key) {
+      this.scope = scope;
+      this.key = key;
+      this.hash = Objects.hashCode(scope, key);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ScopedKey)) {
+        return false;
+      }
+      ScopedKey other = (ScopedKey) obj;
+      return hash == other.hash && scope.equals(other.scope) && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
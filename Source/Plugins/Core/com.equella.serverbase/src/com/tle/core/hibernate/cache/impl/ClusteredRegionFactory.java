@@ -0,0 +1,151 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.hibernate.cache.impl;
+
+import com.tle.core.hibernate.CurrentDataSource;
+import com.tle.core.hibernate.DataSourceHolder;
+import com.tle.core.hibernate.cache.impl.CacheRegion.Kind;
+import java.util.Map;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.internal.SimpleCacheKeysFactory;
+import org.hibernate.cache.spi.CacheKeysFactory;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+/**
+ * Stores the second level cache regions of a session factory in {@link ClusteredRegions}, scoping
+ * the entries by the current data source.
+ */
+class ClusteredRegionFactory extends RegionFactoryTemplate {
+  private static final long serialVersionUID = 1L;
+
+  private final transient ClusteredRegions regions;
+
+  ClusteredRegionFactory(ClusteredRegions regions) {
+    this.regions = regions;
+  }
+
+  @Override
+  protected CacheKeysFactory getImplicitCacheKeysFactory() {
+    // The regions are per entity hierarchy and collection role, the IDs are enough
+    return SimpleCacheKeysFactory.INSTANCE;
+  }
+
+  @Override
+  public AccessType getDefaultAccessType() {
+    return AccessType.NONSTRICT_READ_WRITE;
+  }
+
+  @Override
+  public long nextTimestamp() {
+    return regions.now();
+  }
+
+  @Override
+  protected void prepareForUse(SessionFactoryOptions settings, Map configValues) {
+    // Nothing to do
+  }
+
+  @Override
+  protected void releaseFromUse() {
+    regions.clearAllLocally();
+  }
+
+  @Override
+  protected DomainDataStorageAccess createDomainDataStorageAccess(
+      DomainDataRegionConfig regionConfig, DomainDataRegionBuildingContext buildingContext) {
+    return new RegionAccess(regions.region(regionConfig.getRegionName(), Kind.DOMAIN));
+  }
+
+  @Override
+  protected StorageAccess createQueryResultsRegionStorageAccess(
+      String regionName, SessionFactoryImplementor sessionFactory) {
+    return new RegionAccess(regions.region(regionName, Kind.QUERY_RESULTS));
+  }
+
+  @Override
+  protected StorageAccess createTimestampsRegionStorageAccess(
+      String regionName, SessionFactoryImplementor sessionFactory) {
+    return new RegionAccess(regions.region(regionName, Kind.TIMESTAMPS));
+  }
+
+  private static String scope() {
+    DataSourceHolder dataSource = CurrentDataSource.get();
+    return dataSource != null ? dataSource.getId() : null;
+  }
+
+  private static class RegionAccess implements DomainDataStorageAccess {
+    private final CacheRegion region;
+
+    RegionAccess(CacheRegion region) {
+      this.region = region;
+    }
+
+    @Override
+    public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+      return region.get(scope(), key);
+    }
+
+    @Override
+    public void putFromLoad(Object key, Object value, SharedSessionContractImplementor session) {
+      region.putFromLoad(scope(), key, value);
+    }
+
+    @Override
+    public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+      region.put(scope(), key, value);
+    }
+
+    @Override
+    public void removeFromCache(Object key, SharedSessionContractImplementor session) {
+      region.remove(scope(), key);
+    }
+
+    @Override
+    public void clearCache(SharedSessionContractImplementor session) {
+      region.clear();
+    }
+
+    @Override
+    public boolean contains(Object key) {
+      return region.contains(scope(), key);
+    }
+
+    @Override
+    public void evictData() {
+      region.clear();
+    }
+
+    @Override
+    public void evictData(Object key) {
+      region.remove(scope(), key);
+    }
+
+    @Override
+    public void release() {
+      region.clearLocally();
+    }
+  }
+}
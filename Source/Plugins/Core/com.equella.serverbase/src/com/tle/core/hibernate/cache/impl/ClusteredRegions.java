@@ -0,0 +1,129 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.hibernate.cache.impl;
+
+import com.tle.annotation.Nullable;
+import com.tle.core.cluster.service.ClusterMessagingService;
+import com.tle.core.hibernate.cache.RegionStats;
+import com.tle.core.hibernate.cache.impl.CacheInvalidation.Type;
+import com.tle.core.hibernate.cache.impl.CacheRegion.Kind;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The second level cache regions of a session factory on this node, and the link to the same
+ * regions on the other nodes of the cluster.
+ */
+class ClusteredRegions {
+  private final String factoryName;
+  private final int maxEntries;
+  private final int expiryMinutes;
+  private final ClusterMessagingService messagingService;
+  private final LongSupplier clock;
+  private final ConcurrentMap<String, CacheRegion> regions =
+      new ConcurrentHashMap<String, CacheRegion>();
+
+  ClusteredRegions(
+      String factoryName,
+      int maxEntries,
+      int expiryMinutes,
+      ClusterMessagingService messagingService,
+      LongSupplier clock) {
+    this.factoryName = factoryName;
+    this.maxEntries = maxEntries;
+    this.expiryMinutes = expiryMinutes;
+    this.messagingService = messagingService;
+    this.clock = clock;
+  }
+
+  String getFactoryName() {
+    return factoryName;
+  }
+
+  CacheRegion region(String name, Kind kind) {
+    return regions.computeIfAbsent(
+        name, n -> new CacheRegion(this, n, kind, maxEntries, expiryMinutes));
+  }
+
+  /** The timestamp given to cached query results and updated tables */
+  long now() {
+    return clock.getAsLong();
+  }
+
+  void send(CacheRegion region, Type type, @Nullable String scope, @Nullable Object key) {
+    if (key != null && !(key instanceof Serializable)) {
+      // Can't tell the other nodes which entry it was, a touch without a key clears the timestamps
+      if (type == Type.REMOVE) {
+        type = Type.CLEAR;
+      }
+      scope = null;
+      key = null;
+    }
+    messagingService.postMessage(
+        new CacheInvalidation(factoryName, region.getName(), type, scope, (Serializable) key));
+  }
+
+  /** Applies a change sent from another node. */
+  void apply(CacheInvalidation invalidation) {
+    CacheRegion region = regions.get(invalidation.getRegion());
+    if (region == null) {
+      // Nothing has been cached in it here yet
+      return;
+    }
+    switch (invalidation.getType()) {
+      case REMOVE:
+        region.removeLocally(invalidation.getScope(), invalidation.getKey());
+        break;
+      case TOUCH:
+        region.touchLocally(invalidation.getScope(), invalidation.getKey());
+        break;
+      case CLEAR:
+      default:
+        region.clearLocally();
+        break;
+    }
+  }
+
+  void clearAllLocally() {
+    for (CacheRegion region : regions.values()) {
+      region.clearLocally();
+    }
+  }
+
+  void clearQueryResultsLocally() {
+    for (CacheRegion region : regions.values()) {
+      if (region.getKind() == Kind.QUERY_RESULTS) {
+        region.clearLocally();
+      }
+    }
+  }
+
+  Map<String, RegionStats> getStats() {
+    Map<String, RegionStats> stats = new TreeMap<String, RegionStats>();
+    for (CacheRegion region : regions.values()) {
+      String name = factoryName + '/' + region.getName();
+      stats.put(name, region.getStats(name));
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.hibernate.cache.impl;
+
+import com.google.inject.Inject;
+import com.tle.common.NamedThreadFactory;
+import com.tle.core.cluster.ClusterMessageHandler;
+import com.tle.core.cluster.service.ClusterMessagingService;
+import com.tle.core.guice.Bind;
+import com.tle.core.hibernate.cache.RegionStats;
+import com.tle.core.hibernate.cache.SecondLevelCacheService;
+import com.tle.core.institution.events.InstitutionEvent;
+import com.tle.core.institution.events.listeners.InstitutionListener;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.apache.log4j.Logger;
+import org.hibernate.cache.spi.RegionFactory;
+
+@Singleton
+@SuppressWarnings("nls")
+@Bind(SecondLevelCacheService.class)
+public class SecondLevelCacheServiceImpl
+    implements SecondLevelCacheService, ClusterMessageHandler, InstitutionListener {
+  private static final Logger LOGGER = Logger.getLogger(SecondLevelCacheServiceImpl.class);
+
+  @Inject private ClusterMessagingService messagingService;
+
+  @Inject(optional = true)
+  @Named("secondLevelCache.regionEntries")
+  private int regionEntries = 5000;
+
+  @Inject(optional = true)
+  @Named("secondLevelCache.expiryMinutes")
+  private int expiryMinutes = 30;
+
+  @Inject(optional = true)
+  @Named("secondLevelCache.statsLogMinutes")
+  private int statsLogMinutes = 60;
+
+  private final ConcurrentMap<String, ClusteredRegions> factories =
+      new ConcurrentHashMap<String, ClusteredRegions>();
+  private ScheduledExecutorService statsLogger;
+
+  @Override
+  public RegionFactory createRegionFactory(String factoryName) {
+    if (regionEntries <= 0) {
+      return null;
+    }
+    ClusteredRegions regions =
+        factories.computeIfAbsent(
+            factoryName,
+            name ->
+                new ClusteredRegions(
+                    name,
+                    regionEntries,
+                    expiryMinutes,
+                    messagingService,
+                    System::currentTimeMillis));
+    startStatsLog();
+    return new ClusteredRegionFactory(regions);
+  }
+
+  private synchronized void startStatsLog() {
+    if (statsLogger == null && statsLogMinutes > 0) {
+      statsLogger =
+          Executors.newSingleThreadScheduledExecutor(
+              new NamedThreadFactory("SecondLevelCacheService.statsLogger"));
+      statsLogger.scheduleWithFixedDelay(
+          this::logStats, statsLogMinutes, statsLogMinutes, TimeUnit.MINUTES);
+    }
+  }
+
+  private void logStats() {
+    for (RegionStats stats : getStats().values()) {
+      if (stats.getHits() + stats.getMisses() + stats.getPuts() > 0) {
+        LOGGER.info(stats);
+      }
+    }
+  }
+
+  @Override
+  public Map<String, RegionStats> getStats() {
+    Map<String, RegionStats> stats = new TreeMap<String, RegionStats>();
+    for (ClusteredRegions regions : factories.values()) {
+      stats.putAll(regions.getStats());
+    }
+    return stats;
+  }
+
+  @Override
+  public Runnable canHandle(Object msg) {
+    if (msg instanceof CacheInvalidation) {
+      final CacheInvalidation invalidation = (CacheInvalidation) msg;
+      final ClusteredRegions regions = factories.get(invalidation.getFactory());
+      if (regions == null) {
+        // Nothing cached for it on this node
+        return () -> {};
+      }
+      return () -> regions.apply(invalidation);
+    }
+    return null;
+  }
+
+  @Override
+  public void institutionEvent(InstitutionEvent event) {
+    if (event.getEventType() != InstitutionEvent.InstitutionEventType.STATUS) {
+      // Institutions can be imported, deleted and moved between databases behind Hibernate's back
+      for (ClusteredRegions regions : factories.values()) {
+        regions.clearAllLocally();
+      }
+    }
+  }
+}
@@ -26,6 +26,7 @@ import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.annotations.Cache;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Order;
@@ -57,6 +58,19 @@ public class GenericDaoImpl<T, ID extends Serializable> extends AbstractHibernat
     return persistentClass.getName();
   }
 
+  /**
+   * Queries returning entities are only worth putting in the query cache if the entities are in the
+   * second level cache, otherwise every cached result is loaded again one row at a time.
+   */
+  protected boolean isEntityCached() {
+    for (Class<?> clazz = persistentClass; clazz != null; clazz = clazz.getSuperclass()) {
+      if (clazz.isAnnotationPresent(Cache.class)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /*
    * (non-Javadoc)
    * @see com.tle.core.dao.GenericDao#save(null)
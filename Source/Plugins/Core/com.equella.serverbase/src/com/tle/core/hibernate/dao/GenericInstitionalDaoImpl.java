@@ -50,7 +50,7 @@ public class GenericInstitionalDaoImpl<T, ID extends Serializable> extends Gener
                                 + getPersistentClass().getName() // $NON-NLS-1$
                                 + " where institution = :institution"); //$NON-NLS-1$
                     query.setParameter("institution", CurrentInstitution.get()); // $NON-NLS-1$
-                    query.setCacheable(true);
+                    query.setCacheable(isEntityCached());
                     query.setReadOnly(true);
                     return query.list();
                   }
@@ -115,7 +115,7 @@ public class GenericInstitionalDaoImpl<T, ID extends Serializable> extends Gener
 
     Query query = session.createQuery(hql.toString());
     query.setParameter("institution", CurrentInstitution.get());
-    query.setCacheable(true);
+    query.setCacheable(countOnly || isEntityCached());
     query.setReadOnly(true);
 
     if (callback != null) {
@@ -21,16 +21,27 @@ package com.tle.core.hibernate.guice;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provider;
 import com.google.inject.Scopes;
+import com.tle.core.config.guice.OptionalConfigModule;
 import com.tle.core.guice.Bind;
 import com.tle.core.hibernate.DataSourceService;
 import javax.inject.Inject;
 import javax.sql.DataSource;
 
+@SuppressWarnings("nls")
 public class HibernateModule extends AbstractModule {
   @Override
   protected void configure() {
     bind(DataSource.class).toProvider(DataSourceProvider.class).in(Scopes.SINGLETON);
     install(new TransactionModule());
+    install(new HibernateOptionalModule());
+  }
+
+  public static class HibernateOptionalModule extends OptionalConfigModule {
+    @Override
+    protected void configure() {
+      bindInt("secondLevelCache.regionEntries", 5000);
+      bindInt("secondLevelCache.statsLogMinutes", 60);
+    }
   }
 
   @Bind
@@ -27,6 +27,7 @@ import com.tle.core.hibernate.DataSourceService;
 import com.tle.core.hibernate.HibernateFactory;
 import com.tle.core.hibernate.HibernateFactoryService;
 import com.tle.core.hibernate.HibernateService;
+import com.tle.core.hibernate.cache.SecondLevelCacheService;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.hibernate.SessionFactory;
@@ -39,6 +40,7 @@ public class HibernateServiceImpl implements HibernateService {
   @Inject private HibernateFactoryService hibernateService;
   @Inject private DataSourceService datasourceService;
   @Inject private DynamicDataSource institutionAwareDataSource;
+  @Inject private SecondLevelCacheService secondLevelCache;
 
   private static HibernateServiceImpl instance;
 
@@ -70,6 +72,9 @@ public class HibernateServiceImpl implements HibernateService {
     }
     HibernateFactory factory = hibernateService.createConfiguration(dataSource, clazzes);
     factory.setClassLoader(getClass().getClassLoader());
+    if (!system) {
+      factory.setRegionFactory(secondLevelCache.createRegionFactory(name));
+    }
     factory.setProperty(
         Environment.CURRENT_SESSION_CONTEXT_CLASS, SpringSessionContext.class.getName());
     return factory;
@@ -34,12 +34,12 @@ public class InstitutionCacheImpl<T> implements InstitutionCache<T> {
   }
 
   @Override
-  public synchronized T getCache() {
+  public T getCache() {
     return getCache(getInstitution());
   }
 
   @Override
-  public synchronized T getCache(Institution inst) {
+  public T getCache(Institution inst) {
     Preconditions.checkNotNull(inst);
     return cache.getUnchecked(inst);
   }
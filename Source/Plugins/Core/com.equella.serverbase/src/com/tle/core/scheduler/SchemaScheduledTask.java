@@ -0,0 +1,28 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.scheduler;
+
+/**
+ * A server scoped task that works on one database schema at a time, for use instead of {@link
+ * ScheduledTask}. The scheduler calls it once for each available schema, or once per shard when the
+ * task is sharded by schema, with that schema already the current data source.
+ */
+public interface SchemaScheduledTask {
+  void execute(long schemaId);
+}
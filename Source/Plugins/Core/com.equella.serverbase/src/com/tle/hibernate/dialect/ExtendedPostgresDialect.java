@@ -220,4 +220,20 @@ public class ExtendedPostgresDialect extends PostgreSQLDialect implements Extend
   public UniqueDelegate getUniqueDelegate() {
     return uniqueDelegate;
   }
+
+  // PostgreSQLDialect predates SKIP LOCKED, which Postgres has supported since 9.5
+  @Override
+  public boolean supportsSkipLocked() {
+    return true;
+  }
+
+  @Override
+  public String getForUpdateSkipLockedString() {
+    return getForUpdateString() + " skip locked";
+  }
+
+  @Override
+  public String getForUpdateSkipLockedString(String aliases) {
+    return getForUpdateString() + " of " + aliases + " skip locked";
+  }
 }
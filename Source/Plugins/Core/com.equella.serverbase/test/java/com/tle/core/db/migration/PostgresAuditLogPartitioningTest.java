@@ -0,0 +1,262 @@
+package com.tle.core.db.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import org.junit.Test;
+import scala.Function1;
+import scala.Tuple2;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
+import scala.runtime.BoxedUnit;
+
+@SuppressWarnings("nls")
+public class PostgresAuditLogPartitioningTest {
+  private static final String LEGACY = "FOR VALUES FROM (MINVALUE) TO ('2020-04-01 00:00:00')";
+  private static final String APRIL =
+      "FOR VALUES FROM ('2020-04-01 00:00:00') TO ('2020-05-01 00:00:00')";
+  private static final String MAY =
+      "FOR VALUES FROM ('2020-05-01 00:00:00') TO ('2020-06-01 00:00:00')";
+  /** Marks the statements which had to be run outside of a transaction */
+  private static final String OUTSIDE = "(no transaction) ";
+
+  private final PostgresAuditLogPartitioning partitioning = new RecordingPartitioning();
+
+  private final List<String> executed = new ArrayList<>();
+  private final Function1<String, BoxedUnit> log = sql -> BoxedUnit.UNIT;
+
+  private boolean defaultExists = true;
+  private Boolean keyIndex;
+  private long entriesInDefault;
+  private final List<Object[]> partitions = new ArrayList<>();
+
+  @Test
+  public void testConstraintValidatedBeforeRename() {
+    partitioning.partitionTable(null, LocalDate.of(2020, 4, 1), log);
+
+    assertEquals(
+        "ALTER TABLE audit_log_entry ADD CONSTRAINT audit_log_entry_legacy_range "
+            + "CHECK (\"timestamp\" < '2020-04-01') NOT VALID",
+        executed.get(0));
+    assertEquals("COMMIT", executed.get(1));
+    assertEquals(
+        "ALTER TABLE audit_log_entry VALIDATE CONSTRAINT audit_log_entry_legacy_range",
+        executed.get(2));
+    assertEquals("COMMIT", executed.get(3));
+    assertEquals("ALTER TABLE audit_log_entry RENAME TO audit_log_entry_legacy", executed.get(5));
+    assertEquals(
+        "ALTER TABLE audit_log_entry ATTACH PARTITION audit_log_entry_legacy "
+            + "FOR VALUES FROM (MINVALUE) TO ('2020-04-01')",
+        executed.get(executed.size() - 1));
+  }
+
+  @Test
+  public void testKeyIndexBuiltBeforeRename() {
+    partitioning.partitionTable(null, LocalDate.of(2020, 4, 1), log);
+
+    assertEquals(
+        Arrays.asList(
+            OUTSIDE
+                + "CREATE UNIQUE INDEX CONCURRENTLY audit_log_entry_legacy_key "
+                + "ON audit_log_entry (id, \"timestamp\")",
+            "ALTER TABLE audit_log_entry RENAME TO audit_log_entry_legacy",
+            "ALTER TABLE audit_log_entry_legacy ADD CONSTRAINT audit_log_entry_legacy_key "
+                + "UNIQUE USING INDEX audit_log_entry_legacy_key"),
+        executed.subList(4, 7));
+  }
+
+  @Test
+  public void testInvalidKeyIndexRebuilt() {
+    keyIndex = false;
+    partitioning.partitionTable(null, LocalDate.of(2020, 4, 1), log);
+
+    assertEquals(
+        Arrays.asList(
+            OUTSIDE + "DROP INDEX CONCURRENTLY audit_log_entry_legacy_key",
+            OUTSIDE
+                + "CREATE UNIQUE INDEX CONCURRENTLY audit_log_entry_legacy_key "
+                + "ON audit_log_entry (id, \"timestamp\")",
+            "ALTER TABLE audit_log_entry RENAME TO audit_log_entry_legacy"),
+        executed.subList(4, 7));
+  }
+
+  @Test
+  public void testValidKeyIndexKept() {
+    keyIndex = true;
+    partitioning.partitionTable(null, LocalDate.of(2020, 4, 1), log);
+
+    assertEquals("ALTER TABLE audit_log_entry RENAME TO audit_log_entry_legacy", executed.get(4));
+  }
+
+  @Test
+  public void testEnsurePartitionsCreatesDefault() {
+    defaultExists = false;
+    partitions.add(new Object[] {"audit_log_entry_legacy", LEGACY});
+
+    partitioning.ensurePartitions(null, LocalDate.of(2020, 3, 15), log);
+
+    assertEquals(
+        Arrays.asList(
+            "CREATE TABLE audit_log_entry_default PARTITION OF audit_log_entry DEFAULT",
+            "CREATE TABLE audit_log_entry_p202004 PARTITION OF audit_log_entry "
+                + "FOR VALUES FROM ('2020-04-01') TO ('2020-05-01')",
+            "CREATE TABLE audit_log_entry_p202005 PARTITION OF audit_log_entry "
+                + "FOR VALUES FROM ('2020-05-01') TO ('2020-06-01')"),
+        executed);
+  }
+
+  @Test
+  public void testEntriesMovedOutOfDefault() {
+    partitions.add(new Object[] {"audit_log_entry_legacy", LEGACY});
+    partitions.add(new Object[] {"audit_log_entry_default", "DEFAULT"});
+    entriesInDefault = 5;
+
+    partitioning.ensurePartitions(null, LocalDate.of(2020, 2, 10), log);
+
+    String range = "\"timestamp\" >= '2020-04-01' AND \"timestamp\" < '2020-05-01'";
+    assertEquals(
+        Arrays.asList(
+            "ALTER TABLE audit_log_entry DETACH PARTITION audit_log_entry_default",
+            "CREATE TABLE audit_log_entry_p202004 PARTITION OF audit_log_entry "
+                + "FOR VALUES FROM ('2020-04-01') TO ('2020-05-01')",
+            "INSERT INTO audit_log_entry_p202004 SELECT * FROM audit_log_entry_default WHERE "
+                + range,
+            "DELETE FROM audit_log_entry_default WHERE " + range,
+            "ALTER TABLE audit_log_entry ATTACH PARTITION audit_log_entry_default DEFAULT"),
+        executed);
+  }
+
+  @Test
+  public void testDefaultNeverDropped() {
+    partitions.add(new Object[] {"audit_log_entry_default", "DEFAULT"});
+    partitions.add(new Object[] {"audit_log_entry_p202005", MAY});
+    partitions.add(new Object[] {"audit_log_entry_legacy", LEGACY});
+    partitions.add(new Object[] {"audit_log_entry_p202004", APRIL});
+
+    int dropped = partitioning.dropPartitionsBefore(null, LocalDate.of(2020, 5, 15), log);
+
+    assertEquals(2, dropped);
+    assertEquals(
+        Arrays.asList("DROP TABLE audit_log_entry_legacy", "DROP TABLE audit_log_entry_p202004"),
+        executed);
+    assertEquals(
+        0, partitioning.dropPartitionsBefore(null, LocalDate.of(2020, 3, 1), log));
+  }
+
+  @Test
+  public void testLegacyEntriesDeletedUntilPartitionDroppable() {
+    partitions.add(new Object[] {"audit_log_entry_legacy", LEGACY});
+    partitions.add(new Object[] {"audit_log_entry_p202004", APRIL});
+
+    assertTrue(partitioning.mustDeleteLegacyEntries(null, LocalDate.of(2019, 12, 1)));
+    assertTrue(partitioning.mustDeleteLegacyEntries(null, LocalDate.of(2020, 3, 31)));
+    // From here on it's dropped instead
+    assertFalse(partitioning.mustDeleteLegacyEntries(null, LocalDate.of(2020, 4, 1)));
+
+    partitions.remove(0);
+    assertFalse(partitioning.mustDeleteLegacyEntries(null, LocalDate.of(2020, 3, 31)));
+  }
+
+  /** Records the statements instead of running them and answers the queries it makes */
+  private class RecordingPartitioning extends PostgresAuditLogPartitioning {
+    RecordingPartitioning() {
+      super(
+          JavaConverters.asScalaBufferConverter(
+                  Collections.singletonList(new Tuple2<>("audit_user_id", "user_id")))
+              .asScala(),
+          "\"timestamp\"");
+    }
+
+    @Override
+    public void execute(Connection con, String sql, Function1<String, BoxedUnit> log) {
+      executed.add(sql);
+    }
+
+    @Override
+    public void executeOutsideTransaction(
+        Connection con, String sql, Function1<String, BoxedUnit> log) {
+      executed.add(OUTSIDE + sql);
+    }
+
+    @Override
+    public void commit(Connection con) {
+      executed.add("COMMIT");
+    }
+
+    @Override
+    public <A> Seq<A> query(Connection con, String sql, Function1<ResultSet, A> f) {
+      List<A> results = new ArrayList<>();
+      try (ResultSet rs = rows(answer(sql))) {
+        while (rs.next()) {
+          results.add(f.apply(rs));
+        }
+      } catch (SQLException e) {
+        throw new AssertionError(e);
+      }
+      return JavaConverters.asScalaBufferConverter(results).asScala();
+    }
+  }
+
+  private List<Object[]> answer(String sql) {
+    if (sql.contains("pg_constraint")) {
+      return Collections.singletonList(new Object[] {0L});
+    }
+    if (sql.contains("pg_index")) {
+      return keyIndex == null
+          ? Collections.emptyList()
+          : Collections.singletonList(new Object[] {keyIndex});
+    }
+    if (sql.contains("to_regclass('audit_log_entry_default')")) {
+      return Collections.singletonList(new Object[] {defaultExists ? 1L : 0L});
+    }
+    if (sql.contains("pg_inherits")) {
+      return partitions;
+    }
+    if (sql.contains("FROM audit_log_entry_default WHERE")) {
+      // Only the first month added has any entries waiting for it
+      long count = entriesInDefault;
+      entriesInDefault = 0;
+      return Collections.singletonList(new Object[] {count});
+    }
+    throw new AssertionError("Unexpected query " + sql);
+  }
+
+  private static ResultSet rows(List<Object[]> rows) throws SQLException {
+    CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+    RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+    int columns = rows.isEmpty() ? 1 : rows.get(0).length;
+    metaData.setColumnCount(columns);
+    for (int i = 1; i <= columns; i++) {
+      Object value = rows.isEmpty() ? null : rows.get(0)[i - 1];
+      metaData.setColumnType(
+          i,
+          value instanceof Long
+              ? Types.BIGINT
+              : value instanceof Boolean ? Types.BOOLEAN : Types.VARCHAR);
+    }
+    rowSet.setMetaData(metaData);
+    for (Object[] row : rows) {
+      rowSet.moveToInsertRow();
+      for (int i = 0; i < row.length; i++) {
+        rowSet.updateObject(i + 1, row[i]);
+      }
+      rowSet.insertRow();
+      rowSet.moveToCurrentRow();
+    }
+    rowSet.beforeFirst();
+    return rowSet;
+  }
+}
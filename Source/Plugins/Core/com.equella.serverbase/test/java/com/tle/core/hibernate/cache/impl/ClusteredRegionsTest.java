@@ -0,0 +1,171 @@
+package com.tle.core.hibernate.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.tle.core.cluster.service.ClusterMessagingService;
+import com.tle.core.hibernate.cache.RegionStats;
+import com.tle.core.hibernate.cache.impl.CacheRegion.Kind;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+/** Two nodes of a cluster, each with their own regions, passing invalidations to each other. */
+@SuppressWarnings("nls")
+public class ClusteredRegionsTest {
+  private static final String DB = "jdbc:postgresql://db/equella equella";
+  private static final String OTHER_DB = "jdbc:postgresql://db/other equella";
+
+  private final AtomicLong clock = new AtomicLong(1000);
+  private final Node nodeA = new Node(100);
+  private final Node nodeB = new Node(100);
+
+  public ClusteredRegionsTest() {
+    nodeA.other = nodeB;
+    nodeB.other = nodeA;
+  }
+
+  @Test
+  public void testUpdateOnOneNodeEvictsOther() {
+    CacheRegion schemasA = nodeA.regions.region("Schema", Kind.DOMAIN);
+    CacheRegion schemasB = nodeB.regions.region("Schema", Kind.DOMAIN);
+    schemasA.putFromLoad(DB, 1L, "loaded on A");
+    schemasB.putFromLoad(DB, 1L, "loaded on B");
+
+    // Loading is not a change, nothing is sent
+    assertEquals("loaded on A", schemasA.get(DB, 1L));
+    assertEquals("loaded on B", schemasB.get(DB, 1L));
+    assertEquals(0, nodeA.sent);
+
+    schemasA.remove(DB, 1L);
+    assertNull(schemasA.get(DB, 1L));
+    assertNull(schemasB.get(DB, 1L));
+    assertEquals(1, schemasB.getStats("Schema").getInvalidations());
+  }
+
+  @Test
+  public void testUpdatedTableIgnoresQueryResultsOnOtherNode() {
+    CacheRegion timestampsA = nodeA.regions.region("timestamps", Kind.TIMESTAMPS);
+    CacheRegion timestampsB = nodeB.regions.region("timestamps", Kind.TIMESTAMPS);
+    CacheRegion resultsA = nodeA.regions.region("results", Kind.QUERY_RESULTS);
+    CacheRegion resultsB = nodeB.regions.region("results", Kind.QUERY_RESULTS);
+
+    // Query results are kept to the node that ran the query
+    resultsB.put(DB, "from Schema", "results");
+    assertNull(resultsA.get(DB, "from Schema"));
+    assertEquals(0, nodeB.sent);
+
+    clock.set(2000);
+    timestampsA.put(DB, "base_entity", 1999L);
+    assertEquals(1999L, timestampsA.get(DB, "base_entity"));
+    // B marks the table as updated by its own clock
+    assertEquals(2000L, timestampsB.get(DB, "base_entity"));
+    assertNull(timestampsB.get(OTHER_DB, "base_entity"));
+
+    // Losing the timestamps loses the query results with them
+    timestampsA.clear();
+    assertNull(timestampsB.get(DB, "base_entity"));
+    assertNull(resultsB.get(DB, "from Schema"));
+  }
+
+  @Test
+  public void testScopesAreSeparate() {
+    CacheRegion groupsA = nodeA.regions.region("TLEGroup", Kind.DOMAIN);
+    CacheRegion groupsB = nodeB.regions.region("TLEGroup", Kind.DOMAIN);
+    groupsA.putFromLoad(DB, 1L, "group");
+    groupsA.putFromLoad(OTHER_DB, 1L, "other group");
+    groupsB.putFromLoad(DB, 1L, "group");
+    groupsB.putFromLoad(OTHER_DB, 1L, "other group");
+
+    groupsA.remove(OTHER_DB, 1L);
+    assertEquals("group", groupsB.get(DB, 1L));
+    assertNull(groupsB.get(OTHER_DB, 1L));
+
+    // Nothing is cached without knowing the database, and changes to it clear everything
+    groupsA.putFromLoad(null, 2L, "unknown");
+    assertNull(groupsA.get(null, 2L));
+    assertFalse(groupsA.contains(DB, 2L));
+    groupsA.remove(null, 2L);
+    assertNull(groupsA.get(DB, 1L));
+    assertNull(groupsB.get(DB, 1L));
+  }
+
+  @Test
+  public void testStatsAndBounds() {
+    Node small = new Node(2);
+    small.other = new Node(2);
+    CacheRegion mimeTypes = small.regions.region("MimeEntry", Kind.DOMAIN);
+    mimeTypes.putFromLoad(DB, 1L, "text/plain");
+    mimeTypes.putFromLoad(DB, 2L, "text/html");
+    mimeTypes.get(DB, 2L);
+    mimeTypes.putFromLoad(DB, 3L, "image/png");
+    assertTrue(mimeTypes.contains(DB, 3L));
+    mimeTypes.get(DB, 3L);
+    mimeTypes.get(DB, 4L);
+
+    RegionStats stats = small.regions.getStats().get("test/MimeEntry");
+    assertEquals(2, stats.getSize());
+    assertEquals(3, stats.getPuts());
+    assertEquals(1, stats.getEvictions());
+    assertEquals(2, stats.getHits());
+    assertEquals(1, stats.getMisses());
+    assertEquals(2.0 / 3, stats.getHitRatio(), 0.001);
+  }
+
+  @Test
+  public void testEntitiesExpire() {
+    CacheRegion schemas = nodeA.regions.region("Schema", Kind.DOMAIN);
+    CacheRegion timestamps = nodeA.regions.region("timestamps", Kind.TIMESTAMPS);
+    schemas.putFromLoad(DB, 1L, "schema");
+    timestamps.put(DB, "base_entity", 1000L);
+
+    clock.addAndGet(TimeUnit.MINUTES.toMillis(29));
+    assertEquals("schema", schemas.get(DB, 1L));
+    clock.addAndGet(TimeUnit.MINUTES.toMillis(1));
+    assertNull(schemas.get(DB, 1L));
+    // Table timestamps are never dropped
+    assertEquals(1000L, timestamps.get(DB, "base_entity"));
+  }
+
+  /** Delivers the messages a node sends straight to the other node, as they would be serialised */
+  private class Node implements ClusterMessagingService {
+    final ClusteredRegions regions;
+    Node other;
+    int sent;
+
+    Node(int maxEntries) {
+      regions = new ClusteredRegions("test", maxEntries, 30, this, clock::get);
+    }
+
+    @Override
+    public void postMessage(Serializable msg) {
+      sent++;
+      other.regions.apply((CacheInvalidation) roundTrip(msg));
+    }
+
+    @Override
+    public void postMessage(String toNodeIdOnly, Serializable msg) {
+      throw new UnsupportedOperationException();
+    }
+
+    private Object roundTrip(Serializable msg) {
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+          out.writeObject(msg);
+        }
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+      } catch (IOException | ClassNotFoundException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -170,7 +170,6 @@ public class AccessExpressionDaoImpl extends GenericDaoImpl<AccessExpression, Lo
                   @Override
                   public Object doInHibernate(Session session) throws HibernateException {
                     Query query = session.createQuery("from " + getPersistentClass().getName());
-                    query.setCacheable(true);
                     query.setReadOnly(true);
                     return query.list();
                   }
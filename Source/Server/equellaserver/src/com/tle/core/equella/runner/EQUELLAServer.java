@@ -114,6 +114,13 @@ public class EQUELLAServer {
       String pathResolver;
       boolean devMode = Boolean.parseBoolean(getProperty(mandatory, "equella.devmode", "false"));
       System.setProperty("equella.devmode", Boolean.toString(devMode));
+      // Read by the plugin startup in the application's class loader
+      for (String key : new String[] {"plugins.parallelStartup", "plugins.startupTrace"}) {
+        String value = getProperty(optional, key, null);
+        if (value != null) {
+          System.setProperty(key, value);
+        }
+      }
       if (devMode) {
         System.out.println("Started server in dev mode");
         pathResolver = StandardPathResolver.class.getName();
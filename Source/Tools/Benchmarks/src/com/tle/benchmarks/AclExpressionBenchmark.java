@@ -0,0 +1,111 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import static com.tle.common.security.SecurityConstants.getRecipient;
+
+import com.tle.common.security.SecurityConstants.Recipient;
+import com.tle.common.usermanagement.user.DefaultUserState;
+import com.tle.core.security.impl.AclExpressionEvaluator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluating the ACL expressions that match a user when they log in, the way {@code
+ * TLEAclManagerImpl.getAclExpressions} sorts them into common, owner and not owner expressions.
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AclExpressionBenchmark {
+  /** How many expressions might match a user in a large institution */
+  private static final int EXPRESSIONS = 500;
+
+  private DefaultUserState userState;
+  private final List<String> expressions = new ArrayList<String>();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    userState = ItemIndexFixture.userState(UserContext.USER);
+    userState.getUsersRoles().add("ROLE_STAFF");
+    userState.setIpAddress("10.20.30.40");
+    userState.setHostReferrer("https://lms.example.edu/course/view.php?id=42");
+
+    Random random = new Random(0);
+    String user = getRecipient(Recipient.USER, ItemIndexFixture.user(UserContext.USER));
+    String owner = getRecipient(Recipient.OWNER);
+    for (int i = 0; i < EXPRESSIONS; i++) {
+      String group = getRecipient(Recipient.GROUP, "group" + random.nextInt(20));
+      String role = getRecipient(Recipient.ROLE, random.nextBoolean() ? "ROLE_STAFF" : "ROLE_X");
+      switch (i % 6) {
+        case 0:
+          expressions.add(group);
+          break;
+        case 1:
+          expressions.add(group + " " + role + " OR");
+          break;
+        case 2:
+          expressions.add(user + " " + group + " OR " + owner + " OR");
+          break;
+        case 3:
+          expressions.add(
+              group + " " + getRecipient(Recipient.IP_ADDRESS, "10.0.0.0/8") + " AND");
+          break;
+        case 4:
+          expressions.add(
+              role + " " + getRecipient(Recipient.HTTP_REFERRER, "*lms.example.edu*") + " AND");
+          break;
+        default:
+          expressions.add(owner + " " + group + " NOT AND");
+          break;
+      }
+    }
+  }
+
+  @Benchmark
+  public int evaluateAtLogin() {
+    int matched = 0;
+    AclExpressionEvaluator evaluator = new AclExpressionEvaluator();
+    for (String expression : expressions) {
+      boolean own = evaluator.evaluate(expression, userState, true, true);
+      boolean notOwn = evaluator.evaluate(expression, userState, false, true);
+      if (own || notOwn) {
+        matched++;
+      }
+    }
+    return matched;
+  }
+}
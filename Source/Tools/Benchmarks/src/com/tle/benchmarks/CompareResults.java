@@ -0,0 +1,174 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH result files written with {@code -rf json}, a baseline and a candidate, and
+ * lists how much each benchmark has changed. A benchmark has regressed when it is worse by more
+ * than the threshold percentage and by more than the two runs' error margins together. Exits with
+ * 1 if anything regressed, or if a baseline benchmark is missing from the candidate or measured in
+ * a different unit and so can't be compared, so a build can fail on it.
+ */
+@SuppressWarnings("nls")
+public final class CompareResults {
+  private static final double DEFAULT_THRESHOLD = 10;
+
+  private CompareResults() {
+    throw new Error();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || args.length > 3) {
+      printHelp();
+    }
+    Map<String, Result> baseline = read(new File(args[0]));
+    Map<String, Result> candidate = read(new File(args[1]));
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+    int regressions = 0;
+    int incomparable = 0;
+    System.out.println(
+        String.format(
+            "%-70s %14s %14s %9s %s", "Benchmark", "Baseline", "Candidate", "Change", "Unit"));
+    for (Map.Entry<String, Result> entry : candidate.entrySet()) {
+      String name = entry.getKey();
+      Result after = entry.getValue();
+      Result before = baseline.get(name);
+      if (before == null) {
+        System.out.println(
+            String.format("%-70s %14s %14.3f %9s %s", name, "-", after.score, "new", after.unit));
+        continue;
+      }
+
+      if (!after.unit.equals(before.unit)) {
+        System.out.println(
+            String.format(
+                "%-70s unit changed from %s to %s  INCOMPARABLE", name, before.unit, after.unit));
+        incomparable++;
+        continue;
+      }
+
+      double change = (after.score - before.score) / before.score * 100;
+      // Positive when the candidate is worse
+      double worse = after.higherIsBetter() ? -change : change;
+      boolean outsideError = Math.abs(after.score - before.score) > before.error + after.error;
+      String flag = "";
+      if (worse > threshold && outsideError) {
+        flag = "  REGRESSION";
+        regressions++;
+      } else if (worse < -threshold && outsideError) {
+        flag = "  improved";
+      }
+      System.out.println(
+          String.format(
+              "%-70s %14.3f %14.3f %+8.1f%% %s%s",
+              name, before.score, after.score, change, after.unit, flag));
+    }
+    for (String name : baseline.keySet()) {
+      if (!candidate.containsKey(name)) {
+        System.out.println(String.format("%-70s missing from the candidate  INCOMPARABLE", name));
+        incomparable++;
+      }
+    }
+
+    if (regressions > 0) {
+      System.out.println(
+          regressions + " benchmark(s) regressed by more than " + threshold + "%");
+    }
+    if (incomparable > 0) {
+      System.out.println(incomparable + " benchmark(s) couldn't be compared with the baseline");
+    }
+    if (regressions > 0 || incomparable > 0) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * The results in a file by benchmark and parameters, e.g. {@code
+   * ItemIndexBenchmark.count{items=100000}}
+   */
+  private static Map<String, Result> read(File file) throws IOException {
+    Map<String, Result> results = new TreeMap<String, Result>();
+    for (JsonNode run : new ObjectMapper().readTree(file)) {
+      // Drop the package, the class and method names are enough to tell them apart
+      String benchmark = run.get("benchmark").asText();
+      int method = benchmark.lastIndexOf('.');
+      StringBuilder name =
+          new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', method - 1) + 1));
+      JsonNode params = run.get("params");
+      if (params != null) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+        while (fields.hasNext()) {
+          Map.Entry<String, JsonNode> param = fields.next();
+          sorted.put(param.getKey(), param.getValue().asText());
+        }
+        name.append(sorted);
+      }
+      String mode = run.get("mode").asText();
+      if (!mode.equals("avgt") && !mode.equals("thrpt")) {
+        name.append(" (").append(mode).append(')');
+      }
+
+      JsonNode metric = run.get("primaryMetric");
+      double error = metric.get("scoreError").asDouble();
+      results.put(
+          name.toString(),
+          new Result(
+              mode,
+              metric.get("score").asDouble(),
+              Double.isNaN(error) ? 0 : error,
+              metric.get("scoreUnit").asText()));
+    }
+    return results;
+  }
+
+  private static void printHelp() {
+    System.err.println("Usage: baseline.json candidate.json [threshold percentage]");
+    System.err.println("Threshold defaults to " + DEFAULT_THRESHOLD + "%");
+    System.exit(2);
+  }
+
+  private static class Result {
+    final String mode;
+    final double score;
+    final double error;
+    final String unit;
+
+    Result(String mode, double score, double error, String unit) {
+      this.mode = mode;
+      this.score = score;
+      this.error = error;
+      this.unit = unit;
+    }
+
+    /** Throughput goes up as things get faster, times go down */
+    boolean higherIsBetter() {
+      return mode.equals("thrpt");
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import java.io.IOException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** A searcher over a generated item index, shared by every thread of a benchmark. */
+@State(Scope.Benchmark)
+public class IndexState {
+  @Param({"100000", "1000000"})
+  public int items;
+
+  public IndexReader reader;
+  public IndexSearcher searcher;
+
+  @Setup(Level.Trial)
+  public void open() throws IOException {
+    reader = IndexReader.open(FSDirectory.open(ItemIndexFixture.ensure(items)));
+    searcher = new IndexSearcher(reader);
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws IOException {
+    searcher.close();
+    reader.close();
+  }
+}
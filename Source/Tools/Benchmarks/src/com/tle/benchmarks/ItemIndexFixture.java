@@ -0,0 +1,250 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import static com.tle.core.freetext.indexer.AbstractIndexingExtension.indexed;
+import static com.tle.core.freetext.indexer.AbstractIndexingExtension.keyword;
+import static com.tle.core.freetext.indexer.AbstractIndexingExtension.unstored;
+import static com.tle.core.freetext.indexer.AbstractIndexingExtension.unstoredAndVectored;
+
+import com.dytech.devlib.PropBagEx;
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.beans.entity.Schema;
+import com.tle.beans.item.ItemStatus;
+import com.tle.common.Triple;
+import com.tle.common.usermanagement.user.DefaultUserState;
+import com.tle.common.usermanagement.user.valuebean.DefaultUserBean;
+import com.tle.core.freetext.index.ItemIndex;
+import com.tle.freetext.LuceneConstants;
+import com.tle.freetext.TLEAnalyzer;
+import com.tle.freetext.XmlSchemaIndexer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.PerFieldAnalyzerWrapper;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Builds a Lucene index of synthetic items, with the same fields the standard indexer would write
+ * for them, ACL entries for the discover privilege and task assignments for sorting the task list.
+ *
+ * <p>Building a million items takes a while, so each index is written once to a directory named
+ * after its size and {@link #VERSION} and reused by later runs. Change the version whenever the
+ * generated documents change.
+ */
+@SuppressWarnings("nls")
+public final class ItemIndexFixture {
+  private static final Logger LOGGER = Logger.getLogger(ItemIndexFixture.class);
+
+  private static final int VERSION = 2;
+
+  public static final long INSTITUTION = 1;
+  public static final String PRIVILEGE = "DISCOVER_ITEM";
+  public static final String ACL_PREFIX = ItemIndex.convertStdPriv(PRIVILEGE);
+
+  /** Owners and task assignees are spread over this many users */
+  static final int USERS = 1000;
+
+  private static final int COLLECTIONS = 40;
+  private static final int ITEM_LEVEL_ACLS = 500;
+  private static final long OWNER_ACL = 10000;
+  private static final long NOT_OWNER_ACL = 10001;
+  private static final long ITEM_ACL_BASE = 20000;
+  /** Items share metadata records, so the schema only has to be indexed this many times */
+  private static final int METADATA_RECORDS = 2000;
+
+  private static final ItemStatus[] STATUSES = {
+    ItemStatus.LIVE,
+    ItemStatus.LIVE,
+    ItemStatus.LIVE,
+    ItemStatus.LIVE,
+    ItemStatus.DRAFT,
+    ItemStatus.MODERATING
+  };
+
+  private ItemIndexFixture() {
+    throw new Error();
+  }
+
+  /** @return the index directory, building the index first if it doesn't exist */
+  public static synchronized File ensure(int items) throws IOException {
+    File dir =
+        new File(
+            System.getProperty("benchmarks.dir", System.getProperty("java.io.tmpdir")),
+            "equella-benchmarks/items-" + items + "-v" + VERSION);
+    File done = new File(dir, "complete");
+    if (!done.exists()) {
+      build(dir, items);
+      if (!done.createNewFile()) {
+        throw new IOException("Could not mark index complete: " + done);
+      }
+    }
+    return dir;
+  }
+
+  /** Analyses fields the same way the item index does */
+  public static Analyzer analyzer() {
+    PerFieldAnalyzerWrapper analyzer = new PerFieldAnalyzerWrapper(new TLEAnalyzer(null, true));
+    Analyzer nonStemmed = new TLEAnalyzer(null, false);
+    analyzer.addAnalyzer(FreeTextQuery.FIELD_NAME_VECTORED_NOSTEM, nonStemmed);
+    analyzer.addAnalyzer(FreeTextQuery.FIELD_BODY_NOSTEM, nonStemmed);
+    analyzer.addAnalyzer(FreeTextQuery.FIELD_NAME_AUTOCOMPLETE, nonStemmed);
+    return analyzer;
+  }
+
+  public static String user(int user) {
+    return "user" + user;
+  }
+
+  /**
+   * A user who can discover items in half of the collections and some individually shared items,
+   * with owner only and non-owner only expressions as well.
+   */
+  public static DefaultUserState userState(int user) {
+    DefaultUserState state = new DefaultUserState();
+    state.setLoggedInUser(new DefaultUserBean(user(user), user(user), "Bench", "User", null));
+    state.getUsersGroups().add("group" + (user % 10));
+    Collection<Long> common = new ArrayList<Long>();
+    for (int c = 0; c < COLLECTIONS; c += 2) {
+      common.add(c * 4L);
+      common.add(c * 4L + 1);
+      common.add(c * 4L + 2);
+    }
+    for (int i = 0; i < ITEM_LEVEL_ACLS / 10; i++) {
+      common.add(ITEM_ACL_BASE + i);
+    }
+    List<Long> owner = new ArrayList<Long>();
+    owner.add(OWNER_ACL);
+    List<Long> notOwner = new ArrayList<Long>();
+    notOwner.add(NOT_OWNER_ACL);
+    state.setAclExpressions(
+        new Triple<Collection<Long>, Collection<Long>, Collection<Long>>(common, owner, notOwner));
+    return state;
+  }
+
+  private static void build(File dir, int items) throws IOException {
+    LOGGER.info("Building an index of " + items + " items in " + dir);
+    long start = System.currentTimeMillis();
+    List<List<Field>> metadata = indexMetadata();
+
+    FSDirectory directory = FSDirectory.open(dir);
+    IndexWriterConfig config = new IndexWriterConfig(LuceneConstants.LATEST_VERSION, analyzer());
+    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    config.setRAMBufferSizeMB(128);
+    try (IndexWriter writer = new IndexWriter(directory, config)) {
+      for (int i = 0; i < items; i++) {
+        writer.addDocument(document(i, metadata.get(i % METADATA_RECORDS)));
+      }
+      writer.forceMerge(4);
+    } finally {
+      directory.close();
+    }
+    LOGGER.info("Built in " + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  private static Document document(int i, List<Field> metadata) {
+    Random random = new Random(i);
+    Document doc = new Document();
+    // A few items belong to another institution
+    long institution = i % 20 == 19 ? INSTITUTION + 1 : INSTITUTION;
+    String name = MetadataFixture.words(random, 3 + random.nextInt(5));
+    String owner = user(i % USERS);
+
+    doc.add(keyword(FreeTextQuery.FIELD_INSTITUTION, "" + institution));
+    doc.add(keyword(FreeTextQuery.FIELD_UUID, "uuid-" + i));
+    doc.add(keyword(FreeTextQuery.FIELD_VERSION, "1"));
+    doc.add(keyword(FreeTextQuery.FIELD_UNIQUE, "uuid-" + i + "/1"));
+    doc.add(keyword(FreeTextQuery.FIELD_ID, Integer.toString(i)));
+    ItemStatus status = STATUSES[random.nextInt(STATUSES.length)];
+    doc.add(keyword(FreeTextQuery.FIELD_ITEMSTATUS, status.toString()));
+    doc.add(keyword(FreeTextQuery.FIELD_NAME, name));
+    doc.add(unstoredAndVectored(FreeTextQuery.FIELD_NAME_VECTORED, name));
+    doc.add(unstoredAndVectored(FreeTextQuery.FIELD_NAME_VECTORED_NOSTEM, name));
+    doc.add(unstored(FreeTextQuery.FIELD_ALL, "1"));
+    String body = MetadataFixture.words(random, 40);
+    doc.add(unstoredAndVectored(FreeTextQuery.FIELD_BODY, body));
+    doc.add(unstoredAndVectored(FreeTextQuery.FIELD_BODY_NOSTEM, body));
+    doc.add(indexed(FreeTextQuery.FIELD_OWNER, owner));
+
+    // Tasks are mostly assigned to someone, sometimes the owner
+    int assignee = random.nextInt(10);
+    doc.add(
+        keyword(
+            FreeTextQuery.FIELD_WORKFLOW_ASSIGNEDTO,
+            assignee < 3 ? "" : assignee == 3 ? owner : user(random.nextInt(USERS))));
+
+    // Entries in the order the ACL manager would return them, see IndexedItem
+    int collection = i % COLLECTIONS;
+    int order = 0;
+    if (random.nextInt(10) == 0) {
+      acl(doc, ITEM_ACL_BASE + random.nextInt(ITEM_LEVEL_ACLS), order++, 'G');
+    }
+    acl(doc, OWNER_ACL, order++, 'G');
+    if (random.nextInt(5) == 0) {
+      acl(doc, NOT_OWNER_ACL, order++, 'R');
+    }
+    acl(doc, collection * 4L + 1, order++, 'R');
+    acl(doc, collection * 4L, order++, 'G');
+    acl(doc, collection * 4L + 2, order++, 'G');
+    acl(doc, collection * 4L + 3, order, 'G');
+
+    for (Field field : metadata) {
+      doc.add(field);
+    }
+    return doc;
+  }
+
+  private static void acl(Document doc, long id, int order, char grant) {
+    doc.add(keyword(ACL_PREFIX + id, String.format("%03d%c", order, grant)));
+  }
+
+  /** The schema fields for each metadata record, as the standard indexer would add them */
+  private static List<List<Field>> indexMetadata() {
+    Schema schema = MetadataFixture.schema();
+    List<List<Field>> records = new ArrayList<List<Field>>(METADATA_RECORDS);
+    for (int i = 0; i < METADATA_RECORDS; i++) {
+      XmlSchemaIndexer indexer = new XmlSchemaIndexer();
+      indexer.indexChildNodes(
+          schema.getRootSchemaNode(),
+          schema.getItemNamePath(),
+          "",
+          "",
+          new PropBagEx(MetadataFixture.xml(i)));
+      List<Field> fields = new ArrayList<Field>(indexer.getIndexedFields());
+      for (String path : indexer.getPathsIndexed()) {
+        fields.add(indexed(FreeTextQuery.FIELD_ALL, path));
+      }
+      for (Map.Entry<String, StringBuilder> entry : indexer.getPathValuesMap().entrySet()) {
+        fields.add(unstored(entry.getKey() + '*', entry.getValue().toString()));
+      }
+      records.add(fields);
+    }
+    return records;
+  }
+}
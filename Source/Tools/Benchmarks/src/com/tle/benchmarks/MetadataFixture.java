@@ -0,0 +1,188 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.dytech.devlib.PropBagEx;
+import com.tle.beans.entity.Schema;
+import java.util.Random;
+
+/**
+ * Generates item metadata shaped like a typical LOM based collection: a name and description, a
+ * few subjects and keywords, an HTML summary and a handful of nested LOM sections, some of them
+ * repeated. Everything is derived from the item number, so every run sees the same documents.
+ */
+@SuppressWarnings("nls")
+public final class MetadataFixture {
+  public static final String ITEM_NAME_PATH = "/item/name";
+  public static final String SUBJECT_PATH = "/item/subject";
+  public static final String LANGUAGE_PATH = "/item/lom/general/language";
+
+  public static final String SCHEMA_DEFINITION =
+      "<xml><item>"
+          + "<name field=\"true\" search=\"true\" type=\"text\"/>"
+          + "<description search=\"true\" type=\"text\"/>"
+          + "<subject field=\"true\" search=\"true\" type=\"text\"/>"
+          + "<keywords><keyword field=\"true\" search=\"true\" type=\"text\"/></keywords>"
+          + "<summary search=\"true\" type=\"html\"/>"
+          + "<lom>"
+          + "<general>"
+          + "<identifier field=\"true\" type=\"text\">"
+          + "<catalog attribute=\"true\" field=\"true\" type=\"text\"/>"
+          + "</identifier>"
+          + "<title search=\"true\" type=\"text\"/>"
+          + "<language field=\"true\" type=\"text\"/>"
+          + "</general>"
+          + "<lifecycle><contribute>"
+          + "<role field=\"true\" type=\"text\"/>"
+          + "<entity field=\"true\" search=\"true\" type=\"text\"/>"
+          + "<date field=\"true\" type=\"text\"/>"
+          + "</contribute></lifecycle>"
+          + "<educational>"
+          + "<context field=\"true\" type=\"text\"/>"
+          + "<difficulty field=\"true\" type=\"text\"/>"
+          + "</educational>"
+          + "<rights><cost field=\"true\" type=\"text\"/><description type=\"text\"/></rights>"
+          + "</lom>"
+          + "</item></xml>";
+
+  static final String[] SUBJECTS = {
+    "Mathematics", "Physics", "Chemistry", "Biology", "Geography", "History", "Economics",
+    "Accounting", "Law", "Medicine", "Nursing", "Psychology", "Sociology", "Philosophy", "Music",
+    "Art", "Design", "Architecture", "Engineering", "Computing", "Statistics", "Education",
+    "Linguistics", "Literature", "Politics", "Marketing", "Management", "Agriculture",
+    "Astronomy", "Geology"
+  };
+
+  private static final String[] SYLLABLES = {
+    "ka", "lo", "mi", "ne", "ru", "ta", "vo", "sel", "dan", "pri", "con", "ex", "ter", "ma", "li",
+    "gra", "phy", "ol", "ist", "ent", "ure", "ion", "al", "ic", "or", "um", "en", "ra", "de", "sto"
+  };
+
+  /** About 5000 distinct words */
+  public static final String[] VOCABULARY = buildVocabulary(5000);
+
+  private static final String[] LANGUAGES = {"en", "en", "en", "fr", "de", "es", "zh", "ja"};
+  private static final String[] ROLES = {"author", "publisher", "editor", "validator"};
+  private static final String[] CONTEXTS = {"school", "higher education", "training", "other"};
+  private static final String[] DIFFICULTIES = {"very easy", "easy", "medium", "difficult"};
+
+  private MetadataFixture() {
+    throw new Error();
+  }
+
+  public static Schema schema() {
+    Schema schema = new Schema();
+    schema.setDefinition(new PropBagEx(SCHEMA_DEFINITION));
+    schema.setItemNamePath(ITEM_NAME_PATH);
+    return schema;
+  }
+
+  /** The metadata for the given item, the same every time it is asked for. */
+  public static String xml(int item) {
+    Random random = new Random(item);
+    StringBuilder xml = new StringBuilder(4096);
+    xml.append("<xml><item>");
+    element(xml, "name", words(random, 3 + random.nextInt(5)));
+    element(xml, "description", words(random, 20 + random.nextInt(60)));
+    int subjects = 1 + random.nextInt(3);
+    for (int i = 0; i < subjects; i++) {
+      element(xml, "subject", SUBJECTS[skewed(random, SUBJECTS.length)]);
+    }
+    xml.append("<keywords>");
+    int keywords = 2 + random.nextInt(6);
+    for (int i = 0; i < keywords; i++) {
+      element(xml, "keyword", words(random, 1 + random.nextInt(2)));
+    }
+    xml.append("</keywords>");
+    element(
+        xml,
+        "summary",
+        escape("<p>" + words(random, 30) + "</p><ul><li>" + words(random, 8) + "</li></ul>"));
+
+    xml.append("<lom><general>");
+    xml.append("<identifier catalog=\"ISBN\">978-").append(1000000 + item).append("</identifier>");
+    element(xml, "title", words(random, 4));
+    element(xml, "language", LANGUAGES[random.nextInt(LANGUAGES.length)]);
+    xml.append("</general><lifecycle>");
+    int contributors = 1 + random.nextInt(4);
+    for (int i = 0; i < contributors; i++) {
+      xml.append("<contribute>");
+      element(xml, "role", ROLES[random.nextInt(ROLES.length)]);
+      element(xml, "entity", "BEGIN:VCARD FN:" + words(random, 2) + " END:VCARD");
+      element(
+          xml,
+          "date",
+          String.format(
+              "%04d-%02d-%02d",
+              2000 + random.nextInt(20),
+              1 + random.nextInt(12),
+              1 + random.nextInt(28)));
+      xml.append("</contribute>");
+    }
+    xml.append("</lifecycle><educational>");
+    element(xml, "context", CONTEXTS[random.nextInt(CONTEXTS.length)]);
+    element(xml, "difficulty", DIFFICULTIES[random.nextInt(DIFFICULTIES.length)]);
+    xml.append("</educational><rights>");
+    element(xml, "cost", random.nextBoolean() ? "yes" : "no");
+    element(xml, "description", words(random, 12));
+    xml.append("</rights></lom>");
+    xml.append("</item></xml>");
+    return xml.toString();
+  }
+
+  /** Words drawn from {@link #VOCABULARY}, common words far more often than rare ones. */
+  static String words(Random random, int count) {
+    StringBuilder words = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        words.append(' ');
+      }
+      words.append(VOCABULARY[skewed(random, VOCABULARY.length)]);
+    }
+    return words.toString();
+  }
+
+  static int skewed(Random random, int size) {
+    double d = random.nextDouble();
+    return (int) (size * d * d * d);
+  }
+
+  private static void element(StringBuilder xml, String name, String value) {
+    xml.append('<').append(name).append('>').append(value).append("</").append(name).append('>');
+  }
+
+  private static String escape(String html) {
+    return html.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+
+  private static String[] buildVocabulary(int size) {
+    String[] words = new String[size];
+    Random random = new Random(0);
+    for (int i = 0; i < size; i++) {
+      StringBuilder word = new StringBuilder();
+      int syllables = 2 + random.nextInt(3);
+      for (int s = 0; s < syllables; s++) {
+        word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+      }
+      // Keep the words distinct
+      words[i] = word.append(Integer.toString(i, 36)).toString();
+    }
+    return words;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.dytech.devlib.PropBagEx;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing item metadata and reading it back the ways the wizard, display templates and scripts
+ * do: single values, repeated values, counts, attributes and iterating repeated sections.
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PropBagExBenchmark {
+  private static final int RECORDS = 100;
+
+  private final String[] xml = new String[RECORDS];
+  private final PropBagEx[] bags = new PropBagEx[RECORDS];
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    for (int i = 0; i < RECORDS; i++) {
+      xml[i] = MetadataFixture.xml(i);
+      bags[i] = new PropBagEx(xml[i]);
+    }
+  }
+
+  @Benchmark
+  public PropBagEx parse() {
+    return new PropBagEx(xml[nextRecord()]);
+  }
+
+  @Benchmark
+  public int read() {
+    PropBagEx bag = bags[nextRecord()];
+    int size = bag.getNode("item/name").length();
+    size += bag.getNode("item/lom/general/identifier/@catalog").length();
+    size += bag.getNode("item/lom/educational/difficulty", "").length();
+    size += bag.getNodeList("item/keywords/keyword").size();
+    size += bag.nodeCount("item/subject");
+    for (PropBagEx contribute : bag.iterateAll("item/lom/lifecycle/contribute")) {
+      size += contribute.getNode("entity").length();
+      size += contribute.getNode("role").length();
+    }
+    return size;
+  }
+
+  @Benchmark
+  public String write() {
+    return bags[nextRecord()].toString();
+  }
+
+  private int nextRecord() {
+    next = (next + 1) % RECORDS;
+    return next;
+  }
+}
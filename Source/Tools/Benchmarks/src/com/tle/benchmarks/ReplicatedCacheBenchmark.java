@@ -0,0 +1,177 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.google.common.base.Optional;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.tle.core.events.services.EventService;
+import com.tle.core.replicatedcache.ReplicatedCacheService;
+import com.tle.core.replicatedcache.ReplicatedCacheService.ReplicatedCache;
+import com.tle.core.replicatedcache.dao.CachedValue;
+import com.tle.core.replicatedcache.dao.ReplicatedCacheDao;
+import com.tle.core.replicatedcache.impl.ReplicatedCacheServiceImpl;
+import com.tle.core.zookeeper.ZookeeperService;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and writing a replicated cache on a single server and on a cluster member. The database
+ * and Zookeeper are replaced with in-memory stand-ins, so on a cluster this measures the service's
+ * own overhead (local cache handling and serialization) rather than the round trip to the
+ * database.
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplicatedCacheBenchmark {
+  private static final int KEYS = 1000;
+
+  @Param({"false", "true"})
+  public boolean cluster;
+
+  private ReplicatedCache<LinkedHashMap<String, String>> cache;
+  private int next;
+  private int version;
+
+  @Setup(Level.Trial)
+  public void setUp(UserContext user) {
+    final ReplicatedCacheDao dao = fake(ReplicatedCacheDao.class, new InMemoryDao());
+    final EventService eventService =
+        fake(
+            EventService.class,
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                // Nobody else to tell
+                return null;
+              }
+            });
+    final ZookeeperService zookeeperService =
+        fake(
+            ZookeeperService.class,
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("isCluster")) {
+                  return cluster;
+                }
+                throw new UnsupportedOperationException(method.getName());
+              }
+            });
+
+    ReplicatedCacheService service =
+        Guice.createInjector(
+                new AbstractModule() {
+                  @Override
+                  protected void configure() {
+                    bind(ReplicatedCacheDao.class).toInstance(dao);
+                    bind(EventService.class).toInstance(eventService);
+                    bind(ZookeeperService.class).toInstance(zookeeperService);
+                  }
+                })
+            .getInstance(ReplicatedCacheServiceImpl.class);
+    cache = service.getCache("benchmark", KEYS, 1, TimeUnit.HOURS);
+    for (int i = 0; i < KEYS; i++) {
+      cache.put(key(i), value(i));
+    }
+  }
+
+  @Benchmark
+  public Optional<LinkedHashMap<String, String>> get(UserContext user) {
+    next = (next + 1) % KEYS;
+    return cache.get(key(next));
+  }
+
+  @Benchmark
+  public void put(UserContext user) {
+    next = (next + 1) % KEYS;
+    // A changed value every time, unchanged values are not written
+    cache.put(key(next), value(version++));
+  }
+
+  private static String key(int i) {
+    return "session-" + i;
+  }
+
+  /** Something the size of the details kept for a login session */
+  private static LinkedHashMap<String, String> value(int i) {
+    LinkedHashMap<String, String> value = new LinkedHashMap<String, String>();
+    for (int attr = 0; attr < 20; attr++) {
+      String word = MetadataFixture.VOCABULARY[(i + attr) % MetadataFixture.VOCABULARY.length];
+      value.put("attribute" + attr, word + i);
+    }
+    return value;
+  }
+
+  private static <T> T fake(Class<T> type, InvocationHandler handler) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            ReplicatedCacheBenchmark.class.getClassLoader(), new Class<?>[] {type}, handler));
+  }
+
+  /** The parts of the DAO the cache uses, kept in a map. */
+  private static class InMemoryDao implements InvocationHandler {
+    private final Map<String, CachedValue> values = new ConcurrentHashMap<String, CachedValue>();
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String name = method.getName();
+      if (name.equals("get")) {
+        return values.get(args[0] + "/" + args[1]);
+      } else if (name.equals("put")) {
+        CachedValue cv = new CachedValue();
+        cv.setCacheId((String) args[0]);
+        cv.setKey((String) args[1]);
+        cv.setTtl((Date) args[2]);
+        cv.setValue((byte[]) args[3]);
+        values.put(args[0] + "/" + args[1], cv);
+        return null;
+      } else if (name.equals("invalidate")) {
+        for (String key : (String[]) args[1]) {
+          values.remove(args[0] + "/" + key);
+        }
+        return null;
+      }
+      throw new UnsupportedOperationException(name);
+    }
+  }
+}
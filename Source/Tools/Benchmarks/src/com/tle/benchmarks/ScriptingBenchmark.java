@@ -0,0 +1,97 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.dytech.devlib.PropBagEx;
+import com.dytech.edge.common.PropBagWrapper;
+import com.dytech.edge.common.ScriptContext;
+import com.tle.core.scripting.DefaultScriptContext;
+import com.tle.core.scripting.service.ScriptingServiceImpl;
+import com.tle.core.services.Log4JLoggingService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Running the sort of script a collection's wizard uses to show or hide a control, and the sort
+ * a display template uses to build some text from the metadata. Pages with many controls run the
+ * first kind many times per request.
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ScriptingBenchmark {
+  private static final String VISIBILITY_SCRIPT =
+      "var ret = false;\n"
+          + "if (xml.contains('/item/subject', 'Mathematics')"
+          + " || xml.count('/item/keywords/keyword') > 4) {\n"
+          + "  ret = true;\n"
+          + "}\n"
+          + "return ret;";
+
+  private static final String DISPLAY_SCRIPT =
+      "var authors = [];\n"
+          + "var roles = xml.list('/item/lom/lifecycle/contribute/role');\n"
+          + "var entities = xml.list('/item/lom/lifecycle/contribute/entity');\n"
+          + "for (var i = 0; i < roles.size(); i++) {\n"
+          + "  if (roles.get(i) == 'author') {\n"
+          + "    authors.push(entities.get(i).replace(/BEGIN:VCARD FN:| END:VCARD/g, ''));\n"
+          + "  }\n"
+          + "}\n"
+          + "return xml.get('/item/name') + ' (' + xml.get('/item/lom/general/language') + ')'"
+          + " + (authors.length > 0 ? ' by ' + authors.join(', ') : '');";
+
+  private ScriptingServiceImpl scriptingService;
+  private ScriptContext context;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    scriptingService = new ScriptingServiceImpl();
+    Map<String, Object> scriptObjects = new HashMap<String, Object>();
+    PropBagWrapper xml = new PropBagWrapper(new PropBagEx(MetadataFixture.xml(1)));
+    scriptObjects.put("xml", xml);
+    context = new DefaultScriptContext(scriptObjects, new HashMap<String, Object>(), xml);
+    context.setLogger(new Log4JLoggingService().getLogger(ScriptingBenchmark.class));
+  }
+
+  @Benchmark
+  public boolean visibility() {
+    return scriptingService.evaluateScript(VISIBILITY_SCRIPT, "visibility", context);
+  }
+
+  @Benchmark
+  public Object display() {
+    return scriptingService.executeScript(DISPLAY_SCRIPT, "display", context, true, String.class);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.core.workflow.freetext.CustomLuceneSortComparator;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sorting the task list with the tasks assigned to the current user first, then unassigned tasks,
+ * as {@code TaskSortSection} does, across every document in the generated index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TaskSortBenchmark {
+  private static final int PAGE_SIZE = 50;
+
+  @Benchmark
+  public TopDocs sortByAssignee(IndexState index) throws IOException {
+    final String userId = ItemIndexFixture.user(UserContext.USER);
+    Sort sort =
+        new Sort(
+            new SortField(
+                FreeTextQuery.FIELD_WORKFLOW_ASSIGNEDTO,
+                new FieldComparatorSource() {
+                  @Override
+                  public FieldComparator<Integer> newComparator(
+                      String fieldName, int numHits, int sortPos, boolean reversed) {
+                    return new CustomLuceneSortComparator(numHits, fieldName, userId);
+                  }
+                }),
+            new SortField(FreeTextQuery.FIELD_NAME, SortField.STRING));
+    return index.searcher.search(
+        new TermQuery(new Term(FreeTextQuery.FIELD_ALL, "1")), null, PAGE_SIZE, sort);
+  }
+}
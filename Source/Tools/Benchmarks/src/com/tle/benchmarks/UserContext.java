@@ -0,0 +1,57 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.tle.beans.Institution;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.UserState;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Logs a user into the benchmark institution for the thread running the benchmark, as the web
+ * filters would for a request.
+ */
+@State(Scope.Thread)
+public class UserContext {
+  public static final int USER = 0;
+
+  public UserState userState;
+  public Institution institution;
+
+  @Setup(Level.Trial)
+  public void login() {
+    institution = new Institution();
+    institution.setUniqueId(ItemIndexFixture.INSTITUTION);
+    institution.setUrl("http://localhost/bench/");
+    userState = ItemIndexFixture.userState(USER);
+    CurrentInstitution.set(institution);
+    CurrentUser.setUserState(userState);
+  }
+
+  @TearDown(Level.Trial)
+  public void logout() {
+    CurrentUser.setUserState(null);
+    CurrentInstitution.remove();
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.dytech.devlib.PropBagEx;
+import com.tle.beans.entity.Schema;
+import com.tle.freetext.XmlSchemaIndexer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.document.Field;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Turning an item's metadata into index fields against its schema, once per item indexed. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class XmlSchemaIndexerBenchmark {
+  private static final int RECORDS = 100;
+
+  private final PropBagEx[] bags = new PropBagEx[RECORDS];
+  private Schema schema;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    schema = MetadataFixture.schema();
+    for (int i = 0; i < RECORDS; i++) {
+      bags[i] = new PropBagEx(MetadataFixture.xml(i));
+    }
+  }
+
+  @Benchmark
+  public List<Field> index() {
+    next = (next + 1) % RECORDS;
+    XmlSchemaIndexer indexer = new XmlSchemaIndexer();
+    indexer.indexChildNodes(
+        schema.getRootSchemaNode(), schema.getItemNamePath(), "", "", bags[next]);
+    return indexer.getIndexedFields();
+  }
+}
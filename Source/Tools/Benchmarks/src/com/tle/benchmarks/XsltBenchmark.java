@@ -0,0 +1,100 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.dytech.devlib.PropBagEx;
+import com.tle.core.xslt.service.impl.XsltServiceImpl;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering an item summary display template from its metadata. The compiled template is cached
+ * by the service after the first call, so this measures the transform itself.
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class XsltBenchmark {
+  private static final int RECORDS = 100;
+
+  private static final String XSLT =
+      "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+          + "<xsl:output method=\"html\" omit-xml-declaration=\"yes\"/>"
+          + "<xsl:template match=\"/xml/item\">"
+          + "<div class=\"summary\">"
+          + "<h3><xsl:value-of select=\"name\"/></h3>"
+          + "<p><xsl:value-of select=\"description\"/></p>"
+          + "<dl>"
+          + "<dt>Subjects</dt>"
+          + "<dd><xsl:for-each select=\"subject\">"
+          + "<xsl:value-of select=\".\"/><xsl:if test=\"position() != last()\">, </xsl:if>"
+          + "</xsl:for-each></dd>"
+          + "<dt>Keywords</dt>"
+          + "<dd><ul><xsl:for-each select=\"keywords/keyword\">"
+          + "<xsl:sort select=\".\"/><li><xsl:value-of select=\".\"/></li>"
+          + "</xsl:for-each></ul></dd>"
+          + "<dt>Contributors</dt>"
+          + "<dd><table><xsl:for-each select=\"lom/lifecycle/contribute\">"
+          + "<tr><td><xsl:value-of select=\"role\"/></td>"
+          + "<td><xsl:value-of select=\"substring-before(substring-after(entity, 'FN:'),"
+          + " ' END:VCARD')\"/></td>"
+          + "<td><xsl:value-of select=\"date\"/></td></tr>"
+          + "</xsl:for-each></table></dd>"
+          + "<xsl:if test=\"lom/general/identifier/@catalog = 'ISBN'\">"
+          + "<dt>ISBN</dt><dd><xsl:value-of select=\"lom/general/identifier\"/></dd>"
+          + "</xsl:if>"
+          + "</dl>"
+          + "<div class=\"html\"><xsl:value-of select=\"summary\" disable-output-escaping=\"yes\"/>"
+          + "</div>"
+          + "</div>"
+          + "</xsl:template>"
+          + "</xsl:stylesheet>";
+
+  private final PropBagEx[] bags = new PropBagEx[RECORDS];
+  private XsltServiceImpl xsltService;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    xsltService = new XsltServiceImpl();
+    for (int i = 0; i < RECORDS; i++) {
+      bags[i] = new PropBagEx(MetadataFixture.xml(i));
+    }
+  }
+
+  @Benchmark
+  public String transform() {
+    next = (next + 1) % RECORDS;
+    return xsltService.transformFromXsltString(XSLT, bags[next]);
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmarks;
+
+import com.tle.core.filesystem.zip.ParallelZipExtractor;
+import com.tle.core.filesystem.zip.ParallelZipWriter;
+import com.tle.core.filesystem.zip.ZipIndex;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Zipping up and unzipping an item's files, as export, import and the zip attachment handling do,
+ * with the compression spread over the given number of threads. The files are a mix of HTML
+ * pages, images that don't compress and a few large documents.
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ZipBenchmark {
+  private static final int PAGES = 200;
+  private static final int IMAGES = 40;
+  private static final int DOCUMENTS = 4;
+
+  @Param({"1", "4"})
+  public int parallelism;
+
+  private ExecutorService executor;
+  private File dir;
+  private File source;
+  private File zip;
+  private File extracted;
+  private final List<String> files = new ArrayList<String>();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    executor = Executors.newFixedThreadPool(parallelism);
+    dir = Files.createTempDirectory("zipbenchmark").toFile();
+    source = new File(dir, "source");
+    zip = new File(dir, "item.zip");
+    extracted = new File(dir, "extracted");
+
+    Random random = new Random(0);
+    for (int i = 0; i < PAGES; i++) {
+      write(
+          "pages/page" + i + ".html",
+          ("<html><body><p>" + MetadataFixture.words(random, 500) + "</p></body></html>")
+              .getBytes(StandardCharsets.UTF_8));
+    }
+    for (int i = 0; i < IMAGES; i++) {
+      byte[] image = new byte[50000 + random.nextInt(200000)];
+      random.nextBytes(image);
+      write("images/image" + i + ".jpg", image);
+    }
+    for (int i = 0; i < DOCUMENTS; i++) {
+      StringBuilder document = new StringBuilder();
+      while (document.length() < 2000000) {
+        document.append(MetadataFixture.words(random, 100)).append('\n');
+      }
+      write(
+          "documents/document" + i + ".txt",
+          document.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    // Something to extract
+    writeZip();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    executor.shutdownNow();
+    delete(dir);
+  }
+
+  @TearDown(Level.Invocation)
+  public void clean() {
+    delete(extracted);
+  }
+
+  @Benchmark
+  public long zip() throws IOException {
+    writeZip();
+    return zip.length();
+  }
+
+  @Benchmark
+  public File unzip() throws IOException {
+    new ParallelZipExtractor(executor, parallelism)
+        .extract(ZipIndex.read(zip, StandardCharsets.UTF_8), extracted, null);
+    return extracted;
+  }
+
+  private void writeZip() throws IOException {
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(new FileOutputStream(zip), executor, parallelism, null)) {
+      for (String name : files) {
+        writer.addFile(name, new File(source, name));
+      }
+    }
+  }
+
+  private void write(String name, byte[] data) throws IOException {
+    File file = new File(source, name);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), data);
+    files.add(name);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
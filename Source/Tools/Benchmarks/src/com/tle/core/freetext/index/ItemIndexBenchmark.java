@@ -0,0 +1,155 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.google.common.collect.Multimap;
+import com.tle.beans.item.ItemStatus;
+import com.tle.benchmarks.IndexState;
+import com.tle.benchmarks.ItemIndexFixture;
+import com.tle.benchmarks.MetadataFixture;
+import com.tle.benchmarks.UserContext;
+import com.tle.common.Pair;
+import com.tle.common.search.DefaultSearch;
+import com.tle.core.freetext.filters.SecurityFilter;
+import com.tle.core.freetext.index.ItemIndex.BitSetCollector;
+import com.tle.freetext.LuceneConstants;
+import com.tle.freetext.TLEQueryParser;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.SetBasedFieldSelector;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Lucene work behind {@code ItemIndex.search}, {@code count} and {@code facetCount} for a
+ * logged in user, over a generated index. The index engine itself needs the whole server to set
+ * up, so this calls the static parts of it that build the filters and count the facets, and only
+ * repeats the query parsing, sorting and result loading around them.
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ItemIndexBenchmark {
+  private static final int PAGE_SIZE = 50;
+  private static final String[] SEARCH_FIELDS =
+      FreeTextQuery.BASIC_NAME_BODY_ATTACHMENT_FIELDS.toArray(new String[0]);
+  private static final Analyzer ANALYZER = ItemIndexFixture.analyzer();
+  private static final List<String> FACETS =
+      Arrays.asList(MetadataFixture.SUBJECT_PATH, MetadataFixture.LANGUAGE_PATH);
+
+  @Benchmark
+  public List<String> searchAll(IndexState index, UserContext user) throws IOException {
+    Query query = new TermQuery(new Term(FreeTextQuery.FIELD_ALL, "1"));
+    Sort sort = new Sort(new SortField(FreeTextQuery.FIELD_NAME, SortField.STRING));
+    return page(index, index.searcher.search(query, filter(), PAGE_SIZE, sort));
+  }
+
+  @Benchmark
+  public List<String> searchKeywords(IndexState index, UserContext user)
+      throws IOException, ParseException {
+    Sort sort = new Sort(new SortField(null, SortField.SCORE, false));
+    return page(index, index.searcher.search(keywordQuery(), filter(), PAGE_SIZE, sort));
+  }
+
+  @Benchmark
+  public int count(IndexState index, UserContext user) throws IOException, ParseException {
+    TotalHitCountCollector hitCount = new TotalHitCountCollector();
+    index.searcher.search(keywordQuery(), filter(), hitCount);
+    return hitCount.getTotalHits();
+  }
+
+  @Benchmark
+  public Multimap<String, Pair<String, Integer>> facetCount(IndexState index, UserContext user)
+      throws IOException {
+    BitSetCollector collector = new BitSetCollector();
+    index.searcher.search(
+        new TermQuery(new Term(FreeTextQuery.FIELD_ALL, "1")), filter(), collector);
+    return ItemIndex.countFacets(index.reader, collector.getBitSet(), FACETS);
+  }
+
+  @Benchmark
+  public DocIdSet securityFilter(IndexState index, UserContext user) throws IOException {
+    return new SecurityFilter(ItemIndexFixture.ACL_PREFIX).getDocIdSet(index.reader);
+  }
+
+  /** Only live items the user can discover in the current institution, as the search page asks */
+  private static Filter filter() {
+    DefaultSearch search = new DefaultSearch();
+    search.setItemStatuses(ItemStatus.LIVE);
+    return ItemIndex.chainFilters(ItemIndex.getFilters(search, ItemIndexFixture.ACL_PREFIX));
+  }
+
+  /** A two word query with one common and one less common word, parsed as the search page does */
+  private static Query keywordQuery() throws ParseException {
+    Map<String, Float> boosts = new HashMap<String, Float>();
+    for (String field : SEARCH_FIELDS) {
+      boosts.put(field, 1f);
+    }
+    TLEQueryParser parser =
+        new TLEQueryParser(LuceneConstants.LATEST_VERSION, SEARCH_FIELDS, ANALYZER, boosts);
+    parser.setDefaultOperator(TLEQueryParser.AND_OPERATOR);
+    BooleanQuery query = new BooleanQuery(true);
+    query.add(
+        parser.parse(MetadataFixture.VOCABULARY[3] + " " + MetadataFixture.VOCABULARY[400]),
+        Occur.SHOULD);
+    return query;
+  }
+
+  /** Loads the keys of the page of results, as the results are turned into items */
+  private static List<String> page(IndexState index, TopDocs hits) throws IOException {
+    SetBasedFieldSelector keys =
+        new SetBasedFieldSelector(
+            new HashSet<String>(Arrays.asList(FreeTextQuery.FIELD_UNIQUE, FreeTextQuery.FIELD_ID)),
+            new HashSet<String>());
+    List<String> page = new ArrayList<String>();
+    for (ScoreDoc doc : hits.scoreDocs) {
+      page.add(index.searcher.doc(doc.doc, keys).get(FreeTextQuery.FIELD_UNIQUE));
+    }
+    return page;
+  }
+}
@@ -0,0 +1,53 @@
+import org.objectweb.asm.{AnnotationVisitor, ClassReader, ClassVisitor, Opcodes}
+import sbt._
+import sbt.io.Using
+
+/**
+  * Finds the classes that ScannerModule binds in the Guice injector of a plugin, so that the
+  * plugin jar can carry the list instead of every class being parsed at startup.
+  */
+object BindingIndex {
+
+  /** Where ScannerModule looks for the index, relative to a code library */
+  val IndexPath = "META-INF/equella/bindings.idx"
+
+  // Keep in step with ScannerModule
+  private val BindAnnotations = Set("Lcom/tle/core/guice/Bind;",
+                                    "Lcom/tle/core/guice/Bindings;",
+                                    "Lcom/tle/core/guice/BindFactory;")
+
+  def bindingClasses(codeDirs: Seq[File]): Seq[String] =
+    codeDirs
+      .flatMap(d => (d ** "*.class").get)
+      .flatMap { f =>
+        Using.fileInputStream(f) { in =>
+          val visitor = new BindVisitor
+          val skip    = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES
+          new ClassReader(in).accept(visitor, skip)
+          visitor.binding
+        }
+      }
+      .sorted
+
+  def write(codeDirs: Seq[File], out: File): Unit =
+    IO.writeLines(out, bindingClasses(codeDirs))
+
+  private class BindVisitor extends ClassVisitor(Opcodes.ASM9) {
+    var name: String            = _
+    var bind                    = false
+    def binding: Option[String] = if (bind) Some(name) else None
+
+    override def visit(version: Int,
+                       access: Int,
+                       name: String,
+                       signature: String,
+                       superName: String,
+                       interfaces: Array[String]): Unit =
+      this.name = name.replace('/', '.')
+
+    override def visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor = {
+      if (BindAnnotations(desc)) bind = true
+      null
+    }
+  }
+}
@@ -46,9 +46,17 @@ object JPFRunnerPlugin extends AutoPlugin {
                 allJars.map(f => JPFLibrary(f._1.getName, "code", f._2, Some("*")))
               val (id, manifest) = writeJPF(r.manifest, libs)
               val outJar         = outBase / s"$id.jar"
-              IO.withTemporaryFile("jpf", "xml") { tf =>
+              IO.withTemporaryDirectory { td =>
+                val tf = td / "plugin-jpf.xml"
                 IO.write(tf, manifest)
-                val allFiles = (tf, "plugin-jpf.xml") +: (allCode ++ allResources ++ allJars)
+                // Saves ScannerModule from parsing every class when the plugin starts
+                val index = allCode.headOption.map { _ =>
+                  val indexFile = td / "bindings.idx"
+                  BindingIndex.write(r.code, indexFile)
+                  (indexFile, "classes/" + BindingIndex.IndexPath)
+                }
+                val allFiles =
+                  (tf, "plugin-jpf.xml") +: (allCode ++ index ++ allResources ++ allJars)
                 IO.zip(allFiles, outJar)
               }
               ManifestWritten(outJar, id, r.group)